@@ -88,9 +88,13 @@ public class ParamReader {
         { "runConfig/threadStart/delay", "fd" },
         { "runConfig/threadStart/simultaneous", "fd" },
         { "runConfig/threadStart/parallel", "fd" },
+        { "runConfig/threadStart/virtual", "fd" },
         { "runConfig/stats", "fd" },
         { "runConfig/stats/maxRunTime", "fd" },
         { "runConfig/stats/interval", "fd" },
+        { "runConfig/stats/histogramDigits", "fd" },
+        { "runConfig/stats/traceTransactions", "fd" },
+        { "runConfig/stats/wireTiming", "fd" },
         { "runConfig/runtimeStats", "fd" },
         { "runConfig/runtimeStats/interval", "fd" },
         { "runConfig/driverConfig", "fd" },
@@ -99,6 +103,11 @@ public class ParamReader {
         { "runConfig/driverConfig/stats/interval", "fd" },
         { "runConfig/driverConfig/runtimeStats", "fd" },
         { "runConfig/driverConfig/metric", "fd"},
+        { "runConfig/driverConfig/arrivalRate", "fd" },
+        { "runConfig/driverConfig/arrivalRate/constant", "fd" },
+        { "runConfig/driverConfig/arrivalRate/poisson", "fd" },
+        { "runConfig/driverConfig/arrivalRate/step", "fd" },
+        { "runConfig/driverConfig/arrivalRate/step/rate", "fd" },
         { "//requestLagTime", "fd" },
         { "//requestLagTime/FixedTime", "fd" },
         { "//requestLagTime/FixedTime/cycleType", "fd" },
@@ -0,0 +1,401 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.common;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The binary result store is written by the master alongside summary.xml
+ * and detail.xan. It holds the per-operation summary and the series and
+ * histograms of the detail report in a versioned, columnar layout. Each
+ * series is stored as one contiguous array per operation so it can be
+ * read in bulk from a memory-mapped file, without parsing text. The
+ * detail.xan text can be generated from the store on demand.<p>
+ *
+ * All values are big-endian. Strings are stored as an int byte count
+ * followed by the UTF-8 bytes. Arrays are stored as an int length
+ * followed by the elements.
+ */
+public class ResultStore {
+
+    /** The name of the result store file in the run output directory. */
+    public static final String FILE_NAME = "results.fbr";
+
+    /** The magic number identifying a result store, "FBRS". */
+    public static final int MAGIC = 0x46425253;
+
+    /** The version of the store layout written by this class. */
+    public static final int VERSION = 1;
+
+    /** The benchmark name. */
+    public String benchName;
+
+    /** The run id. */
+    public String runId;
+
+    /** The run start time, in ms since the epoch. */
+    public long startTime;
+
+    /** The run end time, in ms since the epoch. */
+    public long endTime;
+
+    /** The benchmark metric. */
+    public double metric;
+
+    /** The unit of the benchmark metric. */
+    public String metricUnit;
+
+    /** Whether the run passed. */
+    public boolean passed;
+
+    /** The results of each driver. */
+    public Driver[] drivers;
+
+    /**
+     * The results of one driver. The series and histograms are indexed by
+     * operation, then by interval or bucket.
+     */
+    public static class Driver {
+
+        /** The driver name. */
+        public String name;
+
+        /** The response time unit, e.g. "seconds". */
+        public String responseUnit;
+
+        /** The operation names. */
+        public String[] operations;
+
+        /** The average steady state response time of each operation. */
+        public double[] avgResponse;
+
+        /** The percentile names, e.g. "90" for the 90th percentile. */
+        public String[] percentileNames;
+
+        /** The response time percentiles, by percentile and operation. */
+        public double[][] percentiles;
+
+        /** The graph interval of the throughput and response series, in s. */
+        public double graphInterval;
+
+        /** The throughput of each interval, in operations per second. */
+        public double[][] throughput;
+
+        /** The average response time of each interval. */
+        public double[][] response;
+
+        /** The size of a response time histogram bucket. */
+        public double responseBucket;
+
+        /** The response time histogram. */
+        public int[][] responseHistogram;
+
+        /** The size of a cycle/think time histogram bucket, in s. */
+        public double delayBucket;
+
+        /** The actual cycle/think time histogram. */
+        public int[][] delayHistogram;
+
+        /** The targeted cycle/think time histogram. */
+        public int[][] targetedDelayHistogram;
+
+        /**
+         * Prints this driver's results in the detail.xan text format.
+         * @param b The buffer to print into
+         */
+        public void printDetail(StringBuilder b) {
+            printSeries(b, "Throughput", "%.2f", throughput);
+            printSeries(b, "Response Times (" + responseUnit + ")", "%.6f",
+                        response);
+            printHistogram(b, "Frequency Distribution of Response Times (" +
+                           responseUnit + ")", responseBucket, "%.5f",
+                           responseHistogram);
+            printHistogram(b, "Frequency Distribution of Cycle/Think " +
+                           "Times (seconds)", delayBucket, "%.3f",
+                           delayHistogram);
+            printHistogram(b, "Frequency Distribution of Targeted " +
+                           "Cycle/Think Times (seconds)", delayBucket, "%.3f",
+                           targetedDelayHistogram);
+        }
+
+        private void printSeries(StringBuilder b, String label,
+                                 String dataFormat, double[][] series) {
+            int rows = operations.length == 0 ? 0 : series[0].length;
+            TextTable table = printHeader(b, label, "Time (s)", rows);
+            for (int i = 0; i < rows; i++) {
+                table.setField(i, 0, String.format("%.0f",
+                                                   graphInterval * i));
+                for (int j = 0; j < operations.length; j++)
+                    table.setField(i, j + 1,
+                            String.format(dataFormat, series[j][i]));
+            }
+            table.format(b);
+            b.append('\n');
+        }
+
+        private void printHistogram(StringBuilder b, String label,
+                                    double unit, String unitFormat,
+                                    int[][] histogram) {
+            int rows = operations.length == 0 ? 0 : histogram[0].length;
+            TextTable table = printHeader(b, label, "Time", rows);
+            for (int i = 0; i < rows; i++) {
+                table.setField(i, 0, String.format(unitFormat, unit * i));
+                for (int j = 0; j < operations.length; j++)
+                    table.setField(i, j + 1,
+                                   String.valueOf(histogram[j][i]));
+            }
+            table.format(b);
+            b.append('\n');
+        }
+
+        private TextTable printHeader(StringBuilder b, String label,
+                                      String xHeader, int rows) {
+            b.append("Section: ").append(name).append(' ').append(label).
+                    append('\n');
+            b.append("Display: Line\n");
+            TextTable table = new TextTable(rows, operations.length + 1);
+            table.setHeader(0, xHeader);
+            for (int j = 0; j < operations.length; j++)
+                table.setHeader(j + 1, operations[j]);
+            return table;
+        }
+    }
+
+    /**
+     * Writes the result store.
+     * @param file The file to write to
+     * @throws IOException If the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, benchName);
+            writeString(out, runId);
+            out.writeLong(startTime);
+            out.writeLong(endTime);
+            out.writeDouble(metric);
+            writeString(out, metricUnit);
+            out.writeBoolean(passed);
+            out.writeInt(drivers.length);
+            for (Driver d : drivers) {
+                writeString(out, d.name);
+                writeString(out, d.responseUnit);
+                out.writeInt(d.operations.length);
+                for (String op : d.operations)
+                    writeString(out, op);
+                writeDoubles(out, d.avgResponse);
+                out.writeInt(d.percentileNames.length);
+                for (int i = 0; i < d.percentileNames.length; i++) {
+                    writeString(out, d.percentileNames[i]);
+                    writeDoubles(out, d.percentiles[i]);
+                }
+                out.writeDouble(d.graphInterval);
+                for (int i = 0; i < d.operations.length; i++)
+                    writeDoubles(out, d.throughput[i]);
+                for (int i = 0; i < d.operations.length; i++)
+                    writeDoubles(out, d.response[i]);
+                out.writeDouble(d.responseBucket);
+                for (int i = 0; i < d.operations.length; i++)
+                    writeInts(out, d.responseHistogram[i]);
+                out.writeDouble(d.delayBucket);
+                for (int i = 0; i < d.operations.length; i++)
+                    writeInts(out, d.delayHistogram[i]);
+                for (int i = 0; i < d.operations.length; i++)
+                    writeInts(out, d.targetedDelayHistogram[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a result store through a memory-mapped buffer.
+     * @param file The file to read
+     * @return The result store
+     * @throws IOException If the file cannot be read or is not a result
+     *         store of a supported version
+     */
+    public static ResultStore read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                            channel.size());
+            return read(buffer);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a result store from a buffer.
+     * @param buffer The buffer holding the result store
+     * @return The result store
+     * @throws IOException If the buffer is not a result store of a
+     *         supported version
+     */
+    public static ResultStore read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not a result store.");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported result store version " +
+                                      version + '.');
+            ResultStore store = new ResultStore();
+            store.benchName = readString(buffer);
+            store.runId = readString(buffer);
+            store.startTime = buffer.getLong();
+            store.endTime = buffer.getLong();
+            store.metric = buffer.getDouble();
+            store.metricUnit = readString(buffer);
+            store.passed = buffer.get() != 0;
+            store.drivers = new Driver[readLength(buffer, 4)];
+            for (int k = 0; k < store.drivers.length; k++) {
+                Driver d = new Driver();
+                d.name = readString(buffer);
+                d.responseUnit = readString(buffer);
+                int ops = readLength(buffer, 4);
+                d.operations = new String[ops];
+                for (int i = 0; i < ops; i++)
+                    d.operations[i] = readString(buffer);
+                d.avgResponse = readDoubles(buffer);
+                int pcts = readLength(buffer, 4);
+                d.percentileNames = new String[pcts];
+                d.percentiles = new double[pcts][];
+                for (int i = 0; i < pcts; i++) {
+                    d.percentileNames[i] = readString(buffer);
+                    d.percentiles[i] = readDoubles(buffer);
+                }
+                d.graphInterval = buffer.getDouble();
+                d.throughput = new double[ops][];
+                for (int i = 0; i < ops; i++)
+                    d.throughput[i] = readDoubles(buffer);
+                d.response = new double[ops][];
+                for (int i = 0; i < ops; i++)
+                    d.response[i] = readDoubles(buffer);
+                d.responseBucket = buffer.getDouble();
+                d.responseHistogram = new int[ops][];
+                for (int i = 0; i < ops; i++)
+                    d.responseHistogram[i] = readInts(buffer);
+                d.delayBucket = buffer.getDouble();
+                d.delayHistogram = new int[ops][];
+                for (int i = 0; i < ops; i++)
+                    d.delayHistogram[i] = readInts(buffer);
+                d.targetedDelayHistogram = new int[ops][];
+                for (int i = 0; i < ops; i++)
+                    d.targetedDelayHistogram[i] = readInts(buffer);
+                store.drivers[k] = d;
+            }
+            return store;
+        } catch (RuntimeException e) {
+            // BufferUnderflowException or a bad length from a corrupt file.
+            IOException ioe = new IOException("Corrupt result store.");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Prints the detail report of all drivers in the detail.xan text
+     * format, without the report title and run information.
+     * @param b The buffer to print into
+     */
+    public void printDetail(StringBuilder b) {
+        for (Driver d : drivers)
+            d.printDetail(b);
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = (s == null ? "" : s).getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values)
+            throws IOException {
+        out.writeInt(values.length);
+        for (double value : values)
+            out.writeDouble(value);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values)
+            throws IOException {
+        out.writeInt(values.length);
+        for (int value : values)
+            out.writeInt(value);
+    }
+
+    /**
+     * Reads a length and checks it against the bytes left, so a corrupt
+     * length fails the read instead of allocating a huge array.
+     * @param buffer The buffer to read from
+     * @param minSize The minimum size of an element in bytes
+     * @return The length
+     * @throws IOException If the length is negative or too large
+     */
+    private static int readLength(ByteBuffer buffer, int minSize)
+            throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining() / minSize)
+            throw new IOException("Corrupt result store.");
+        return length;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[readLength(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer)
+            throws IOException {
+        double[] values = new double[readLength(buffer, 8)];
+        DoubleBuffer view = buffer.asDoubleBuffer();
+        view.get(values);
+        buffer.position(buffer.position() + values.length * 8);
+        return values;
+    }
+
+    private static int[] readInts(ByteBuffer buffer) throws IOException {
+        int[] values = new int[readLength(buffer, 4)];
+        IntBuffer view = buffer.asIntBuffer();
+        view.get(values);
+        buffer.position(buffer.position() + values.length * 4);
+        return values;
+    }
+}
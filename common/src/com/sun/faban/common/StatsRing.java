@@ -0,0 +1,164 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.common;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Formatter;
+import java.util.Locale;
+
+/**
+ * The StatsRing retains the latest runtime stats samples of a run in a
+ * ring of fixed size. Older samples are overwritten. Each sample gets a
+ * sequence number so readers can ask for what they have not seen yet.
+ */
+public class StatsRing extends UnicastRemoteObject implements StatsService {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Sample[] ring;
+    private long nextSequence = 0l;
+
+    /**
+     * Constructs and exports a StatsRing.
+     * @param capacity The number of samples retained
+     * @throws RemoteException If the ring cannot be exported
+     */
+    public StatsRing(int capacity) throws RemoteException {
+        ring = new Sample[capacity];
+    }
+
+    /**
+     * Adds a sample to the ring and assigns its sequence number.
+     * @param sample The sample
+     */
+    public synchronized void add(Sample sample) {
+        sample.sequence = nextSequence++;
+        ring[(int) (sample.sequence % ring.length)] = sample;
+    }
+
+    /**
+     * Obtains the samples added after a given sequence number, as far as
+     * they are still retained. A sequence number not issued yet comes
+     * from the ring of an earlier run and is treated as -1.
+     * @param after The last sequence number already seen, or -1 for all
+     * @return The samples in order of their sequence numbers
+     */
+    public synchronized Sample[] getSamples(long after) {
+        if (after >= nextSequence)
+            after = -1l;
+        long first = after + 1;
+        if (first < nextSequence - ring.length)
+            first = nextSequence - ring.length;
+        if (first < 0l)
+            first = 0l;
+        if (first >= nextSequence)
+            return new Sample[0];
+        Sample[] samples = new Sample[(int) (nextSequence - first)];
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = ring[(int) ((first + i) % ring.length)];
+        return samples;
+    }
+
+    /**
+     * A Sample holds the runtime stats of one driver for one interval.
+     */
+    public static class Sample implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /** The sequence number in the ring. */
+        public long sequence;
+
+        /** The time of the sample, in ms from the start of ramp up. */
+        public int time;
+
+        /** The driver name. */
+        public String driver;
+
+        /** The operation names. */
+        public String[] operations;
+
+        /** The names of the stats. */
+        public String[] labels;
+
+        /**
+         * The values, indexed by stat and operation. Values not available
+         * are NaN.
+         */
+        public double[][] values;
+
+        /**
+         * Prints this sample as a JSON object. Values not available are
+         * printed as null.
+         * @param b The buffer to print into
+         */
+        public void toJSON(StringBuilder b) {
+            Formatter formatter = new Formatter(b, Locale.US);
+            b.append("{\"sequence\":").append(sequence);
+            b.append(",\"time\":").append(time);
+            b.append(",\"driver\":");
+            quote(b, driver);
+            b.append(",\"operations\":[");
+            for (int j = 0; j < operations.length; j++) {
+                if (j > 0)
+                    b.append(',');
+                quote(b, operations[j]);
+            }
+            b.append("],\"stats\":{");
+            for (int i = 0; i < labels.length; i++) {
+                if (i > 0)
+                    b.append(',');
+                quote(b, labels[i]);
+                b.append(":[");
+                for (int j = 0; j < values[i].length; j++) {
+                    if (j > 0)
+                        b.append(',');
+                    if (Double.isNaN(values[i][j]) ||
+                            Double.isInfinite(values[i][j]))
+                        b.append("null");
+                    else
+                        formatter.format("%.3f", values[i][j]);
+                }
+                b.append(']');
+            }
+            b.append("}}");
+        }
+
+        private static void quote(StringBuilder b, String s) {
+            b.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\')
+                    b.append('\\').append(c);
+                else if (c < ' ')
+                    b.append(String.format("\\u%04x", (int) c));
+                else
+                    b.append(c);
+            }
+            b.append('"');
+        }
+    }
+}
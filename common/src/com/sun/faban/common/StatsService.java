@@ -0,0 +1,48 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.common;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * The StatsService provides the runtime stats of a run in progress. The
+ * master registers it with the Registry under NAME while runtime stats
+ * are enabled, so tools and the harness can follow the run without
+ * parsing the log.
+ */
+public interface StatsService extends Remote {
+
+    /** The name the service is registered with. */
+    public static final String NAME = "RuntimeStats";
+
+    /**
+     * Obtains the samples added after a given sequence number, as far as
+     * they are still retained.
+     * @param after The last sequence number already seen, or -1 for all
+     * @return The samples in order of their sequence numbers
+     * @throws RemoteException A network error occurred
+     */
+    public StatsRing.Sample[] getSamples(long after) throws RemoteException;
+}
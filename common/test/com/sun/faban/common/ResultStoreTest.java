@@ -0,0 +1,233 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the ResultStore reads back what it writes and rejects
+ * damaged files.
+ */
+public class ResultStoreTest {
+
+    private File file;
+
+    /**
+     * Creates the store file.
+     * @throws IOException If the file cannot be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("results", ".fbr");
+    }
+
+    /**
+     * Deletes the store file.
+     */
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Test that a store written to a file reads back the same.
+     * @throws IOException If the store cannot be written or read
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        ResultStore store = newStore();
+        store.write(file);
+        ResultStore read = ResultStore.read(file);
+
+        assertEquals(store.benchName, read.benchName);
+        assertEquals(store.runId, read.runId);
+        assertEquals(store.startTime, read.startTime);
+        assertEquals(store.endTime, read.endTime);
+        assertEquals(store.metric, read.metric, 0d);
+        assertEquals(store.metricUnit, read.metricUnit);
+        assertEquals(store.passed, read.passed);
+        assertEquals(store.drivers.length, read.drivers.length);
+        for (int k = 0; k < store.drivers.length; k++) {
+            ResultStore.Driver d = store.drivers[k];
+            ResultStore.Driver r = read.drivers[k];
+            assertEquals(d.name, r.name);
+            assertEquals(d.responseUnit, r.responseUnit);
+            assertArrayEquals(d.operations, r.operations);
+            assertArrayEquals(d.avgResponse, r.avgResponse, 0d);
+            assertArrayEquals(d.percentileNames, r.percentileNames);
+            for (int i = 0; i < d.percentiles.length; i++)
+                assertArrayEquals(d.percentiles[i], r.percentiles[i], 0d);
+            assertEquals(d.graphInterval, r.graphInterval, 0d);
+            assertEquals(d.responseBucket, r.responseBucket, 0d);
+            assertEquals(d.delayBucket, r.delayBucket, 0d);
+            for (int i = 0; i < d.operations.length; i++) {
+                assertArrayEquals(d.throughput[i], r.throughput[i], 0d);
+                assertArrayEquals(d.response[i], r.response[i], 0d);
+                assertArrayEquals(d.responseHistogram[i],
+                                  r.responseHistogram[i]);
+                assertArrayEquals(d.delayHistogram[i], r.delayHistogram[i]);
+                assertArrayEquals(d.targetedDelayHistogram[i],
+                                  r.targetedDelayHistogram[i]);
+            }
+        }
+
+        StringBuilder expected = new StringBuilder();
+        StringBuilder actual = new StringBuilder();
+        store.printDetail(expected);
+        read.printDetail(actual);
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    /**
+     * Test that a store cut short anywhere is rejected.
+     * @throws IOException If the store cannot be written
+     */
+    @Test
+    public void testTruncated() throws IOException {
+        newStore().write(file);
+        byte[] bytes = readFile();
+        for (int length = 0; length < bytes.length; length++) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length).slice();
+            try {
+                ResultStore.read(buffer);
+                fail("Store truncated to " + length + " bytes accepted");
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+    }
+
+    /**
+     * Test that a store with a wrong magic number, version or length is
+     * rejected.
+     * @throws IOException If the store cannot be written
+     */
+    @Test
+    public void testCorrupt() throws IOException {
+        newStore().write(file);
+        byte[] bytes = readFile();
+
+        assertRejected(bytes, 0, 0x46425254, "Not a result store.");
+        assertRejected(bytes, 4, ResultStore.VERSION + 1,
+                       "Unsupported result store version " +
+                       (ResultStore.VERSION + 1) + '.');
+
+        // The length of the benchmark name, negative and huge.
+        assertRejected(bytes, 8, -1, "Corrupt result store.");
+        assertRejected(bytes, 8, Integer.MAX_VALUE, "Corrupt result store.");
+
+        // Flipping any single byte must not fail other than with an
+        // IOException, if at all.
+        for (int i = 0; i < bytes.length; i++) {
+            byte[] corrupt = bytes.clone();
+            corrupt[i] ^= (byte) 0x80;
+            try {
+                ResultStore.read(ByteBuffer.wrap(corrupt));
+            } catch (IOException e) {
+                // Expected, if the flip is detected.
+            }
+        }
+    }
+
+    private void assertRejected(byte[] bytes, int offset, int value,
+                                String message) {
+        byte[] corrupt = bytes.clone();
+        ByteBuffer.wrap(corrupt).putInt(offset, value);
+        try {
+            ResultStore.read(ByteBuffer.wrap(corrupt));
+            fail("Corrupt store accepted: " + message);
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private byte[] readFile() throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ResultStore newStore() {
+        ResultStore store = new ResultStore();
+        store.benchName = "Test Benchmark";
+        store.runId = "test.1A";
+        store.startTime = 1234567890000l;
+        store.endTime = 1234567990000l;
+        store.metric = 123.456;
+        store.metricUnit = "ops/sec";
+        store.passed = true;
+        store.drivers = new ResultStore.Driver[] {
+            newDriver("Driver1", "Op1", "Op2"), newDriver("Driver\u00e9")
+        };
+        return store;
+    }
+
+    private static ResultStore.Driver newDriver(String name,
+                                                String... operations) {
+        ResultStore.Driver d = new ResultStore.Driver();
+        int ops = operations.length;
+        d.name = name;
+        d.responseUnit = "seconds";
+        d.operations = operations;
+        d.avgResponse = new double[ops];
+        d.percentileNames = new String[] { "90", "99" };
+        d.percentiles = new double[2][ops];
+        d.graphInterval = 30d;
+        d.throughput = new double[ops][5];
+        d.response = new double[ops][5];
+        d.responseBucket = 0.05;
+        d.responseHistogram = new int[ops][20];
+        d.delayBucket = 0.5;
+        d.delayHistogram = new int[ops][10];
+        d.targetedDelayHistogram = new int[ops][10];
+        for (int i = 0; i < ops; i++) {
+            d.avgResponse[i] = 0.1 * (i + 1);
+            d.percentiles[0][i] = 0.2 * (i + 1);
+            d.percentiles[1][i] = 0.3 * (i + 1);
+            for (int j = 0; j < 5; j++) {
+                d.throughput[i][j] = 10.5 * j + i;
+                d.response[i][j] = 0.01 * j + i;
+            }
+            for (int j = 0; j < 20; j++)
+                d.responseHistogram[i][j] = j * (i + 1);
+            for (int j = 0; j < 10; j++) {
+                d.delayHistogram[i][j] = j + i;
+                d.targetedDelayHistogram[i][j] = 10 - j + i;
+            }
+        }
+        return d;
+    }
+}
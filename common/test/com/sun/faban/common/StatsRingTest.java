@@ -0,0 +1,106 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.common;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the retention and the JSON form of the StatsRing samples.
+ */
+public class StatsRingTest {
+
+    /**
+     * Test that readers get what they have not seen, as far as it is
+     * retained after the ring wrapped around.
+     * @throws RemoteException If the ring cannot be exported
+     */
+    @Test
+    public void testWrapAround() throws RemoteException {
+        StatsRing ring = new StatsRing(4);
+        try {
+            assertEquals(0, ring.getSamples(-1l).length);
+            for (int i = 0; i < 3; i++)
+                ring.add(newSample("d", i));
+            assertSequences(ring.getSamples(-1l), 0, 1, 2);
+            assertSequences(ring.getSamples(1l), 2);
+            assertEquals(0, ring.getSamples(2l).length);
+
+            for (int i = 3; i < 10; i++)
+                ring.add(newSample("d", i));
+            // Only the last four are retained.
+            assertSequences(ring.getSamples(-1l), 6, 7, 8, 9);
+            assertSequences(ring.getSamples(2l), 6, 7, 8, 9);
+            assertSequences(ring.getSamples(5l), 6, 7, 8, 9);
+            assertSequences(ring.getSamples(7l), 8, 9);
+            assertEquals(0, ring.getSamples(9l).length);
+            assertEquals(9000, ring.getSamples(8l)[0].time);
+
+            // A sequence number from the ring of an earlier run.
+            assertSequences(ring.getSamples(12l), 6, 7, 8, 9);
+        } finally {
+            UnicastRemoteObject.unexportObject(ring, true);
+        }
+    }
+
+    /**
+     * Test the JSON form of a sample, with names that need escaping and
+     * values that are not available.
+     */
+    @Test
+    public void testJSON() {
+        StatsRing.Sample sample = newSample("My \"Driver\"\\", 3);
+        sample.operations = new String[] { "Op\n1", "Op\u00012" };
+        sample.labels = new String[] { "ops/sec", "resp" };
+        sample.values = new double[][] {
+            { 1.5, Double.NaN }, { Double.POSITIVE_INFINITY, 1234.25 }
+        };
+        StringBuilder b = new StringBuilder();
+        sample.toJSON(b);
+        assertEquals("{\"sequence\":0,\"time\":3000," +
+                "\"driver\":\"My \\\"Driver\\\"\\\\\"," +
+                "\"operations\":[\"Op\\u000a1\",\"Op\\u00012\"]," +
+                "\"stats\":{\"ops/sec\":[1.500,null]," +
+                "\"resp\":[null,1234.250]}}", b.toString());
+    }
+
+    private static StatsRing.Sample newSample(String driver, int i) {
+        StatsRing.Sample sample = new StatsRing.Sample();
+        sample.time = 1000 * i;
+        sample.driver = driver;
+        sample.operations = new String[] { "Op" };
+        sample.labels = new String[] { "ops/sec" };
+        sample.values = new double[][] { { i } };
+        return sample;
+    }
+
+    private static void assertSequences(StatsRing.Sample[] samples,
+                                        long... sequences) {
+        assertEquals(sequences.length, samples.length);
+        for (int i = 0; i < sequences.length; i++)
+            assertEquals(sequences[i], samples[i].sequence);
+    }
+}
@@ -23,6 +23,8 @@
  */
 package com.sun.faban.driver;
 
+import com.sun.faban.driver.util.ByteMatcher;
+import com.sun.faban.driver.util.TokenBucket;
 import org.apache.commons.httpclient.Cookie;
 
 import java.io.IOException;
@@ -135,6 +137,16 @@ public class HttpTransport {
             delegate = newInstance();
     }
 
+    /**
+     * Constructs a new HttpTransport object forwarding all calls to a
+     * delegate. Transport providers implementing all methods themselves
+     * pass a null delegate.
+     * @param delegate The transport to forward to, or null
+     */
+    protected HttpTransport(HttpTransport delegate) {
+        this.delegate = delegate;
+    }
+
     /**
      * Sets the http connections managed by this transport to follow or
      * not follow HTTP redirects.
@@ -487,12 +499,14 @@ public class HttpTransport {
     }
 
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+     * Fetches the main page and all other image or resource pages based on
+     * the given URLs, in parallel where the transport supports it. The main
+     * page is requested with a POST if postRequest is not null, otherwise
+     * with a GET.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
-     * @param postRequest The post string
+     * @param postRequest The post string, or null
      * @return The buffer of the main page
      * @throws IOException If an I/O error occurred
      */
@@ -692,6 +706,82 @@ public class HttpTransport {
         return delegate.matchURL(url, postRequest, regex, headers);
     }
 
+    /**
+     * Matches the literals or regular expression of a byte matcher against
+     * the data read from the stream, without decoding it into characters.
+     * @param stream The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchResponse(InputStream stream, ByteMatcher matcher)
+            throws IOException {
+        return delegate.matchResponse(stream, matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the URL
+     * as the response is read, without decoding it into characters. The
+     * response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(String url, ByteMatcher matcher)
+            throws IOException {
+        return delegate.matchURL(url, matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the URL
+     * as the response is read, without decoding it into characters. The
+     * response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(URL url, ByteMatcher matcher)
+            throws IOException {
+        return delegate.matchURL(url, matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the post
+     * request made to the URL as the response is read, without decoding
+     * it into characters. The response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(String url, String postRequest,
+                            ByteMatcher matcher) throws IOException {
+        return delegate.matchURL(url, postRequest, matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the post
+     * request made to the URL as the response is read, without decoding
+     * it into characters. The response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(URL url, String postRequest, ByteMatcher matcher)
+            throws IOException {
+        return delegate.matchURL(url, postRequest, matcher);
+    }
+
     /**
      * Obtains the list of cookie values by the name of the cookies.
      * @param name The cookie name
@@ -765,4 +855,70 @@ public class HttpTransport {
                         com.sun.faban.driver.DriverContext.getContext();
         engine.setUploadSpeed(kbps);
     }
+
+    /**
+     * Set the download speed and burst for this HTTP transport object.
+     * After idling, up to burstKB kilobytes are received at full speed.
+     *
+     * @param kbps desired speed in kilobytes per second
+     * @param burstKB the burst allowance in kilobytes
+     * @throws UnsupportedOperationException if the underlying HTTP transport
+     * doesn't support bandwidth-metered (throttled) sockets
+     */
+    public void setDownloadSpeed(int kbps, int burstKB) {
+        com.sun.faban.driver.engine.DriverContext engine =
+                (com.sun.faban.driver.engine.DriverContext)
+                        com.sun.faban.driver.DriverContext.getContext();
+        engine.setDownloadSpeed(kbps, burstKB * 1024);
+    }
+
+    /**
+     * Set the upload speed and burst for this HTTP transport object.
+     * After idling, up to burstKB kilobytes are sent at full speed.
+     *
+     * @param kbps desired speed in kilobytes per second
+     * @param burstKB the burst allowance in kilobytes
+     * @throws UnsupportedOperationException if the underlying HTTP transport
+     * doesn't support bandwidth-metered (throttled) sockets
+     */
+    public void setUploadSpeed(int kbps, int burstKB) {
+        com.sun.faban.driver.engine.DriverContext engine =
+                (com.sun.faban.driver.engine.DriverContext)
+                        com.sun.faban.driver.DriverContext.getContext();
+        engine.setUploadSpeed(kbps, burstKB * 1024);
+    }
+
+    /**
+     * Attaches the user of this HTTP transport object to a link shared
+     * with all other users of this agent attached to the same link name.
+     * The link limits the aggregate bandwidth of its users, in addition
+     * to their own download and upload speeds. Attaching all users to
+     * the same link limits the bandwidth of the whole agent. The speeds
+     * and burst of a link are set by its first user.
+     *
+     * @param name the link name, or null to detach from any link
+     * @param downloadKbps aggregate download speed in kilobytes per second,
+     * 0 or less for no limit
+     * @param uploadKbps aggregate upload speed in kilobytes per second,
+     * 0 or less for no limit
+     * @param burstKB the burst allowance in kilobytes
+     * @throws UnsupportedOperationException if the underlying HTTP transport
+     * doesn't support bandwidth-metered (throttled) sockets
+     */
+    public void setLink(String name, int downloadKbps, int uploadKbps,
+                        int burstKB) {
+        com.sun.faban.driver.engine.DriverContext engine =
+                (com.sun.faban.driver.engine.DriverContext)
+                        com.sun.faban.driver.DriverContext.getContext();
+        TokenBucket down = null;
+        TokenBucket up = null;
+        if (name != null && downloadKbps > 0)
+            down = TokenBucket.getShared(name + ".down", downloadKbps,
+                                         burstKB * 1024);
+        if (name != null && uploadKbps > 0)
+            up = TokenBucket.getShared(name + ".up", uploadKbps,
+                                       burstKB * 1024);
+        engine.setDownloadLink(down);
+        engine.setUploadLink(up);
+    }
 }
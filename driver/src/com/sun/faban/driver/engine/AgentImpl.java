@@ -27,9 +27,15 @@ import com.sun.faban.common.RegistryLocator;
 import com.sun.faban.common.Utilities;
 import com.sun.faban.driver.util.PairwiseAggregator;
 import com.sun.faban.driver.util.Timer;
+import com.sun.faban.driver.util.VirtualThreads;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.rmi.RMISecurityManager;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
@@ -64,6 +70,7 @@ public class AgentImpl extends UnicastRemoteObject
     int numThreads;
     String driverBase;
     String host;
+    private String masterHost; // Null if running in the master's JVM.
     private Logger logger;
     private String agentName;
     private String agentId;
@@ -86,6 +93,12 @@ public class AgentImpl extends UnicastRemoteObject
     volatile int runningThreads = Integer.MAX_VALUE;
 
     VariableLoadHandlerThread threadController;
+
+    // Arrival scheduler for open-loop runs, set with the start time.
+    ArrivalRate.Scheduler arrivalScheduler;
+
+    // Transaction trace writer, set with the start time if tracing.
+    volatile TraceWriter traceWriter;
     private long earliestStartTime = Long.MIN_VALUE;
 
 
@@ -100,6 +113,7 @@ public class AgentImpl extends UnicastRemoteObject
             throws Exception {
         this (driverName, agentId);
 
+        masterHost = master;
         host = InetAddress.getLocalHost().getHostName();
 
         // Sometimes we get the host name with the whole domain baggage.
@@ -182,6 +196,9 @@ public class AgentImpl extends UnicastRemoteObject
         }
 
         runInfo.agentInfo.agentType = agentType;
+        if (runInfo.virtualThreads && !VirtualThreads.isSupported())
+            logger.warning(displayName + ": Virtual threads not supported " +
+                    "by this JVM. Using platform threads instead.");
         doPreRun();
     }
 
@@ -255,7 +272,7 @@ public class AgentImpl extends UnicastRemoteObject
                 agentThreads[0] = AgentThread.getInstance(agentType, agentId,
                         0, runInfo.driverConfig.driverClass, timer,
                         this);
-                agentThreads[0].start();
+                agentThreads[0].startExecution();
                 preRunLatch.await();
                 preRunLatch = null;
 
@@ -312,7 +329,7 @@ public class AgentImpl extends UnicastRemoteObject
                 agentThreads[count] = AgentThread.getInstance(agentType,
                         agentId, globalThreadId,
                         runInfo.driverConfig.driverClass, timer, this);
-                agentThreads[count].start();
+                agentThreads[count].startExecution();
 
                 // We ensure we catch up with the configured thread starting
                 // rate. If we fall short, we sleep less until we caught up.
@@ -418,6 +435,16 @@ public class AgentImpl extends UnicastRemoteObject
         runInfo.benchStartTime = time;
         startTime = timer.toAbsNanos(time);
         runInfo.start = timer.toAbsMillis(time);
+        if (runInfo.driverConfig.arrivalRate != null) {
+            // Each agent takes the share of the rate of its threads.
+            double share = (double) runInfo.agentInfo.threads /
+                    runInfo.driverConfig.numThreads;
+            arrivalScheduler = new ArrivalRate.Scheduler(
+                    runInfo.driverConfig.arrivalRate, share, startTime);
+        }
+        if (runInfo.traceTransactions) {
+            traceWriter = createTraceWriter();
+        }
         timeSetLatch.countDown();
         if (runInfo.runtimeStatsEnabled) {
             statsCollector = new StatsCollector();
@@ -429,6 +456,30 @@ public class AgentImpl extends UnicastRemoteObject
                         startTime + runInfo.rampUp * 1000000000l);
     }
     
+    /**
+     * Creates the transaction trace writer. The trace is written to the
+     * run output directory if accessible from this agent, otherwise to
+     * the temporary directory.
+     * @return The trace writer, or null if the trace cannot be created
+     */
+    private TraceWriter createTraceWriter() {
+        File dir = new File(runInfo.resultsDir);
+        if (!dir.isDirectory() || !dir.canWrite()) {
+            String tmpDir = System.getProperty("faban.tmpdir");
+            if (tmpDir == null)
+                tmpDir = System.getProperty("java.io.tmpdir");
+            dir = new File(tmpDir);
+        }
+        try {
+            return new TraceWriter(dir, agentId, runInfo, startTime);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, displayName + ": Cannot create " +
+                    "transaction trace in " + dir.getPath() +
+                    ", tracing disabled.", e);
+            return null;
+        }
+    }
+
     /**
      * This method kills off the current run.
      * It terminates all threads.
@@ -437,7 +488,7 @@ public class AgentImpl extends UnicastRemoteObject
         runAborted = true;
         logger.warning(displayName + ": Killing benchmark run");
         for (int i = 0; i < numThreads; i++) {
-			if (agentThreads[i] != null && agentThreads[i].isAlive()) {
+			if (agentThreads[i] != null && agentThreads[i].isExecuting()) {
 				try {
                     agentThreads[i].stopExecution();
                 } catch (Throwable t) {
@@ -449,6 +500,8 @@ public class AgentImpl extends UnicastRemoteObject
         // cleanup
         if (statsCollector != null)
             statsCollector.cancel();
+        if (traceWriter != null)
+            traceWriter.cancel();
     }
 
     /**
@@ -462,7 +515,7 @@ public class AgentImpl extends UnicastRemoteObject
         int terminationCount = 0;
         Throwable t = null;
         for (int i = numThreads - 1; i > 0; i--) {
-			if (agentThreads[i] != null && agentThreads[i].isAlive()) {
+			if (agentThreads[i] != null && agentThreads[i].isExecuting()) {
 				try {
                     if (!terminationLogged) { // Log this only once.
                         logger.warning(displayName +
@@ -471,7 +524,7 @@ public class AgentImpl extends UnicastRemoteObject
                     }
                     t = new Throwable(
                             "Stack of non-terminating thread.");
-                    t.setStackTrace(agentThreads[i].getStackTrace());
+                    t.setStackTrace(agentThreads[i].getExecutionStackTrace());
                     logger.log(Level.FINE, agentThreads[i].name +
                             ": Thread not Terminated. " +
                             "Dumping stack and force termination.", t);
@@ -497,7 +550,7 @@ public class AgentImpl extends UnicastRemoteObject
                     }
                     t = new Throwable(
                             "Stack of non-terminating thread.");
-                    t.setStackTrace(agentThreads[0].getStackTrace());
+                    t.setStackTrace(agentThreads[0].getExecutionStackTrace());
                     logger.log(Level.FINE, agentThreads[0].name +
                             ": Thread not Terminated. " +
                             "Dumping stack and force termination.", t);
@@ -515,7 +568,7 @@ public class AgentImpl extends UnicastRemoteObject
                         "Interrupted waiting for thread 0 to finish run. " +
                         "PostRun may not get executed.");
             }
-        } else if (agentThreads[0] != null && agentThreads[0].isAlive()) {
+        } else if (agentThreads[0] != null && agentThreads[0].isExecuting()) {
             try { // Just terminate it like any other thread.
                 if (!terminationLogged) { // Log this only once.
                     logger.warning(displayName +
@@ -524,7 +577,7 @@ public class AgentImpl extends UnicastRemoteObject
                 }
                 t = new Throwable(
                         "Stack of non-terminating thread.");
-                t.setStackTrace(agentThreads[0].getStackTrace());
+                t.setStackTrace(agentThreads[0].getExecutionStackTrace());
                 logger.log(Level.FINE, agentThreads[0].name +
                         ": Thread not Terminated. " +
                         "Dumping stack and force termination.", t);
@@ -541,6 +594,8 @@ public class AgentImpl extends UnicastRemoteObject
 		}
         if (statsCollector != null)
             statsCollector.cancel();
+        if (traceWriter != null)
+            traceWriter.cancel();
     }
 
     private class MetricsProvider implements
@@ -580,9 +635,9 @@ public class AgentImpl extends UnicastRemoteObject
      */
     public void join() {
         for (int i = agentThreads.length - 1; i > 0; i--) {
-			while(agentThreads[i] != null && agentThreads[i].isAlive()) {
+			while(agentThreads[i] != null && agentThreads[i].isExecuting()) {
 				try {
-                    agentThreads[i].join();
+                    agentThreads[i].joinExecution();
                 } catch (InterruptedException e) {
                 	logger.log(Level.FINE, e.getMessage(), e);
                 }
@@ -596,15 +651,17 @@ public class AgentImpl extends UnicastRemoteObject
             } catch (InterruptedException e) {
             	logger.log(Level.FINE, e.getMessage(), e);
             }            
-        } else if (agentThreads[0] != null && agentThreads[0].isAlive()) {
+        } else if (agentThreads[0] != null && agentThreads[0].isExecuting()) {
             try {
-                agentThreads[0].join();
+                agentThreads[0].joinExecution();
             } catch (InterruptedException e) {
             	logger.log(Level.FINE, e.getMessage(), e);
             }
         }
         if (statsCollector != null)
             statsCollector.cancel();
+        if (traceWriter != null)
+            traceWriter.cancel();
     }
 
     /**
@@ -618,7 +675,7 @@ public class AgentImpl extends UnicastRemoteObject
             logger.finest(agentType + "Releasing postRun latch.");
             postRunLatch.countDown();
             try {
-                agentThreads[0].join();
+                agentThreads[0].joinExecution();
                 logger.finest(agentType + " Thread 0 completed postRun");
             } catch (InterruptedException e) {
                 logger.warning(agentType +
@@ -693,7 +750,7 @@ public class AgentImpl extends UnicastRemoteObject
             instance.add(agentThreads[idx].metrics);
         }
 
-        public Class getComponentClass() {
+        public Class<RuntimeMetrics> getComponentClass() {
             return RuntimeMetrics.class;
         }
 
@@ -703,6 +760,11 @@ public class AgentImpl extends UnicastRemoteObject
     }
 
 
+    /**
+     * The StatsCollector aggregates the runtime metrics of this agent's
+     * threads every runtime stats interval and streams the changes since
+     * the last interval to the master over a single connection.
+     */
     private class StatsCollector extends Thread {
 
         long interval = runInfo.runtimeStatsInterval * 1000000000l;
@@ -711,6 +773,12 @@ public class AgentImpl extends UnicastRemoteObject
                 agentThreads.length, new RuntimeMetricsProvider());
         boolean terminated = false;
 
+        // The metrics last sent, the base of the next delta.
+        RuntimeMetrics previous = new RuntimeMetrics();
+        ByteBuffer frame = ByteBuffer.allocate(8192);
+        Socket socket;
+        OutputStream out;
+
         StatsCollector() {
             setName("StatsCollector");
             setDaemon(true);
@@ -723,6 +791,27 @@ public class AgentImpl extends UnicastRemoteObject
             long duration = (runInfo.rampUp + runInfo.stdyState +
                                 runInfo.rampDown) * 1000000000l;
             RuntimeMetrics rtm = null;
+            try {
+                int port = master.getStatsPort();
+                if (port < 0)
+                    return;
+                long token = master.getStatsToken();
+                // In the master's JVM, the master binds the same interface
+                // it exports its remote objects on, if any.
+                String statsHost = masterHost != null ? masterHost :
+                        System.getProperty("java.rmi.server.hostname");
+                socket = new Socket(InetAddress.getByName(statsHost), port);
+                socket.setTcpNoDelay(true);
+                out = socket.getOutputStream();
+                // Identify as an agent before anything else.
+                ByteBuffer hello = ByteBuffer.allocate(12);
+                hello.putInt(8).putLong(token);
+                out.write(hello.array());
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Communication error " +
+                        "connecting to master for runtime metrics", e);
+                return;
+            }
             while (!terminated) {
                 long wakeupTime = startTime + sequence * interval;
                 if (wakeupTime > startTime + duration)
@@ -736,16 +825,58 @@ public class AgentImpl extends UnicastRemoteObject
                         rtm.timestamp = (int) ((System.nanoTime() - startTime) /
                                 Utilities.TO_NANOS);
                         rtm.sequence = sequence;
-                        master.updateMetrics(rtm);
-                    } catch (RemoteException e) {
+                        send(rtm);
+                    } catch (IOException e) {
                         logger.log(Level.SEVERE, "Communication error " +
                                 "sending runtime metrics to master", e);
+                        break;
                     }
                     ++sequence;
                 } catch (Exception e) {
                     logger.log(Level.WARNING, e.getMessage(), e);
                 }
             }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.log(Level.FINER, e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Sends the changes of the runtime metrics since the last send.
+         * The shape of the metrics is sent ahead of the first changes.
+         * @param rtm The runtime metrics
+         * @throws IOException Error sending to the master
+         */
+        private void send(RuntimeMetrics rtm) throws IOException {
+            if (previous.txCntTotal == null) {
+                writeFrame(rtm, true);
+                // Start with the same empty metrics as the master.
+                previous.getShape(ByteBuffer.wrap(frame.array(), 4,
+                                                  frame.position() - 4));
+            }
+            writeFrame(rtm, false);
+            previous.copy(rtm);
+        }
+
+        private void writeFrame(RuntimeMetrics rtm, boolean shape)
+                throws IOException {
+            for (;;) {
+                frame.clear();
+                frame.position(4); // Leave space for the length.
+                try {
+                    if (shape)
+                        rtm.putShape(frame);
+                    else
+                        rtm.putDelta(frame, previous);
+                    break;
+                } catch (BufferOverflowException e) {
+                    frame = ByteBuffer.allocate(frame.capacity() * 2);
+                }
+            }
+            frame.putInt(0, frame.position() - 4);
+            out.write(frame.array(), 0, frame.position());
         }
 
         void cancel() {
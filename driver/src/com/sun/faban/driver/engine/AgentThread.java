@@ -29,6 +29,7 @@ import com.sun.faban.driver.Timing;
 import com.sun.faban.driver.ExpectedException;
 import com.sun.faban.driver.util.Random;
 import com.sun.faban.driver.util.Timer;
+import com.sun.faban.driver.util.VirtualThreads;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -111,6 +112,13 @@ public abstract class AgentThread extends Thread {
     private RunState threadState = RunState.NOT_STARTED;
 
     Logger logger;
+
+    /**
+     * Whether finest logging is enabled. This is checked once at the start
+     * of the run so the driver loop does not build the log messages.
+     */
+    boolean finest = false;
+
     String className;
     long endRampUp = Long.MAX_VALUE;
     long endStdyState = Long.MAX_VALUE;
@@ -124,6 +132,12 @@ public abstract class AgentThread extends Thread {
 
     boolean stopped = false;
 
+    /**
+     * The thread actually executing this agent thread. This is the agent
+     * thread itself unless the run is configured to use virtual threads.
+     */
+    private Thread executor = this;
+
     /** Constant value for specifying that the time is not set. */
     public static final long TIME_NOT_SET = Long.MIN_VALUE;
 
@@ -143,7 +157,9 @@ public abstract class AgentThread extends Thread {
         RunInfo.DriverConfig driverConfig = RunInfo.getInstance().driverConfig;
         AgentThread agentThread = null;
         switch (driverConfig.runControl) {
-           case TIME : if (driverConfig.mix[1] != null) {
+           case TIME : if (driverConfig.arrivalRate != null) {
+            agentThread = new ArrivalThread();
+        } else if (driverConfig.mix[1] != null) {
 			agentThread = new TimeThreadWithBackground();
 		} else {
 			agentThread = new TimeThread();
@@ -199,6 +215,7 @@ public abstract class AgentThread extends Thread {
 	public final void run() {
         try {
             setThreadState(RunState.INITIALIZING);
+            finest = logger.isLoggable(Level.FINEST);
             doRun();
         } catch (FatalException e) {
             // A fatal exception thrown by the driver is already caught
@@ -430,6 +447,18 @@ public abstract class AgentThread extends Thread {
 
     }
 
+    /**
+     * Records the current operation into the agent's transaction trace,
+     * if tracing is enabled.
+     * @param success Whether the operation succeeded
+     */
+    void traceTx(boolean success) {
+        TraceWriter traceWriter = agent.traceWriter;
+        if (traceWriter != null)
+            traceWriter.record(id, currentOperation, success,
+                               driverContext.timingInfo);
+    }
+
     /**
      * Obtains the invoke time of the next operation. 
      * 
@@ -572,11 +601,49 @@ public abstract class AgentThread extends Thread {
         return metrics;
     }
 
+    /**
+     * Starts executing this agent thread. If the run is configured to use
+     * virtual threads and the JVM supports them, the run loop is executed
+     * on a virtual thread. Otherwise this thread is started.
+     */
+    public void startExecution() {
+        if (runInfo.virtualThreads) {
+            Thread t = VirtualThreads.newThread(name, this);
+            if (t != null)
+                executor = t;
+        }
+        executor.start();
+    }
+
+    /**
+     * Tests whether the thread executing this agent thread is still alive.
+     * @return true if still executing, false otherwise
+     */
+    public boolean isExecuting() {
+        return executor.isAlive();
+    }
+
+    /**
+     * Waits for the thread executing this agent thread to terminate.
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void joinExecution() throws InterruptedException {
+        executor.join();
+    }
+
+    /**
+     * Obtains the stack trace of the thread executing this agent thread.
+     * @return The stack trace
+     */
+    public StackTraceElement[] getExecutionStackTrace() {
+        return executor.getStackTrace();
+    }
+
     /**
      * Triggers stopping and exiting of this thread.
      */
     public void stopExecution() {
         stopped = true;
-        interrupt();
+        executor.interrupt();
     }
 }
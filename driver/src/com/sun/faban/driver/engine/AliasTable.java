@@ -0,0 +1,129 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+
+import java.io.Serializable;
+
+/**
+ * An alias table for selecting an index from a discrete probability
+ * distribution in constant time, independent of the number of entries.
+ * The table is built with Vose's variant of Walker's alias method. Each
+ * column holds the probability of its own index and an alias index taking
+ * the rest of the column. A selection picks a column uniformly and then
+ * either the column index or its alias. Instances are immutable and can
+ * be shared by all selectors.
+ */
+class AliasTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double[] prob;
+    private final int[] alias;
+
+    /**
+     * Builds the alias table for the given weights. The weights need not
+     * be normalized but must not be negative and must not all be 0.
+     * @param weights The weights of each index
+     */
+    AliasTable(double[] weights) {
+        int n = weights.length;
+        prob = new double[n];
+        alias = new int[n];
+
+        double sum = 0d;
+        for (int i = 0; i < n; i++)
+            sum += weights[i];
+
+        // Scale the weights so the average column is 1.
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int smallCnt = 0;
+        int largeCnt = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1d)
+                small[smallCnt++] = i;
+            else
+                large[largeCnt++] = i;
+        }
+
+        // Fill each small column with the excess of a large column.
+        while (smallCnt > 0 && largeCnt > 0) {
+            int s = small[--smallCnt];
+            int l = large[--largeCnt];
+            prob[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1d;
+            if (scaled[l] < 1d)
+                small[smallCnt++] = l;
+            else
+                large[largeCnt++] = l;
+        }
+
+        // The remaining columns are full, up to rounding errors.
+        while (largeCnt > 0) {
+            int l = large[--largeCnt];
+            prob[l] = 1d;
+            alias[l] = l;
+        }
+        while (smallCnt > 0) {
+            int s = small[--smallCnt];
+            prob[s] = 1d;
+            alias[s] = s;
+        }
+    }
+
+    /**
+     * Selects an index according to the distribution of this table.
+     * @param random The random value generator to use
+     * @return The selected index
+     */
+    int select(Random random) {
+        double x = random.drandom(0d, prob.length);
+        int column = (int) x;
+        if (column >= prob.length) // Guard against rounding.
+            column = prob.length - 1;
+        return x - column < prob[column] ? column : alias[column];
+    }
+
+    /**
+     * Obtains the probability of selecting an index as represented in
+     * this table.
+     * @param index The index
+     * @return The probability of selecting the index
+     */
+    double getProbability(int index) {
+        double p = 0d;
+        for (int i = 0; i < prob.length; i++) {
+            if (i == index)
+                p += prob[i];
+            if (alias[i] == index)
+                p += 1d - prob[i];
+        }
+        return p / prob.length;
+    }
+}
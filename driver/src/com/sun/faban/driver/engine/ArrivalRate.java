@@ -0,0 +1,139 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+
+import java.io.Serializable;
+
+/**
+ * The target arrival rate of an open-loop driver. In open-loop mode the
+ * operations are started at the arrival times generated from this rate,
+ * independent of how long previous operations took. The driver threads
+ * act as a pool of workers picking up the arrivals.
+ */
+public class ArrivalRate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The arrival process. */
+    public enum Type {
+        /** Arrivals evenly spaced at a constant rate. */
+        CONSTANT,
+
+        /** Evenly spaced arrivals with the rate changing in steps. */
+        STEP,
+
+        /** Poisson arrivals at a constant mean rate. */
+        POISSON
+    }
+
+    /** The arrival process. */
+    Type type;
+
+    /** The rates in operations per second, one per step. */
+    double[] rates;
+
+    /**
+     * The end of each step in nanosecs from the start of the run. The last
+     * rate applies beyond the end of the last step.
+     */
+    long[] stepEnds;
+
+    /**
+     * Arrivals starting later than this number of nanosecs are dropped.
+     * 0 means arrivals are never dropped.
+     */
+    long maxLateness;
+
+    /**
+     * Obtains the target rate at a given time.
+     * @param elapsed The nanosecs elapsed from the start of the run
+     * @return The rate in operations per second
+     */
+    double getRate(long elapsed) {
+        if (stepEnds != null)
+            for (int i = 0; i < stepEnds.length; i++)
+                if (elapsed < stepEnds[i])
+                    return rates[i];
+        return rates[rates.length - 1];
+    }
+
+    /**
+     * Obtains the interval to the next arrival.
+     * @param elapsed The nanosecs elapsed from the start of the run
+     * @param share The share of the rate to generate arrivals for
+     * @param random The random number generator used
+     * @return The interval to the next arrival in nanosecs
+     */
+    long getInterval(long elapsed, double share, Random random) {
+        double mean = 1e9d / (getRate(elapsed) * share);
+        if (type == Type.POISSON) {
+            double x = random.drandom(0d, 1d);
+            if (x <= 0d)
+                x = Double.MIN_VALUE;
+            return (long) (mean * -Math.log(x));
+        }
+        return (long) mean;
+    }
+
+    /**
+     * Schedules arrivals for one agent. All threads of the agent share
+     * the scheduler and take the arrival times in order.
+     */
+    static class Scheduler {
+
+        private ArrivalRate arrivalRate;
+        private double share;
+        private long startTime;
+        private long nextArrival;
+        private Random random;
+
+        /**
+         * Constructs the scheduler.
+         * @param arrivalRate The arrival rate of the driver
+         * @param share The share of the driver's rate for this agent
+         * @param startTime The start of the run, in nanosecs
+         */
+        Scheduler(ArrivalRate arrivalRate, double share, long startTime) {
+            this.arrivalRate = arrivalRate;
+            this.share = share;
+            this.startTime = startTime;
+            random = new Random(startTime + hashCode());
+            nextArrival = startTime + arrivalRate.getInterval(0l, share,
+                                                              random);
+        }
+
+        /**
+         * Takes the next arrival time.
+         * @return The next arrival time, in nanosecs
+         */
+        synchronized long next() {
+            long arrival = nextArrival;
+            nextArrival += arrivalRate.getInterval(arrival - startTime,
+                                                   share, random);
+            return arrival;
+        }
+    }
+}
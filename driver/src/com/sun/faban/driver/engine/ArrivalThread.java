@@ -0,0 +1,74 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.FatalException;
+
+/**
+ * A driver thread for open-loop runs. The thread acts as a worker taking
+ * arrival times from the agent's arrival scheduler instead of deriving
+ * the next invoke time from the cycle or think time of the previous
+ * operation. The offered load is therefore independent of the number of
+ * threads and the response times of the system under test. Arrivals
+ * that cannot be started in time because all threads are busy are
+ * recorded as late or, beyond the configured lateness, as dropped.
+ */
+public class ArrivalThread extends TimeThread {
+
+    /**
+     * Obtains the invoke time of the next operation from the arrival
+     * scheduler. This blocks until the start time of the run is known.
+     *
+     * @param op The previous operation, not used
+     * @param mixId The mix, not used
+     * @return The arrival time of the next operation
+     */
+    @Override
+    long getInvokeTime(BenchmarkDefinition.Operation op, int mixId) {
+        if (!startTimeSet) {
+            try {
+                agent.timeSetLatch.await();
+            } catch (InterruptedException e) { // Run is killed.
+                throw new FatalException(e);
+            }
+            startTimeSet = true;
+            endRampUp = agent.startTime + runInfo.rampUp * 1000000000l;
+            endStdyState = endRampUp + runInfo.stdyState * 1000000000l;
+            endRampDown = endStdyState + runInfo.rampDown * 1000000000l;
+        }
+
+        long maxLateness = driverConfig.arrivalRate.maxLateness;
+        for (;;) {
+            long arrival = agent.arrivalScheduler.next();
+            long lateness = System.nanoTime() - arrival;
+            if (maxLateness > 0l && lateness > maxLateness &&
+                    arrival < endRampDown) {
+                metrics.recordArrival(arrival, lateness, true);
+                continue;
+            }
+            metrics.recordArrival(arrival, lateness, false);
+            return arrival;
+        }
+    }
+}
@@ -427,7 +427,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
                 op.max90th = benchOp.max90th();
                 op.timing = benchOp.timing();
                 op.countToMetric = benchOp.countToMetric();
-                op.m = m;
+                op.bind(m);
                 operationMap.put(op.name, op);
             }
 		}
@@ -458,7 +458,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
                 op.max90th = benchOp.max90th();
                 op.timing = benchOp.timing();
                 op.countToMetric = benchOp.countToMetric();
-                op.m = m;
+                op.bind(m);
                 operationList.add(op);
             }
 		}
@@ -537,7 +537,7 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
         // Then we check each operation and get the method from the map.
         for (Operation o : operations) {
 			if (o.m == null) {
-				o.m = methodMap.get(o.name);
+				o.bind(methodMap.get(o.name));
 			}
 		}
     }
@@ -807,6 +807,48 @@ public class BenchmarkDefinition implements Serializable, Cloneable {
 
         transient Method m;
 
+        transient OperationInvoker invoker;
+
+        /**
+         * Binds the operation method for use in the driver loop. Access
+         * checks are suppressed once here for operations that still need
+         * to be invoked reflectively. All others get a generated invoker
+         * calling the method directly.
+         * @param m The operation method
+         * @see OperationInvoker
+         */
+        void bind(Method m) {
+            this.m = m;
+            if (m != null)
+                try {
+                    m.setAccessible(true);
+                } catch (SecurityException e) {
+                    Logger.getLogger(BenchmarkDefinition.class.getName()).log(
+                            Level.FINE, "Cannot suppress access checks for " +
+                            m.getName() + ": " + e.getMessage(), e);
+                }
+            invoker = OperationInvoker.create(m);
+        }
+
+        /**
+         * Invokes this operation on the given driver instance. Exceptions
+         * thrown by the operation are returned as is, not wrapped, so the
+         * driver loop can classify them directly. An operation that cannot
+         * be accessed results in a FatalException.
+         *
+         * @param driver The driver instance
+         * @return The throwable thrown by the operation, or null if the
+         *         operation completed normally
+         */
+        Throwable invoke(Object driver) {
+            try {
+                invoker.invoke(driver);
+                return null;
+            } catch (Throwable t) {
+                return t;
+            }
+        }
+
         /**
          * Creates an exact deep clone of this object.
          * 
@@ -23,7 +23,6 @@
  */
 package com.sun.faban.driver.engine;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.logging.Level;
 
 
@@ -118,16 +117,14 @@ public class CycleThread extends AgentThread {
             driverContext.setInvokeTime(getInvokeTime(previousOp, mixId));
 
             // Invoke the operation
-            try {
-                op.m.invoke(driver);
+            Throwable cause = op.invoke(driver);
+            if (cause == null) {
                 validateTimeCompletion(op);
                 checkRamp();
                 metrics.recordTx();
                 metrics.recordDelayTime();
-            } catch (InvocationTargetException e) {
-                // An invocation target exception is caused by another
-                // exception thrown by the operation directly.
-                Throwable cause = e.getCause();
+            } else {
+                // The cause is the exception thrown by the operation directly.
                 checkFatal(cause, op);
                 checkRamp();
                 metrics.recordError();
@@ -170,11 +167,6 @@ public class CycleThread extends AgentThread {
                 } else {
                     metrics.recordDelayTime();
                 }
-            } catch (IllegalAccessException e) {
-                logger.log(Level.SEVERE, name + "." + op.m.getName() + ": "
-                        + e.getMessage(), e);
-                agent.abortRun();
-                return;
             }
 
             startTime[mixId] = driverContext.timingInfo.invokeTime;
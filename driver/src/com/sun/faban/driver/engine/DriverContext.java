@@ -29,8 +29,10 @@ import com.sun.faban.driver.CustomMetrics;
 import com.sun.faban.driver.CustomTableMetrics;
 import com.sun.faban.driver.Timing;
 import static com.sun.faban.driver.engine.AgentThread.TIME_NOT_SET;
+import com.sun.faban.driver.util.ConnectionStats;
 import com.sun.faban.driver.util.Random;
 import com.sun.faban.driver.util.Timer;
+import com.sun.faban.driver.util.TokenBucket;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -59,12 +61,19 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
     /** Thread local used for obtaining the context. */
     private static ThreadLocal<DriverContext> localContext = new InheritableThreadLocal<DriverContext>();
 
+    /** Thread local holding the context a shared worker thread serves. */
+    private static ThreadLocal<DriverContext> servedContext =
+            new ThreadLocal<DriverContext>();
+
     /** The thread associated with this context. */
     AgentThread agentThread;
     
     /** The timing structure for this thread/context. */
     TimingInfo timingInfo = new TimingInfo();
 
+    /** The timing of the current operation, set with the invoke time. */
+    private Timing currentTiming;
+
     /** The central timer. */
     Timer timer;
 
@@ -76,6 +85,9 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
      */
     boolean pauseSupported = true;
 
+    /** Whether the wire-level phases of the response time are measured. */
+    private boolean wireTiming;
+
     /** Context-specific logger. */
     Logger logger;
 
@@ -94,6 +106,18 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
 	/** Desired download speed of this context */
 	private int kbpsDownload = -1;
 
+    /** Bucket shaping the upload of this context, null if unlimited. */
+    private TokenBucket uploadBucket;
+
+    /** Bucket shaping the download of this context, null if unlimited. */
+    private TokenBucket downloadBucket;
+
+    /** Shared bucket shaping the upload link, null if none. */
+    private TokenBucket uploadLink;
+
+    /** Shared bucket shaping the download link, null if none. */
+    private TokenBucket downloadLink;
+
     /**
      * Obtains the DriverContext associated with this thread.
      * @return the associated DriverContext
@@ -102,6 +126,43 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         return localContext.get();
     }
 
+    /**
+     * Detaches the calling thread from the DriverContext it inherited from
+     * the thread that started it. Worker threads shared by many driver
+     * threads call this so their I/O is not timed into the context of
+     * whichever driver thread happened to start them.
+     */
+    public static void detachContext() {
+        localContext.remove();
+    }
+
+    /**
+     * Obtains the DriverContext on whose behalf the calling thread works.
+     * This is the context of a driver thread, or the context a detached
+     * worker thread currently serves. Unlike getContext, the served
+     * context is not used for timing.
+     * @return The context served, or null if none
+     */
+    public static DriverContext getServedContext() {
+        DriverContext ctx = localContext.get();
+        if (ctx == null)
+            ctx = servedContext.get();
+        return ctx;
+    }
+
+    /**
+     * Sets the DriverContext a detached worker thread serves while it
+     * works on behalf of a driver thread, so that state kept per user,
+     * such as the TLS sessions, is that of the user served.
+     * @param ctx The context to serve, or null when done
+     */
+    public static void serve(DriverContext ctx) {
+        if (ctx == null)
+            servedContext.remove();
+        else
+            servedContext.set(ctx);
+    }
+
     /**
      * Constructs a DriverContext. Called only from AgentThread.
      * @param thread The AgentThread used by this context
@@ -111,6 +172,7 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         className = getClass().getName();
         agentThread = thread;
         this.timer = timer;
+        wireTiming = thread.runInfo.wireTiming;
         localContext.set(this);
     }
 
@@ -425,8 +487,7 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         if (agentThread.currentOperation == -1)
             throw new IllegalStateException("DriverContext.recordTime called " +
                                             "outside an operation");
-        if (agentThread.driverConfig.operations[agentThread.currentOperation].
-                timing != Timing.MANUAL) {
+        if (currentTiming != Timing.MANUAL) {
             String msg = "Driver: " + getDriverName() + ", Operation: " +
                     getCurrentOperation() + ", timing: MANUAL illegal call " +
                     "to recordTime() in driver code.";
@@ -462,8 +523,7 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         if (agentThread.currentOperation == -1)
             throw new IllegalStateException("DriverContext.pauseTime called " +
                                             "outside an operation");
-        if (agentThread.driverConfig.operations[agentThread.currentOperation].
-                timing != Timing.MANUAL) {
+        if (currentTiming != Timing.MANUAL) {
             String msg = "Driver: " + getDriverName() + ", Operation: " +
                     getCurrentOperation() + ", timing: MANUAL illegal call " +
                     "to pauseTime() in driver code.";
@@ -590,8 +650,7 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         // Not in an operation, don't record time.
         if (agentThread.currentOperation == -1)
             return TIME_NOT_SET;
-        if (timingInfo != null && agentThread.driverConfig.operations[
-                agentThread.currentOperation].timing == Timing.AUTO) {
+        if (timingInfo != null && currentTiming == Timing.AUTO) {
             if (timingInfo.invokeTime == TIME_NOT_SET) {
                 if (timingInfo.respondTime != TIME_NOT_SET)
                     logger.warning("Respond time already set before " +
@@ -634,8 +693,7 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         long tstamp = TIME_NOT_SET;
         // Not in an operation, don't record time.
         if (agentThread.currentOperation != -1) {
-            if (timingInfo != null && agentThread.driverConfig.operations[
-                    agentThread.currentOperation].timing == Timing.AUTO ) {
+            if (timingInfo != null && currentTiming == Timing.AUTO) {
                 // Some stacks clear the connection by doing a read before a
                 // write in a request, normally a read of 0 bytes. We need to
                 // make sure such reads are not part of the response time.
@@ -651,12 +709,122 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
                             name + ". Ignoring such input.");
                 } else {
                     timingInfo.respondTime = tstamp = System.nanoTime();
+                    if (timingInfo.requestSentTime != TIME_NOT_SET)
+                        recordFirstByte(tstamp);
                 }
             }
         }
         return tstamp;
     }
 
+    /**
+     * Checks whether the wire-level phases of the current operation
+     * are to be recorded.
+     * @return Whether to record the phases
+     */
+    private boolean isWireTimed() {
+        return wireTiming && agentThread.currentOperation != -1 &&
+                timingInfo != null && currentTiming == Timing.AUTO &&
+                timingInfo.invokeTime != TIME_NOT_SET;
+    }
+
+    /**
+     * Records the time taken to resolve the server's host name. This
+     * method is not exposed through the interface and is only used by the
+     * transport facilities.
+     * @param start The nanotime the resolution started
+     */
+    public void recordDnsTime(long start) {
+        if (isWireTimed())
+            timingInfo.dnsTime += System.nanoTime() - start;
+    }
+
+    /**
+     * Records the time taken to establish a connection. This method is
+     * not exposed through the interface and is only used by the transport
+     * facilities.
+     * @param start The nanotime the connect started
+     */
+    public void recordConnectTime(long start) {
+        if (isWireTimed())
+            timingInfo.connectTime += System.nanoTime() - start;
+    }
+
+    /**
+     * Marks the start of a TLS handshake. Traffic during the handshake is
+     * not counted as server time. This method is not exposed through the
+     * interface and is only used by the transport facilities.
+     * @return The nanotime the handshake started
+     */
+    public long beginHandshake() {
+        timingInfo.handshaking = true;
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time taken by a TLS handshake started with
+     * beginHandshake. This method is not exposed through the interface
+     * and is only used by the transport facilities.
+     * @param start The nanotime returned by beginHandshake
+     */
+    public void endHandshake(long start) {
+        timingInfo.handshaking = false;
+        timingInfo.requestSentTime = TIME_NOT_SET;
+        if (isWireTimed())
+            timingInfo.tlsTime += System.nanoTime() - start;
+    }
+
+    /**
+     * Records the time the request, or a part thereof, was written. The
+     * server time runs from the last write to the first byte read
+     * thereafter. This method is not exposed through the interface and is
+     * only used by the transport facilities.
+     */
+    public void recordRequestSent() {
+        if (!timingInfo.handshaking && isWireTimed())
+            timingInfo.requestSentTime = System.nanoTime();
+    }
+
+    /**
+     * Records the arrival of the first byte of a response. Transports
+     * calling recordEndTime on each read need not call this method.
+     * This method is not exposed through the interface and is only used
+     * by the transport facilities.
+     */
+    public void recordFirstByte() {
+        if (timingInfo.requestSentTime != TIME_NOT_SET)
+            recordFirstByte(System.nanoTime());
+    }
+
+    /**
+     * Checks whether a TLS handshake is in progress on this context.
+     * This method is not exposed through the interface and is only used
+     * by the transport facilities.
+     * @return Whether a handshake is in progress
+     */
+    public boolean isHandshaking() {
+        return timingInfo.handshaking;
+    }
+
+    /**
+     * Counts connection events of the transports into the connection
+     * statistics of this thread. This method is not exposed through the
+     * interface and is only used by the transport facilities.
+     * @param event The event, one of the ConnectionStats event constants
+     * @param n The number of events or bytes
+     * @see ConnectionStats
+     */
+    public void countConnection(int event, long n) {
+        agentThread.metrics.countConnection(event,
+                agentThread.currentOperation, n);
+    }
+
+    private void recordFirstByte(long tstamp) {
+        if (!timingInfo.handshaking)
+            timingInfo.serverTime += tstamp - timingInfo.requestSentTime;
+        timingInfo.requestSentTime = TIME_NOT_SET;
+    }
+
     /**
      * Sets the intended invocation time for the next invocation
      * on this thread. This is called from AgentThread only.
@@ -664,6 +832,10 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
      */
     void setInvokeTime(long time) {
 
+        // Cache the timing of the operation for the record calls.
+        currentTiming = agentThread.driverConfig.operations[
+                agentThread.currentOperation].timing;
+
         // Then set the intended start time.
         timingInfo.intendedInvokeTime = time;
         // And set the other times to invalid.
@@ -671,6 +843,12 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
         timingInfo.respondTime = TIME_NOT_SET;
         timingInfo.lastRespondTime = TIME_NOT_SET;
         timingInfo.pauseTime = 0l;
+        timingInfo.dnsTime = 0l;
+        timingInfo.connectTime = 0l;
+        timingInfo.tlsTime = 0l;
+        timingInfo.serverTime = 0l;
+        timingInfo.requestSentTime = TIME_NOT_SET;
+        timingInfo.handshaking = false;
     }
 
     /**
@@ -693,6 +871,27 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
 
         /** Pause Time. */
         public long pauseTime = 0l;
+
+        /** Time spent resolving host names, if wire timing is on. */
+        public long dnsTime = 0l;
+
+        /** Time spent connecting, if wire timing is on. */
+        public long connectTime = 0l;
+
+        /** Time spent in TLS handshakes, if wire timing is on. */
+        public long tlsTime = 0l;
+
+        /**
+         * Time from sending requests to the first byte of their
+         * responses, if wire timing is on.
+         */
+        public long serverTime = 0l;
+
+        /** Time the last request was written, if not yet answered. */
+        public long requestSentTime = TIME_NOT_SET;
+
+        /** Whether a TLS handshake is in progress. */
+        public boolean handshaking = false;
     }
 
     /**
@@ -725,7 +924,48 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
      * speed will be unlimited.
      */
     public void setUploadSpeed(int kbps) {
+        setUploadSpeed(kbps, 0);
+    }
+
+    /**
+     * Set the desired upload speed and burst for the thread using this
+     * context. This method is intended for use only by transport classes.
+     *
+     * @param kbps desired speed in kilobytes per second. If kbps is <= 0,
+     * speed will be unlimited.
+     * @param burstBytes bytes that can be sent at once after idling
+     */
+    public void setUploadSpeed(int kbps, int burstBytes) {
         this.kbpsUpload = kbps;
+        uploadBucket = kbps > 0 ? new TokenBucket(kbps, burstBytes) : null;
+    }
+
+    /**
+     * Obtains the bucket shaping the upload of this context.
+     *
+     * @return The bucket, or null if the upload speed is unlimited
+     */
+    public TokenBucket getUploadBucket() {
+        return uploadBucket;
+    }
+
+    /**
+     * Sets the bucket shaping the upload link shared with other contexts.
+     * This method is intended for use only by transport classes.
+     *
+     * @param link The shared bucket, or null for no link limit
+     */
+    public void setUploadLink(TokenBucket link) {
+        uploadLink = link;
+    }
+
+    /**
+     * Obtains the bucket shaping the upload link of this context.
+     *
+     * @return The shared bucket, or null if there is no link limit
+     */
+    public TokenBucket getUploadLink() {
+        return uploadLink;
     }
 
     /**
@@ -749,7 +989,48 @@ public class DriverContext extends com.sun.faban.driver.DriverContext {
      * speed will be unlimited.
      */
     public void setDownloadSpeed(int kbps) {
+        setDownloadSpeed(kbps, 0);
+    }
+
+    /**
+     * Set the desired download speed and burst for the thread using this
+     * context. This method is intended for use only by transport classes.
+     *
+     * @param kbps desired speed in kilobytes per second. If kbps is <= 0,
+     * speed will be unlimited.
+     * @param burstBytes bytes that can be received at once after idling
+     */
+    public void setDownloadSpeed(int kbps, int burstBytes) {
         this.kbpsDownload = kbps;
+        downloadBucket = kbps > 0 ? new TokenBucket(kbps, burstBytes) : null;
+    }
+
+    /**
+     * Obtains the bucket shaping the download of this context.
+     *
+     * @return The bucket, or null if the download speed is unlimited
+     */
+    public TokenBucket getDownloadBucket() {
+        return downloadBucket;
+    }
+
+    /**
+     * Sets the bucket shaping the download link shared with other
+     * contexts. This method is intended for use only by transport classes.
+     *
+     * @param link The shared bucket, or null for no link limit
+     */
+    public void setDownloadLink(TokenBucket link) {
+        downloadLink = link;
+    }
+
+    /**
+     * Obtains the bucket shaping the download link of this context.
+     *
+     * @return The shared bucket, or null if there is no link limit
+     */
+    public TokenBucket getDownloadLink() {
+        return downloadLink;
     }
 
     /**
@@ -44,6 +44,9 @@ public class FlatMix extends Mix {
 
 	double[] mix;
 
+    /** Alias table for selection, built when the mix is normalized. */
+    AliasTable aliasTable;
+
     /**
      * Initializes this mix according to the annotation.
      *
@@ -259,6 +262,7 @@ public class FlatMix extends Mix {
         for (int i = 0; i < mix.length; i++) {
 			mix[i] /= rowTotal;
 		}
+        aliasTable = new AliasTable(mix);
 
         // if (logger.isLoggable(Level.FINEST))
             getLogger().finest("normalize - after\n" + toString());
@@ -309,7 +313,9 @@ public class FlatMix extends Mix {
      * @return The selector to be used by the driver
      */
 	public Selector selector(Random random) {
-        return new Selector(random, mix);
+        if (aliasTable == null)
+            aliasTable = new AliasTable(mix);
+        return new Selector(random, aliasTable);
     }
 
     /**
@@ -318,30 +324,22 @@ public class FlatMix extends Mix {
     public static class Selector extends Mix.Selector {
 
         private Random random;
-        private double[] selectMix;
+        private AliasTable aliasTable;
 
-        Selector(Random random, double[] mix) {
+        Selector(Random random, AliasTable aliasTable) {
             this.random = random;
-            selectMix = new double[mix.length];
-            selectMix[0] = mix[0];
-            for (int i = 1; i < selectMix.length; i++) {
-                selectMix[i] = mix[i] + selectMix[i - 1];
-            }
+            this.aliasTable = aliasTable;
         }
 
         /**
-         * The select method selects the operation to run next.
+         * The select method selects the operation to run next. The
+         * selection takes constant time regardless of the number of
+         * operations in the mix.
          *
          * @return The operation index selected to run next
          */
 		public int select() {
-            double val = random.drandom(0, 1);
-            for (int i = 0; i < selectMix.length; i++) {
-				if (val <= selectMix[i]) {
-					return i;
-				}
-			}
-            return -1;
+            return aliasTable.select(random);
         }
 
         /**
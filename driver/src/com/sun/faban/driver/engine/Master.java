@@ -48,12 +48,22 @@ public interface Master extends Remote {
     void abortRun() throws RemoteException;
 
     /**
-     * Updates the master with the latest runtime metrics so the
-     * master can dump out the stats accordingly.
-     * @param m The runtime metrics to update
+     * Obtains the port the master receives the runtime metrics on. Each
+     * agent opens a single connection and streams the changes of its
+     * runtime metrics every runtime stats interval.
+     * @return The runtime stats port, or -1 if runtime stats are disabled
      * @throws java.rmi.RemoteException A network error occurred.
      */
-    void updateMetrics(RuntimeMetrics m) throws RemoteException;
+    int getStatsPort() throws RemoteException;
+
+    /**
+     * Obtains the token an agent sends first on its runtime stats
+     * connection. The master closes connections that do not start with
+     * the token, so only its agents can send runtime metrics.
+     * @return The runtime stats token of this run
+     * @throws java.rmi.RemoteException A network error occurred.
+     */
+    long getStatsToken() throws RemoteException;
 
     /**
      * Obtains the current state of the master.
@@ -25,6 +25,9 @@ package com.sun.faban.driver.engine;
 
 import com.sun.faban.common.Registry;
 import com.sun.faban.common.RegistryLocator;
+import com.sun.faban.common.ResultStore;
+import com.sun.faban.common.StatsRing;
+import com.sun.faban.common.StatsService;
 import com.sun.faban.driver.ConfigurationException;
 import com.sun.faban.driver.FatalException;
 import com.sun.faban.driver.RunControl;
@@ -32,14 +35,26 @@ import com.sun.faban.driver.util.PairwiseAggregator;
 import com.sun.faban.driver.util.Timer;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.security.SecureRandom;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
@@ -875,7 +890,7 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
             statsWriter.quit();
     }
 
-    private class MetricsProvider
+    private static class MetricsProvider
             implements PairwiseAggregator.Provider<Metrics> {
 
         ArrayList<Metrics> metrices;
@@ -892,15 +907,19 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
             metrices.add(m);
         }
 
+        Metrics get(int idx) {
+            return metrices.get(idx);
+        }
+
         public Metrics getMutableMetrics(int idx) {
-            return (Metrics) metrices.get(idx).clone();
+            return (Metrics) get(idx).clone();
         }
 
         public void add(Metrics instance, int idx) {
-            instance.add(metrices.get(idx));
+            instance.add(get(idx));
         }
 
-        public Class getComponentClass() {
+        public Class<Metrics> getComponentClass() {
             return Metrics.class;
         }
 
@@ -908,70 +927,172 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
         }
     }
 
+    /**
+     * The ResultStream feeds the grand sum aggregator with the agent
+     * results in the order of the agents, blocking until the next one is
+     * in. The aggregator accesses the results strictly by increasing
+     * index so it merges each result while the other agents are still
+     * sending theirs, and the sums do not depend on which agent answers
+     * first.
+     */
+    private static class ResultStream extends MetricsProvider {
 
-    private Map<String, Metrics> getDriverMetrics(int driverType) {
+        private static final Logger logger =
+                Logger.getLogger(MasterImpl.class.getName());
 
-        LinkedHashMap<String, MetricsProvider> hostProviders =
-                                   new LinkedHashMap<String, MetricsProvider>();
-        LinkedHashMap<String, Metrics> hostMetrics =
-                                   new LinkedHashMap<String, Metrics>();
-        try {
-            if (runInfo.driverConfigs[driverType].numAgents > 0) {
-                Agent[] agents = agentRefs[driverType];
-                logger.info("Gathering " +
-                        benchDef.drivers[driverType].name + "Stats ...");
-
-                // Add the results on a per-host basis and grand summary
-                MetricsProvider grandSumProvider = new MetricsProvider(
-                        runInfo.driverConfigs[driverType].numAgents);
-
-                for (Agent agent : agents) {
-                    Metrics r = agent.getResults();
-                    if (r == null)
-                        continue;
-                    MetricsProvider hostResult = hostProviders.get(r.host);
-                    if (hostResult == null) {
-                        hostResult = new MetricsProvider();
-                        hostProviders.put(r.host, hostResult);
-                    } 
-                    hostResult.add(r);
-                    grandSumProvider.add(r);
-
-                    // Once we have the metrics, we have to set it's start time
-                    // Since this is set after all threads have started, it will
-                    // be 0 in all the metrices we receive.
-                    r.startTime = runInfo.start;
+        List<Future<Metrics>> results;
+        long startTime;
+        int next = 0; // The agent to fetch next.
 
-                }
+        private ResultStream(List<Future<Metrics>> results, long startTime) {
+            super(results.size());
+            this.results = results;
+            this.startTime = startTime;
+        }
+
+        @Override
+        Metrics get(int idx) {
+            while (metrices.size() <= idx)
+                if (!fetch())
+                    throw new IncompleteResultsException();
+            return metrices.get(idx);
+        }
 
-                Metrics result = null;
+        /**
+         * Waits for the result of the next agent.
+         * @return false if the agent failed, no agent is left, or we got
+         *         interrupted
+         */
+        private boolean fetch() {
+            if (next >= results.size())
+                return false;
+            Metrics r;
+            try {
+                r = results.get(next++).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                next = results.size();
+                return false;
+            } catch (ExecutionException e) {
+                logger.log(Level.WARNING, "Master: Exception got " +
+                        e.getCause(), e.getCause());
+                return false;
+            }
+            if (r == null)
+                return false;
+
+            // Once we have the metrics, we have to set it's start time
+            // Since this is set after all threads have started, it will
+            // be 0 in all the metrices we receive.
+            r.startTime = startTime;
+            add(r);
+            return true;
+        }
 
-                // Aggregate the per driver host metrics, calculate results.
-                for (MetricsProvider r : hostProviders.values()) {
-                    PairwiseAggregator<Metrics> aggregator = new
-                            PairwiseAggregator<Metrics>(r.metrices.size(), r);
-                    result = aggregator.collectStats();
-                    hostMetrics.put(result.host, result);
+        /**
+         * Waits for the remaining results, if any.
+         */
+        void drain() {
+            while (next < results.size())
+                fetch();
+        }
+    }
+
+    /**
+     * Thrown by the ResultStream if fewer results arrived than the
+     * aggregator expected, because of failed agents or an interrupt.
+     */
+    private static class IncompleteResultsException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private Map<String, Metrics> getDriverMetrics(int driverType) {
+
+        if (runInfo.driverConfigs[driverType].numAgents <= 0)
+            return new LinkedHashMap<String, Metrics>();
+
+        Agent[] agents = agentRefs[driverType];
+        logger.info("Gathering " +
+                benchDef.drivers[driverType].name + "Stats ...");
+
+        // Collect from the agents concurrently, but bound the threads so
+        // we do not have too many large results in flight at a time.
+        int threads = Math.min(agents.length,
+                Integer.getInteger("faban.collect.threads", 8));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Metrics>> results =
+                new ArrayList<Future<Metrics>>(agents.length);
+        for (final Agent agent : agents)
+            results.add(executor.submit(new Callable<Metrics>() {
+                public Metrics call() throws RemoteException {
+                    return agent.getResults();
                 }
+            }));
+        try {
+            return aggregateResults(results, runInfo.start);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                // Aggregate the final metrics, calculate results.
-                if (grandSumProvider.metrices.size() > 0) {
-                    PairwiseAggregator<Metrics> aggregator =
-                            new PairwiseAggregator<Metrics>(
-                                    grandSumProvider.metrices.size(),
-                                    grandSumProvider);
+    /**
+     * Aggregates the results of the agents of a driver, per host and in
+     * total. Both are aggregated in the order of the agents, which makes
+     * them reproducible. Agents that failed are left out.
+     * @param results The pending results, by agent
+     * @param startTime The start time to set in the results
+     * @return The metrics by host, in the order of the first agent on
+     *         each host, followed by the total under __MASTER__ if any
+     *         agent returned a result
+     */
+    static Map<String, Metrics> aggregateResults(
+            List<Future<Metrics>> results, long startTime) {
 
-                    result = aggregator.collectStats();
+        LinkedHashMap<String, Metrics> hostMetrics =
+                                   new LinkedHashMap<String, Metrics>();
+        ResultStream grandSumProvider = new ResultStream(results, startTime);
+        Metrics result = null;
+        try {
+            PairwiseAggregator<Metrics> aggregator =
+                    new PairwiseAggregator<Metrics>(results.size(),
+                                                    grandSumProvider);
+            result = aggregator.collectStats();
+        } catch (IncompleteResultsException e) {
+            // Aggregate again over the results we did get.
+            grandSumProvider.drain();
+            int count = grandSumProvider.metrices.size();
+            if (count > 0)
+                result = new PairwiseAggregator<Metrics>(count,
+                        grandSumProvider).collectStats();
+        }
 
-                    // And finally set it for the final result, too.
-					result.startTime =  runInfo.start;
-                    // Set it in the map, under the name __MASTER__
-                    // This is an invalid host name so it will never conflict.
-                    hostMetrics.put("__MASTER__", result);
-				}
+        // File the results under their hosts, in the order of the agents.
+        LinkedHashMap<String, MetricsProvider> hostProviders =
+                                   new LinkedHashMap<String, MetricsProvider>();
+        for (Metrics r : grandSumProvider.metrices) {
+            MetricsProvider hostResult = hostProviders.get(r.host);
+            if (hostResult == null) {
+                hostResult = new MetricsProvider();
+                hostProviders.put(r.host, hostResult);
             }
-        } catch (RemoteException re) {
-            logger.log(Level.WARNING, "Master: RemoteException got " + re, re);
+            hostResult.add(r);
+        }
+
+        // Aggregate the per driver host metrics, calculate results.
+        for (MetricsProvider r : hostProviders.values()) {
+            PairwiseAggregator<Metrics> aggregator = new
+                    PairwiseAggregator<Metrics>(r.metrices.size(), r);
+            Metrics hostResult = aggregator.collectStats();
+            hostMetrics.put(hostResult.host, hostResult);
+        }
+
+        // Aggregate the final metrics, calculate results.
+        if (result != null) {
+            // And finally set it for the final result, too.
+            result.startTime = startTime;
+            // Set it in the map, under the name __MASTER__
+            // This is an invalid host name so it will never conflict.
+            hostMetrics.put("__MASTER__", result);
         }
         return hostMetrics;
     }
@@ -1005,7 +1126,7 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
         if (hostSet.size() > 1) {
             for (String host : hostSet) {
                 CharSequence summaryContent = createSummaryReport(
-                                        getHostMetrics(results, host), host);
+                                getHostMetrics(results, host), host, null);
                 if (summaryContent != null) {
                     String runOutputDir = runInfo.resultsDir + fs;
                     FileWriter summary = new FileWriter(runOutputDir + 
@@ -1030,8 +1151,10 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
             }
         }
 
-        CharSequence summaryContent = createSummaryReport(
-                                getHostMetrics(results, "__MASTER__"), null);
+        ResultStore store = new ResultStore();
+        Metrics[] masterResults = getHostMetrics(results, "__MASTER__");
+        CharSequence summaryContent = createSummaryReport(masterResults, null,
+                                                          store);
         if (summaryContent != null) {
             String runOutputDir = runInfo.resultsDir + fs;
             FileWriter summary = new FileWriter(runOutputDir + "summary.xml");
@@ -1043,9 +1166,24 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
             summary.append(summaryContent);
             summary.close();
 
+            // The store needs to be filled before printing the detail.
+            logger.info("Summary finished. Now writing result store ...");
+            ArrayList<ResultStore.Driver> drivers =
+                    new ArrayList<ResultStore.Driver>(masterResults.length);
+            for (Metrics result : masterResults)
+                if (result != null)
+                    drivers.add(result.getStoreResults());
+            store.drivers = drivers.toArray(
+                                    new ResultStore.Driver[drivers.size()]);
+            try {
+                store.write(new File(runOutputDir + ResultStore.FILE_NAME));
+            } catch (IOException e) {
+                // The text reports are still complete without the store.
+                logger.log(Level.WARNING, "Error writing result store.", e);
+            }
+
             logger.info("Summary finished. Now printing detail ...");
-            detail.append(createDetailReport(
-                                getHostMetrics(results, "__MASTER__"), null));
+            detail.append(createDetailReport(masterResults, null));
             detail.close();
 
             logger.info("Detail finished. Results written to " +
@@ -1058,10 +1196,12 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
      * summary report header.
      * @param results The per-driver metrics
      * @param host The host name for which to create the summary report, or null
+     * @param store The result store to fill with the run information, or null
      * @return The report as a char sequence
      */
     @SuppressWarnings("boxing")
-	private CharSequence createSummaryReport(Metrics[] results, String host) {
+	private CharSequence createSummaryReport(Metrics[] results, String host,
+                                             ResultStore store) {
         long startTime = Long.MAX_VALUE;
         long endTime = 0l;
         double metric = 0d;
@@ -1125,6 +1265,16 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
 
             buffer.insert(0, hdrBuffer);
             buffer.append("</benchResults>\n");
+
+            if (store != null) {
+                store.benchName = benchDef.name;
+                store.runId = runInfo.runId;
+                store.startTime = startTime;
+                store.endTime = endTime;
+                store.metric = metric;
+                store.metricUnit = benchDef.metric;
+                store.passed = passed;
+            }
         }
         return buffer;
     }
@@ -1160,153 +1310,334 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
         return buffer;
     }
 
-    public void updateMetrics(RuntimeMetrics m) {
+    /**
+     * Obtains the port the master receives the runtime metrics on.
+     * @return The runtime stats port, or -1 if runtime stats are disabled
+     */
+    public int getStatsPort() {
         if (statsWriter == null) {
             logger.severe("Runtime stats disabled, yet agent is trying to " +
                           "update runtime metrics. Please log this as a bug.");
-            return;
-        }
-        try {
-            statsWriter.queue.put(m);
-        } catch (InterruptedException e) {
-            logger.log(Level.WARNING,
-                    "Interrupted queueing runtime stats.", e);
+            return -1;
         }
+        return statsWriter.port;
+    }
+
+    /**
+     * Obtains the token an agent sends first on its runtime stats
+     * connection.
+     * @return The runtime stats token, or 0 if runtime stats are disabled
+     */
+    public long getStatsToken() {
+        if (statsWriter == null)
+            return 0l;
+        return statsWriter.token;
     }
 
     private class RuntimeMetricsProvider
             implements PairwiseAggregator.Provider<RuntimeMetrics> {
 
-        public ArrayList<RuntimeMetrics> metrices =
-                new ArrayList<RuntimeMetrics>();
+        /** The latest runtime metrics of each agent. */
+        public RuntimeMetrics[] mirrors;
 
-        public void add(RuntimeMetrics m) {
-            metrices.add(m);
+        public ArrayList<RuntimeMetrics> pool = new ArrayList<RuntimeMetrics>();
+
+        RuntimeMetricsProvider(int agents) {
+            mirrors = new RuntimeMetrics[agents];
         }
 
         public RuntimeMetrics getMutableMetrics(int idx) {
-            return metrices.get(idx);
+            RuntimeMetrics rtm;
+            int size = pool.size();
+            if (size > 0) {
+                rtm = pool.remove(size - 1);
+            } else {
+                rtm = new RuntimeMetrics();
+            }
+            rtm.copy(mirrors[idx]);
+            return rtm;
         }
 
         public void add(RuntimeMetrics instance, int idx) {
-            instance.add(metrices.get(idx));
+            instance.add(mirrors[idx]);
         }
 
-
-        public Class getComponentClass() {
+        public Class<RuntimeMetrics> getComponentClass() {
             return RuntimeMetrics.class;
         }
 
         public void recycle(RuntimeMetrics r) {
+            pool.add(r);
         }
+    }
 
-        public int getSequence() {
-            if (metrices.size() == 0)
-                return -1;
-            else
-                return metrices.get(0).sequence;
-        }
+    /**
+     * The stream state of one agent.
+     */
+    private static class AgentStream {
 
-        public void reset() {
-            metrices.clear();
-        }
-    }
+        /** The bytes received and not yet processed. */
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
 
+        /** Whether the peer sent the token, i.e. is one of our agents. */
+        boolean accepted;
 
-    private class StatsWriter extends Thread {
+        /** The runtime metrics of the agent, null before the shape. */
+        RuntimeMetrics metrics;
+    }
 
-        boolean terminated = false;
-        LinkedBlockingQueue<RuntimeMetrics> queue =
-                new LinkedBlockingQueue<RuntimeMetrics>();
+    /**
+     * The StatsWriter receives the runtime metrics of all agents on a
+     * single thread. Each agent sends the shape of its metrics once,
+     * followed by the changes since the last interval. Frames are
+     * prefixed by their length. The changes are applied to a mirror of
+     * the agent's cumulative metrics. Once all agents of a driver sent
+     * an interval, the mirrors are aggregated and the stats are taken
+     * over the configured window of intervals. The stats are logged and
+     * kept in a StatsRing registered as the StatsService.<p>
+     *
+     * The server socket is bound to the interface the master's remote
+     * objects are exported on, the java.rmi.server.hostname, if set.
+     * The first frame of each connection must be the token handed to the
+     * agents by getStatsToken, otherwise the connection is closed before
+     * anything else is read from it.
+     */
+    private class StatsWriter extends Thread {
 
-        private StatsWriter() {
+        volatile boolean terminated = false;
+        int port;
+        final long token = new SecureRandom().nextLong();
+        Selector selector;
+        ServerSocketChannel server;
+
+        RuntimeMetricsProvider[] providers;
+        ArrayList<PairwiseAggregator<RuntimeMetrics>> aggregators;
+        int[] connected;     // Agents connected, by driver type.
+        int[] pending;       // The sequence being collected, or -1.
+        int[] metricsCount;  // Agents that sent the pending sequence.
+        int[] aggregated;    // Number of intervals aggregated.
+        RuntimeMetrics[][] window; // Ring of the last aggregated metrics.
+        StatsRing stats;
+
+        private StatsWriter() throws IOException {
             setName("StatsWriter");
             setDaemon(true);
+            int types = agentRefs.length;
+            providers = new RuntimeMetricsProvider[types];
+            aggregators = new ArrayList<PairwiseAggregator<RuntimeMetrics>>(
+                    types);
+            for (int i = 0; i < types; i++) {
+                providers[i] = new RuntimeMetricsProvider(
+                        runInfo.driverConfigs[i].numAgents);
+                aggregators.add(new PairwiseAggregator<RuntimeMetrics>(
+                        runInfo.driverConfigs[i].numAgents, providers[i]));
+            }
+            connected = new int[types];
+            pending = new int[types];
+            Arrays.fill(pending, -1);
+            metricsCount = new int[types];
+            aggregated = new int[types];
+            window = new RuntimeMetrics[types]
+                    [runInfo.runtimeStatsWindow + 1];
+
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            String hostname = System.getProperty("java.rmi.server.hostname");
+            InetAddress bindAddress = hostname == null ? null :
+                    InetAddress.getByName(hostname);
+            server.socket().bind(new InetSocketAddress(bindAddress, 0));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            port = server.socket().getLocalPort();
+
+            stats = new StatsRing(Integer.getInteger("faban.stats.samples",
+                                                     1024));
+            try {
+                RegistryLocator.getRegistry().reregister(StatsService.NAME,
+                                                         stats);
+            } catch (ConnectException e) {
+                // No registry, we run in single process mode.
+            } catch (NotBoundException e) {
+                // Same here.
+            }
             start();
         }
 
         @Override
         public void run() {
-            int[] metricsCount = new int[agentRefs.length];
-            RuntimeMetrics[] previous = new RuntimeMetrics[agentRefs.length];
-            RuntimeMetrics[] current = new RuntimeMetrics[agentRefs.length];
-            RuntimeMetricsProvider[] providers =
-                    new RuntimeMetricsProvider[agentRefs.length];
-            ArrayList<PairwiseAggregator<RuntimeMetrics>> aggregators =
-                    new ArrayList<PairwiseAggregator<RuntimeMetrics>>(
-                    agentRefs.length);
-            for (int i = 0; i < agentRefs.length; i++) {
-                providers[i] = new RuntimeMetricsProvider();
-                aggregators.add(new PairwiseAggregator<RuntimeMetrics>(
-                        runInfo.driverConfigs[i].numAgents, providers[i]));
-            }
             while (!terminated) {
                 try {
-                    RuntimeMetrics m = queue.poll(
-                            runInfo.runtimeStatsInterval + 1, TimeUnit.SECONDS);
-                    if (m == null) {
-                        continue;
-                    }
-                    int type = m.driverType;
-                    int sequence = providers[type].getSequence();
-                    if (sequence < 0) { // Empty.
-                        providers[type].add(m);
-                        if (++metricsCount[type] >=
-                                runInfo.driverConfigs[type].numAgents) {
-                            current[type] = 
-                                    aggregators.get(type).collectStats();
-                            dumpStats(type, previous, current);
-                            providers[type].reset();
-                            previous[type] = current[type];
-                            current[type] = null;
-                            metricsCount[type] = 0;
-                        }
-                    } else {
-                        if (sequence == m.sequence) {
-                            providers[type].add(m);
-                            if (++metricsCount[type] >=
-                                    runInfo.driverConfigs[type].numAgents) {
-                                current[type] =
-                                        aggregators.get(type).collectStats();
-                                dumpStats(type, previous, current);
-                                providers[type].reset();
-                                previous[type] = current[type];
-                                current[type] = null;
-                                metricsCount[type] = 0;
+                    selector.select();
+                    Iterator<SelectionKey> iter =
+                            selector.selectedKeys().iterator();
+                    while (iter.hasNext()) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        if (!key.isValid())
+                            continue;
+                        if (key.isAcceptable()) {
+                            SocketChannel channel = server.accept();
+                            if (channel != null) {
+                                channel.configureBlocking(false);
+                                channel.register(selector,
+                                        SelectionKey.OP_READ,
+                                        new AgentStream());
                             }
-                        } else if (sequence < m.sequence) {
-                            logger.warning("Missing " + (runInfo.driverConfigs[
-                                    type].numAgents - metricsCount[type]) +
-                                    " runtime stats from " + benchDef.drivers[
-                                    type].name + ". Ignoring.");
-                            providers[type].add(m);
-                            metricsCount[type] = 1;
-                        } else {
-                            logger.warning("Received out-of-sequence runtime " +
-                                    "stats. Current: " +
-                                    current[type].sequence + ", received: " +
-                                    m.sequence + ". Ignoring.");
+                        } else if (key.isReadable()) {
+                            read(key);
                         }
                     }
-                } catch (InterruptedException e) {
-                    logger.log(Level.FINER, "Interrupted waiting for runtime " +
-                            "metrics. Stats writer terminating!", e);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING,
+                            "Error receiving runtime stats.", e);
                 }
             }
+            try {
+                for (SelectionKey key : selector.keys())
+                    key.channel().close();
+                selector.close();
+            } catch (IOException e) {
+                logger.log(Level.FINER, e.getMessage(), e);
+            }
         }
 
-        void dumpStats(int type, RuntimeMetrics[] previous,
-                                 RuntimeMetrics[] current) {
-            // Purchase\Manage\Browse (TxCnt=200\200\400) 90% Resp=0.5\0.6\0.6
-            // ^MMfg (TxCnt=200) 90% Resp=2.50
-            if (previous[type] == null)
+        /**
+         * Reads from an agent and processes all complete frames.
+         * @param key The selection key of the agent
+         */
+        private void read(SelectionKey key) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            AgentStream stream = (AgentStream) key.attachment();
+            ByteBuffer buffer = stream.buffer;
+            try {
+                if (channel.read(buffer) < 0) {
+                    key.cancel();
+                    channel.close();
+                    return;
+                }
+                buffer.flip();
+                while (buffer.remaining() >= 4) {
+                    int length = buffer.getInt(buffer.position());
+                    if (!stream.accepted && length != 8)
+                        throw new IOException("Runtime stats connection " +
+                                "from " + channel.socket().getInetAddress() +
+                                " did not send the token.");
+                    if (length < 0)
+                        throw new IOException("Corrupt runtime stats frame.");
+                    if (buffer.remaining() < length + 4)
+                        break;
+                    int limit = buffer.limit();
+                    int end = buffer.position() + 4 + length;
+                    buffer.position(buffer.position() + 4);
+                    buffer.limit(end);
+                    if (stream.accepted)
+                        received(stream, buffer);
+                    else if (buffer.getLong() == token)
+                        stream.accepted = true;
+                    else
+                        throw new IOException("Runtime stats connection " +
+                                "from " + channel.socket().getInetAddress() +
+                                " sent a wrong token.");
+                    buffer.limit(limit);
+                    buffer.position(end);
+                }
+                buffer.compact();
+                if (!buffer.hasRemaining()) { // Frame larger than buffer.
+                    ByteBuffer larger =
+                            ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    stream.buffer = larger;
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Error reading runtime stats. " +
+                        "Closing stats connection.", e);
+                key.cancel();
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    logger.log(Level.FINER, ex.getMessage(), ex);
+                }
+            }
+        }
+
+        /**
+         * Processes one frame from an agent.
+         * @param stream The stream state of the agent
+         * @param frame The frame
+         * @throws IOException The agent is not expected
+         */
+        private void received(AgentStream stream, ByteBuffer frame)
+                throws IOException {
+            if (stream.metrics == null) { // The shape comes first.
+                RuntimeMetrics m = new RuntimeMetrics();
+                m.getShape(frame);
+                int type = m.driverType;
+                if (type < 0 || type >= providers.length ||
+                        connected[type] >= providers[type].mirrors.length)
+                    throw new IOException("Unexpected runtime stats " +
+                            "connection for driver type " + type + '.');
+                providers[type].mirrors[connected[type]++] = m;
+                stream.metrics = m;
+                return;
+            }
+
+            RuntimeMetrics m = stream.metrics;
+            m.getDelta(frame);
+            int type = m.driverType;
+            if (pending[type] < 0 || pending[type] == m.sequence) {
+                pending[type] = m.sequence;
+                ++metricsCount[type];
+            } else if (pending[type] < m.sequence) {
+                logger.warning("Missing " + (runInfo.driverConfigs[
+                        type].numAgents - metricsCount[type]) +
+                        " runtime stats from " + benchDef.drivers[
+                        type].name + ". Ignoring.");
+                pending[type] = m.sequence;
+                metricsCount[type] = 1;
+            } else {
+                logger.warning("Received out-of-sequence runtime " +
+                        "stats. Current: " + pending[type] +
+                        ", received: " + m.sequence + ". Ignoring.");
                 return;
+            }
+            if (metricsCount[type] >= runInfo.driverConfigs[type].numAgents) {
+                aggregate(type);
+                pending[type] = -1;
+                metricsCount[type] = 0;
+            }
+        }
 
-            double[][] s = current[type].getResults(runInfo, previous[type]);
+        /**
+         * Aggregates the metrics of all agents of a driver and dumps the
+         * stats over the window.
+         * @param type The driver type
+         */
+        private void aggregate(int type) {
+            RuntimeMetrics[] ring = window[type];
+            int n = aggregated[type]++;
+            int idx = n % ring.length;
+            if (ring[idx] == null)
+                ring[idx] = new RuntimeMetrics();
+            ring[idx].copy(aggregators.get(type).collectStats());
+            if (n > 0) {
+                int base = n - runInfo.runtimeStatsWindow;
+                if (base < 0)
+                    base = 0;
+                dumpStats(type, ring[idx], ring[base % ring.length]);
+            }
+        }
+
+        void dumpStats(int type, RuntimeMetrics current,
+                       RuntimeMetrics previous) {
+            // Purchase\Manage\Browse (TxCnt=200\200\400) 90% Resp=0.5\0.6\0.6
+            // ^MMfg (TxCnt=200) 90% Resp=2.50
+            double[][] s = current.getResults(runInfo, previous);
+            publish(type, current, s);
             StringBuilder b = new StringBuilder();
             Formatter formatter = new Formatter(b);
 
-            formatter.format("%.02f", current[type].timestamp / 1000d);
+            formatter.format("%.02f", current.timestamp / 1000d);
             b.append("s - ").append(benchDef.drivers[type].name).append(": ");
             b.append(benchDef.drivers[type].operations[0].name);
             for (int j = 1; j < benchDef.drivers[type].operations.length; j++) {
@@ -1315,6 +1646,8 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
             }
 
             for (int i = 0; i < s.length; i++) {
+                if (s[i] == null) // Not enabled in this run.
+                    continue;
                 b.append(' ').append(RuntimeMetrics.LABELS[i]).append('=');
                 if (Double.isNaN(s[i][0]))
                     b.append('-');
@@ -1332,9 +1665,49 @@ public class MasterImpl extends UnicastRemoteObject implements Master {
             logger.info(b.toString());
         }
 
+        /**
+         * Adds the stats of a driver to the stats ring.
+         * @param type The driver type
+         * @param current The current runtime metrics
+         * @param s The stats, null for stats not enabled
+         */
+        void publish(int type, RuntimeMetrics current, double[][] s) {
+            BenchmarkDefinition.Driver driver = benchDef.drivers[type];
+            StatsRing.Sample sample = new StatsRing.Sample();
+            sample.time = current.timestamp;
+            sample.driver = driver.name;
+            sample.operations = new String[driver.operations.length];
+            for (int j = 0; j < sample.operations.length; j++)
+                sample.operations[j] = driver.operations[j].name;
+            int count = 0;
+            for (int i = 0; i < s.length; i++)
+                if (s[i] != null)
+                    ++count;
+            sample.labels = new String[count];
+            sample.values = new double[count][];
+            count = 0;
+            for (int i = 0; i < s.length; i++)
+                if (s[i] != null) {
+                    sample.labels[count] = RuntimeMetrics.LABELS[i];
+                    sample.values[count++] = s[i];
+                }
+            stats.add(sample);
+        }
+
         void quit() {
             terminated = true;
-            interrupt();
+            selector.wakeup();
+            try {
+                RegistryLocator.getRegistry().unregister(StatsService.NAME);
+            } catch (Exception e) {
+                // No registry, we run in single process mode.
+                logger.log(Level.FINER, e.getMessage(), e);
+            }
+            try {
+                UnicastRemoteObject.unexportObject(stats, true);
+            } catch (NoSuchObjectException e) {
+                logger.log(Level.FINER, e.getMessage(), e);
+            }
         }
     }
 
@@ -47,6 +47,12 @@ public class MatrixMix extends Mix {
 
 	double[][] mix;
 
+    /**
+     * Alias tables for selection, one per row of the mix. These are built
+     * when the mix is normalized.
+     */
+    AliasTable[] aliasTables;
+
     /**
      * Initializes this mix according to the annotation.
      *
@@ -292,6 +298,7 @@ public class MatrixMix extends Mix {
 				mix[i][j] /= rowTotal;
 			}
         }
+        aliasTables = buildAliasTables();
         // The following is called only to dump out the resulting mix info.
         // If the log level is not fine enough, we just do not calculate.
         // It is not necessary in the logic.
@@ -447,11 +454,20 @@ public class MatrixMix extends Mix {
      */
 	public Selector selector(Random random) {
         getLogger().finest("Get selector: " + toString());
-        Selector s = new Selector(random, mix);
+        if (aliasTables == null)
+            aliasTables = buildAliasTables();
+        Selector s = new Selector(random, mix, aliasTables);
         getLogger().finest(s.toString());
         return s;
     }
 
+    private AliasTable[] buildAliasTables() {
+        AliasTable[] tables = new AliasTable[mix.length];
+        for (int i = 0; i < mix.length; i++)
+            tables[i] = new AliasTable(mix[i]);
+        return tables;
+    }
+
     /**
      * Selector implementation for the matrix mix.
      */
@@ -459,17 +475,12 @@ public class MatrixMix extends Mix {
         private int op = -1;
         private Random random;
         private double[][] selectMix;
+        private AliasTable[] aliasTables;
 
-        Selector(Random random, double[][] mix) {
+        Selector(Random random, double[][] mix, AliasTable[] aliasTables) {
             this.random = random;
-            selectMix = new double[mix.length][mix.length];
-
-            for (int i = 0; i < mix.length; i++) {
-                selectMix[i][0] = mix[i][0];
-                for (int j = 1; j < selectMix.length; j++) {
-                    selectMix[i][j] = mix[i][j] + selectMix[i][j - 1];
-                }
-            }
+            this.aliasTables = aliasTables;
+            selectMix = mix;
         }
 
         /**
@@ -480,15 +491,8 @@ public class MatrixMix extends Mix {
 		public int select() {
             if (op == -1) { // first selection
                 op = 0;
-            } else { // Any subsequent selection
-                double val = random.drandom(0, 1);
-                int i;
-                for (i = 0; i < selectMix.length; i++) {
-					if (val <= selectMix[op][i]) {
-						break;
-					}
-				}
-                op = i;
+            } else { // Any subsequent selection, constant time.
+                op = aliasTables[op].select(random);
             }
             return op;
         }
@@ -23,6 +23,7 @@
  */
 package com.sun.faban.driver.engine;
 
+import com.sun.faban.common.ResultStore;
 import com.sun.faban.common.TableModel;
 import com.sun.faban.common.TextTable;
 import com.sun.faban.common.Utilities;
@@ -30,9 +31,22 @@ import com.sun.faban.driver.CustomMetrics;
 import com.sun.faban.driver.CustomTableMetrics;
 import com.sun.faban.driver.CycleType;
 import com.sun.faban.driver.RunControl;
+import com.sun.faban.driver.Timing;
+import com.sun.faban.driver.util.ConnectionStats;
+import com.sun.faban.driver.util.DeltaCodec;
 
+import com.sun.faban.driver.util.LogLinearHistogram;
 import com.sun.faban.driver.util.PairwiseAggregator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Date;
 import java.util.Formatter;
 import java.util.LinkedHashMap;
@@ -40,6 +54,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Generic statistics collection and reporting facility. For simple agents
@@ -53,6 +69,9 @@ public class Metrics implements Serializable, Cloneable,
 
 	private static final long serialVersionUID = 32009l;
 
+    /** The version of the histogram and graph encoding in the stream. */
+    static final int ENCODING_VERSION = 1;
+
     /*
     Response Histogram
     ~~~~~~~~~~~~~~~~~~
@@ -83,6 +102,31 @@ public class Metrics implements Serializable, Cloneable,
     /** Number of delay time buckets in histogram. */
     public static final int DELAYBUCKETS = 100;
 
+    /** Lowest discernible response time in the log-linear histogram, 1us. */
+    public static final long LOGHIST_LOWEST_NANOS = 1000l;
+
+    /** Highest trackable response time in the log-linear histogram, 1hr. */
+    public static final long LOGHIST_HIGHEST_NANOS = 3600l * 1000000000l;
+
+    /** Wire phase: resolving the server's host name. */
+    public static final int WIRE_DNS = 0;
+
+    /** Wire phase: establishing connections. */
+    public static final int WIRE_CONNECT = 1;
+
+    /** Wire phase: TLS handshakes. */
+    public static final int WIRE_TLS = 2;
+
+    /** Wire phase: from sending a request to its first response byte. */
+    public static final int WIRE_SERVER = 3;
+
+    /** Wire phase: the remainder, mostly transferring the responses. */
+    public static final int WIRE_TRANSFER = 4;
+
+    /** The names of the wire phases, indexed by the WIRE_ constants. */
+    public static final String[] WIRE_PHASES =
+            { "DNS", "Connect", "TLS", "Server", "Transfer" };
+
     // We use double here to prevent cumulative errors
 
     /** Size of the fine response time bucket. */
@@ -190,14 +234,84 @@ public class Metrics implements Serializable, Cloneable,
     /** Sum of cycle time (not think time) for little's law verification. */
     protected long cycleSum = 0;
 
+    /** Whether the driver runs open-loop at a target arrival rate. */
+    protected boolean openLoop;
+
+    /** Number of arrivals during steady state, for open-loop only. */
+    protected int arrivalCntStdy;
+
+    /** Number of arrivals started late because all threads were busy. */
+    protected int lateArrivalCntStdy;
+
+    /** Number of arrivals dropped for exceeding the max lateness. */
+    protected int droppedArrivalCntStdy;
+
+    /** Sum of the lateness of late arrivals, in ns. */
+    protected long arrivalLateSumStdy;
+
     /** Response time histogram. */
-    protected int[][] respHist;
+    protected transient int[][] respHist;
+
+    /**
+     * Log-linear response time histogram, used for percentiles if enabled.
+     * This is null unless the run configuration sets the histogram digits.
+     */
+    protected transient LogLinearHistogram[] respLogHist;
+
+    /**
+     * Sum of response times measured from the intended invoke time during
+     * steady state. Unlike the response time measured from the actual invoke
+     * time, this includes the time an operation was delayed because the
+     * thread fell behind its schedule, which is how a user arriving at the
+     * intended time would perceive the response.
+     */
+    protected double[] corrRespSumStdy;
+
+    /**
+     * Sum of response times from the intended invoke time total.
+     * This is used for runtime reporting only.
+     */
+    protected double[] corrRespSumTotal;
+
+    /** Max. response time from the intended invoke time. */
+    protected long[] corrRespMax;
+
+    /** Histogram of response times from the intended invoke time. */
+    protected transient int[][] corrRespHist;
+
+    /**
+     * Log-linear histogram of response times from the intended invoke time.
+     * This is null unless the log-linear histogram is enabled.
+     */
+    protected transient LogLinearHistogram[] corrRespLogHist;
+
+    /**
+     * Number of automatically timed transactions broken down into wire
+     * phases during steady state. This and the other wire phase stats are
+     * null unless the run configuration enables wire timing.
+     */
+    protected int[] wireCntStdy;
+
+    /** Number of transactions broken down into wire phases total. */
+    protected int[] wireCntTotal;
+
+    /** Sum of the times of each wire phase, by phase and tx type. */
+    protected double[][] wireSumStdy;
+
+    /**
+     * Sum of the times of each wire phase total.
+     * This is used for runtime reporting only.
+     */
+    protected double[][] wireSumTotal;
+
+    /** Histogram of the times of each wire phase, by phase and tx type. */
+    protected transient int[][][] wireHist;
 
     /** Histogram of actual delay times. */
-    protected int[][] delayHist;
+    protected transient int[][] delayHist;
 
     /** Histogram of selected delay times. */
-    protected int[][] targetedDelayHist;
+    protected transient int[][] targetedDelayHist;
 
     /** Start time as absolute time, in ms. */
     protected long startTime;
@@ -213,14 +327,14 @@ public class Metrics implements Serializable, Cloneable,
      * in steady state. The graph accumulates tx count during the run. The
      * final results need to be divided by the graph bucket size.
      */
-    protected int[][] thruputGraph;	/* Thruput graph */
+    protected transient int[][] thruputGraph;	/* Thruput graph */
 
     /**
      * Graph of accumulated response times over the course of the run.
      * This data need to be divided by the accumulated tx count for the
      * bucket to get the avg response time in that bucket.
      */
-    protected long[][] respGraph;
+    protected transient long[][] respGraph;
 
     /** The attached custom metrics. */
     protected LinkedHashMap<String, CustomMetrics> metricAttachments = null;
@@ -228,6 +342,13 @@ public class Metrics implements Serializable, Cloneable,
     /** The attached custom table metrics. */
     protected LinkedHashMap<String, CustomTableMetrics> tableAttachments = null;
 
+    /**
+     * The connection statistics of the HTTP transports. These are
+     * allocated with the other counters and updated atomically through
+     * countConnection, outside the stamp.
+     */
+    protected ConnectionStats connStats;
+
     /**
      * The final resulting metric. This field is only populated after
      * printing the summary report
@@ -256,6 +377,15 @@ public class Metrics implements Serializable, Cloneable,
 
     /** Reference to the thread associated with this metrics. */
     protected transient AgentThread thread;
+
+    /**
+     * The update stamp. The owning thread increments the stamp before and
+     * after updating the counters read by the runtime stats so the stamp
+     * is odd while an update is in progress. Readers use the stamp to
+     * detect and retry torn reads without locking the owning thread.
+     * @see RuntimeMetrics#copy(Metrics)
+     */
+    protected transient volatile int stamp = 0;
     
     /**
      * Constructs a Metrics object for this agent thread.
@@ -268,6 +398,7 @@ public class Metrics implements Serializable, Cloneable,
         host = agent.agent.host;
         RunInfo.DriverConfig driverConfig = runInfo.driverConfig;
         driverName = driverConfig.name;
+        openLoop = driverConfig.arrivalRate != null;
 
         txTypes = driverConfig.operations.length;
 
@@ -279,29 +410,6 @@ public class Metrics implements Serializable, Cloneable,
 			txNames[i] = driverConfig.operations[i].name;
 		}
 
-        // Initialize all the arrays.
-        txCntStdy = new int[txTypes];
-        txCntTotal = new int[txTypes];
-        errCntStdy = new int[txTypes];
-        errCntTotal = new int[txTypes];
-        delayCntStdy = new int[txTypes];
-        respSumStdy = new double[txTypes];
-        respSumTotal = new double[txTypes];
-        hiRespSumStdy = new double[txTypes];
-        sumSquaresStdy = new double[txTypes];
-        sumSquaresTotal = new double[txTypes];
-        respMax = new long[txTypes];
-        delaySum = new long[txTypes];
-        delayMax = new long[txTypes];
-        delayMin = new long[txTypes];
-        for (int i = 0; i < delayMin.length; i++) {
-			delayMin[i] = Integer.MAX_VALUE; // init to the largest number
-		}
-        targetedDelaySum = new long[txTypes];
-        respHist = new int[txTypes][RESPBUCKETS];
-        delayHist = new int[txTypes][DELAYBUCKETS];
-        targetedDelayHist = new int[txTypes][DELAYBUCKETS];
-
         // The actual run configuration is used in case it represents time.
         // This prevents us from over-allocating the thruput histogram.
         if (driverConfig.runControl == RunControl.TIME) {
@@ -314,8 +422,8 @@ public class Metrics implements Serializable, Cloneable,
 
         // Convert to ns.
         graphBucketSize = driverConfig.graphInterval * 1000000000l;
-        thruputGraph = new int[txTypes][graphBuckets];
-        respGraph = new long[txTypes][graphBuckets];
+
+        allocate(runInfo.histogramDigits, runInfo.wireTiming);
 
         // Calculate the response time histograms.
         double precision = driverConfig.responseTimeUnit.toNanos(1l);
@@ -342,6 +450,81 @@ public class Metrics implements Serializable, Cloneable,
         delayBucketSize = (int) Math.ceil(delayHistMax / DELAYBUCKETS);
     }
 
+    /**
+     * Constructs an empty Metrics object of the given shape, without an
+     * agent thread or run configuration. This is used for testing.
+     * @param host The host name
+     * @param txNames The operation names
+     * @param graphBuckets The number of graph buckets
+     * @param histogramDigits The log-linear histogram digits, or 0
+     * @param wireTiming Whether to allocate the wire phase stats
+     */
+    Metrics(String host, String[] txNames, int graphBuckets,
+            int histogramDigits, boolean wireTiming) {
+        this.host = host;
+        this.txNames = txNames;
+        txTypes = txNames.length;
+        this.graphBuckets = graphBuckets;
+        allocate(histogramDigits, wireTiming);
+    }
+
+    /**
+     * Allocates all the counters, histograms and graphs.
+     * @param histogramDigits The log-linear histogram digits, or 0
+     * @param wireTiming Whether to allocate the wire phase stats
+     */
+    private void allocate(int histogramDigits, boolean wireTiming) {
+        txCntStdy = new int[txTypes];
+        txCntTotal = new int[txTypes];
+        errCntStdy = new int[txTypes];
+        errCntTotal = new int[txTypes];
+        delayCntStdy = new int[txTypes];
+        respSumStdy = new double[txTypes];
+        respSumTotal = new double[txTypes];
+        hiRespSumStdy = new double[txTypes];
+        sumSquaresStdy = new double[txTypes];
+        sumSquaresTotal = new double[txTypes];
+        respMax = new long[txTypes];
+        delaySum = new long[txTypes];
+        delayMax = new long[txTypes];
+        delayMin = new long[txTypes];
+        for (int i = 0; i < delayMin.length; i++) {
+			delayMin[i] = Integer.MAX_VALUE; // init to the largest number
+		}
+        targetedDelaySum = new long[txTypes];
+        respHist = new int[txTypes][RESPBUCKETS];
+        corrRespSumStdy = new double[txTypes];
+        corrRespSumTotal = new double[txTypes];
+        corrRespMax = new long[txTypes];
+        corrRespHist = new int[txTypes][RESPBUCKETS];
+        delayHist = new int[txTypes][DELAYBUCKETS];
+        targetedDelayHist = new int[txTypes][DELAYBUCKETS];
+        if (histogramDigits > 0) {
+            respLogHist = new LogLinearHistogram[txTypes];
+            corrRespLogHist = new LogLinearHistogram[txTypes];
+            for (int i = 0; i < txTypes; i++) {
+                respLogHist[i] = new LogLinearHistogram(
+                        LOGHIST_LOWEST_NANOS, LOGHIST_HIGHEST_NANOS,
+                        histogramDigits);
+                corrRespLogHist[i] = new LogLinearHistogram(
+                        LOGHIST_LOWEST_NANOS, LOGHIST_HIGHEST_NANOS,
+                        histogramDigits);
+            }
+        }
+
+        if (wireTiming) {
+            int phases = WIRE_PHASES.length;
+            wireCntStdy = new int[txTypes];
+            wireCntTotal = new int[txTypes];
+            wireSumStdy = new double[phases][txTypes];
+            wireSumTotal = new double[phases][txTypes];
+            wireHist = new int[phases][txTypes][RESPBUCKETS];
+        }
+        thruputGraph = new int[txTypes][graphBuckets];
+        respGraph = new long[txTypes][graphBuckets];
+        connStats = new ConnectionStats(txNames);
+    }
+
     /**
      * Updates the various stats for a successful transaction.
      */
@@ -366,6 +549,14 @@ public class Metrics implements Serializable, Cloneable,
                               // destroy the whole run.
         }
 
+        // The response time from the intended invoke time adds the time
+        // this operation started late. It is never less than responseTime.
+        long corrRespTime = responseTime;
+        if (timingInfo.intendedInvokeTime != AgentThread.TIME_NOT_SET &&
+                timingInfo.intendedInvokeTime < timingInfo.invokeTime)
+            corrRespTime += timingInfo.invokeTime -
+                            timingInfo.intendedInvokeTime;
+
         long elapsedTime = Long.MIN_VALUE;
         if (thread.agent.startTime != Long.MIN_VALUE)
             elapsedTime = endTimeNanos - thread.agent.startTime;
@@ -381,10 +572,12 @@ public class Metrics implements Serializable, Cloneable,
             }
         }
 
+        ++stamp; // Odd, update in progress.
         txCntTotal[txType]++;
         respSumTotal[txType] += responseTime;
         sumSquaresTotal[txType] = addSumSquare(sumSquaresTotal[txType], 
                 txCntTotal[txType], respSumTotal[txType], responseTime);
+        corrRespSumTotal[txType] += corrRespTime;
 
         if (!thread.inRamp) {
             txCntStdy[txType]++;
@@ -393,24 +586,101 @@ public class Metrics implements Serializable, Cloneable,
                 txCntStdy[txType], respSumStdy[txType], responseTime);
 
             // post in histogram of response times
-            int bucket;
-            if (responseTime < fineRespHistMax) {
-                bucket = (int) (responseTime / fineRespBucketSize);
-            } else if (responseTime < coarseRespHistMax) {
-                bucket = (int) (((responseTime - fineRespHistMax) /
-                        coarseRespBucketSize) + FINE_RESPBUCKETS);
-            } else {
-                bucket = RESPBUCKETS - 1;
+            int bucket = getRespBucket(responseTime);
+            if (bucket == RESPBUCKETS - 1)
                 hiRespSumStdy[txType] += responseTime;
-            }
             respHist[txType][bucket]++;
+            if (respLogHist != null)
+                respLogHist[txType].record(responseTime);
 
             if (responseTime > respMax[txType]) {
 				respMax[txType] = responseTime;
 			}
+
+            corrRespSumStdy[txType] += corrRespTime;
+            corrRespHist[txType][getRespBucket(corrRespTime)]++;
+            if (corrRespLogHist != null)
+                corrRespLogHist[txType].record(corrRespTime);
+            if (corrRespTime > corrRespMax[txType])
+                corrRespMax[txType] = corrRespTime;
+        }
+        if (wireCntTotal != null && thread.driverConfig.
+                operations[txType].timing == Timing.AUTO)
+            recordWire(txType, timingInfo, responseTime);
+        ++stamp; // Even, update done.
+        thread.traceTx(true);
+    }
+
+    /**
+     * Breaks the response time of a transaction down into the wire phases
+     * recorded by the timed sockets. The transfer phase takes the time
+     * not accounted for by the other phases.
+     * @param txType The transaction type
+     * @param timingInfo The timing of the transaction
+     * @param responseTime The response time, in ns
+     */
+    private void recordWire(int txType, DriverContext.TimingInfo timingInfo,
+                            long responseTime) {
+        boolean steady = !thread.inRamp;
+        long transfer = responseTime - timingInfo.dnsTime -
+                timingInfo.connectTime - timingInfo.tlsTime -
+                timingInfo.serverTime;
+        if (transfer < 0l)
+            transfer = 0l;
+        ++wireCntTotal[txType];
+        if (steady)
+            ++wireCntStdy[txType];
+        recordWire(WIRE_DNS, txType, timingInfo.dnsTime, steady);
+        recordWire(WIRE_CONNECT, txType, timingInfo.connectTime, steady);
+        recordWire(WIRE_TLS, txType, timingInfo.tlsTime, steady);
+        recordWire(WIRE_SERVER, txType, timingInfo.serverTime, steady);
+        recordWire(WIRE_TRANSFER, txType, transfer, steady);
+    }
+
+    private void recordWire(int phase, int txType, long time,
+                            boolean steady) {
+        wireSumTotal[phase][txType] += time;
+        if (steady) {
+            wireSumStdy[phase][txType] += time;
+            wireHist[phase][txType][getRespBucket(time)]++;
+        }
+    }
+
+    /**
+     * Records an arrival for open-loop runs. An arrival is late if it
+     * could only be started after its arrival time.
+     * @param arrivalTime The arrival time, in ns
+     * @param lateness The time the arrival is started late, in ns
+     * @param dropped Whether the arrival is dropped
+     */
+    public void recordArrival(long arrivalTime, long lateness,
+                              boolean dropped) {
+        if (!thread.isSteadyState(arrivalTime, arrivalTime))
+            return;
+        ++arrivalCntStdy;
+        if (dropped) {
+            ++droppedArrivalCntStdy;
+        } else if (lateness > 0l) {
+            ++lateArrivalCntStdy;
+            arrivalLateSumStdy += lateness;
         }
     }
 
+    /**
+     * Obtains the response time histogram bucket for a response time.
+     * @param responseTime The response time, in ns
+     * @return The bucket index
+     */
+    private int getRespBucket(long responseTime) {
+        if (responseTime < fineRespHistMax)
+            return (int) (responseTime / fineRespBucketSize);
+        else if (responseTime < coarseRespHistMax)
+            return (int) (((responseTime - fineRespHistMax) /
+                    coarseRespBucketSize) + FINE_RESPBUCKETS);
+        else
+            return RESPBUCKETS - 1;
+    }
+
     /**
      * Records the error count for an unsuccessful transaction.
      */
@@ -422,15 +692,30 @@ public class Metrics implements Serializable, Cloneable,
 
         int txType = thread.currentOperation;
 
+        ++stamp; // Odd, update in progress.
         errCntTotal[txType]++;
 
         if (!thread.inRamp) {
             errCntStdy[txType]++;
 		}
+        ++stamp; // Even, update done.
 
         if (thread.driverContext.timingInfo.respondTime !=
                 AgentThread.TIME_NOT_SET)
             endTimeNanos = thread.driverContext.timingInfo.respondTime;
+        thread.traceTx(false);
+    }
+
+    /**
+     * Counts a connection event of the HTTP transports. The NIO selector
+     * thread counts events on behalf of the agent thread, so the stamp
+     * with its single writer does not cover these counts.
+     * @param event The event, one of the ConnectionStats event constants
+     * @param op The operation in progress, or -1 if none
+     * @param n The number of events or bytes
+     */
+    void countConnection(int event, int op, long n) {
+        connStats.add(event, op, n);
     }
 
     /**
@@ -439,6 +724,10 @@ public class Metrics implements Serializable, Cloneable,
      */
     public void recordDelayTime() {
 
+        // Open-loop runs have no cycle or think times to record.
+        if (openLoop)
+            return;
+
         int txType = thread.previousOperation[thread.mixId];
         if (txType < 0) {// First cycle, previous op is not there. Don't record.
             return;
@@ -536,6 +825,10 @@ public class Metrics implements Serializable, Cloneable,
         logger.finest("Adding cycleSum " + cycleSum + " and " + s.cycleSum);
 
         cycleSum += s.cycleSum;
+        arrivalCntStdy += s.arrivalCntStdy;
+        lateArrivalCntStdy += s.lateArrivalCntStdy;
+        droppedArrivalCntStdy += s.droppedArrivalCntStdy;
+        arrivalLateSumStdy += s.arrivalLateSumStdy;
         // Standard statistics
 		for (int i = 0; i < txTypes; i++) {
             // Add the sum squares before adding the count and response sum.
@@ -570,6 +863,27 @@ public class Metrics implements Serializable, Cloneable,
 			for (int j = 0; j < RESPBUCKETS; j++) {
 				respHist[i][j] += s.respHist[i][j];
 			}
+            if (respLogHist != null && s.respLogHist != null) {
+                respLogHist[i].add(s.respLogHist[i]);
+            }
+            corrRespSumStdy[i] += s.corrRespSumStdy[i];
+            corrRespSumTotal[i] += s.corrRespSumTotal[i];
+            if (s.corrRespMax[i] > corrRespMax[i])
+                corrRespMax[i] = s.corrRespMax[i];
+            for (int j = 0; j < RESPBUCKETS; j++)
+                corrRespHist[i][j] += s.corrRespHist[i][j];
+            if (corrRespLogHist != null && s.corrRespLogHist != null)
+                corrRespLogHist[i].add(s.corrRespLogHist[i]);
+            if (wireCntTotal != null && s.wireCntTotal != null) {
+                wireCntStdy[i] += s.wireCntStdy[i];
+                wireCntTotal[i] += s.wireCntTotal[i];
+                for (int p = 0; p < WIRE_PHASES.length; p++) {
+                    wireSumStdy[p][i] += s.wireSumStdy[p][i];
+                    wireSumTotal[p][i] += s.wireSumTotal[p][i];
+                    for (int j = 0; j < RESPBUCKETS; j++)
+                        wireHist[p][i][j] += s.wireHist[p][i][j];
+                }
+            }
 			for (int j = 0; j < graphBuckets; j++) {
 				thruputGraph[i][j] += s.thruputGraph[i][j];
                 respGraph[i][j] += s.respGraph[i][j];
@@ -608,6 +922,13 @@ public class Metrics implements Serializable, Cloneable,
             }
         }
 
+        if (connStats == null) {
+            if (s.connStats != null)
+                connStats = (ConnectionStats) s.connStats.clone();
+        } else if (s.connStats != null) {
+            connStats.add(s.connStats);
+        }
+
         // Aggregate the attached CustomTableMetrics.
         if (tableAttachments == null) {
             tableAttachments = s.tableAttachments;
@@ -796,6 +1117,42 @@ public class Metrics implements Serializable, Cloneable,
             for (int i = 0; i < respHist.length; i++) {
                 clone.respHist[i] = respHist[i].clone();
 			}
+            if (respLogHist != null) {
+                clone.respLogHist = new LogLinearHistogram[respLogHist.length];
+                for (int i = 0; i < respLogHist.length; i++) {
+                    clone.respLogHist[i] =
+                            (LogLinearHistogram) respLogHist[i].clone();
+                }
+            }
+            clone.corrRespSumStdy = corrRespSumStdy.clone();
+            clone.corrRespSumTotal = corrRespSumTotal.clone();
+            clone.corrRespMax = corrRespMax.clone();
+            clone.corrRespHist = new int[corrRespHist.length][];
+            for (int i = 0; i < corrRespHist.length; i++) {
+                clone.corrRespHist[i] = corrRespHist[i].clone();
+            }
+            if (corrRespLogHist != null) {
+                clone.corrRespLogHist =
+                        new LogLinearHistogram[corrRespLogHist.length];
+                for (int i = 0; i < corrRespLogHist.length; i++) {
+                    clone.corrRespLogHist[i] =
+                            (LogLinearHistogram) corrRespLogHist[i].clone();
+                }
+            }
+            if (wireCntTotal != null) {
+                clone.wireCntStdy = wireCntStdy.clone();
+                clone.wireCntTotal = wireCntTotal.clone();
+                clone.wireSumStdy = new double[wireSumStdy.length][];
+                clone.wireSumTotal = new double[wireSumTotal.length][];
+                clone.wireHist = new int[wireHist.length][][];
+                for (int p = 0; p < wireHist.length; p++) {
+                    clone.wireSumStdy[p] = wireSumStdy[p].clone();
+                    clone.wireSumTotal[p] = wireSumTotal[p].clone();
+                    clone.wireHist[p] = new int[wireHist[p].length][];
+                    for (int i = 0; i < wireHist[p].length; i++)
+                        clone.wireHist[p][i] = wireHist[p][i].clone();
+                }
+            }
             clone.delayHist = new int[delayHist.length][];
             for (int i = 0; i < delayHist.length; i++) {
                 clone.delayHist[i] = delayHist[i].clone();
@@ -830,12 +1187,141 @@ public class Metrics implements Serializable, Cloneable,
                             (CustomTableMetrics) entry.getValue().clone());
                 }
 			}
+            if (connStats != null)
+                clone.connStats = (ConnectionStats) connStats.clone();
         } catch (CloneNotSupportedException e) {
             // This should not happen as we already implement cloneable.
         }
         return clone;
     }
 
+    /**
+     * Serializes the metrics. The histograms and graphs make up most of
+     * the metrics and are mostly zeros, so they are written after the
+     * other fields as sparse variable length integers, deflated. The
+     * encoding is preceded by its version.
+     * @param out The object output stream
+     * @throws IOException If the stream cannot be written
+     * @see DeltaCodec
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeByte(ENCODING_VERSION);
+        ByteBuffer buffer = ByteBuffer.allocate(8192 * (txTypes + 1));
+        for (;;) {
+            try {
+                putBuckets(buffer);
+                break;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(bytes);
+        deflater.write(buffer.array(), 0, buffer.position());
+        deflater.close();
+        out.writeInt(buffer.position());
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Deserializes the metrics written by writeObject.
+     * @param in The object input stream
+     * @throws IOException If the stream cannot be read
+     * @throws ClassNotFoundException If a class in the stream is not found
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int version = in.readUnsignedByte();
+        if (version != ENCODING_VERSION)
+            throw new InvalidObjectException("Unsupported Metrics " +
+                    "encoding version " + version);
+        byte[] raw = new byte[in.readInt()];
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        DataInputStream inflater = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(bytes)));
+        inflater.readFully(raw);
+        try {
+            getBuckets(ByteBuffer.wrap(raw));
+        } catch (RuntimeException e) {
+            InvalidObjectException ex = new InvalidObjectException(
+                    "Corrupt Metrics encoding");
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    private void putBuckets(ByteBuffer buffer) {
+        buffer.clear();
+        for (int i = 0; i < txTypes; i++) {
+            DeltaCodec.putDelta(buffer, respHist[i], null);
+            DeltaCodec.putDelta(buffer, corrRespHist[i], null);
+            DeltaCodec.putDelta(buffer, delayHist[i], null);
+            DeltaCodec.putDelta(buffer, targetedDelayHist[i], null);
+            DeltaCodec.putDelta(buffer, thruputGraph[i], null);
+            DeltaCodec.putDelta(buffer, respGraph[i], null);
+        }
+        if (wireHist == null) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1);
+            for (int[][] phaseHist : wireHist)
+                for (int[] row : phaseHist)
+                    DeltaCodec.putDelta(buffer, row, null);
+        }
+        if (respLogHist == null) {
+            DeltaCodec.putVarLong(buffer, 0);
+        } else {
+            int digits = respLogHist[0].getSignificantDigits();
+            DeltaCodec.putVarLong(buffer, digits);
+            LogLinearHistogram zero = new LogLinearHistogram(
+                    LOGHIST_LOWEST_NANOS, LOGHIST_HIGHEST_NANOS, digits);
+            for (int i = 0; i < txTypes; i++) {
+                respLogHist[i].putDelta(buffer, zero);
+                corrRespLogHist[i].putDelta(buffer, zero);
+            }
+        }
+    }
+
+    private void getBuckets(ByteBuffer buffer) {
+        respHist = new int[txTypes][RESPBUCKETS];
+        corrRespHist = new int[txTypes][RESPBUCKETS];
+        delayHist = new int[txTypes][DELAYBUCKETS];
+        targetedDelayHist = new int[txTypes][DELAYBUCKETS];
+        thruputGraph = new int[txTypes][graphBuckets];
+        respGraph = new long[txTypes][graphBuckets];
+        for (int i = 0; i < txTypes; i++) {
+            DeltaCodec.getDelta(buffer, respHist[i]);
+            DeltaCodec.getDelta(buffer, corrRespHist[i]);
+            DeltaCodec.getDelta(buffer, delayHist[i]);
+            DeltaCodec.getDelta(buffer, targetedDelayHist[i]);
+            DeltaCodec.getDelta(buffer, thruputGraph[i]);
+            DeltaCodec.getDelta(buffer, respGraph[i]);
+        }
+        if (buffer.get() != 0) {
+            wireHist = new int[WIRE_PHASES.length][txTypes][RESPBUCKETS];
+            for (int[][] phaseHist : wireHist)
+                for (int[] row : phaseHist)
+                    DeltaCodec.getDelta(buffer, row);
+        }
+        int digits = (int) DeltaCodec.getVarLong(buffer);
+        if (digits > 0) {
+            respLogHist = new LogLinearHistogram[txTypes];
+            corrRespLogHist = new LogLinearHistogram[txTypes];
+            for (int i = 0; i < txTypes; i++) {
+                respLogHist[i] = new LogLinearHistogram(
+                        LOGHIST_LOWEST_NANOS, LOGHIST_HIGHEST_NANOS, digits);
+                respLogHist[i].getDelta(buffer);
+                corrRespLogHist[i] = new LogLinearHistogram(
+                        LOGHIST_LOWEST_NANOS, LOGHIST_HIGHEST_NANOS, digits);
+                corrRespLogHist[i].getDelta(buffer);
+            }
+        }
+    }
+
     /**
      * Calculates the aggregate TPS from the current stats.
      * @return The current aggregate TPS
@@ -920,7 +1406,6 @@ public class Metrics implements Serializable, Cloneable,
         boolean success = true;
         double avg, tavg;
         long respPct, resp99;
-        int sumtx, cntPct, cnt99;
         RunInfo runInfo = RunInfo.getInstance();
         Formatter formatter = new Formatter(buffer);
         double[] ckSD = null;
@@ -981,9 +1466,12 @@ public class Metrics implements Serializable, Cloneable,
                 append("</users>\n");
 
         /* avg.rt = cycle time = tx. rt + cycle time */
-        space(8, buffer);
-        formatter.format("<rtXtps>%.04f</rtXtps>\n",
-                cycleSum / (runInfo.stdyState * 1e9d));
+        // Little's law does not apply to the threads of open-loop runs.
+        if (!openLoop) {
+            space(8, buffer);
+            formatter.format("<rtXtps>%.04f</rtXtps>\n",
+                    cycleSum / (runInfo.stdyState * 1e9d));
+        }
 
         space(8, buffer).append("<passed>");
         int passStrOffset = buffer.length();
@@ -1085,30 +1573,10 @@ public class Metrics implements Serializable, Cloneable,
                     ckSD[i] = estimateStdev(i, result.avgResp[i], precision);
                 }
 
-                int k;
                 if (driver.percentiles.length > 0) {
                     for (int j = 0; j < driver.percentiles.length; j++) {
                         double pct = driver.percentiles[j];
-                        sumtx = 0;
-                        cntPct = (int)(txCntStdy[i] * (pct / 100d));
-                        k = 0;
-                        for (; k < respHist[i].length; k++) {
-                            sumtx += respHist[i][k];
-                            if (sumtx >= cntPct)	{	/* n% of tx. got */
-                                break;
-                            }
-                        }
-                        // We report the base of the next bucket.
-                        ++k;
-                        if (k < FINE_RESPBUCKETS)
-                            respPct = k * fineRespBucketSize;
-                        else if (k < RESPBUCKETS)
-                            respPct = (k - FINE_RESPBUCKETS) *
-                                    coarseRespBucketSize + fineRespHistMax;
-                        else // Report the overflow bucket.
-                             // Ensure no mistakes due to floating point errors.
-                            respPct =
-                                  2 * coarseRespBucketSize + coarseRespHistMax;
+                        respPct = getPercentileResp(i, pct);
 
                         double limit = driver.operations[i].percentileLimits[j];
                         String limitString = "";
@@ -1119,7 +1587,7 @@ public class Metrics implements Serializable, Cloneable,
                         space(16, buffer);
 
                         String indicator;
-                        if (respPct > coarseRespHistMax + coarseRespBucketSize){
+                        if (isOverflow(respPct)) {
                             result.percentiles[i][j] =
                                                 coarseRespHistMax / precision;
                             indicator = "&gt; ";
@@ -1146,28 +1614,10 @@ public class Metrics implements Serializable, Cloneable,
                     space(16, buffer).append("<passed>").append(passPct).
                             append("</passed>\n");
                 } else {
-                    sumtx = 0;
-                    cntPct = (int)(txCntStdy[i] * .90d);
-                    k = 0;
-                    for (; k < respHist[i].length; k++) {
-                        sumtx += respHist[i][k];
-                        if (sumtx >= cntPct)	{	/* 90% of tx. got */
-                            break;
-                        }
-                    }
-                    // We report the base of the next bucket.
-                    ++k;
-                    if (k < FINE_RESPBUCKETS)
-                        respPct = k * fineRespBucketSize;
-                    else if (k < RESPBUCKETS)
-                        respPct = (k - FINE_RESPBUCKETS) *
-                                coarseRespBucketSize + fineRespHistMax;
-                    else // Report the overflow bucket.
-                         // Ensure no mistakes due to floating point errors.
-                        respPct = 2 * coarseRespBucketSize + coarseRespHistMax;
+                    respPct = getPercentileResp(i, 90d);
 
                     space(16, buffer);
-                    if (respPct > coarseRespHistMax + coarseRespBucketSize) {
+                    if (isOverflow(respPct)) {
                         result.p90Resp[i] = coarseRespHistMax / precision;
                         formatter.format("<p90th>&gt; %5.3f</p90th>\n",
                                          result.p90Resp[i]);
@@ -1184,28 +1634,10 @@ public class Metrics implements Serializable, Cloneable,
                             append("</passed>\n");
 
                     // 99th% hack for Berkeley.
-                    sumtx = 0;
-                    cnt99 = (int)(txCntStdy[i] * .99d);
-                    k = 0;
-                    for (; k < respHist[i].length; k++) {
-                        sumtx += respHist[i][k];
-                        if (sumtx >= cnt99)	{	/* 90% of tx. got */
-                            break;
-                        }
-                    }
-                    // We report the base of the next bucket.
-                    ++k;
-                    if (k < FINE_RESPBUCKETS)
-                        resp99 = k * fineRespBucketSize;
-                    else if (k < RESPBUCKETS)
-                        resp99 = (k - FINE_RESPBUCKETS) * coarseRespBucketSize +
-                                fineRespHistMax;
-                    else // Report the overflow bucket
-                    // Ensure no mistakes due to floating point errors.
-                        resp99 = 2 * coarseRespBucketSize + coarseRespHistMax;
+                    resp99 = getPercentileResp(i, 99d);
 
                     space(16, buffer);
-                    if (resp99 > coarseRespHistMax + coarseRespBucketSize)
+                    if (isOverflow(resp99))
                         formatter.format("<p99th>&gt; %5.3f</p99th>\n",
                                 coarseRespHistMax / precision);
                     else
@@ -1227,6 +1659,131 @@ public class Metrics implements Serializable, Cloneable,
         }
         space(8, buffer).append("</responseTimes>\n");
 
+        // Response times from the intended invoke time. These are
+        // reported for information only and do not affect pass/fail.
+        space(8, buffer).append("<correctedResponseTimes unit=\"").
+                append(responseTimeUnit).append("\">\n");
+        for (int i = 0; i < txNames.length; i++) {
+            String nameModifier;
+            if (i < fgTxTypes) {
+                nameModifier = "";
+            } else {
+                nameModifier = " &amp;";
+            }
+            space(12, buffer);
+            formatter.format("<operation name=\"%s%s\">\n",
+                             txNames[i], nameModifier);
+            if (txCntStdy[i] > 0) {
+                space(16, buffer);
+                formatter.format("<avg>%5.3f</avg>\n",
+                        (corrRespSumStdy[i] / txCntStdy[i]) / precision);
+                space(16, buffer);
+                formatter.format("<max>%5.3f</max>\n",
+                        corrRespMax[i] / precision);
+                double[] pcts;
+                if (driver.percentiles.length > 0)
+                    pcts = driver.percentiles;
+                else
+                    pcts = new double[] { 90d, 99d };
+                for (int j = 0; j < pcts.length; j++) {
+                    String pctString;
+                    String pctSuffix;
+                    if (driver.percentiles.length > 0) {
+                        pctString = driver.pctString[j];
+                        pctSuffix = driver.pctSuffix[j];
+                        if (pctSuffix == null)
+                            pctSuffix = getSuffix(pctString);
+                    } else {
+                        pctString = String.valueOf((int) pcts[j]);
+                        pctSuffix = "th";
+                    }
+                    respPct = getPercentileCorrResp(i, pcts[j]);
+                    space(16, buffer);
+                    if (isOverflow(respPct))
+                        formatter.format("<percentile nth=\"%s\" " +
+                                "suffix=\"%s\">&gt; %5.3f</percentile>\n",
+                                pctString, pctSuffix,
+                                coarseRespHistMax / precision);
+                    else
+                        formatter.format("<percentile nth=\"%s\" " +
+                                "suffix=\"%s\">%5.3f</percentile>\n",
+                                pctString, pctSuffix, respPct / precision);
+                }
+            } else {
+                space(16, buffer).append("<avg/>\n");
+                space(16, buffer).append("<max/>\n");
+            }
+            space(12, buffer).append("</operation>\n");
+        }
+        space(8, buffer).append("</correctedResponseTimes>\n");
+
+        // Wire phases of the response times, for information only.
+        if (wireCntStdy != null) {
+            space(8, buffer).append("<wireTimes unit=\"").
+                    append(responseTimeUnit).append("\">\n");
+            for (int i = 0; i < txNames.length; i++) {
+                String nameModifier;
+                if (i < fgTxTypes) {
+                    nameModifier = "";
+                } else {
+                    nameModifier = " &amp;";
+                }
+                space(12, buffer);
+                formatter.format("<operation name=\"%s%s\">\n",
+                                 txNames[i], nameModifier);
+                for (int p = 0; p < WIRE_PHASES.length; p++) {
+                    space(16, buffer).append("<phase name=\"").
+                            append(WIRE_PHASES[p]).append("\">\n");
+                    if (wireCntStdy[i] > 0) {
+                        space(20, buffer);
+                        formatter.format("<avg>%5.3f</avg>\n",
+                                (wireSumStdy[p][i] / wireCntStdy[i]) /
+                                precision);
+                        respPct = getPercentileResp(wireHist[p][i], null,
+                                wireCntStdy[i], 90d);
+                        space(20, buffer);
+                        if (respPct > coarseRespHistMax +
+                                coarseRespBucketSize)
+                            formatter.format("<percentile nth=\"90\" " +
+                                    "suffix=\"th\">&gt; %5.3f</percentile>\n",
+                                    coarseRespHistMax / precision);
+                        else
+                            formatter.format("<percentile nth=\"90\" " +
+                                    "suffix=\"th\">%5.3f</percentile>\n",
+                                    respPct / precision);
+                    } else {
+                        space(20, buffer).append("<avg/>\n");
+                    }
+                    space(16, buffer).append("</phase>\n");
+                }
+                space(12, buffer).append("</operation>\n");
+            }
+            space(8, buffer).append("</wireTimes>\n");
+        }
+
+        if (openLoop) {
+            space(8, buffer).append("<arrivals>\n");
+            space(12, buffer);
+            formatter.format("<offeredRate unit=\"%s\">%.03f" +
+                    "</offeredRate>\n", driver.metric,
+                    arrivalCntStdy / (double) runInfo.stdyState);
+            space(12, buffer).append("<offered>").append(arrivalCntStdy).
+                    append("</offered>\n");
+            space(12, buffer).append("<late>").append(lateArrivalCntStdy).
+                    append("</late>\n");
+            space(12, buffer).append("<dropped>").
+                    append(droppedArrivalCntStdy).append("</dropped>\n");
+            space(12, buffer);
+            if (lateArrivalCntStdy > 0)
+                formatter.format("<avgLateness unit=\"%s\">%5.3f" +
+                        "</avgLateness>\n", responseTimeUnit,
+                        arrivalLateSumStdy / (lateArrivalCntStdy * precision));
+            else
+                formatter.format("<avgLateness unit=\"%s\"/>\n",
+                                 responseTimeUnit);
+            space(8, buffer).append("</arrivals>\n");
+        }
+
         if (logger.isLoggable(crosscheck) && !Double.isNaN(ckSD[0])) {
             StringBuilder b = new StringBuilder();
             Formatter f = new Formatter(b);
@@ -1360,42 +1917,14 @@ public class Metrics implements Serializable, Cloneable,
             }
         }
 
+        if (connStats != null && !connStats.isEmpty())
+            printTable(buffer, "Connection Statistics", connStats, logger);
+
         if (tableAttachments != null) {
             Set<Map.Entry<String, CustomTableMetrics>> entries =
                     tableAttachments.entrySet();
-            for (Map.Entry<String, CustomTableMetrics> entry : entries) {
-                CustomTableMetrics attachment = entry.getValue();
-                TableModel table = null;
-                try {
-                    table = attachment.getResults();
-                } catch (Exception e) { // Ensure the getResults
-                    // doesn't break report generation.
-                    logger.log(Level.WARNING,
-                            "Exceptions reporting CustomTableMetrics", e);
-                }
-                int rows = table.rows();
-                if (table != null && rows > 0) {
-                    space(8, buffer).append("<customTable name=\"").
-                            append(entry.getKey()).append("\">\n");
-                    space(12, buffer).append("<head>\n");
-                    for (int i = 0; i < table.columns(); i++) {
-                    space(16, buffer).append("<th>").append(table.getHeader(i)).
-                            append("</th>\n");
-                    }
-                    space(12, buffer).append("</head>\n");
-
-                    for(int i = 0; i < rows; i++) {
-                        Comparable[] row = table.getRow(i);
-                        space(12, buffer).append("<tr>\n");
-                        for (int j = 0; j < row.length; j++) {
-                            space(16, buffer).append("<td>").append(row[j]).
-                                    append("</td>\n");
-                        }
-                        space(12, buffer).append("</tr>\n");
-                    }
-                    space(8, buffer).append("</customTable>\n");
-                }
-            }
+            for (Map.Entry<String, CustomTableMetrics> entry : entries)
+                printTable(buffer, entry.getKey(), entry.getValue(), logger);
         }
 
         space(4, buffer).append("</driverSummary>\n");
@@ -1409,6 +1938,47 @@ public class Metrics implements Serializable, Cloneable,
         return success;
     }
 
+    /**
+     * Prints the results of a custom table metrics into the summary.
+     * @param buffer The buffer
+     * @param name The name of the table
+     * @param metrics The table metrics
+     * @param logger The logger to report errors
+     */
+    private void printTable(StringBuilder buffer, String name,
+                            CustomTableMetrics metrics, Logger logger) {
+        TableModel table = null;
+        try {
+            table = metrics.getResults();
+        } catch (Exception e) { // Ensure the getResults
+            // doesn't break report generation.
+            logger.log(Level.WARNING,
+                    "Exceptions reporting CustomTableMetrics", e);
+        }
+        if (table == null || table.rows() == 0)
+            return;
+        int rows = table.rows();
+        space(8, buffer).append("<customTable name=\"").
+                append(name).append("\">\n");
+        space(12, buffer).append("<head>\n");
+        for (int i = 0; i < table.columns(); i++) {
+            space(16, buffer).append("<th>").append(table.getHeader(i)).
+                    append("</th>\n");
+        }
+        space(12, buffer).append("</head>\n");
+
+        for(int i = 0; i < rows; i++) {
+            Comparable<?>[] row = table.getRow(i);
+            space(12, buffer).append("<tr>\n");
+            for (int j = 0; j < row.length; j++) {
+                space(16, buffer).append("<td>").append(row[j]).
+                        append("</td>\n");
+            }
+            space(12, buffer).append("</tr>\n");
+        }
+        space(8, buffer).append("</customTable>\n");
+    }
+
     private String getSuffix(String pct) {
         String suffix;
         // When we have decimals, suffix is th
@@ -1431,6 +2001,75 @@ public class Metrics implements Serializable, Cloneable,
         return suffix;
     }
 
+    /**
+     * Obtains the steady state response time at a given percentile. If the
+     * log-linear histogram is enabled, the percentile is taken from that
+     * histogram. Otherwise we report the base of the bucket following the
+     * percentile in the response time histogram. A result beyond
+     * coarseRespHistMax + coarseRespBucketSize denotes the overflow bucket.
+     * @param type The operation type
+     * @param pct The percentile
+     * @return The response time at the percentile, in ns
+     */
+    private long getPercentileResp(int type, double pct) {
+        return getPercentileResp(respHist[type], respLogHist == null ?
+                                 null : respLogHist[type],
+                                 txCntStdy[type], pct);
+    }
+
+    /**
+     * Obtains the steady state response time from the intended invoke time
+     * at a given percentile.
+     * @param type The operation type
+     * @param pct The percentile
+     * @return The response time at the percentile, in ns
+     * @see #getPercentileResp(int, double)
+     */
+    private long getPercentileCorrResp(int type, double pct) {
+        return getPercentileResp(corrRespHist[type], corrRespLogHist == null ?
+                                 null : corrRespLogHist[type],
+                                 txCntStdy[type], pct);
+    }
+
+    private long getPercentileResp(int[] hist, LogLinearHistogram logHist,
+                                   int count, double pct) {
+        if (logHist != null)
+            return logHist.getValueAtPercentile(pct);
+
+        int sumtx = 0;
+        int cntPct = (int) (count * (pct / 100d));
+        int k = 0;
+        for (; k < hist.length; k++) {
+            sumtx += hist[k];
+            if (sumtx >= cntPct) {	/* n% of tx. got */
+                break;
+            }
+        }
+        // We report the base of the next bucket.
+        ++k;
+        long respPct;
+        if (k < FINE_RESPBUCKETS)
+            respPct = k * fineRespBucketSize;
+        else if (k < RESPBUCKETS)
+            respPct = (k - FINE_RESPBUCKETS) *
+                    coarseRespBucketSize + fineRespHistMax;
+        else // Report the overflow bucket.
+             // Ensure no mistakes due to floating point errors.
+            respPct = 2 * coarseRespBucketSize + coarseRespHistMax;
+        return respPct;
+    }
+
+    /**
+     * Checks whether a percentile response time obtained from
+     * getPercentileResp falls into the overflow bucket.
+     * @param respPct The percentile response time, in ns
+     * @return true if the response time is in the overflow bucket
+     */
+    private boolean isOverflow(long respPct) {
+        return respLogHist == null &&
+                respPct > coarseRespHistMax + coarseRespBucketSize;
+    }
+
     /**
      * Estimates the standard deviation of response time based on the histogram.
      * This is primarily used for cross-checking the more accurate algorithms
@@ -1537,14 +2176,17 @@ public class Metrics implements Serializable, Cloneable,
      * Now, we need to flatten the response time histogram into a flat one
      * before plotting. We do this, here. We'll end up with more entries, but
      * we really don't care since this is one copy, once per run at report time.
+     * The wire phase histograms share the same structure.
+     * @param hist The histogram to flatten
+     * @return The flattened histogram, or hist if it needs no flattening
      */
-    private void flattenRespHist() {
-        int limit = getBucketLimit(respHist);
+    private int[][] flattenRespHist(int[][] hist) {
+        int limit = getBucketLimit(hist);
 
         // If all buckets are used, the last one does not get extrapolated
         // as it has the data of that bucket and beyond.
         boolean spareLastBucket = false;
-        if (limit == respHist[0].length)
+        if (limit == hist[0].length)
             spareLastBucket = true;
 
         if (limit > FINE_RESPBUCKETS) {
@@ -1557,15 +2199,15 @@ public class Metrics implements Serializable, Cloneable,
                 size = (limit - FINE_RESPBUCKETS) * RESPBUCKET_SIZE_RATIO +
                                                         FINE_RESPBUCKETS;
             }
-            int[][] respHist = new int[txTypes][size];
+            int[][] flatHist = new int[txTypes][size];
             for (int i = 0; i < txTypes; i++) {
 
                 // Copy the fine buckets unchanged.
-                System.arraycopy(this.respHist[i], 0, respHist[i], 0,
+                System.arraycopy(hist[i], 0, flatHist[i], 0,
                                  FINE_RESPBUCKETS);
 
                 for (int j = FINE_RESPBUCKETS; j < limit; j++) {
-                    int count = this.respHist[i][j];
+                    int count = hist[i][j];
                     // Spread the count among all 10 flat buckets.
                     int base = count / RESPBUCKET_SIZE_RATIO;
                     int remainder = count % RESPBUCKET_SIZE_RATIO;
@@ -1574,18 +2216,19 @@ public class Metrics implements Serializable, Cloneable,
                     int k = 9;
                     // The higher buckets get the base
                     for (; k >= remainder; k--)
-                        respHist[i][baseIdx + k] = base;
+                        flatHist[i][baseIdx + k] = base;
                     // The lower remaining buckets get the base + 1
                     ++base;
                     for (; k >= 0; k--)
-                        respHist[i][baseIdx + k] = base;
+                        flatHist[i][baseIdx + k] = base;
                 }
                 if (spareLastBucket)
                     // Just copy the last bucket.
-                    respHist[i][size - 1] = this.respHist[i][limit];
+                    flatHist[i][size - 1] = hist[i][limit];
             }
-            this.respHist = respHist;
+            return flatHist;
         }
+        return hist;
     }
 
     /**
@@ -1600,7 +2243,7 @@ public class Metrics implements Serializable, Cloneable,
         String responseTimeUnit = driver.responseTimeUnit.toString().
                 toLowerCase();
 
-        flattenRespHist();
+        respHist = flattenRespHist(respHist);
 
         printGraph(b, "Throughput", graphBucketSize,
                 "%.0f", "%.2f", thruputGraph, graphBucketSize);
@@ -1613,6 +2256,13 @@ public class Metrics implements Serializable, Cloneable,
                 responseTimeUnit + ")", fineRespBucketSize / precision, "%.5f",
                 respHist);
 
+        if (wireHist != null)
+            for (int p = 0; p < WIRE_PHASES.length; p++)
+                printHistogram(b, "Frequency Distribution of " +
+                        WIRE_PHASES[p] + " Times (" + responseTimeUnit + ")",
+                        fineRespBucketSize / precision, "%.5f",
+                        flattenRespHist(wireHist[p]));
+
         printHistogram(b, "Frequency Distribution of Cycle/Think Times " +
                 "(seconds)", delayBucketSize / 1e9d, "%.3f", delayHist);
 
@@ -1621,6 +2271,78 @@ public class Metrics implements Serializable, Cloneable,
                 targetedDelayHist);
     }
 
+    /**
+     * Obtains the results for the binary result store. The series and
+     * histograms are the same as those printed by printDetail. This must
+     * be called before printDetail, which flattens the response time
+     * histogram in place.
+     * @return The results of this driver
+     */
+    public ResultStore.Driver getStoreResults() {
+        RunInfo runInfo = RunInfo.getInstance();
+        BenchmarkDefinition.Driver driver = runInfo.driverConfigs[driverType];
+        double precision = driver.responseTimeUnit.toNanos(1l);
+        double graphBucketSize = this.graphBucketSize / 1e9d;
+
+        ResultStore.Driver d = new ResultStore.Driver();
+        d.name = driverName;
+        d.responseUnit = driver.responseTimeUnit.toString().toLowerCase();
+        d.operations = txNames.clone();
+
+        double[] pcts = driver.percentiles;
+        d.percentileNames = driver.pctString;
+        if (pcts.length == 0) {
+            pcts = new double[] { 90d };
+            d.percentileNames = new String[] { "90" };
+        }
+        d.avgResponse = new double[txTypes];
+        d.percentiles = new double[pcts.length][txTypes];
+        for (int i = 0; i < txTypes; i++) {
+            if (txCntStdy[i] == 0) {
+                d.avgResponse[i] = Double.NaN;
+                for (int j = 0; j < pcts.length; j++)
+                    d.percentiles[j][i] = Double.NaN;
+                continue;
+            }
+            d.avgResponse[i] = (respSumStdy[i] / txCntStdy[i]) / precision;
+            for (int j = 0; j < pcts.length; j++) {
+                long respPct = getPercentileResp(i, pcts[j]);
+                if (isOverflow(respPct))
+                    respPct = coarseRespHistMax;
+                d.percentiles[j][i] = respPct / precision;
+            }
+        }
+
+        int bucketLimit = thruputGraph[0].length;
+        if (runInfo.driverConfigs[driverType].runControl == RunControl.CYCLES)
+            bucketLimit = getBucketLimit(thruputGraph);
+        d.graphInterval = graphBucketSize;
+        d.throughput = new double[txTypes][bucketLimit];
+        d.response = new double[txTypes][bucketLimit];
+        for (int j = 0; j < txTypes; j++)
+            for (int i = 0; i < bucketLimit; i++) {
+                d.throughput[j][i] = thruputGraph[j][i] / graphBucketSize;
+                if (thruputGraph[j][i] != 0)
+                    d.response[j][i] = respGraph[j][i] /
+                            (precision * thruputGraph[j][i]);
+            }
+
+        d.responseBucket = fineRespBucketSize / precision;
+        d.responseHistogram = trimHistogram(flattenRespHist(respHist));
+        d.delayBucket = delayBucketSize / 1e9d;
+        d.delayHistogram = trimHistogram(delayHist);
+        d.targetedDelayHistogram = trimHistogram(targetedDelayHist);
+        return d;
+    }
+
+    private int[][] trimHistogram(int[][] histogram) {
+        int bucketLimit = getBucketLimit(histogram);
+        int[][] trimmed = new int[txTypes][bucketLimit];
+        for (int j = 0; j < txTypes; j++)
+            System.arraycopy(histogram[j], 0, trimmed[j], 0, bucketLimit);
+        return trimmed;
+    }
+
     @SuppressWarnings("boxing")
     private void printGraph(StringBuilder b, String label, double unit,
                             String unitFormat, String dataFormat,
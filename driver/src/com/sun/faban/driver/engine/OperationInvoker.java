@@ -0,0 +1,296 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.FatalException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The OperationInvoker calls a benchmark operation on a driver instance.
+ * For public operations of public driver classes, a small subclass is
+ * generated per operation that calls the operation directly, so the driver
+ * loop does not go through reflection on each invocation. Other operations
+ * are invoked reflectively. This class is public only so the generated
+ * subclasses, defined in their own class loader, can extend it.
+ */
+public abstract class OperationInvoker {
+
+    private static final String SUPER_NAME =
+            OperationInvoker.class.getName().replace('.', '/');
+    private static final String PACKAGE =
+            "com/sun/faban/driver/engine/invoker/";
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    /**
+     * Constructs the invoker. Only this class and its generated
+     * subclasses construct invokers.
+     */
+    protected OperationInvoker() {
+    }
+
+    /**
+     * Invokes the operation. The exceptions thrown by the operation are
+     * passed on as is, not wrapped.
+     * @param driver The driver instance
+     * @throws Throwable Any exception thrown by the operation
+     */
+    public abstract void invoke(Object driver) throws Throwable;
+
+    /**
+     * Creates the invoker for an operation method. If no direct invoker
+     * can be generated for the method, a reflective invoker is returned.
+     * @param m The operation method
+     * @return The invoker, or null if the method is null
+     */
+    static OperationInvoker create(Method m) {
+        if (m == null)
+            return null;
+        if (isDirect(m))
+            try {
+                return generate(m);
+            } catch (Throwable e) { // Catches LinkageErrors, too.
+                Logger.getLogger(OperationInvoker.class.getName()).log(
+                        Level.FINE, "Cannot generate invoker for " +
+                        m.getName() + ", using reflection.", e);
+            }
+        return new Reflective(m);
+    }
+
+    /**
+     * Checks whether a generated invoker can call the method. It needs
+     * to be a public instance method without arguments of a public class.
+     * @param m The method
+     * @return true if a generated invoker can call the method
+     */
+    private static boolean isDirect(Method m) {
+        Class<?> c = m.getDeclaringClass();
+        int mod = m.getModifiers();
+        return Modifier.isPublic(mod) && !Modifier.isStatic(mod) &&
+                Modifier.isPublic(c.getModifiers()) && !c.isInterface() &&
+                m.getParameterTypes().length == 0 &&
+                c.getClassLoader() != null;
+    }
+
+    private static OperationInvoker generate(Method m) throws Exception {
+        Class<?> c = m.getDeclaringClass();
+        String name = PACKAGE + "Invoker" + counter.incrementAndGet();
+        byte[] bytes = classBytes(name, c.getName().replace('.', '/'),
+                m.getName(), "()" + descriptor(m.getReturnType()),
+                m.getReturnType());
+        Loader loader = new Loader(c.getClassLoader());
+
+        // The generated class must extend this very class.
+        if (loader.loadClass(OperationInvoker.class.getName()) !=
+                OperationInvoker.class)
+            throw new ClassNotFoundException(OperationInvoker.class.getName() +
+                    " not visible from " + c.getName());
+        Class<?> invoker = loader.define(name.replace('/', '.'), bytes);
+        return (OperationInvoker) invoker.getConstructor().newInstance();
+    }
+
+    /**
+     * Writes the class file of a subclass whose invoke method casts the
+     * driver to the target class and calls the target method. The class
+     * file version is Java 5 so no stack map frames are needed.
+     */
+    private static byte[] classBytes(String name, String target,
+                                     String method, String desc,
+                                     Class<?> returnType) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);              // Minor version
+        out.writeShort(49);             // Major version, Java 5
+
+        out.writeShort(18);             // Constant pool count
+        utf8(out, name);                // 1
+        classRef(out, 1);               // 2
+        utf8(out, SUPER_NAME);          // 3
+        classRef(out, 3);               // 4
+        utf8(out, "<init>");            // 5
+        utf8(out, "()V");               // 6
+        nameAndType(out, 5, 6);         // 7
+        methodRef(out, 4, 7);           // 8
+        utf8(out, target);              // 9
+        classRef(out, 9);               // 10
+        utf8(out, method);              // 11
+        utf8(out, desc);                // 12
+        nameAndType(out, 11, 12);       // 13
+        methodRef(out, 10, 13);         // 14
+        utf8(out, "invoke");            // 15
+        utf8(out, "(Ljava/lang/Object;)V"); // 16
+        utf8(out, "Code");              // 17
+
+        out.writeShort(0x0031);         // ACC_PUBLIC, ACC_FINAL, ACC_SUPER
+        out.writeShort(2);              // This class
+        out.writeShort(4);              // Super class
+        out.writeShort(0);              // Interfaces
+        out.writeShort(0);              // Fields
+        out.writeShort(2);              // Methods
+
+        // public <init>() { super(); }
+        out.writeShort(0x0001);
+        out.writeShort(5);
+        out.writeShort(6);
+        out.writeShort(1);
+        code(out, 1, 1, new byte[] {
+            0x2a,                               // aload_0
+            (byte) 0xb7, 0, 8,                  // invokespecial #8
+            (byte) 0xb1                         // return
+        });
+
+        // public void invoke(Object d) { ((Target) d).method(); }
+        byte pop = 0;                           // nop
+        if (returnType == long.class || returnType == double.class)
+            pop = 0x58;                         // pop2
+        else if (returnType != void.class)
+            pop = 0x57;                         // pop
+        out.writeShort(0x0001);
+        out.writeShort(15);
+        out.writeShort(16);
+        out.writeShort(1);
+        code(out, 2, 2, new byte[] {
+            0x2b,                               // aload_1
+            (byte) 0xc0, 0, 10,                 // checkcast #10
+            (byte) 0xb6, 0, 14,                 // invokevirtual #14
+            pop,
+            (byte) 0xb1                         // return
+        });
+
+        out.writeShort(0);              // Class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void utf8(DataOutputStream out, String s)
+            throws IOException {
+        out.writeByte(1);
+        out.writeUTF(s);
+    }
+
+    private static void classRef(DataOutputStream out, int name)
+            throws IOException {
+        out.writeByte(7);
+        out.writeShort(name);
+    }
+
+    private static void nameAndType(DataOutputStream out, int name, int type)
+            throws IOException {
+        out.writeByte(12);
+        out.writeShort(name);
+        out.writeShort(type);
+    }
+
+    private static void methodRef(DataOutputStream out, int owner, int nat)
+            throws IOException {
+        out.writeByte(10);
+        out.writeShort(owner);
+        out.writeShort(nat);
+    }
+
+    private static void code(DataOutputStream out, int maxStack,
+                             int maxLocals, byte[] code) throws IOException {
+        out.writeShort(17);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);              // Exception table
+        out.writeShort(0);              // Code attributes
+    }
+
+    private static String descriptor(Class<?> c) {
+        if (c == void.class)
+            return "V";
+        if (c == boolean.class)
+            return "Z";
+        if (c == byte.class)
+            return "B";
+        if (c == char.class)
+            return "C";
+        if (c == short.class)
+            return "S";
+        if (c == int.class)
+            return "I";
+        if (c == long.class)
+            return "J";
+        if (c == float.class)
+            return "F";
+        if (c == double.class)
+            return "D";
+        if (c.isArray())
+            return c.getName().replace('.', '/');
+        return 'L' + c.getName().replace('.', '/') + ';';
+    }
+
+    /**
+     * The class loader for a generated invoker. It delegates everything
+     * else to the loader of the driver class.
+     */
+    private static class Loader extends ClassLoader {
+
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Invokes the operation through reflection, unwrapping the exceptions
+     * thrown by the operation.
+     */
+    static class Reflective extends OperationInvoker {
+
+        private static final Object[] NO_ARGS = new Object[0];
+        private final Method m;
+
+        Reflective(Method m) {
+            this.m = m;
+        }
+
+        public void invoke(Object driver) throws Throwable {
+            try {
+                m.invoke(driver, NO_ARGS);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw cause == null ? e : cause;
+            } catch (IllegalAccessException e) {
+                throw new FatalException(e);
+            }
+        }
+    }
+}
@@ -26,9 +26,11 @@ package com.sun.faban.driver.engine;
 import com.sun.faban.common.ParamReader;
 import com.sun.faban.driver.ConfigurationException;
 import com.sun.faban.driver.RunControl;
+import com.sun.faban.driver.transport.util.SSLSessionModes;
 import org.w3c.dom.CDATASection;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
@@ -92,6 +94,9 @@ public class RunInfo implements Serializable {
     
     /** Whether agents start in parallel. */
     public boolean parallelAgentThreadStart = false;
+
+    /** Whether agent threads execute on virtual threads, if supported. */
+    public boolean virtualThreads = false;
     
     /**
      * Milliseconds between thread start.
@@ -110,12 +115,36 @@ public class RunInfo implements Serializable {
     /** The time interval for graphing. */
     public int graphInterval = 10; // 30 seconds
 
+    /**
+     * Significant digits of the log-linear response time histogram,
+     * 0 to use the fixed response time buckets only.
+     */
+    public int histogramDigits = 0;
+
+    /** Whether to write a binary trace of every transaction. */
+    public boolean traceTransactions = false;
+
+    /**
+     * Whether to break response times down into the DNS, connect, TLS,
+     * server and transfer phases measured by the timed sockets.
+     */
+    public boolean wireTiming = false;
+
+    /** Which TLS sessions new connections of the transports may resume. */
+    public SSLSessionModes sslSessions = SSLSessionModes.SHARED;
+
     /** Whether the runtime stats are enabled. */
     public boolean runtimeStatsEnabled = false;
 
     /** Interval for runtime stats. */
     public int runtimeStatsInterval = 10;
 
+    /**
+     * Number of intervals the current runtime stats are taken over. This
+     * smoothes short intervals.
+     */
+    public int runtimeStatsWindow = 1;
+
     /** The current driver config object. */
     public DriverConfig driverConfig;
 
@@ -299,6 +328,9 @@ public class RunInfo implements Serializable {
         /** Driver level variable load file. */
         public String variableLoadFile;
 
+        /** Target arrival rate for open-loop runs, null for closed-loop. */
+        public ArrivalRate arrivalRate;
+
         /** Property element of the configuration DOM tree. */
         public Element properties;
 
@@ -454,12 +486,92 @@ public class RunInfo implements Serializable {
            
         }
 
+        /**
+         * Reads the arrival rate for an open-loop driver.
+         * @param driverConfigNode The driverConfig element
+         * @return The arrival rate, or null if not configured
+         * @throws Exception If the arrival rate is not valid
+         */
+        private ArrivalRate getArrivalRate(Element driverConfigNode)
+                throws Exception {
+            Element rateNode = (Element) xp.evaluate("fd:arrivalRate",
+                    driverConfigNode, XPathConstants.NODE);
+            if (rateNode == null)
+                return null;
+
+            ArrivalRate arrivalRate = new ArrivalRate();
+            String v = xp.evaluate("@maxLateness", rateNode);
+            if (v != null && v.length() > 0) {
+                try {
+                    arrivalRate.maxLateness = Long.parseLong(v) * 1000000l;
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<arrivalRate maxLateness> must be an integer.");
+                }
+            }
+
+            Element typeNode = (Element) xp.evaluate("*[1]", rateNode,
+                    XPathConstants.NODE);
+            if (typeNode == null)
+                throw new ConfigurationException("<arrivalRate> requires " +
+                        "one of <constant>, <step>, or <poisson>.");
+            String type = typeNode.getLocalName();
+            if ("constant".equals(type) || "poisson".equals(type)) {
+                arrivalRate.type = "constant".equals(type) ?
+                        ArrivalRate.Type.CONSTANT : ArrivalRate.Type.POISSON;
+                arrivalRate.rates = new double[1];
+                arrivalRate.rates[0] = parseRate(xp.evaluate(".", typeNode));
+            } else if ("step".equals(type)) {
+                arrivalRate.type = ArrivalRate.Type.STEP;
+                NodeList steps = (NodeList) xp.evaluate("fd:rate", typeNode,
+                        XPathConstants.NODESET);
+                if (steps.getLength() == 0)
+                    throw new ConfigurationException(
+                            "<step> requires one or more <rate> elements.");
+                arrivalRate.rates = new double[steps.getLength()];
+                arrivalRate.stepEnds = new long[steps.getLength()];
+                long stepEnd = 0l;
+                for (int i = 0; i < steps.getLength(); i++) {
+                    Element step = (Element) steps.item(i);
+                    arrivalRate.rates[i] = parseRate(xp.evaluate(".", step));
+                    try {
+                        stepEnd += Integer.parseInt(
+                                xp.evaluate("@duration", step)) * 1000000000l;
+                    } catch (NumberFormatException e) {
+                        throw new ConfigurationException(
+                                "<rate duration> must be an integer.");
+                    }
+                    arrivalRate.stepEnds[i] = stepEnd;
+                }
+            } else {
+                throw new ConfigurationException("Unknown arrival rate <" +
+                        type + ">, expected <constant>, <step>, or <poisson>.");
+            }
+            return arrivalRate;
+        }
+
+        private double parseRate(String v) throws ConfigurationException {
+            double rate;
+            try {
+                rate = Double.parseDouble(v.trim());
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException(
+                        "Arrival rate must be a number, found: " + v);
+            }
+            if (rate <= 0d)
+                throw new ConfigurationException(
+                        "Arrival rate must be positive, found: " + v);
+            return rate;
+        }
+
         private static enum TransportProvider {
 
             // We can add more providers here.
             SUN ("com.sun.faban.driver.transport.sunhttp.SunHttpTransport"),
 
-            APACHE3 ("com.sun.faban.driver.transport.hc3.ApacheHC3Transport");
+            APACHE3 ("com.sun.faban.driver.transport.hc3.ApacheHC3Transport"),
+
+            NIO ("com.sun.faban.driver.transport.nio.NioHttpTransport");
 
 
             final String providerClass;
@@ -1070,6 +1182,17 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:sslSessions", runConfigNode);
+            if (v != null && v.length() > 0) {
+                try {
+                    runInfo.sslSessions = SSLSessionModes.valueOf(
+                            v.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new ConfigurationException(
+                            "<sslSessions> must be shared, user, or none.");
+                }
+            }
+
             v = xp.evaluate("fd:threadStart/fd:delay", runConfigNode);
             if (v != null && v.length() > 0) {
 				try {
@@ -1100,6 +1223,16 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:threadStart/fd:virtual", runConfigNode);
+            if (v != null && v.length() > 0) {
+				try {
+                    runInfo.virtualThreads = relaxedParseBoolean(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<virtual> must be true or false.");
+                }
+			}
+
             v = xp.evaluate("fd:stats/fd:maxRunTime", runConfigNode);
             if (v!= null && v.length() > 0) {
 				try {
@@ -1120,6 +1253,40 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:stats/fd:histogramDigits", runConfigNode);
+            if (v != null && v.length() > 0) {
+				try {
+                    runInfo.histogramDigits = Integer.parseInt(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<histogramDigits> must be an integer.");
+                }
+                if (runInfo.histogramDigits < 0 ||
+                        runInfo.histogramDigits > 5)
+                    throw new ConfigurationException(
+                            "<histogramDigits> must be from 0 to 5.");
+			}
+
+            v = xp.evaluate("fd:stats/fd:traceTransactions", runConfigNode);
+            if (v != null && v.length() > 0) {
+                try {
+                    runInfo.traceTransactions = relaxedParseBoolean(v);
+                } catch (Exception e) {
+                    throw new ConfigurationException(
+                            "<traceTransactions> must be true or false.");
+                }
+            }
+
+            v = xp.evaluate("fd:stats/fd:wireTiming", runConfigNode);
+            if (v != null && v.length() > 0) {
+                try {
+                    runInfo.wireTiming = relaxedParseBoolean(v);
+                } catch (Exception e) {
+                    throw new ConfigurationException(
+                            "<wireTiming> must be true or false.");
+                }
+            }
+
             v = xp.evaluate("fd:runtimeStats/@enabled", runConfigNode);
             if (v != null && v.length() > 0) {
 				try {
@@ -1140,6 +1307,19 @@ public class RunInfo implements Serializable {
                 }
 			}
 
+            v = xp.evaluate("fd:runtimeStats/fd:window", runConfigNode);
+            if (v != null && v.length() > 0) {
+                try {
+                    runInfo.runtimeStatsWindow = Integer.parseInt(v);
+                } catch (NumberFormatException e) {
+                    throw new ConfigurationException(
+                            "<window> must be an integer.");
+                }
+                if (runInfo.runtimeStatsWindow < 1)
+                    throw new ConfigurationException(
+                            "<window> must be at least 1.");
+            }
+
             runInfo.driverConfigs = new DriverConfig[benchDef.drivers.length];
             for (int i = 0; i < benchDef.drivers.length; i++) {
                 DriverConfig driverConfig =
@@ -1211,6 +1391,15 @@ public class RunInfo implements Serializable {
 					driverConfig.graphInterval = runInfo.graphInterval;
 				}
 
+                driverConfig.arrivalRate = getArrivalRate(driverConfigNode);
+                if (driverConfig.arrivalRate != null &&
+                        (driverConfig.runControl != RunControl.TIME ||
+                         driverConfig.mix[1] != null)) {
+                    throw new ConfigurationException("<arrivalRate> " +
+                            "requires time based run control and cannot be " +
+                            "used with background operations.");
+                }
+
                 if (runInfo.runtimeStatsEnabled) {
                     driverConfig.runtimeStatsTarget = xp.evaluate(
                             "fd:runtimeStats/@target", driverConfigNode);
@@ -23,8 +23,17 @@
  */
 package com.sun.faban.driver.engine;
 
+import com.sun.faban.driver.util.ConnectionStats;
+import com.sun.faban.driver.util.DeltaCodec;
+import com.sun.faban.driver.util.LogLinearHistogram;
 import com.sun.faban.driver.util.PairwiseAggregator;
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Formatter;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,11 +44,14 @@ import java.util.logging.Logger;
  *
  * @author akara
  */
-public class RuntimeMetrics implements Serializable, 
+public class RuntimeMetrics implements Externalizable,
         PairwiseAggregator.Aggregable<RuntimeMetrics> {
 
     private static final long serialVersionUID = 33009l;
 
+    /** The version of the encoding of the shape and the changes. */
+    static final int ENCODING_VERSION = 1;
+
     /** Index for current thruput label. */
     public static final int C_THRUPUT = 0;
 
@@ -67,10 +79,76 @@ public class RuntimeMetrics implements Serializable,
     /** Index for overall 90th% response time label. */
     public static final int O_RESP90 = 8;
 
-    /** The output labels for the runtime metrics. */
+    /** Index for current response time from intended invoke time label. */
+    public static final int C_CORR_RESP = 9;
+
+    /** Index for overall response time from intended invoke time label. */
+    public static final int O_CORR_RESP = 10;
+
+    /**
+     * Index for current 90th% response time from intended invoke time label.
+     */
+    public static final int C_CORR_RESP90 = 11;
+
+    /**
+     * Index for overall 90th% response time from intended invoke time label.
+     */
+    public static final int O_CORR_RESP90 = 12;
+
+    /** Index for current 99th% response time label. */
+    public static final int C_RESP99 = 13;
+
+    /** Index for overall 99th% response time label. */
+    public static final int O_RESP99 = 14;
+
+    /** Index for current 99.9th% response time label. */
+    public static final int C_RESP999 = 15;
+
+    /** Index for overall 99.9th% response time label. */
+    public static final int O_RESP999 = 16;
+
+    /** Index for current max response time label. */
+    public static final int C_MAXRESP = 17;
+
+    /**
+     * Index for the current average time of the first wire phase. The
+     * current and overall averages of each phase in Metrics.WIRE_PHASES
+     * follow in pairs from this index.
+     */
+    public static final int C_WIRE = 18;
+
+    /**
+     * Index for the current rate of the first connection event. The rates
+     * of each event in ConnectionStats.EVENTS follow from this index, in
+     * events per second or KB per second for the byte counts.
+     */
+    public static final int C_CONN = C_WIRE + 2 * Metrics.WIRE_PHASES.length;
+
+    /**
+     * The output labels for the runtime metrics. The labels from C_RESP99
+     * to C_MAXRESP are only reported if the log-linear histogram is enabled.
+     * The labels from C_WIRE to C_CONN are only reported if wire timing is
+     * enabled. The labels from C_CONN on are only reported once the
+     * transports counted connection events.
+     * The results of labels not reported are null.
+     */
     public static final String[] LABELS = { "CThru", "OThru", "CErr",
                                             "CResp", "OResp", "CSD",
-                                            "OSD", "C90%Resp", "O90%Resp"};
+                                            "OSD", "C90%Resp", "O90%Resp",
+                                            "CCorrResp", "OCorrResp",
+                                            "C90%CorrResp", "O90%CorrResp",
+                                            "C99%Resp", "O99%Resp",
+                                            "C99.9%Resp", "O99.9%Resp",
+                                            "CMaxResp",
+                                            "CDNS", "ODNS",
+                                            "CConnect", "OConnect",
+                                            "CTLS", "OTLS",
+                                            "CServer", "OServer",
+                                            "CTransfer", "OTransfer",
+                                            "CConnects", "CReuses",
+                                            "CCloses", "CTimeouts",
+                                            "CResets", "CHandshakes",
+                                            "CResumes", "CKBIn", "CKBOut"};
 
 
     int sequence = 0; // The sequence number of this runtime stats.
@@ -139,37 +217,156 @@ public class RuntimeMetrics implements Serializable,
     /** Response time histogram. */
     protected int[][] respHist;
 
+    /** Log-linear response time histogram, null if not enabled. */
+    protected LogLinearHistogram[] respLogHist;
+
+    /** Sum of response times from intended invoke time in steady state. */
+    protected double[] corrRespSumStdy;
+
+    /** Sum of response times from intended invoke time total. */
+    protected double[] corrRespSumTotal;
+
+    /** Histogram of response times from intended invoke time. */
+    protected int[][] corrRespHist;
+
+    /**
+     * Log-linear histogram of response times from intended invoke time,
+     * null if not enabled.
+     */
+    protected LogLinearHistogram[] corrRespLogHist;
+
+    /** Number of transactions broken down into wire phases in steady state. */
+    protected int[] wireCntStdy;
+
+    /** Number of transactions broken down into wire phases total. */
+    protected int[] wireCntTotal;
+
+    /** Sum of wire phase times in steady state, null if not enabled. */
+    protected double[][] wireSumStdy;
+
+    /** Sum of wire phase times total, null if not enabled. */
+    protected double[][] wireSumTotal;
+
+    /**
+     * Counts of connection events by event and operation, null if no
+     * connection event was counted.
+     */
+    protected long[][] connCounts;
+
+    /**
+     * The maximum number of attempts to read a consistent snapshot from
+     * a Metrics object before accepting a possibly torn copy.
+     */
+    static final int MAX_SNAPSHOT_TRIES = 100;
+
+    /**
+     * Written after copying from a Metrics object. The volatile write keeps
+     * the preceding reads from being reordered past the stamp re-check.
+     */
+    private transient volatile int readFence;
+
+    /** Scratch snapshot used for adding a Metrics object. */
+    private transient RuntimeMetrics snapshot;
+
     /**
-     * Only classes in this package can instantiate the RuntimeMetrics.
+     * Constructs an empty RuntimeMetrics. The counters are allocated on
+     * the first copy or when reading the shape. This constructor is only
+     * public for deserialization.
      */
-    RuntimeMetrics() {
+    public RuntimeMetrics() {
     }
 
     /**
      * Copies the necessary members of Metrics into this RuntimeMetrics.
+     * The metrics object may be concurrently updated by its owning thread.
+     * The copy is retried until the update stamp shows no update happened
+     * during the copy. The owning thread is never blocked. If a consistent
+     * copy cannot be obtained in a number of tries, the last copy is used.
      * @param m The metrics to copy
      */
     public void copy(Metrics m) {
         if (txCntTotal == null) { // Needs initialization
             driverType = m.driverType;
-            txTypes = m.txCntTotal.length;
             fineRespBucketSize = m.fineRespBucketSize;
             coarseRespBucketSize = m.coarseRespBucketSize;
             fineRespHistMax = m.fineRespHistMax;
             coarseRespHistMax = m.coarseRespHistMax;
+            allocate(m.txCntTotal.length, m.respHist[0].length,
+                    m.corrRespHist[0].length, m.respLogHist == null ? 0 :
+                    m.respLogHist[0].getSignificantDigits(),
+                    m.wireCntTotal == null ? 0 : m.wireSumTotal.length);
+        }
 
-            txCntStdy = new int[txTypes];
-            txCntTotal = new int[txTypes];
-            errCntStdy = new int[txTypes];
-            errCntTotal = new int[txTypes];
-            respSumStdy = new double[txTypes];
-            respSumTotal = new double[txTypes];
-            hiRespSumStdy = new double[txTypes];
-            sumSquaresStdy = new double[txTypes];
-            sumSquaresTotal = new double [txTypes];
-            respHist = new int[txTypes][m.respHist[0].length];
+        for (int tries = 1;; tries++) {
+            int stamp = m.stamp;
+            if ((stamp & 1) == 0 || tries >= MAX_SNAPSHOT_TRIES) {
+                copyCounters(m);
+                readFence = stamp;
+                if (m.stamp == stamp && (stamp & 1) == 0)
+                    return;
+                if (tries >= MAX_SNAPSHOT_TRIES) {
+                    Logger.getLogger(RuntimeMetrics.class.getName()).finer(
+                            "Cannot obtain consistent snapshot after " +
+                            tries + " tries, using last copy.");
+                    return;
+                }
+            }
+            Thread.yield();
         }
+    }
+
+    /**
+     * Allocates the counters and histograms.
+     * @param txTypes The number of operations
+     * @param respBuckets The size of the response time histogram
+     * @param corrRespBuckets The size of the histogram of response times
+     *        from intended invoke time
+     * @param digits The significant digits of the log-linear histograms,
+     *        0 if not enabled
+     * @param wirePhases The number of wire phases, 0 if not enabled
+     */
+    private void allocate(int txTypes, int respBuckets, int corrRespBuckets,
+                          int digits, int wirePhases) {
+        this.txTypes = txTypes;
+        txCntStdy = new int[txTypes];
+        txCntTotal = new int[txTypes];
+        errCntStdy = new int[txTypes];
+        errCntTotal = new int[txTypes];
+        respSumStdy = new double[txTypes];
+        respSumTotal = new double[txTypes];
+        hiRespSumStdy = new double[txTypes];
+        sumSquaresStdy = new double[txTypes];
+        sumSquaresTotal = new double [txTypes];
+        respHist = new int[txTypes][respBuckets];
+        corrRespSumStdy = new double[txTypes];
+        corrRespSumTotal = new double[txTypes];
+        corrRespHist = new int[txTypes][corrRespBuckets];
+        if (digits > 0) {
+            respLogHist = new LogLinearHistogram[txTypes];
+            corrRespLogHist = new LogLinearHistogram[txTypes];
+            for (int i = 0; i < txTypes; i++) {
+                respLogHist[i] = new LogLinearHistogram(
+                        Metrics.LOGHIST_LOWEST_NANOS,
+                        Metrics.LOGHIST_HIGHEST_NANOS, digits);
+                corrRespLogHist[i] = new LogLinearHistogram(
+                        Metrics.LOGHIST_LOWEST_NANOS,
+                        Metrics.LOGHIST_HIGHEST_NANOS, digits);
+            }
+        }
+        if (wirePhases > 0) {
+            wireCntStdy = new int[txTypes];
+            wireCntTotal = new int[txTypes];
+            wireSumStdy = new double[wirePhases][txTypes];
+            wireSumTotal = new double[wirePhases][txTypes];
+        }
+    }
 
+    /**
+     * Copies the counters from the metrics without checking for
+     * concurrent updates.
+     * @param m The metrics to copy
+     */
+    private void copyCounters(Metrics m) {
         for (int i = 0; i < txTypes; i++) {
             // Add the sum squares before adding the count and response sum.
             // The values of count and sum have to be unchanged at this point.
@@ -184,34 +381,46 @@ public class RuntimeMetrics implements Serializable,
             hiRespSumStdy[i] = m.hiRespSumStdy[i];
             for (int j = 0; j < m.respHist[i].length; j++)
                 respHist[i][j] = m.respHist[i][j];
+            corrRespSumStdy[i] = m.corrRespSumStdy[i];
+            corrRespSumTotal[i] = m.corrRespSumTotal[i];
+            for (int j = 0; j < m.corrRespHist[i].length; j++)
+                corrRespHist[i][j] = m.corrRespHist[i][j];
+            if (respLogHist != null) {
+                respLogHist[i].set(m.respLogHist[i]);
+                corrRespLogHist[i].set(m.corrRespLogHist[i]);
+            }
+            if (wireCntTotal != null) {
+                wireCntStdy[i] = m.wireCntStdy[i];
+                wireCntTotal[i] = m.wireCntTotal[i];
+                for (int p = 0; p < wireSumStdy.length; p++) {
+                    wireSumStdy[p][i] = m.wireSumStdy[p][i];
+                    wireSumTotal[p][i] = m.wireSumTotal[p][i];
+                }
+            }
+        }
+        // The connection stats are only shown once there are any. They
+        // are counted atomically, outside the stamp.
+        ConnectionStats connStats = m.connStats;
+        if (connStats != null && (connCounts != null ||
+                                  !connStats.isEmpty())) {
+            if (connCounts == null)
+                connCounts = new long[ConnectionStats.EVENTS.length][txTypes];
+            for (int e = 0; e < connCounts.length; e++)
+                for (int i = 0; i < txTypes; i++)
+                    connCounts[e][i] = connStats.getCount(e, i);
         }
     }
 
     /**
-     * Adds a metrics to this RuntimeMetrics.
+     * Adds a metrics to this RuntimeMetrics. The metrics is first copied
+     * into a consistent snapshot as it may be concurrently updated.
      * @param m The metrics to add
      */
     public void add(Metrics m) {
-
-        for (int i = 0; i < txTypes; i++) {
-            // Add the sum squares before adding the count and response sum.
-            // The values of count and sum have to be unchanged at this point.
-            sumSquaresStdy[i] = Metrics.addSumSquare(
-                    sumSquaresStdy[i], txCntStdy[i], respSumStdy[i],
-                    m.sumSquaresStdy[i], m.txCntStdy[i], m.respSumStdy[i]);
-            sumSquaresTotal[i] = Metrics.addSumSquare(
-                    sumSquaresTotal[i], txCntTotal[i], respSumTotal[i],
-                    m.sumSquaresTotal[i], m.txCntTotal[i], m.respSumTotal[i]);
-            txCntStdy[i] += m.txCntStdy[i];
-            txCntTotal[i] += m.txCntTotal[i];
-            errCntStdy[i] += m.errCntStdy[i];
-            errCntTotal[i] += m.errCntTotal[i];
-            respSumStdy[i] += m.respSumStdy[i];
-            respSumTotal[i] += m.respSumTotal[i];
-            hiRespSumStdy[i] += m.hiRespSumStdy[i];
-            for (int j = 0; j < m.respHist[i].length; j++)
-                respHist[i][j] += m.respHist[i][j];
-        }
+        if (snapshot == null)
+            snapshot = new RuntimeMetrics();
+        snapshot.copy(m);
+        add(snapshot);
     }
 
     /**
@@ -240,6 +449,302 @@ public class RuntimeMetrics implements Serializable,
             hiRespSumStdy[i] += m.hiRespSumStdy[i];
             for (int j = 0; j < m.respHist[i].length; j++)
                 respHist[i][j] += m.respHist[i][j];
+            corrRespSumStdy[i] += m.corrRespSumStdy[i];
+            corrRespSumTotal[i] += m.corrRespSumTotal[i];
+            for (int j = 0; j < m.corrRespHist[i].length; j++)
+                corrRespHist[i][j] += m.corrRespHist[i][j];
+            if (respLogHist != null && m.respLogHist != null) {
+                respLogHist[i].add(m.respLogHist[i]);
+                corrRespLogHist[i].add(m.corrRespLogHist[i]);
+            }
+            if (wireCntTotal != null && m.wireCntTotal != null) {
+                wireCntStdy[i] += m.wireCntStdy[i];
+                wireCntTotal[i] += m.wireCntTotal[i];
+                for (int p = 0; p < wireSumStdy.length; p++) {
+                    wireSumStdy[p][i] += m.wireSumStdy[p][i];
+                    wireSumTotal[p][i] += m.wireSumTotal[p][i];
+                }
+            }
+        }
+        if (m.connCounts != null) {
+            if (connCounts == null)
+                connCounts = new long[m.connCounts.length][txTypes];
+            for (int e = 0; e < connCounts.length; e++)
+                for (int i = 0; i < txTypes; i++)
+                    connCounts[e][i] += m.connCounts[e][i];
+        }
+    }
+
+    /**
+     * Copies another RuntimeMetrics into this one. The counters are
+     * allocated on the first copy and reused afterwards.
+     * @param m The runtime metrics to copy
+     */
+    public void copy(RuntimeMetrics m) {
+        if (txCntTotal == null) {
+            driverType = m.driverType;
+            fineRespBucketSize = m.fineRespBucketSize;
+            coarseRespBucketSize = m.coarseRespBucketSize;
+            fineRespHistMax = m.fineRespHistMax;
+            coarseRespHistMax = m.coarseRespHistMax;
+            allocate(m.txTypes, m.respHist[0].length,
+                    m.corrRespHist[0].length, m.respLogHist == null ? 0 :
+                    m.respLogHist[0].getSignificantDigits(),
+                    m.wireCntTotal == null ? 0 : m.wireSumTotal.length);
+        }
+        sequence = m.sequence;
+        timestamp = m.timestamp;
+        for (int i = 0; i < txTypes; i++) {
+            sumSquaresStdy[i] = m.sumSquaresStdy[i];
+            sumSquaresTotal[i] = m.sumSquaresTotal[i];
+            txCntStdy[i] = m.txCntStdy[i];
+            txCntTotal[i] = m.txCntTotal[i];
+            errCntStdy[i] = m.errCntStdy[i];
+            errCntTotal[i] = m.errCntTotal[i];
+            respSumStdy[i] = m.respSumStdy[i];
+            respSumTotal[i] = m.respSumTotal[i];
+            hiRespSumStdy[i] = m.hiRespSumStdy[i];
+            System.arraycopy(m.respHist[i], 0, respHist[i], 0,
+                             respHist[i].length);
+            corrRespSumStdy[i] = m.corrRespSumStdy[i];
+            corrRespSumTotal[i] = m.corrRespSumTotal[i];
+            System.arraycopy(m.corrRespHist[i], 0, corrRespHist[i], 0,
+                             corrRespHist[i].length);
+            if (respLogHist != null) {
+                respLogHist[i].set(m.respLogHist[i]);
+                corrRespLogHist[i].set(m.corrRespLogHist[i]);
+            }
+            if (wireCntTotal != null) {
+                wireCntStdy[i] = m.wireCntStdy[i];
+                wireCntTotal[i] = m.wireCntTotal[i];
+                for (int p = 0; p < wireSumStdy.length; p++) {
+                    wireSumStdy[p][i] = m.wireSumStdy[p][i];
+                    wireSumTotal[p][i] = m.wireSumTotal[p][i];
+                }
+            }
+        }
+        if (m.connCounts == null) {
+            connCounts = null;
+        } else {
+            if (connCounts == null)
+                connCounts = new long[m.connCounts.length][txTypes];
+            for (int e = 0; e < connCounts.length; e++)
+                System.arraycopy(m.connCounts[e], 0, connCounts[e], 0,
+                                 txTypes);
+        }
+    }
+
+    /**
+     * Writes the driver type and the sizes of the counters and histograms.
+     * This is sent once ahead of the deltas of a stream.
+     * @param buffer The buffer to write to
+     */
+    void putShape(ByteBuffer buffer) {
+        DeltaCodec.putVarLong(buffer, ENCODING_VERSION);
+        DeltaCodec.putVarLong(buffer, driverType);
+        DeltaCodec.putVarLong(buffer, txTypes);
+        DeltaCodec.putVarLong(buffer, fineRespBucketSize);
+        DeltaCodec.putVarLong(buffer, coarseRespBucketSize);
+        DeltaCodec.putVarLong(buffer, fineRespHistMax);
+        DeltaCodec.putVarLong(buffer, coarseRespHistMax);
+        DeltaCodec.putVarLong(buffer, respHist[0].length);
+        DeltaCodec.putVarLong(buffer, corrRespHist[0].length);
+        DeltaCodec.putVarLong(buffer, respLogHist == null ? 0 :
+                respLogHist[0].getSignificantDigits());
+        DeltaCodec.putVarLong(buffer, wireCntTotal == null ? 0 :
+                wireSumTotal.length);
+    }
+
+    /**
+     * Reads the shape written by putShape and allocates this
+     * RuntimeMetrics accordingly, with all counters at zero.
+     * @param buffer The buffer to read from
+     * @throws IllegalArgumentException If the encoding version is unknown
+     */
+    void getShape(ByteBuffer buffer) {
+        int version = (int) DeltaCodec.getVarLong(buffer);
+        if (version != ENCODING_VERSION)
+            throw new IllegalArgumentException("Unsupported RuntimeMetrics " +
+                    "encoding version " + version);
+        driverType = (int) DeltaCodec.getVarLong(buffer);
+        int txTypes = (int) DeltaCodec.getVarLong(buffer);
+        fineRespBucketSize = DeltaCodec.getVarLong(buffer);
+        coarseRespBucketSize = DeltaCodec.getVarLong(buffer);
+        fineRespHistMax = DeltaCodec.getVarLong(buffer);
+        coarseRespHistMax = DeltaCodec.getVarLong(buffer);
+        int respBuckets = (int) DeltaCodec.getVarLong(buffer);
+        int corrRespBuckets = (int) DeltaCodec.getVarLong(buffer);
+        int digits = (int) DeltaCodec.getVarLong(buffer);
+        int wirePhases = (int) DeltaCodec.getVarLong(buffer);
+        allocate(txTypes, respBuckets, corrRespBuckets, digits, wirePhases);
+    }
+
+    /**
+     * Writes the changes of this RuntimeMetrics since an earlier one of
+     * the same shape. Only the counters and histogram buckets that changed
+     * take more than a byte.
+     * @param buffer The buffer to write to
+     * @param base The earlier RuntimeMetrics
+     * @see DeltaCodec
+     */
+    void putDelta(ByteBuffer buffer, RuntimeMetrics base) {
+        DeltaCodec.putDelta(buffer, sequence, base.sequence);
+        DeltaCodec.putDelta(buffer, timestamp, base.timestamp);
+        for (int i = 0; i < txTypes; i++) {
+            DeltaCodec.putDelta(buffer, txCntStdy[i], base.txCntStdy[i]);
+            DeltaCodec.putDelta(buffer, txCntTotal[i], base.txCntTotal[i]);
+            DeltaCodec.putDelta(buffer, errCntStdy[i], base.errCntStdy[i]);
+            DeltaCodec.putDelta(buffer, errCntTotal[i], base.errCntTotal[i]);
+            DeltaCodec.putDelta(buffer, respSumStdy[i], base.respSumStdy[i]);
+            DeltaCodec.putDelta(buffer, respSumTotal[i],
+                                base.respSumTotal[i]);
+            DeltaCodec.putDelta(buffer, hiRespSumStdy[i],
+                                base.hiRespSumStdy[i]);
+            DeltaCodec.putDelta(buffer, sumSquaresStdy[i],
+                                base.sumSquaresStdy[i]);
+            DeltaCodec.putDelta(buffer, sumSquaresTotal[i],
+                                base.sumSquaresTotal[i]);
+            DeltaCodec.putDelta(buffer, respHist[i], base.respHist[i]);
+            DeltaCodec.putDelta(buffer, corrRespSumStdy[i],
+                                base.corrRespSumStdy[i]);
+            DeltaCodec.putDelta(buffer, corrRespSumTotal[i],
+                                base.corrRespSumTotal[i]);
+            DeltaCodec.putDelta(buffer, corrRespHist[i],
+                                base.corrRespHist[i]);
+            if (respLogHist != null) {
+                respLogHist[i].putDelta(buffer, base.respLogHist[i]);
+                corrRespLogHist[i].putDelta(buffer, base.corrRespLogHist[i]);
+            }
+            if (wireCntTotal != null) {
+                DeltaCodec.putDelta(buffer, wireCntStdy[i],
+                                    base.wireCntStdy[i]);
+                DeltaCodec.putDelta(buffer, wireCntTotal[i],
+                                    base.wireCntTotal[i]);
+                for (int p = 0; p < wireSumStdy.length; p++) {
+                    DeltaCodec.putDelta(buffer, wireSumStdy[p][i],
+                                        base.wireSumStdy[p][i]);
+                    DeltaCodec.putDelta(buffer, wireSumTotal[p][i],
+                                        base.wireSumTotal[p][i]);
+                }
+            }
+        }
+        if (connCounts == null) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1);
+            for (int e = 0; e < connCounts.length; e++)
+                for (int i = 0; i < txTypes; i++)
+                    DeltaCodec.putDelta(buffer, connCounts[e][i],
+                            base.connCounts == null ?
+                            0l : base.connCounts[e][i]);
+        }
+    }
+
+    /**
+     * Applies the changes written by putDelta to this RuntimeMetrics.
+     * This RuntimeMetrics must be the same as the base the changes were
+     * taken from.
+     * @param buffer The buffer to read from
+     */
+    void getDelta(ByteBuffer buffer) {
+        sequence = (int) DeltaCodec.getDelta(buffer, sequence);
+        timestamp = (int) DeltaCodec.getDelta(buffer, timestamp);
+        for (int i = 0; i < txTypes; i++) {
+            txCntStdy[i] = (int) DeltaCodec.getDelta(buffer, txCntStdy[i]);
+            txCntTotal[i] = (int) DeltaCodec.getDelta(buffer, txCntTotal[i]);
+            errCntStdy[i] = (int) DeltaCodec.getDelta(buffer, errCntStdy[i]);
+            errCntTotal[i] = (int) DeltaCodec.getDelta(buffer,
+                                                       errCntTotal[i]);
+            respSumStdy[i] = DeltaCodec.getDelta(buffer, respSumStdy[i]);
+            respSumTotal[i] = DeltaCodec.getDelta(buffer, respSumTotal[i]);
+            hiRespSumStdy[i] = DeltaCodec.getDelta(buffer, hiRespSumStdy[i]);
+            sumSquaresStdy[i] = DeltaCodec.getDelta(buffer,
+                                                    sumSquaresStdy[i]);
+            sumSquaresTotal[i] = DeltaCodec.getDelta(buffer,
+                                                     sumSquaresTotal[i]);
+            DeltaCodec.getDelta(buffer, respHist[i]);
+            corrRespSumStdy[i] = DeltaCodec.getDelta(buffer,
+                                                     corrRespSumStdy[i]);
+            corrRespSumTotal[i] = DeltaCodec.getDelta(buffer,
+                                                      corrRespSumTotal[i]);
+            DeltaCodec.getDelta(buffer, corrRespHist[i]);
+            if (respLogHist != null) {
+                respLogHist[i].getDelta(buffer);
+                corrRespLogHist[i].getDelta(buffer);
+            }
+            if (wireCntTotal != null) {
+                wireCntStdy[i] = (int) DeltaCodec.getDelta(buffer,
+                                                           wireCntStdy[i]);
+                wireCntTotal[i] = (int) DeltaCodec.getDelta(buffer,
+                                                            wireCntTotal[i]);
+                for (int p = 0; p < wireSumStdy.length; p++) {
+                    wireSumStdy[p][i] = DeltaCodec.getDelta(buffer,
+                                                        wireSumStdy[p][i]);
+                    wireSumTotal[p][i] = DeltaCodec.getDelta(buffer,
+                                                        wireSumTotal[p][i]);
+                }
+            }
+        }
+        if (buffer.get() != 0) {
+            if (connCounts == null)
+                connCounts = new long[ConnectionStats.EVENTS.length][txTypes];
+            for (int e = 0; e < connCounts.length; e++)
+                for (int i = 0; i < txTypes; i++)
+                    connCounts[e][i] = DeltaCodec.getDelta(buffer,
+                                                           connCounts[e][i]);
+        }
+    }
+
+    /**
+     * Writes this RuntimeMetrics as its shape followed by its changes
+     * from an empty one, so only the counters and histogram buckets that
+     * are not zero take more than a byte.
+     * @param out The stream to write to
+     * @throws IOException If the stream cannot be written
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        if (txCntTotal == null) { // Never copied, nothing to write.
+            out.writeInt(0);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (;;) {
+            try {
+                buffer.clear();
+                putShape(buffer);
+                RuntimeMetrics empty = new RuntimeMetrics();
+                empty.getShape(ByteBuffer.wrap(buffer.array(), 0,
+                                               buffer.position()));
+                putDelta(buffer, empty);
+                break;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+        out.writeInt(buffer.position());
+        out.write(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * Reads a RuntimeMetrics written by writeExternal.
+     * @param in The stream to read from
+     * @throws IOException If the stream cannot be read or is corrupt
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+        int length = in.readInt();
+        if (length == 0)
+            return;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            getShape(buffer);
+            getDelta(buffer);
+        } catch (RuntimeException e) {
+            InvalidObjectException ex = new InvalidObjectException(
+                    "Corrupt RuntimeMetrics encoding");
+            ex.initCause(e);
+            throw ex;
         }
     }
 
@@ -298,7 +803,7 @@ public class RuntimeMetrics implements Serializable,
      * results are first indexed by the stat type, then by the tx type.
      * @param runInfo The RunInfo for this benchmark run
      * @param prev The previous RuntimeMetrics
-     * @return The synthesized results
+     * @return The synthesized results, null for stats not enabled
      */
     public double[][] getResults(RunInfo runInfo, RuntimeMetrics prev) {
 
@@ -326,10 +831,21 @@ public class RuntimeMetrics implements Serializable,
         else
             timeElapsed = Integer.MIN_VALUE;
 
-        double[][] s = new double[LABELS.length][txTypes];
+        double[][] s = new double[LABELS.length][];
+        int reported = respLogHist == null ? O_CORR_RESP90 + 1 : C_WIRE;
+        for (int i = 0; i < reported; i++)
+            s[i] = new double[txTypes];
+        if (wireCntTotal != null)
+            for (int i = C_WIRE; i < C_CONN; i++)
+                s[i] = new double[txTypes];
+        if (connCounts != null)
+            for (int i = C_CONN; i < LABELS.length; i++)
+                s[i] = new double[txTypes];
 
         // Initialize results to NaN;
         for (int i = 0; i < s.length; i++) {
+            if (s[i] == null)
+                continue;
             for (int j = 0; j < s[i].length; j++) {
                 s[i][j] = Double.NaN;
             }
@@ -353,6 +869,10 @@ public class RuntimeMetrics implements Serializable,
                 s[C_RESP][i] = (respSumTotal[i] - prev.respSumTotal[i]) /
                         (nTx * precision);
             }
+            if (corrRespSumTotal[i] > prev.corrRespSumTotal[i]) {
+                s[C_CORR_RESP][i] = (corrRespSumTotal[i] -
+                        prev.corrRespSumTotal[i]) / (nTx * precision);
+            }
 
             if (logger.isLoggable(Level.FINER)) {
                 double p2 = precision * precision;
@@ -381,45 +901,59 @@ public class RuntimeMetrics implements Serializable,
             if (txCntStdy[i] > 0) {
                 // Overall avg response time
                 s[O_RESP][i] = respSumStdy[i] / (txCntStdy[i] * precision);
+                s[O_CORR_RESP][i] = corrRespSumStdy[i] /
+                        (txCntStdy[i] * precision);
                 // Overall standard deviation based on Chan's paper
                 s[O_SD][i] = Math.sqrt(sumSquaresStdy[i] / txCntStdy[i]) /
                                precision;
 
-                // Current 90th% response time (last n secs)
-                int sumtx, cnt90, j;
-                if (txCntStdy[i] > prev.txCntStdy[i]) {
-                    sumtx = 0;
-                    cnt90 = (int) ((txCntStdy[i] - prev.txCntStdy[i]) * .90d);
-                    j = 0;
-                    for (; j < respHist[i].length; j++) {
-                        sumtx += respHist[i][j] - prev.respHist[i][j];
-                        if (sumtx >= cnt90) {	/* 90% of tx. got */
-                            break;
-                        }
+                if (respLogHist != null) {
+                    // Percentiles and max from the log-linear histograms.
+                    LogLinearHistogram base = prev.respLogHist[i];
+                    if (respLogHist[i].getTotalCount() >
+                            base.getTotalCount()) {
+                        s[C_RESP90][i] = respLogHist[i].getValueAtPercentile(
+                                90d, base) / precision;
+                        s[C_RESP99][i] = respLogHist[i].getValueAtPercentile(
+                                99d, base) / precision;
+                        s[C_RESP999][i] = respLogHist[i].getValueAtPercentile(
+                                99.9d, base) / precision;
+                        s[C_MAXRESP][i] = respLogHist[i].getMaxValue(base) /
+                                precision;
+                        s[C_CORR_RESP90][i] = corrRespLogHist[i].
+                                getValueAtPercentile(90d,
+                                prev.corrRespLogHist[i]) / precision;
                     }
-                    // We report the base of the next bucket.
-                    ++j;
-                    s[C_RESP90][i] = getBucketValue(j) / precision;
-                }
-
-                // Overall 90th% response time
-                sumtx = 0;
-                cnt90 = (int) (txCntStdy[i] * .90d);
-                j = 0;
-                for (; j < respHist[i].length; j++) {
-                    sumtx += respHist[i][j];
-                    if (sumtx >= cnt90) {	/* 90% of tx. got */
-                        break;
+                    s[O_RESP90][i] = respLogHist[i].getValueAtPercentile(90d) /
+                            precision;
+                    s[O_RESP99][i] = respLogHist[i].getValueAtPercentile(99d) /
+                            precision;
+                    s[O_RESP999][i] = respLogHist[i].getValueAtPercentile(
+                            99.9d) / precision;
+                    s[O_CORR_RESP90][i] = corrRespLogHist[i].
+                            getValueAtPercentile(90d) / precision;
+                } else {
+                    // Current 90th% response time (last n secs)
+                    if (txCntStdy[i] > prev.txCntStdy[i]) {
+                        int nStdy = txCntStdy[i] - prev.txCntStdy[i];
+                        s[C_RESP90][i] = getBucketPercentile(respHist[i],
+                                prev.respHist[i], nStdy, .90d) / precision;
+                        s[C_CORR_RESP90][i] = getBucketPercentile(
+                                corrRespHist[i], prev.corrRespHist[i],
+                                nStdy, .90d) / precision;
                     }
+
+                    // Overall 90th% response time
+                    s[O_RESP90][i] = getBucketPercentile(respHist[i], null,
+                            txCntStdy[i], .90d) / precision;
+                    s[O_CORR_RESP90][i] = getBucketPercentile(corrRespHist[i],
+                            null, txCntStdy[i], .90d) / precision;
                 }
-                // We report the base of the next bucket.
-                ++j;
-                s[O_RESP90][i] = getBucketValue(j) / precision;
 
                 if (logger.isLoggable(crosscheck)) {
                     // Overall standard deviation check from histogram
                     double sumDev2 = 0d;
-                    for (j = 0; j < respHist[i].length; j++) {
+                    for (int j = 0; j < respHist[i].length; j++) {
                         int frequency = respHist[i][j] - prev.respHist[i][j];
                         if (frequency == 0) {
                             continue;
@@ -438,6 +972,33 @@ public class RuntimeMetrics implements Serializable,
                     ckSD[i] = Math.sqrt(sumDev2 / nTx);
                 }
             }
+
+            if (wireCntTotal != null) {
+                // Current and overall average time of each wire phase.
+                int nWire = wireCntTotal[i] - prev.wireCntTotal[i];
+                for (int p = 0; p < wireSumTotal.length; p++) {
+                    int idx = C_WIRE + 2 * p;
+                    if (nWire > 0)
+                        s[idx][i] = (wireSumTotal[p][i] -
+                                prev.wireSumTotal[p][i]) / (nWire * precision);
+                    if (wireCntStdy[i] > 0)
+                        s[idx + 1][i] = wireSumStdy[p][i] /
+                                (wireCntStdy[i] * precision);
+                }
+            }
+
+            if (connCounts != null && timeDiff > 0) {
+                // Current rate of each connection event, KB/s for bytes.
+                for (int e = 0; e < connCounts.length; e++) {
+                    double n = connCounts[e][i];
+                    if (prev.connCounts != null)
+                        n -= prev.connCounts[e][i];
+                    if (e == ConnectionStats.BYTES_IN ||
+                            e == ConnectionStats.BYTES_OUT)
+                        n /= 1024d;
+                    s[C_CONN + e][i] = n * 1000d / timeDiff;
+                }
+            }
         }
 
         // Log the crosscheck if applicable.
@@ -455,6 +1016,32 @@ public class RuntimeMetrics implements Serializable,
         return s;
     }
 
+    /**
+     * Obtains the response time at a percentile from the response time
+     * histogram. We report the base of the bucket following the percentile.
+     * @param hist The response time histogram of an operation
+     * @param prevHist The previous histogram to subtract, or null
+     * @param count The number of transactions in the histogram
+     * @param fraction The percentile as a fraction of 1
+     * @return The response time at the percentile, in ns
+     */
+    private long getBucketPercentile(int[] hist, int[] prevHist,
+                                     int count, double fraction) {
+        int sumtx = 0;
+        int cntPct = (int) (count * fraction);
+        int j = 0;
+        for (; j < hist.length; j++) {
+            sumtx += hist[j];
+            if (prevHist != null)
+                sumtx -= prevHist[j];
+            if (sumtx >= cntPct) {
+                break;
+            }
+        }
+        // We report the base of the next bucket.
+        return getBucketValue(++j);
+    }
+
     private long getBucketValue(int bucketId) {
         long resp;
         if (bucketId < Metrics.FINE_RESPBUCKETS) {
@@ -25,7 +25,6 @@ package com.sun.faban.driver.engine;
 
 import com.sun.faban.driver.FatalException;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.logging.Level;
 
 
@@ -155,23 +154,24 @@ public class TimeThread extends AgentThread {
                 break driverLoop;
             }
 
-            logger.finest(name + ": Invoking " + op.name + " at time " +
-                    invokeTime + ". Ramp down ends at time " +
-                    endRampDown + '.');
+            if (finest)
+                logger.finest(name + ": Invoking " + op.name + " at time " +
+                        invokeTime + ". Ramp down ends at time " +
+                        endRampDown + '.');
 
             driverContext.setInvokeTime(invokeTime);
 
             // Invoke the operation
-            try {
-                if (id == 0)
-                    logger.finest("Invoking " + op.name + " at " +
-                            System.nanoTime());
-                op.m.invoke(driver);
-                if (id == 0)
+            if (finest && id == 0)
+                logger.finest("Invoking " + op.name + " at " +
+                        System.nanoTime());
+            Throwable cause = op.invoke(driver);
+            if (cause == null) {
+                if (finest && id == 0)
                     logger.finest("Returned from " + op.name + " (OK) at " +
                             System.nanoTime());
                 validateTimeCompletion(op);
-                if (id == 0) {
+                if (finest && id == 0) {
                     DriverContext.TimingInfo t = driverContext.timingInfo;
                     logger.finest("Invoke: " + t.invokeTime + ", Respond: " +
                             t.respondTime + ", Pause: " + t.pauseTime);
@@ -179,13 +179,11 @@ public class TimeThread extends AgentThread {
                 checkRamp();
                 metrics.recordTx();
                 metrics.recordDelayTime();
-            } catch (InvocationTargetException e) {
-                if (id == 0)
+            } else {
+                if (finest && id == 0)
                     logger.finest("Returned from " + op.name + " (Err) at " +
                             System.nanoTime());
-                // An invocation target exception is caused by another
-                // exception thrown by the operation directly.
-                Throwable cause = e.getCause();
+                // The cause is the exception thrown by the operation directly.
                 checkFatal(cause, op);
 
                 // We have to fix up the invoke/respond times to have valid
@@ -236,11 +234,6 @@ public class TimeThread extends AgentThread {
                     logError(cause, op);
                     metrics.recordDelayTime();
                 }
-            } catch (IllegalAccessException e) {
-                logger.log(Level.SEVERE, name + "." + op.m.getName() +
-                        ": " + e.getMessage(), e);
-                agent.abortRun();
-                return;
             }
 
             startTime[mixId] = driverContext.timingInfo.invokeTime;
@@ -23,7 +23,6 @@
  */
 package com.sun.faban.driver.engine;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.logging.Level;
 
 
@@ -193,16 +192,14 @@ public class TimeThreadWithBackground extends TimeThread {
             driverContext.setInvokeTime(invokeTime[mixId]);
 
             // Invoke the operation
-            try {
-                op[mixId].m.invoke(driver);
+            Throwable cause = op[mixId].invoke(driver);
+            if (cause == null) {
                 validateTimeCompletion(op[mixId]);
                 checkRamp();
                 metrics.recordTx();
                 metrics.recordDelayTime();
-            } catch (InvocationTargetException e) {
-                // An invocation target exception is caused by another
-                // exception thrown by the operation directly.
-                Throwable cause = e.getCause();
+            } else {
+                // The cause is the exception thrown by the operation directly.
                 checkFatal(cause, op[mixId]);
 
                 // We have to fix up the invoke/respond times to have valid
@@ -252,11 +249,6 @@ public class TimeThreadWithBackground extends TimeThread {
                     logError(cause, op[mixId]);
                     metrics.recordDelayTime();
                 }
-            } catch (IllegalAccessException e) {
-                logger.log(Level.SEVERE, name + "." +
-                        op[mixId].m.getName() + ": " + e.getMessage(), e);
-                agent.abortRun();
-                return;
             }
 
             startTime[mixId] = driverContext.timingInfo.invokeTime;
@@ -0,0 +1,322 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes a binary trace of every transaction of an agent. The agent
+ * threads write fixed-size records into one ring buffer per agent without
+ * allocating or locking. This writer drains the ring periodically into a
+ * batch and writes each full batch, sorted by respond time, as a run into
+ * one file per agent. If the ring is full, the record is dropped and
+ * counted rather than blocking the agent thread.<p>
+ *
+ * The file starts with a header:
+ * <pre>
+ * int    magic (0x46425458, "FBTX")
+ * short  version (2)
+ * short  record size in bytes (40)
+ * long   benchmark start time in ms since the epoch
+ * UTF    driver name
+ * UTF    agent id
+ * short  number of operations, followed by the UTF operation names
+ * </pre>
+ * The header is followed by runs, each an int record count followed by
+ * the records of the run sorted by respond time:
+ * <pre>
+ * int    thread id
+ * short  operation id
+ * short  flags, bit 0 set for success
+ * long   intended invoke time
+ * long   invoke time
+ * long   respond time
+ * long   pause time
+ * </pre>
+ * All times are in ns relative to the benchmark start, or Long.MIN_VALUE
+ * if not set. The runs overlap in time, readers merge them.
+ */
+class TraceWriter extends Thread {
+
+    /** The magic number at the start of the trace file. */
+    static final int MAGIC = 0x46425458;
+
+    /** The trace file format version. */
+    static final short VERSION = 2;
+
+    /** The size of each record in the trace file. */
+    static final short RECORD_SIZE = 40;
+
+    /** Number of records the ring buffer can hold. */
+    static final int RING_CAPACITY = 16384;
+
+    /** Maximum number of records in a run. */
+    static final int RUN_CAPACITY = 32768;
+
+    /** The drain interval, in ms. */
+    static final long DRAIN_INTERVAL = 100l;
+
+    private static final int LONGS = 5; // Longs per record in the ring.
+
+    private static Logger logger =
+            Logger.getLogger(TraceWriter.class.getName());
+
+    private final long startTime;
+    private final DataOutputStream out;
+    private final File file;
+    private volatile boolean terminated = false;
+    private long written = 0l;
+
+    // The ring shared by all agent threads. A thread claims a sequence
+    // by advancing the head, fills the slot, then publishes it by setting
+    // the slot's published sequence. The writer releases drained slots by
+    // advancing the tail.
+    private final long[] slots = new long[RING_CAPACITY * LONGS];
+    private final AtomicLongArray published =
+            new AtomicLongArray(RING_CAPACITY);
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail = 0l;
+    final AtomicInteger dropped = new AtomicInteger();
+
+    // The run being collected, only used by the writer thread.
+    private final long[] batch = new long[RUN_CAPACITY * LONGS];
+    private final long[] keys = new long[RUN_CAPACITY];
+    private final int[] order = new int[RUN_CAPACITY];
+    private final int[] scratch = new int[RUN_CAPACITY];
+    private int batchSize = 0;
+
+    /**
+     * Creates and starts the trace writer for an agent.
+     * @param dir The directory to write the trace file to
+     * @param agentId The agent id
+     * @param runInfo The run information
+     * @param startTime The benchmark start time in ns
+     * @throws IOException If the trace file cannot be created
+     */
+    TraceWriter(File dir, String agentId, RunInfo runInfo, long startTime)
+            throws IOException {
+        this(new File(dir, "txtrace." + runInfo.driverConfig.name + '.' +
+                      agentId + ".bin"), runInfo.start,
+             runInfo.driverConfig.name, agentId,
+             operationNames(runInfo.driverConfig), startTime);
+    }
+
+    /**
+     * Creates and starts a trace writer.
+     * @param file The trace file
+     * @param benchStart The benchmark start time in ms since the epoch
+     * @param driverName The driver name
+     * @param agentId The agent id
+     * @param operations The operation names
+     * @param startTime The benchmark start time in ns
+     * @throws IOException If the trace file cannot be created
+     */
+    TraceWriter(File file, long benchStart, String driverName,
+                String agentId, String[] operations, long startTime)
+            throws IOException {
+        setName("TraceWriter");
+        setDaemon(true);
+        this.file = file;
+        this.startTime = startTime;
+        out = new DataOutputStream(new BufferedOutputStream(
+                                        new FileOutputStream(file), 65536));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(RECORD_SIZE);
+        out.writeLong(benchStart);
+        out.writeUTF(driverName);
+        out.writeUTF(agentId);
+        out.writeShort(operations.length);
+        for (String operation : operations)
+            out.writeUTF(operation);
+        logger.fine("Writing transaction trace to " + file.getPath());
+        start();
+    }
+
+    private static String[] operationNames(RunInfo.DriverConfig config) {
+        String[] names = new String[config.operations.length];
+        for (int i = 0; i < names.length; i++)
+            names[i] = config.operations[i].name;
+        return names;
+    }
+
+    /**
+     * Records a transaction into the ring. This is called from the agent
+     * threads and never blocks.
+     * @param threadId The global thread id
+     * @param opId The operation id
+     * @param success Whether the transaction succeeded
+     * @param timingInfo The timing of the transaction
+     */
+    void record(int threadId, int opId, boolean success,
+                DriverContext.TimingInfo timingInfo) {
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= RING_CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        int slot = (int) (seq % RING_CAPACITY);
+        int idx = slot * LONGS;
+        slots[idx] = ((long) threadId << 32) |
+                     ((long) (opId & 0xffff) << 16) | (success ? 1 : 0);
+        slots[idx + 1] = relative(timingInfo.intendedInvokeTime);
+        slots[idx + 2] = relative(timingInfo.invokeTime);
+        slots[idx + 3] = relative(timingInfo.respondTime);
+        slots[idx + 4] = timingInfo.pauseTime;
+        published.set(slot, seq + 1); // Publish the record.
+    }
+
+    private long relative(long time) {
+        if (time == AgentThread.TIME_NOT_SET)
+            return time;
+        return time - startTime;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!terminated) {
+                try {
+                    Thread.sleep(DRAIN_INTERVAL);
+                } catch (InterruptedException e) {
+                    // Terminated, do the final drain.
+                }
+                drain();
+            }
+            drain();
+            writeRun();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error writing transaction trace " +
+                    file.getPath() + ", trace terminated.", e);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error closing transaction trace " +
+                        file.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Moves the published records from the ring into the batch, writing
+     * the batch out as a run whenever it is full. Draining stops at the
+     * first record claimed but not yet published.
+     */
+    private void drain() throws IOException {
+        long end = head.get();
+        long seq = tail;
+        for (; seq < end; seq++) {
+            int slot = (int) (seq % RING_CAPACITY);
+            if (published.get(slot) != seq + 1)
+                break;
+            if (batchSize == RUN_CAPACITY)
+                writeRun();
+            System.arraycopy(slots, slot * LONGS, batch, batchSize * LONGS,
+                             LONGS);
+            keys[batchSize] = batch[batchSize * LONGS + 3];
+            order[batchSize] = batchSize;
+            ++batchSize;
+        }
+        tail = seq; // Release the slots.
+    }
+
+    private void writeRun() throws IOException {
+        if (batchSize == 0)
+            return;
+        sort(0, batchSize);
+        out.writeInt(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            int idx = order[i] * LONGS;
+            long ids = batch[idx];
+            out.writeInt((int) (ids >>> 32));
+            out.writeShort((int) (ids >>> 16) & 0xffff);
+            out.writeShort((int) ids & 0xffff);
+            out.writeLong(batch[idx + 1]);
+            out.writeLong(batch[idx + 2]);
+            out.writeLong(batch[idx + 3]);
+            out.writeLong(batch[idx + 4]);
+        }
+        out.flush();
+        written += batchSize;
+        batchSize = 0;
+    }
+
+    /**
+     * Sorts the order of the batch records by respond time, stable and
+     * without allocating.
+     */
+    private void sort(int from, int to) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        sort(from, mid);
+        sort(mid, to);
+        if (keys[order[mid - 1]] <= keys[order[mid]])
+            return;
+        System.arraycopy(order, from, scratch, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid &&
+                    keys[scratch[i]] <= keys[scratch[j]]))
+                order[k] = scratch[i++];
+            else
+                order[k] = scratch[j++];
+        }
+    }
+
+    /**
+     * Stops the writer after a final drain of the ring.
+     */
+    void cancel() {
+        if (terminated)
+            return;
+        terminated = true;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            logger.log(Level.FINE, e.getMessage(), e);
+        }
+        if (dropped.get() > 0)
+            logger.warning("Transaction trace " + file.getPath() +
+                    ": dropped " + dropped.get() + " records, the trace " +
+                    "writer could not keep up.");
+        logger.fine("Transaction trace " + file.getPath() + ": wrote " +
+                written + " records.");
+    }
+}
@@ -1,5 +1,6 @@
 package com.sun.faban.driver.transport.asynchronous;
 
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -46,6 +47,38 @@ public interface AsynchronousTransport<T, K> {
 	 */
 	T put(K payload);
 	
+	/**
+	 * Send the message without waiting for the response.
+	 * 
+	 * @param payload An object payload.
+	 * @param time The time coefficient to wait for a response.
+	 * @param unit The {@link TimeUnit} to wait for a response.
+	 * @param listener The listener to notify on completion, or null.
+	 * @return future The pending response.
+	 * @throws DyeingException
+	 * @throws ExecutionException If the message cannot be sent.
+	 */
+	TraceFuture<T, K> send(K payload, int time, TimeUnit unit,
+			CompletionListener<T, K> listener)
+			throws DyeingException, ExecutionException;
+	
+	/**
+	 * Send a batch of messages without waiting for the responses.  All
+	 * messages are dyed and registered before the first one is sent.
+	 * 
+	 * @param payloads The object payloads.
+	 * @param time The time coefficient to wait for each response.
+	 * @param unit The {@link TimeUnit} to wait for each response.
+	 * @param listener The listener to notify on each completion, or null.
+	 * @return futures The pending responses, in the order of the payloads.
+	 * @throws DyeingException
+	 * @throws ExecutionException If a message cannot be sent.  The
+	 *         messages not sent are failed.
+	 */
+	List<TraceFuture<T, K>> sendAll(List<? extends K> payloads, int time,
+			TimeUnit unit, CompletionListener<T, K> listener)
+			throws DyeingException, ExecutionException;
+	
 	/**
 	 * @return tracingRegistry The underlying tracing registry
 	 */
@@ -0,0 +1,30 @@
+package com.sun.faban.driver.transport.asynchronous;
+
+/**
+ * Receives the completion of an asynchronous request.  The listener is
+ * called from the thread delivering the response, which is usually not
+ * the driver thread, and therefore must not block.
+ * 
+ * @param <T> response
+ * @param <K> payload
+ */
+public interface CompletionListener<T, K> {
+
+	/**
+	 * The response for a trace has arrived.
+	 * 
+	 * @param trace The trace of the request
+	 * @param response The response
+	 * @param latency The time from sending the request to receiving the
+	 *        response, in nanoseconds
+	 */
+	void completed(Trace<K> trace, T response, long latency);
+
+	/**
+	 * The request for a trace failed.
+	 * 
+	 * @param trace The trace of the request
+	 * @param cause The failure
+	 */
+	void failed(Trace<K> trace, Throwable cause);
+}
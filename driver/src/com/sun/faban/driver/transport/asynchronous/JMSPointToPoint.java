@@ -4,6 +4,9 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -41,6 +44,7 @@ public class JMSPointToPoint<T> implements AsynchronousTransport<T, Message>, Me
 	
 	
 	private final TraceRegistry<T, Message> traceRegistry;
+	private final TraceMetrics traceMetrics = new TraceMetrics();
 	
 	static private Logger logger = Logger.getLogger("ASYNCHRONOUS_TRANSPORT");	
 	
@@ -70,6 +74,7 @@ public class JMSPointToPoint<T> implements AsynchronousTransport<T, Message>, Me
 		this.consumer = consumer;
 		this.consumer.setMessageListener(this);
 		
+		ctx.attachMetrics("Trace Latencies", traceMetrics);
 	}
 
 
@@ -208,10 +213,117 @@ public class JMSPointToPoint<T> implements AsynchronousTransport<T, Message>, Me
 	}
 
 
+	/**
+	 * @param payload 
+	 * @param time 
+	 * @param unit 
+	 * @param listener 
+	 * @return 
+	 * @throws DyeingException 
+	 * @throws ExecutionException 
+	 * @see com.sun.faban.driver.transport.asynchronous.AsynchronousTransport#send(java.lang.Object, int, java.util.concurrent.TimeUnit, com.sun.faban.driver.transport.asynchronous.CompletionListener)
+	 */
+	public TraceFuture<T, Message> send(Message payload, int time,
+			TimeUnit unit, CompletionListener<T, Message> listener)
+			throws DyeingException, ExecutionException {
+		return sendAll(Collections.singletonList(payload), time, unit,
+				listener).get(0);
+	}
+
+
+	/**
+	 * Send a batch of JMS messages.  The latency of each trace is recorded
+	 * into the "Trace Latencies" metrics by the operation sending it.  The
+	 * caller may still use {@link DriverContext#recordTime()} around the
+	 * batch and the futures to time the operation itself.
+	 * 
+	 * @param payloads 
+	 * @param time 
+	 * @param unit 
+	 * @param listener 
+	 * @return 
+	 * @throws DyeingException 
+	 * @throws ExecutionException 
+	 * @see com.sun.faban.driver.transport.asynchronous.AsynchronousTransport#sendAll(java.util.List, int, java.util.concurrent.TimeUnit, com.sun.faban.driver.transport.asynchronous.CompletionListener)
+	 */
+	public List<TraceFuture<T, Message>> sendAll(
+			List<? extends Message> payloads, int time, TimeUnit unit,
+			CompletionListener<T, Message> listener)
+			throws DyeingException, ExecutionException {
+		
+		CompletionListener<T, Message> recorder = new LatencyRecorder(
+				context.getCurrentOperation(), listener);
+		List<TraceFuture<T, Message>> futures =
+				new ArrayList<TraceFuture<T, Message>>(payloads.size());
+		for(Message payload : payloads) {
+			if(!(payload instanceof ObjectMessage) && 
+					!(payload instanceof BytesMessage)) {
+				throw new IllegalArgumentException("Payload cannot be cast to the appropriate message type");
+			}
+			futures.add(traceRegistry.register(
+					traceRegistry.registerAndDye(payload), recorder, time,
+					unit));
+		}
+		
+		int i = 0;
+		try {
+			for(; i < futures.size(); i++) {
+				TraceFuture<T, Message> future = futures.get(i);
+				future.sent();
+				producer.send(future.getTrace().getPayload());
+			}
+		} catch (JMSException e) {
+			for(; i < futures.size(); i++) {
+				futures.get(i).fail(e);
+			}
+			throw new ExecutionException(e);
+		}
+		return futures;
+	}
+
+
 	/**
 	 * @see com.sun.faban.driver.transport.asynchronous.AsynchronousTransport#getTracingRegistry()
 	 */
 	public TraceRegistry<T, Message> getTracingRegistry() {
 		return this.traceRegistry;
 	}
+
+
+	/**
+	 * Records the latency of each trace into the trace metrics, then
+	 * passes the completion on to the caller's listener.
+	 */
+	private final class LatencyRecorder
+			implements CompletionListener<T, Message> {
+		
+		private final String operation;
+		private final CompletionListener<T, Message> listener;
+		
+		private LatencyRecorder(String operation,
+				CompletionListener<T, Message> listener) {
+			this.operation = operation;
+			this.listener = listener;
+		}
+		
+		/**
+		 * @see com.sun.faban.driver.transport.asynchronous.CompletionListener#completed(com.sun.faban.driver.transport.asynchronous.Trace, java.lang.Object, long)
+		 */
+		public void completed(Trace<Message> trace, T response, long latency) {
+			traceMetrics.record(operation, latency);
+			if(listener != null) {
+				listener.completed(trace, response, latency);
+			}
+		}
+		
+		/**
+		 * @see com.sun.faban.driver.transport.asynchronous.CompletionListener#failed(com.sun.faban.driver.transport.asynchronous.Trace, java.lang.Throwable)
+		 */
+		public void failed(Trace<Message> trace, Throwable cause) {
+			traceMetrics.recordFailure(operation);
+			if(listener != null) {
+				listener.failed(trace, cause);
+			}
+		}
+	}
 }
@@ -8,11 +8,8 @@ import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -23,7 +20,9 @@ import javax.management.MBeanServer;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
 import net.sf.ehcache.management.ManagementService;
 
 import org.apache.commons.math.stat.Frequency;
@@ -40,11 +39,20 @@ import com.sun.faban.driver.DriverContext;
 public class MessageCacheTraceRegistry<T, K extends Message> implements TraceRegistry<T, K> {
 	
 	static private AtomicLong traceCounter = new AtomicLong(100000);
-	static private ScheduledExecutorService scheduler;
 	static private DescriptiveStatistics cacheStatistics = DescriptiveStatistics.newInstance();
 	static private Frequency roundtripFrequence = new Frequency();	
 	static private CacheManager responseCacheManager;
 	
+	/**
+	 * The outstanding traces of all registries in this JVM, by identifier.
+	 * A response may be consumed by any registry, or put into the cache by
+	 * another JVM, so the traces are completed from the cache events.  The
+	 * map is striped so that registering and acknowledging traces rarely
+	 * contend.
+	 */
+	static private final ConcurrentHashMap<String, TraceFuture<?, ?>> pending =
+			new ConcurrentHashMap<String, TraceFuture<?, ?>>(1024, 0.75f, 64);
+	
 	private Cache cache;
 	private DriverContext context;
 	
@@ -55,8 +63,6 @@ public class MessageCacheTraceRegistry<T, K extends Message> implements TraceReg
 	public MessageCacheTraceRegistry(DriverContext ctx) throws RegistryConfigurationException {
 		this.context = ctx;
 		
-		scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors() * 4);
-		
 		synchronized (MessageCacheTraceRegistry.class) {
 			if(responseCacheManager == null) {
 				InputStream ehcacheConfig= getClass().getResourceAsStream("/ehcache.xml");
@@ -79,6 +85,10 @@ public class MessageCacheTraceRegistry<T, K extends Message> implements TraceReg
 				MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
 				ManagementService.registerMBeans(responseCacheManager, mBeanServer, false, false, false, true);
 				
+				Cache responses = responseCacheManager.getCache("JMSDriverDistributedCache");
+				if(responses != null) {
+					responses.getCacheEventNotificationService().registerListener(new ResponseListener());
+				}
 			}
 		}
 		
@@ -132,18 +142,33 @@ public class MessageCacheTraceRegistry<T, K extends Message> implements TraceReg
 	 */
 	@SuppressWarnings("unchecked")
 	public T waitForCompletion(Trace<K> trace, int time, TimeUnit unit) throws InterruptedException, ExecutionException {
-		Future<T> future;
+		Element element = cache.get(trace.getIdentifier());
+		if(element != null) {
+			return (T)element.getObjectValue(); // No support for generics
+		}
+		if(time <= 0) {
+			return null;
+		}
+		TraceFuture<T, K> future = register(trace, null, time, unit);
+		// The response may have arrived before the trace was registered.
+		element = cache.get(trace.getIdentifier());
+		if(element != null) {
+			future.acknowledge((T)element.getObjectValue());
+		}
 		T result = null;
-		Element element = cache.get(trace);
-		if(element == null) {
-			future = scheduler.submit(new PollingCacheMonitor(trace, 5));
-			try { 
-				result = future.get(time, unit); // wait!!!
-			} catch (TimeoutException e) {
-				context.getLogger().log(Level.FINE, e.getMessage(), e);	
+		try {
+			result = future.get(); // wait!!! The timer wheel expires it.
+		} catch (ExecutionException e) {
+			if(!(e.getCause() instanceof TimeoutException)) {
+				throw e;
 			}
-		} else {
-			result = (T)element.getObjectValue(); // No support for generics
+			context.getLogger().log(Level.FINE, e.getCause().getMessage(), e);
+			return null;
+		}
+		long duration = future.getLatency(TimeUnit.MILLISECONDS);
+		synchronized(cacheStatistics) {
+			cacheStatistics.addValue(duration);
+			roundtripFrequence.addValue(duration);
 		}
 		return result;
 	}
@@ -154,11 +179,13 @@ public class MessageCacheTraceRegistry<T, K extends Message> implements TraceReg
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		builder.append("================== Frequency Statistics ==================").append('\n');
-		builder.append(cacheStatistics.toString()).append('\n');
-		builder.append("================== Frequency Distribution ================").append('\n');
-		builder.append(roundtripFrequence.toString()).append('\n');
-		builder.append("==========================================================").append('\n');
+		synchronized(cacheStatistics) {
+			builder.append("================== Frequency Statistics ==================").append('\n');
+			builder.append(cacheStatistics.toString()).append('\n');
+			builder.append("================== Frequency Distribution ================").append('\n');
+			builder.append(roundtripFrequence.toString()).append('\n');
+			builder.append("==========================================================").append('\n');
+		}
 		return builder.toString();
 	}
 
@@ -170,8 +197,83 @@ public class MessageCacheTraceRegistry<T, K extends Message> implements TraceReg
 		if(traceId == null || traceId.length() == 0) {
 			throw new MissingDyeException();
 		}
-		cache.put(new Element(traceId, response));
-		
+		cache.put(new Element(traceId, response)); // completes the trace
+	}
+	
+	/**
+	 * Completes the outstanding trace, if any, of a response.
+	 * 
+	 * @param traceId The trace identifier
+	 * @param response The response
+	 */
+	@SuppressWarnings("unchecked")
+	static private void complete(Object traceId, Object response) {
+		TraceFuture<Object, ?> future =
+				(TraceFuture<Object, ?>) pending.get(traceId);
+		if(future != null) {
+			future.acknowledge(response);
+		}
+	}
+	
+	/**
+	 * Register a trace for completion.  A trace already registered keeps
+	 * its pending future, so a waiter joins an asynchronous request.
+	 * 
+	 * @see com.sun.faban.driver.transport.asynchronous.TraceRegistry#register(com.sun.faban.driver.transport.asynchronous.Trace, com.sun.faban.driver.transport.asynchronous.CompletionListener, int, java.util.concurrent.TimeUnit)
+	 */
+	@SuppressWarnings("unchecked")
+	public TraceFuture<T, K> register(Trace<K> trace,
+			CompletionListener<T, K> listener, int time, TimeUnit unit) {
+		final String id = trace.getIdentifier();
+		TraceFuture<T, K> future = new TraceFuture<T, K>(trace, listener) {
+			@Override
+			protected void done() {
+				pending.remove(id, this);
+				super.done();
+			}
+		};
+		TraceFuture<T, K> registered =
+				(TraceFuture<T, K>) pending.putIfAbsent(id, future);
+		if(registered != null) {
+			return registered;
+		}
+		TimerWheel.getInstance().schedule(future, time, unit);
+		return future;
+	}
+	
+	/**
+	 * Completes the outstanding traces as their responses are put into
+	 * the cache, locally or replicated from another JVM.
+	 */
+	static private final class ResponseListener implements CacheEventListener {
+
+		public void notifyElementPut(Ehcache cache, Element element) {
+			complete(element.getObjectKey(), element.getObjectValue());
+		}
+
+		public void notifyElementUpdated(Ehcache cache, Element element) {
+			complete(element.getObjectKey(), element.getObjectValue());
+		}
+
+		public void notifyElementRemoved(Ehcache cache, Element element) {
+		}
+
+		public void notifyElementExpired(Ehcache cache, Element element) {
+		}
+
+		public void notifyElementEvicted(Ehcache cache, Element element) {
+		}
+
+		public void notifyRemoveAll(Ehcache cache) {
+		}
+
+		public void dispose() {
+		}
+
+		@Override
+		public Object clone() throws CloneNotSupportedException {
+			return super.clone();
+		}
 	}
 	
 	/** Message Trace **/
@@ -201,47 +303,6 @@ public class MessageCacheTraceRegistry<T, K extends Message> implements TraceReg
 		
 	}
 	
-	/**
-	 * Pooling response class.
-	 * 
-	 * @author Noah Campbell
-	 */
-	final class PollingCacheMonitor implements Callable<T> {
-		private final String correlationId;
-		private int waitTime;
-		
-		/**
-		 * Construct a {@link PollingCacheMonitor}
-		 * 
-		 * @param correlationId
-		 * @param time in milliseconds
-		 */
-		private PollingCacheMonitor(Trace<K> trace, int time) {
-			this.correlationId = trace.getIdentifier();
-			this.waitTime = time;
-		}
-
-		/**
-		 * @see java.util.concurrent.Callable#call()
-		 */
-		@SuppressWarnings("unchecked")
-		public T call() throws Exception {
-			long start = System.currentTimeMillis();
-			while(!cache.isKeyInCache(correlationId)) {
-				Thread.sleep(waitTime);
-			}
-			Element e = cache.get(correlationId);
-			long duration = System.currentTimeMillis() - start;
-			synchronized(PollingCacheMonitor.class) {
-				cacheStatistics.addValue(duration);
-				roundtripFrequence.addValue(duration);
-			}
-			if(e == null) return null;
-			return (T) e.getObjectValue();
-		}
-	}
-
-	
 	private static final Set<Partition> SUPPORTED_PARTITIONS = new HashSet<Partition>();
 	static {
 		Collections.addAll(SUPPORTED_PARTITIONS, Partition.THREAD, Partition.JVM, Partition.HOST);
@@ -0,0 +1,152 @@
+package com.sun.faban.driver.transport.asynchronous;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timer wheel expiring the pending traces of all registries in
+ * the JVM.  Scheduling is O(1).  A trace completed before its expiry
+ * clears its timeout, which releases the trace right away, and the empty
+ * timeout is dropped when its slot comes around.  A single thread
+ * advances the wheel one slot per tick.
+ * <p>
+ * The system property faban.async.tick sets the tick in ms, default 10.
+ */
+final class TimerWheel implements Runnable {
+
+	private static final int SLOTS = 512;
+	private static final Logger logger =
+			Logger.getLogger(TimerWheel.class.getName());
+	private static TimerWheel instance;
+
+	private final long tickNanos = TimeUnit.MILLISECONDS.toNanos(
+			Long.getLong("faban.async.tick", 10l));
+	private final Slot[] wheel;
+	private final long startTime = System.nanoTime();
+	private volatile long tick = 0l;
+
+	/**
+	 * @return wheel The timer wheel, started on first use
+	 */
+	static synchronized TimerWheel getInstance() {
+		if(instance == null) {
+			instance = new TimerWheel();
+		}
+		return instance;
+	}
+
+	private TimerWheel() {
+		wheel = new Slot[SLOTS];
+		for(int i = 0; i < SLOTS; i++) {
+			wheel[i] = new Slot();
+		}
+		Thread t = new Thread(this, "TraceTimerWheel");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Schedule the expiry of a pending trace.  The trace is failed with a
+	 * {@link TimeoutException} unless it completes within the timeout.
+	 * 
+	 * @param future The pending trace
+	 * @param time The timeout, 0 or less for no timeout
+	 * @param unit The {@link TimeUnit} of the timeout
+	 */
+	void schedule(TraceFuture<?, ?> future, long time, TimeUnit unit) {
+		if(time <= 0) {
+			return;
+		}
+		// Round up and skip the slot that may be expiring right now, so a
+		// trace never expires early.
+		long ticks = (unit.toNanos(time) + tickNanos - 1) / tickNanos + 1;
+		long expiry = tick + ticks;
+		Timeout timeout = new Timeout(future, time, unit,
+				(ticks - 1) / SLOTS);
+		future.timeout = timeout;
+		wheel[(int) (expiry % SLOTS)].add(timeout);
+		// The trace may have completed before it saw its timeout.
+		if(future.isDone()) {
+			timeout.clear();
+		}
+	}
+
+	/**
+	 * Advance the wheel, catching up if a tick was late.
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		for(;;) {
+			try {
+				long next = startTime + (tick + 1) * tickNanos;
+				long wait = next - System.nanoTime();
+				if(wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				expire(wheel[(int) ((tick + 1) % SLOTS)]);
+				++tick;
+			} catch (InterruptedException e) {
+				logger.log(Level.FINE, "Timer wheel interrupted.", e);
+			} catch (Throwable t) {
+				// Keep the wheel turning for all other traces.
+				logger.log(Level.SEVERE, "Unexpected error expiring traces.",
+						t);
+			}
+		}
+	}
+
+	private void expire(Slot slot) {
+		Iterator<Timeout> iter = slot.iterator();
+		while(iter.hasNext()) {
+			Timeout timeout = iter.next();
+			TraceFuture<?, ?> future = timeout.future;
+			if(future == null || future.isDone()) {
+				iter.remove();
+			} else if(timeout.rounds > 0) {
+				--timeout.rounds;
+			} else {
+				iter.remove();
+				future.fail(new TimeoutException("No response for " +
+						future.getTrace().getIdentifier() +
+						" after " + timeout.time + ' ' + timeout.unit));
+			}
+		}
+	}
+
+	/** A slot of the wheel, the timeouts expiring on the same tick. */
+	private static final class Slot extends ConcurrentLinkedQueue<Timeout> {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * A scheduled expiry.  Only the wheel thread touches the rounds once
+	 * the timeout is added.
+	 */
+	static final class Timeout {
+
+		/** The pending trace, null once it completed. */
+		volatile TraceFuture<?, ?> future;
+		final long time;
+		final TimeUnit unit;
+		long rounds;
+
+		Timeout(TraceFuture<?, ?> future, long time, TimeUnit unit,
+				long rounds) {
+			this.future = future;
+			this.time = time;
+			this.unit = unit;
+			this.rounds = rounds;
+		}
+
+		/**
+		 * Releases the completed trace.
+		 */
+		void clear() {
+			future = null;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.sun.faban.driver.transport.asynchronous;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pending response of a dyed request.  The future is completed by the
+ * {@link TraceRegistry} when the response is acknowledged, so callers
+ * waiting on {@link #get()} are woken up directly instead of polling.  An
+ * optional {@link CompletionListener} is notified on completion.
+ * 
+ * @param <T> response
+ * @param <K> payload
+ */
+public class TraceFuture<T, K> extends FutureTask<T> {
+
+	private final Trace<K> trace;
+	private final CompletionListener<T, K> listener;
+	private volatile long sentTime;
+	private volatile long latency = -1l;
+
+	/** The expiry scheduled for this trace, or null. */
+	volatile TimerWheel.Timeout timeout;
+
+	/**
+	 * Construct a {@link TraceFuture}.
+	 * 
+	 * @param trace The trace to wait for
+	 * @param listener The listener to notify, or null
+	 */
+	public TraceFuture(Trace<K> trace, CompletionListener<T, K> listener) {
+		super(new Callable<T>() {
+			public T call() {
+				throw new IllegalStateException(
+						"A trace is completed by its response only.");
+			}
+		});
+		this.trace = trace;
+		this.listener = listener;
+		this.sentTime = System.nanoTime();
+	}
+
+	/**
+	 * @return trace The trace of the request
+	 */
+	public Trace<K> getTrace() {
+		return trace;
+	}
+
+	/**
+	 * Marks the request as sent, which starts the latency.
+	 */
+	public void sent() {
+		sentTime = System.nanoTime();
+	}
+
+	/**
+	 * Completes the future with the response.
+	 * 
+	 * @param response The response
+	 * @return true if completed, false if it was already done or cancelled
+	 */
+	public boolean acknowledge(T response) {
+		if (isDone()) {
+			return false;
+		}
+		latency = System.nanoTime() - sentTime;
+		set(response);
+		return true;
+	}
+
+	/**
+	 * Completes the future with a failure.
+	 * 
+	 * @param cause The failure
+	 */
+	public void fail(Throwable cause) {
+		setException(cause);
+	}
+
+	/**
+	 * @param unit The unit of the latency
+	 * @return latency The time from sending to the response, or -1 if
+	 *         the response has not arrived
+	 */
+	public long getLatency(TimeUnit unit) {
+		long l = latency;
+		return l < 0l ? -1l : unit.convert(l, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Releases the scheduled expiry and notifies the listener.
+	 * @see java.util.concurrent.FutureTask#done()
+	 */
+	@Override
+	protected void done() {
+		TimerWheel.Timeout t = timeout;
+		if (t != null) {
+			t.clear();
+		}
+		if (listener == null || isCancelled()) {
+			return;
+		}
+		try {
+			listener.completed(trace, get(), latency);
+		} catch (ExecutionException e) {
+			listener.failed(trace, e.getCause());
+		} catch (InterruptedException e) {
+			// Cannot happen, the future is done.
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.sun.faban.driver.transport.asynchronous;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sun.faban.common.TableModel;
+import com.sun.faban.driver.CustomTableMetrics;
+import com.sun.faban.driver.engine.Metrics;
+import com.sun.faban.driver.util.LogLinearHistogram;
+
+/**
+ * Records the latency of each asynchronous trace by the operation that
+ * sent it.  Responses are usually delivered on other threads than the
+ * driver thread, so the recording is synchronized.
+ */
+public class TraceMetrics implements CustomTableMetrics {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final String[] HEADERS = { "Operation", "Responses",
+			"Failures", "Avg (ms)", "90% (ms)", "Max (ms)" };
+
+	private LinkedHashMap<String, Latencies> operations =
+			new LinkedHashMap<String, Latencies>();
+
+	/**
+	 * Record the latency of a response.
+	 * 
+	 * @param operation The operation sending the request
+	 * @param latency The latency in nanoseconds
+	 */
+	public synchronized void record(String operation, long latency) {
+		Latencies l = get(operation);
+		++l.count;
+		l.sum += latency;
+		l.histogram.record(latency);
+	}
+
+	/**
+	 * Record a failed request.
+	 * 
+	 * @param operation The operation sending the request
+	 */
+	public synchronized void recordFailure(String operation) {
+		++get(operation).failures;
+	}
+
+	private Latencies get(String operation) {
+		if (operation == null) {
+			operation = "Other";
+		}
+		Latencies l = operations.get(operation);
+		if (l == null) {
+			l = new Latencies();
+			operations.put(operation, l);
+		}
+		return l;
+	}
+
+	/**
+	 * @see com.sun.faban.driver.CustomTableMetrics#add(com.sun.faban.driver.CustomTableMetrics)
+	 */
+	public synchronized void add(CustomTableMetrics other) {
+		TraceMetrics o = (TraceMetrics) ((TraceMetrics) other).clone();
+		for (Map.Entry<String, Latencies> entry : o.operations.entrySet()) {
+			Latencies l = get(entry.getKey());
+			Latencies ol = entry.getValue();
+			l.count += ol.count;
+			l.failures += ol.failures;
+			l.sum += ol.sum;
+			l.histogram.add(ol.histogram);
+		}
+	}
+
+	/**
+	 * @see com.sun.faban.driver.CustomTableMetrics#getResults()
+	 */
+	public synchronized TableModel getResults() {
+		TableModel table = new TableModel(HEADERS.length, operations.size());
+		for (int i = 0; i < HEADERS.length; i++) {
+			table.setHeader(i, HEADERS[i]);
+		}
+		for (Map.Entry<String, Latencies> entry : operations.entrySet()) {
+			Latencies l = entry.getValue();
+			Comparable<?>[] row = table.newRow();
+			row[0] = entry.getKey();
+			row[1] = Long.toString(l.count);
+			row[2] = Long.toString(l.failures);
+			if (l.count > 0) {
+				row[3] = String.format("%.3f", l.sum / (l.count * 1e6d));
+				row[4] = String.format("%.3f",
+						l.histogram.getValueAtPercentile(90d) / 1e6d);
+				row[5] = String.format("%.3f",
+						l.histogram.getMaxValue() / 1e6d);
+			} else {
+				row[3] = row[4] = row[5] = "-";
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public synchronized Object clone() {
+		TraceMetrics clone = new TraceMetrics();
+		for (Map.Entry<String, Latencies> entry : operations.entrySet()) {
+			Latencies l = entry.getValue();
+			Latencies cl = clone.get(entry.getKey());
+			cl.count = l.count;
+			cl.failures = l.failures;
+			cl.sum = l.sum;
+			cl.histogram.set(l.histogram);
+		}
+		return clone;
+	}
+
+	/** The latencies of one operation. */
+	private static final class Latencies implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		long count;
+		long failures;
+		double sum;
+		LogLinearHistogram histogram = new LogLinearHistogram(
+				Metrics.LOGHIST_LOWEST_NANOS, Metrics.LOGHIST_HIGHEST_NANOS, 2);
+	}
+}
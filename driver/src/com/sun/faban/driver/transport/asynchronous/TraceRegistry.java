@@ -34,6 +34,21 @@ public interface TraceRegistry<T, K> {
 	 */
 	void acknowledge(String traceId, T response) throws MissingDyeException;
 	
+	/**
+	 * Register a trace for asynchronous completion.  The returned future
+	 * is completed when the response for the trace is acknowledged, or
+	 * failed with a {@link java.util.concurrent.TimeoutException} if the
+	 * response does not arrive in time.
+	 * 
+	 * @param trace The trace returned from {@link #registerAndDye(Object)}.
+	 * @param listener The listener to notify on completion, or null.
+	 * @param time The time to wait for the response, 0 for no limit.
+	 * @param unit The {@link TimeUnit} of the time.
+	 * @return future The pending response
+	 */
+	TraceFuture<T, K> register(Trace<K> trace,
+			CompletionListener<T, K> listener, int time, TimeUnit unit);
+	
 	/**
 	 * {@link #waitForCompletion(Trace, int, TimeUnit)} provides a method for the caller
 	 * to wait for a result for a specified period of time.
@@ -23,10 +23,12 @@
  */
 package com.sun.faban.driver.transport.hc3;
 
+import com.sun.faban.driver.transport.util.SSLSessionModes;
 import com.sun.faban.driver.transport.util.TimedSocketWrapper;
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -42,14 +44,21 @@ import java.net.UnknownHostException;
  */
 public class AboveTimedSSLSocketFactory implements SecureProtocolSocketFactory {
 
-    private static SSLSocketFactory sslFactory =
-            (SSLSocketFactory) SSLSocketFactory.getDefault();
+    /**
+     * Obtains the SSL socket factory for the calling thread according to
+     * the configured session mode.
+     * @return The SSL socket factory
+     */
+    private static SSLSocketFactory sslFactory() {
+        return SSLSessionModes.getMode().getSocketFactory();
+    }
 
     public Socket createSocket(String host, int port, InetAddress localAddress,
                                int localPort) throws IOException {
 
-        Socket socket = new TimedSocketWrapper(sslFactory.createSocket());
-        InetSocketAddress endpoint = new InetSocketAddress(host, port);
+        Socket socket = new TimedSocketWrapper(sslFactory().createSocket());
+        InetSocketAddress endpoint =
+                InetSocketAddress.createUnresolved(host, port);
         socket.bind(new InetSocketAddress(localAddress, localPort));
         socket.connect(endpoint);
         return socket;
@@ -65,8 +74,10 @@ public class AboveTimedSSLSocketFactory implements SecureProtocolSocketFactory {
         if (timeout <= 0) {
             return createSocket(host, port, localAddress, localPort);
         } else {
-            Socket socket = new TimedSocketWrapper(sslFactory.createSocket());
-            InetSocketAddress endpoint = new InetSocketAddress(host, port);
+            Socket socket =
+                    new TimedSocketWrapper(sslFactory().createSocket());
+            InetSocketAddress endpoint =
+                InetSocketAddress.createUnresolved(host, port);
             socket.bind(new InetSocketAddress(localAddress, localPort));
             socket.connect(endpoint, timeout);
             return socket;
@@ -74,8 +85,9 @@ public class AboveTimedSSLSocketFactory implements SecureProtocolSocketFactory {
     }
 
     public Socket createSocket(String host, int port) throws IOException {
-        Socket socket = new TimedSocketWrapper(sslFactory.createSocket());
-        InetSocketAddress endpoint = new InetSocketAddress(host, port);
+        Socket socket = new TimedSocketWrapper(sslFactory().createSocket());
+        InetSocketAddress endpoint =
+                InetSocketAddress.createUnresolved(host, port);
         socket.connect(endpoint);
         return socket;
     }
@@ -87,7 +99,10 @@ public class AboveTimedSSLSocketFactory implements SecureProtocolSocketFactory {
         // Starting the timer at this point is the most accurate we can do
         // with an existing socket - so the time includes createSocket.
         TimedSocketWrapper wrapper = new TimedSocketWrapper();
-        wrapper.setSocket(sslFactory.createSocket(socket, host, port, close));
+        SSLSocket sslSocket = (SSLSocket) sslFactory().createSocket(socket,
+                host, port, close);
+        TimedSocketWrapper.startHandshake(sslSocket);
+        wrapper.setSocket(sslSocket);
         return wrapper;
     }
 
@@ -24,6 +24,9 @@
 package com.sun.faban.driver.transport.hc3;
 
 import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.util.ByteMatcher;
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.transport.util.TransportExecutor;
 
 import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
@@ -37,6 +40,10 @@ import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
 import java.io.*;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -81,8 +88,19 @@ public class ApacheHC3Transport extends HttpTransport {
                                         FabanCookieSpec.class);
     }
 
+    /**
+     * The number of concurrent connections per host used for fetching
+     * page resources, as common browsers do.
+     */
+    static final int RESOURCE_CONNECTIONS_PER_HOST = 6;
+
     private HttpClient hc = new HttpClient();
 
+    /**
+     * The client fetching page resources. It shares the cookies and
+     * parameters of hc but pools its own connections. Lazy initialized.
+     */
+    private HttpClient resourceClient;
 
     /** The main appendable buffer for the total results. */
     private StringBuilder charBuffer;
@@ -834,19 +852,160 @@ public class ApacheHC3Transport extends HttpTransport {
     */
 
     /**
-     * Method not implemented. Makes a POST request. Fetches the main page
-     * and all other image or resource pages based on the given URLs.
+     * Fetches the main page and then reads all image or resource URLs
+     * in parallel, like a browser does. Resources are read over up to
+     * six persistent connections per host, using the agent's shared
+     * TransportExecutor threads. The main page is requested with a POST
+     * if postRequest is not null, otherwise with a GET. With automatic
+     * timing, the response time ends with the last resource read. The
+     * response code, headers, and content size after this call are those
+     * of the main page.
      *
      * @param page The page URL
      * @param images The image or other resource URLs to fetch with page
-     * @param postRequest The post string
+     * @param postRequest The post string, or null
      * @return The buffer of the main page
      * @throws java.io.IOException If an I/O error occurred
      */
 	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
             throws IOException {
-        // TODO: implement method
-        return null;
+        StringBuilder buffer;
+        if (postRequest == null)
+            buffer = fetchURL(page);
+        else
+            buffer = fetchURL(page, postRequest);
+        if (images == null || images.length == 0)
+            return buffer;
+
+        // Group the resources by host, each host gets its own workers.
+        LinkedHashMap<String, List<URL>> hosts =
+                new LinkedHashMap<String, List<URL>>();
+        for (URL image : images) {
+            String key = image.getProtocol() + "://" + image.getHost() +
+                         ':' + image.getPort();
+            List<URL> urls = hosts.get(key);
+            if (urls == null) {
+                urls = new ArrayList<URL>();
+                hosts.put(key, urls);
+            }
+            urls.add(image);
+        }
+
+        HttpClient client = getResourceClient();
+        ExecutorService executor = TransportExecutor.getInstance();
+        ArrayList<Future<Object>> workers = new ArrayList<Future<Object>>();
+        for (List<URL> urls : hosts.values()) {
+            ResourceQueue queue = new ResourceQueue(urls);
+            int count = Math.min(RESOURCE_CONNECTIONS_PER_HOST, urls.size());
+            for (int i = 0; i < count; i++)
+                workers.add(executor.submit(
+                        new ResourceWorker(client, queue, followRedirects)));
+        }
+
+        IOException failure = null;
+        for (int i = 0; i < workers.size(); i++) {
+            try {
+                workers.get(i).get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                if (failure == null)
+                    failure = (IOException) cause;
+            } catch (InterruptedException e) {
+                for (int j = i; j < workers.size(); j++)
+                    workers.get(j).cancel(true);
+                throw new InterruptedIOException(
+                        "Interrupted fetching resources of " + page);
+            }
+        }
+
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx != null)
+            ctx.recordEndTime();
+        if (failure != null)
+            throw failure;
+        return buffer;
+    }
+
+    private synchronized HttpClient getResourceClient() {
+        if (resourceClient == null) {
+            MultiThreadedHttpConnectionManager manager =
+                    new MultiThreadedHttpConnectionManager();
+            manager.getParams().setConnectionTimeout(30000);
+            manager.getParams().setDefaultMaxConnectionsPerHost(
+                                            RESOURCE_CONNECTIONS_PER_HOST);
+            manager.getParams().setMaxTotalConnections(
+                                        8 * RESOURCE_CONNECTIONS_PER_HOST);
+            resourceClient = new HttpClient(hc.getParams(), manager);
+            resourceClient.setState(hc.getState());
+        }
+        return resourceClient;
+    }
+
+    /**
+     * The resource URLs of one host, drained by the workers for that host.
+     */
+    private static class ResourceQueue {
+
+        private final List<URL> urls;
+        private int next = 0;
+
+        ResourceQueue(List<URL> urls) {
+            this.urls = urls;
+        }
+
+        synchronized URL poll() {
+            return next < urls.size() ? urls.get(next++) : null;
+        }
+    }
+
+    /**
+     * Reads and discards resources from a queue over a single connection
+     * at a time, until the queue is empty.
+     */
+    private static class ResourceWorker implements Callable<Object> {
+
+        private final HttpClient client;
+        private final ResourceQueue queue;
+        private final boolean followRedirects;
+        private final DriverContext user;
+
+        ResourceWorker(HttpClient client, ResourceQueue queue,
+                       boolean followRedirects) {
+            this.client = client;
+            this.queue = queue;
+            this.followRedirects = followRedirects;
+            user = DriverContext.getContext();
+        }
+
+        public Object call() throws IOException {
+            byte[] readBuffer = new byte[BUFFER_SIZE];
+            URL url;
+            DriverContext.serve(user);
+            try {
+                while ((url = queue.poll()) != null) {
+                    GetMethod method = new GetMethod(url.toString());
+                    method.setFollowRedirects(followRedirects);
+                    try {
+                        client.executeMethod(method);
+                        InputStream in = method.getResponseBodyAsStream();
+                        if (in != null) {
+                            while (in.read(readBuffer) != -1)
+                                ;
+                            in.close();
+                        }
+                    } finally {
+                        method.releaseConnection();
+                    }
+                }
+            } finally {
+                DriverContext.serve(null);
+            }
+            return null;
+        }
     }
 
     /**
@@ -1507,6 +1666,160 @@ public class ApacheHC3Transport extends HttpTransport {
         return optionsURL(url.toString(), null);
     }
 
+    /**
+     * Matches the literals or regular expression of a byte matcher against
+     * the data read from the stream, without decoding it into characters.
+     * @param stream The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchResponse(InputStream stream, ByteMatcher matcher)
+            throws IOException {
+        matchStream(stream, matcher);
+        return matcher.matches();
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the URL
+     * as the response is read, without decoding it into characters. The
+     * response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(String url, ByteMatcher matcher)
+            throws IOException {
+        GetMethod method = new GetMethod(url);
+        method.setFollowRedirects(followRedirects);
+        try {
+            responseCode = hc.executeMethod(method);
+            buildResponseHeaders(method);
+            return matchResponse(method, matcher);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the URL
+     * as the response is read, without decoding it into characters. The
+     * response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(URL url, ByteMatcher matcher)
+            throws IOException {
+        return matchURL(url.toString(), matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the post
+     * request made to the URL as the response is read, without decoding
+     * it into characters. The response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(String url, String postRequest,
+                            ByteMatcher matcher) throws IOException {
+        PostMethod method = new PostMethod(url);
+        method.setFollowRedirects(followRedirects);
+        setParameters(method, postRequest);
+        try {
+            responseCode = hc.executeMethod(method);
+            buildResponseHeaders(method);
+            return matchResponse(method, matcher);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the post
+     * request made to the URL as the response is read, without decoding
+     * it into characters. The response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(URL url, String postRequest, ByteMatcher matcher)
+            throws IOException {
+        return matchURL(url.toString(), postRequest, matcher);
+    }
+
+    /**
+     * Matches the response body of a method as it is read. If the matcher
+     * does not drain, the connection is aborted once the outcome is known.
+     * @param method The executed method
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    private boolean matchResponse(HttpMethod method, ByteMatcher matcher)
+            throws IOException {
+        InputStream in = method.getResponseBodyAsStream();
+        if (in == null) {
+            matcher.reset();
+            matcher.finish();
+            contentSize = 0;
+            return matcher.matches();
+        }
+        Header contentEncodingHdr =
+                method.getResponseHeader("content-encoding");
+        if (contentEncodingHdr != null &&
+                "gzip".equalsIgnoreCase(contentEncodingHdr.getValue()))
+            in = new GZIPInputStream(in);
+        if (matchStream(in, matcher))
+            in.close();
+        else
+            method.abort();
+        return matcher.matches();
+    }
+
+    /**
+     * Feeds a stream to a matcher, recycling the read buffer. Once the
+     * outcome is known, the rest of the stream is drained without matching
+     * or left unread, according to the matcher.
+     * @param in The stream to read
+     * @param matcher The matcher
+     * @return True if the stream was read to the end, false otherwise
+     * @throws IOException
+     */
+    private boolean matchStream(InputStream in, ByteMatcher matcher)
+            throws IOException {
+        matcher.reset();
+        int totalLength = 0;
+        boolean decided = false;
+        int length = in.read(byteReadBuffer);
+        while (length != -1) {
+            totalLength += length;
+            if (!decided) {
+                decided = matcher.update(byteReadBuffer, 0, length);
+                if (decided && !matcher.isDrain()) {
+                    contentSize = totalLength;
+                    return false;
+                }
+            }
+            length = in.read(byteReadBuffer);
+        }
+        contentSize = totalLength;
+        matcher.finish();
+        return true;
+    }
+
     /**
      * Obtains the list of cookie values by the name of the cookies.
      * @param name The cookie name
@@ -1586,5 +1899,10 @@ public class ApacheHC3Transport extends HttpTransport {
      */
     public void closeConnections() {
         hc.getHttpConnectionManager().closeIdleConnections(0);
+        synchronized (this) {
+            if (resourceClient != null)
+                resourceClient.getHttpConnectionManager().
+                        closeIdleConnections(0);
+        }
     }
 }
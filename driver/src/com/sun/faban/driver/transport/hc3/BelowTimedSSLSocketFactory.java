@@ -26,6 +26,7 @@ package com.sun.faban.driver.transport.hc3;
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -33,7 +34,9 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
+import com.sun.faban.driver.transport.util.SSLSessionModes;
 import com.sun.faban.driver.transport.util.TimedSocket;
+import com.sun.faban.driver.transport.util.TimedSocketWrapper;
 
 /**
  * The BelowTimedSSLSocketFactory is used for the Apache Commons
@@ -43,14 +46,21 @@ import com.sun.faban.driver.transport.util.TimedSocket;
  */
 public class BelowTimedSSLSocketFactory implements SecureProtocolSocketFactory {
 
-    private static SSLSocketFactory sslFactory =
-            (SSLSocketFactory) SSLSocketFactory.getDefault();
+    /**
+     * Obtains the SSL socket factory for the calling thread according to
+     * the configured session mode.
+     * @return The SSL socket factory
+     */
+    private static SSLSocketFactory sslFactory() {
+        return SSLSessionModes.getMode().getSocketFactory();
+    }
 
     public Socket createSocket(String host, int port, InetAddress localAddress,
                                int localPort) throws IOException {
-        return sslFactory.createSocket(
-                new TimedSocket(host, port, localAddress, localPort),
-                host, port, true);
+        TimedSocket socket = new TimedSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        socket.connect(InetSocketAddress.createUnresolved(host, port));
+        return handshake(socket, host, port, true);
     }
 
     public Socket createSocket(String host, int port, InetAddress localAddress,
@@ -65,26 +75,46 @@ public class BelowTimedSSLSocketFactory implements SecureProtocolSocketFactory {
         } else {
             TimedSocket socket = new TimedSocket();
             socket.bind(new InetSocketAddress(localAddress, localPort));
-            socket.connect(new InetSocketAddress(host, port), timeout);
-            return sslFactory.createSocket(socket, host, port, true);
+            socket.connect(InetSocketAddress.createUnresolved(host, port),
+                           timeout);
+            return handshake(socket, host, port, true);
         }
     }
 
     public Socket createSocket(String host, int port) throws IOException {
-        return sslFactory.createSocket(new TimedSocket(host, port),
-                                            host, port, true);
+        TimedSocket socket = new TimedSocket();
+        socket.connect(InetSocketAddress.createUnresolved(host, port));
+        return handshake(socket, host, port, true);
     }
 
     public Socket createSocket(Socket socket, String host, int port,
                                boolean close)
             throws IOException, UnknownHostException {
         if (socket instanceof TimedSocket)
-            return sslFactory.createSocket(socket, host, port, close);
+            return handshake(socket, host, port, close);
         else
             throw new IllegalStateException(
                     "Socket to use must already be a timed socket.");
     }
 
+    /**
+     * Layers SSL over a connected timed socket and runs the handshake, so
+     * the handshake time is recorded separately from the server time.
+     * @param socket The connected timed socket
+     * @param host The server host
+     * @param port The server port
+     * @param close Whether closing the SSL socket closes the timed socket
+     * @return The SSL socket
+     * @throws IOException If the handshake fails
+     */
+    private Socket handshake(Socket socket, String host, int port,
+                             boolean close) throws IOException {
+        SSLSocket sslSocket = (SSLSocket) sslFactory().createSocket(socket,
+                host, port, close);
+        TimedSocketWrapper.startHandshake(sslSocket);
+        return sslSocket;
+    }
+
     /**
      * All instances of ProtocolTimedSocketFactory are the same.
      * @param obj The other object to compare to
@@ -0,0 +1,517 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.util.ConnectionStats;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A single HTTP request and response exchanged over a pooled connection.
+ * The request is prepared by the driver thread, which then hands the
+ * exchange to the engine and waits for its completion. The engine's
+ * selector thread writes the request and parses the response. The
+ * completion hands the state back to the driver thread.<p>
+ *
+ * The selector thread records the connection and response timing into
+ * the driver context while holding the lock of the exchange. The driver
+ * thread does not touch the context between handing its exchanges to the
+ * engine and their completion, which it observes under the same lock. An
+ * exchange the driver thread gives up on is detached from its context so
+ * the selector no longer records into it.
+ */
+class Exchange {
+
+    // Parser states.
+    private static final int STATUS = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY_LENGTH = 2;
+    private static final int BODY_EOF = 3;
+    private static final int CHUNK_SIZE = 4;
+    private static final int CHUNK_DATA = 5;
+    private static final int CHUNK_END = 6;
+    private static final int TRAILERS = 7;
+    private static final int DONE = 8;
+
+    /** The connection pool key, host:port. */
+    final String key;
+
+    /** The resolved server address. */
+    final InetSocketAddress address;
+
+    /** The encoded request, including the body. */
+    final ByteBuffer request;
+
+    /** Whether this is a HEAD request, which has no response body. */
+    final boolean head;
+
+    /** The context to record the response time into, may be null. */
+    private DriverContext ctx;
+
+    /** The maximum body bytes to keep, 0 to only count the body. */
+    int keepLimit;
+
+    /**
+     * If set, the body is only kept for text content or the content
+     * types in this set.
+     */
+    Set<String> textTypes;
+
+    /** The body kept, grown as needed. */
+    byte[] body;
+
+    /** The number of bytes kept in body. */
+    int bodyLength;
+
+    /** The total number of body bytes received. */
+    int contentSize;
+
+    /** The response status code. */
+    int status;
+
+    /** The response headers, by case-insensitive name. */
+    Map<String, List<String>> headers;
+
+    /** Whether the connection can be reused after this exchange. */
+    boolean keepAlive;
+
+    /** The connection this exchange runs on, owned by the selector. */
+    SocketChannel channel;
+
+    /** Whether the connection was taken from the pool. */
+    boolean reused;
+
+    /** Whether any response byte was received. */
+    boolean received;
+
+    /** The nanotime a new connection was started. */
+    long connectStart;
+
+    private int state = STATUS;
+    private long remaining;
+    private StringBuilder line = new StringBuilder(128);
+    private boolean http11;
+    private boolean chunked;
+    private long contentLength;
+
+    private boolean done = false;
+    volatile boolean aborted = false;
+    private IOException failure;
+
+    /**
+     * Constructs an exchange.
+     * @param address The server address
+     * @param request The encoded request
+     * @param head Whether this is a HEAD request
+     * @param ctx The driver context, or null if not called from a driver
+     */
+    Exchange(InetSocketAddress address, ByteBuffer request, boolean head,
+             DriverContext ctx) {
+        this.address = address;
+        this.key = address.getHostName() + ':' + address.getPort();
+        this.request = request;
+        this.head = head;
+        this.ctx = ctx;
+    }
+
+    /**
+     * Resets the exchange for a retry on a new connection.
+     */
+    void reset() {
+        request.rewind();
+        state = STATUS;
+        line.setLength(0);
+        headers = null;
+        bodyLength = 0;
+        contentSize = 0;
+        received = false;
+        reused = false;
+        channel = null;
+    }
+
+    /**
+     * Parses response bytes read from the connection.
+     * Called from the selector thread only.
+     * @param buffer The bytes read, ready to be consumed
+     * @return True if the response is complete, false otherwise
+     * @throws IOException If the response is malformed
+     */
+    boolean parse(ByteBuffer buffer) throws IOException {
+        if (!received)
+            firstByte();
+        received = true;
+        while (buffer.hasRemaining() && state != DONE) {
+            switch (state) {
+                case STATUS     :
+                case HEADERS    :
+                case CHUNK_SIZE :
+                case CHUNK_END  :
+                case TRAILERS   : if (readLine(buffer))
+                                      processLine();
+                                  break;
+                case BODY_LENGTH:
+                case CHUNK_DATA : int n = (int) Math.min(remaining,
+                                                      buffer.remaining());
+                                  consume(buffer, n);
+                                  remaining -= n;
+                                  if (remaining == 0)
+                                      state = state == CHUNK_DATA ?
+                                              CHUNK_END : DONE;
+                                  break;
+                case BODY_EOF   : consume(buffer, buffer.remaining());
+            }
+        }
+        return state == DONE;
+    }
+
+    /**
+     * Signals the end of the stream from the server.
+     * Called from the selector thread only.
+     * @return True if the response is complete, false if it was truncated
+     */
+    boolean endOfStream() {
+        if (state == BODY_EOF) {
+            state = DONE;
+            keepAlive = false;
+            return true;
+        }
+        return state == DONE;
+    }
+
+    private boolean readLine(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            char c = (char) (buffer.get() & 0xff);
+            if (c == '\n') {
+                int len = line.length();
+                if (len > 0 && line.charAt(len - 1) == '\r')
+                    line.setLength(len - 1);
+                return true;
+            }
+            if (line.length() >= 65536)
+                throw new IOException("Response header line too long.");
+            line.append(c);
+        }
+        return false;
+    }
+
+    private void processLine() throws IOException {
+        String s = line.toString();
+        line.setLength(0);
+        switch (state) {
+            case STATUS     : if (s.length() == 0) // Tolerate leading CRLF.
+                                  break;
+                              parseStatus(s);
+                              headers = new TreeMap<String, List<String>>(
+                                      String.CASE_INSENSITIVE_ORDER);
+                              state = HEADERS;
+                              break;
+            case HEADERS    : if (s.length() > 0)
+                                  addHeader(s);
+                              else
+                                  startBody();
+                              break;
+            case CHUNK_SIZE : int semi = s.indexOf(';');
+                              if (semi >= 0)
+                                  s = s.substring(0, semi);
+                              try {
+                                  remaining = Long.parseLong(s.trim(), 16);
+                              } catch (NumberFormatException e) {
+                                  throw new IOException(
+                                          "Bad chunk size: " + s);
+                              }
+                              state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+                              break;
+            case CHUNK_END  : state = CHUNK_SIZE;
+                              break;
+            case TRAILERS   : if (s.length() == 0)
+                                  state = DONE;
+        }
+    }
+
+    private void parseStatus(String s) throws IOException {
+        if (!s.startsWith("HTTP/"))
+            throw new IOException("Bad response status line: " + s);
+        int sp = s.indexOf(' ');
+        if (sp < 0)
+            throw new IOException("Bad response status line: " + s);
+        http11 = !s.startsWith("HTTP/1.0");
+        int end = s.indexOf(' ', sp + 1);
+        if (end < 0)
+            end = s.length();
+        try {
+            status = Integer.parseInt(s.substring(sp + 1, end));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad response status line: " + s);
+        }
+    }
+
+    private void addHeader(String s) {
+        int colon = s.indexOf(':');
+        if (colon <= 0)
+            return; // Ignore malformed header lines.
+        String name = s.substring(0, colon).trim();
+        String value = s.substring(colon + 1).trim();
+        List<String> values = headers.get(name);
+        if (values == null) {
+            values = new ArrayList<String>(1);
+            headers.put(name, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Obtains the first value of a response header.
+     * @param name The header name
+     * @return The header value, or null if not present
+     */
+    String getHeader(String name) {
+        if (headers == null)
+            return null;
+        List<String> values = headers.get(name);
+        if (values == null || values.size() == 0)
+            return null;
+        return values.get(0);
+    }
+
+    private void startBody() throws IOException {
+        if (status >= 100 && status < 200) { // Interim response, skip it.
+            state = STATUS;
+            return;
+        }
+        String connection = getHeader("Connection");
+        if (http11)
+            keepAlive = !"close".equalsIgnoreCase(connection);
+        else
+            keepAlive = "keep-alive".equalsIgnoreCase(connection);
+
+        chunked = false;
+        contentLength = -1l;
+        String te = getHeader("Transfer-Encoding");
+        if (te != null && te.toLowerCase().indexOf("chunked") >= 0) {
+            chunked = true;
+        } else {
+            String cl = getHeader("Content-Length");
+            if (cl != null)
+                try {
+                    contentLength = Long.parseLong(cl.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad Content-Length: " + cl);
+                }
+        }
+
+        if (textTypes != null &&
+                !isText(getHeader("Content-Type"), textTypes))
+            keepLimit = 0;
+
+        if (head || status == 204 || status == 304 || contentLength == 0l) {
+            state = DONE;
+        } else if (chunked) {
+            state = CHUNK_SIZE;
+        } else if (contentLength > 0l) {
+            remaining = contentLength;
+            if (keepLimit > 0)
+                ensureCapacity((int) Math.min(contentLength, keepLimit));
+            state = BODY_LENGTH;
+        } else {
+            keepAlive = false;
+            state = BODY_EOF;
+        }
+    }
+
+    /**
+     * Checks whether a content type denotes text content.
+     * @param contentType The Content-Type header value, may be null
+     * @param textTypes Additional MIME types to be treated as text
+     * @return True if the content is text, false otherwise
+     */
+    static boolean isText(String contentType, Set<String> textTypes) {
+        if (contentType == null)
+            return false;
+        int semi = contentType.indexOf(';');
+        if (semi >= 0)
+            contentType = contentType.substring(0, semi);
+        contentType = contentType.trim();
+        return contentType.startsWith("text/") ||
+                textTypes.contains(contentType);
+    }
+
+    private void consume(ByteBuffer buffer, int n) {
+        contentSize += n;
+        int keep = Math.min(n, keepLimit - bodyLength);
+        if (keep > 0) {
+            ensureCapacity(bodyLength + keep);
+            buffer.get(body, bodyLength, keep);
+            bodyLength += keep;
+            n -= keep;
+        }
+        buffer.position(buffer.position() + n);
+    }
+
+    private void ensureCapacity(int size) {
+        if (body == null) {
+            body = new byte[Math.max(size, 2048)];
+        } else if (body.length < size) {
+            byte[] b = new byte[Math.max(size, body.length * 2)];
+            System.arraycopy(body, 0, b, 0, bodyLength);
+            body = b;
+        }
+    }
+
+    /**
+     * Records the time taken to connect a new connection.
+     * Called from the selector thread only.
+     */
+    synchronized void connected() {
+        if (ctx != null) {
+            ctx.recordConnectTime(connectStart);
+            ctx.countConnection(ConnectionStats.CONNECT, 1);
+        }
+    }
+
+    /**
+     * Counts a connection event into the connection statistics. The
+     * driver thread is waiting on the exchange, so the selector thread
+     * may count on its behalf.
+     * @param event The event, one of the ConnectionStats event constants
+     * @param n The number of events or bytes
+     */
+    synchronized void count(int event, long n) {
+        if (ctx != null)
+            ctx.countConnection(event, n);
+    }
+
+    /**
+     * Counts a failure of the exchange as a timeout or connection reset.
+     * @param e The failure
+     */
+    void countFailure(IOException e) {
+        if (e instanceof SocketTimeoutException)
+            count(ConnectionStats.TIMEOUT, 1);
+        else if (e instanceof SocketException)
+            count(ConnectionStats.RESET, 1);
+    }
+
+    /**
+     * Records the request as completely written.
+     * Called from the selector thread only.
+     */
+    synchronized void sent() {
+        if (ctx != null)
+            ctx.recordRequestSent();
+    }
+
+    /**
+     * Records the arrival of the first response byte.
+     * Called from the selector thread only.
+     */
+    private synchronized void firstByte() {
+        if (ctx != null)
+            ctx.recordFirstByte();
+    }
+
+    /**
+     * Detaches the exchange from its driver context. Nothing is recorded
+     * into the context thereafter. This is called from the driver thread
+     * when it no longer waits for the exchange.
+     */
+    synchronized void detach() {
+        ctx = null;
+    }
+
+    /**
+     * Completes the exchange and wakes up the waiting driver thread.
+     * @param e The failure, or null if the response was received
+     */
+    synchronized void finish(IOException e) {
+        if (done)
+            return;
+        if (e == null && ctx != null)
+            ctx.recordEndTime();
+        failure = e;
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Checks whether the exchange is already complete.
+     * @return True if complete, false otherwise
+     */
+    synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits for the completion of the exchange.
+     * @param timeout The maximum wait in ms, 0 for no limit
+     * @return True if completed, false if the wait timed out or was
+     *         interrupted
+     * @throws IOException If the exchange failed
+     */
+    synchronized boolean await(long timeout) throws IOException {
+        long end = timeout > 0 ? System.currentTimeMillis() + timeout : 0l;
+        while (!done) {
+            long wait = 0l;
+            if (end > 0l) {
+                wait = end - System.currentTimeMillis();
+                if (wait <= 0l) {
+                    failure = new SocketTimeoutException("Timed out after " +
+                            timeout + " ms waiting for " + key);
+                    done = true;
+                    return false;
+                }
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                failure = new InterruptedIOException(
+                        "Interrupted waiting for " + key);
+                done = true;
+                return false;
+            }
+        }
+        if (failure != null)
+            throw failure;
+        return true;
+    }
+
+    /**
+     * Obtains the failure of an exchange that did not complete.
+     * @return The failure
+     */
+    synchronized IOException getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,327 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.FatalException;
+import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.util.ConnectionStats;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The selector-driven I/O engine shared by all NIO transports of an agent.
+ * A single selector thread connects, writes requests, and parses the
+ * responses of all connections using one read buffer. Connections are
+ * kept alive in per host:port pools shared by all driver threads, so the
+ * number of connections follows the number of concurrent requests rather
+ * than the number of threads.<p>
+ *
+ * The following system properties tune the engine:<ul>
+ * <li>faban.nio.maxIdlePerHost - idle connections kept per host, default
+ *     1024</li>
+ * <li>faban.nio.timeout - maximum time in ms to wait for a response,
+ *     default 30000, 0 for no limit</li>
+ * </ul>
+ */
+class NioEngine implements Runnable {
+
+    private static Logger logger =
+            Logger.getLogger(NioEngine.class.getName());
+
+    private static NioEngine instance;
+
+    final int maxIdlePerHost = Integer.getInteger(
+                                    "faban.nio.maxIdlePerHost", 1024);
+    final long timeout = Long.getLong("faban.nio.timeout", 30000l);
+
+    private final Selector selector;
+    private final ByteBuffer readBuffer =
+            ByteBuffer.allocateDirect(HttpTransport.BUFFER_SIZE);
+    private final Queue<Exchange> pending =
+            new ConcurrentLinkedQueue<Exchange>();
+    private final ConcurrentHashMap<String, Queue<SocketChannel>> idle =
+            new ConcurrentHashMap<String, Queue<SocketChannel>>();
+
+    /**
+     * Obtains the engine, starting it on first use.
+     * @return The engine
+     */
+    static synchronized NioEngine getInstance() {
+        if (instance == null)
+            try {
+                instance = new NioEngine();
+            } catch (IOException e) {
+                throw new FatalException("Cannot open NIO selector.", e);
+            }
+        return instance;
+    }
+
+    private NioEngine() throws IOException {
+        selector = Selector.open();
+        Thread t = new Thread(this, "NioHttpEngine");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Executes an exchange and waits for its completion. This is called
+     * from the driver thread.
+     * @param exchange The exchange to execute
+     * @throws IOException If the exchange failed or timed out
+     */
+    void execute(Exchange exchange) throws IOException {
+        submit(exchange);
+        await(exchange);
+    }
+
+    /**
+     * Hands an exchange to the selector thread without waiting for it.
+     * @param exchange The exchange to execute
+     */
+    void submit(Exchange exchange) {
+        Queue<SocketChannel> pool = idle.get(exchange.key);
+        if (pool != null) {
+            SocketChannel channel = pool.poll();
+            if (channel != null) {
+                exchange.channel = channel;
+                exchange.reused = true;
+            }
+        }
+        pending.add(exchange);
+        selector.wakeup();
+    }
+
+    /**
+     * Waits for the completion of a submitted exchange.
+     * @param exchange The exchange to wait for
+     * @throws IOException If the exchange failed or timed out
+     */
+    void await(Exchange exchange) throws IOException {
+        if (!exchange.await(timeout)) {
+            exchange.aborted = true;
+            exchange.countFailure(exchange.getFailure());
+            // The selector may still be working on the exchange, keep it
+            // off the context the driver thread is about to use again.
+            exchange.detach();
+            pending.add(exchange); // Let the selector close the connection.
+            selector.wakeup();
+            throw exchange.getFailure();
+        }
+    }
+
+    /**
+     * The selector loop.
+     */
+    public void run() {
+        for (;;) {
+            try {
+                selector.select();
+                Exchange exchange;
+                while ((exchange = pending.poll()) != null)
+                    start(exchange);
+                Iterator<SelectionKey> iter =
+                        selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    process(key);
+                }
+            } catch (Throwable t) {
+                // Keep the engine alive for all other connections.
+                logger.log(Level.SEVERE, "Unexpected error in NIO engine.",
+                           t);
+            }
+        }
+    }
+
+    private void start(Exchange exchange) {
+        if (exchange.aborted) {
+            close(exchange.channel);
+            return;
+        }
+        try {
+            SocketChannel channel = exchange.channel;
+            if (channel == null) {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                exchange.channel = channel;
+                exchange.connectStart = System.nanoTime();
+                if (!channel.connect(exchange.address)) {
+                    channel.register(selector, SelectionKey.OP_CONNECT,
+                                     exchange);
+                    return;
+                }
+                exchange.connected();
+            } else if (exchange.reused) {
+                exchange.count(ConnectionStats.REUSE, 1);
+            }
+            SelectionKey key = channel.keyFor(selector);
+            if (key == null)
+                channel.register(selector, SelectionKey.OP_WRITE, exchange);
+            else {
+                key.attach(exchange);
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            fail(exchange, e);
+        } catch (RuntimeException e) {
+            fail(exchange, new IOException(e.toString()));
+        }
+    }
+
+    private void process(SelectionKey key) {
+        if (!key.isValid())
+            return;
+        Object attachment = key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (attachment instanceof String) { // Idle, attached to its pool key.
+            idleEvent(key, channel, (String) attachment);
+            return;
+        }
+        Exchange exchange = (Exchange) attachment;
+        if (exchange == null) // Taken from the pool, not yet started.
+            return;
+        if (exchange.aborted) {
+            close(channel);
+            return;
+        }
+        try {
+            if (key.isConnectable()) {
+                if (channel.finishConnect()) {
+                    exchange.connected();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            } else if (key.isWritable()) {
+                int n = channel.write(exchange.request);
+                exchange.count(ConnectionStats.BYTES_OUT, n);
+                if (!exchange.request.hasRemaining()) {
+                    exchange.sent();
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable()) {
+                readBuffer.clear();
+                int n = channel.read(readBuffer);
+                boolean complete;
+                if (n < 0) {
+                    complete = exchange.endOfStream();
+                    if (!complete)
+                        throw new EOFException("Connection to " +
+                                exchange.key + " closed prematurely.");
+                } else {
+                    readBuffer.flip();
+                    exchange.count(ConnectionStats.BYTES_IN, n);
+                    complete = exchange.parse(readBuffer);
+                }
+                if (complete)
+                    complete(key, exchange);
+            }
+        } catch (IOException e) {
+            fail(exchange, e);
+        } catch (RuntimeException e) {
+            fail(exchange, new IOException(e.toString()));
+        }
+    }
+
+    private void complete(SelectionKey key, Exchange exchange) {
+        SocketChannel channel = exchange.channel;
+        exchange.channel = null;
+        if (exchange.keepAlive) {
+            Queue<SocketChannel> pool = idle.get(exchange.key);
+            if (pool == null) {
+                pool = new ConcurrentLinkedQueue<SocketChannel>();
+                Queue<SocketChannel> p = idle.putIfAbsent(exchange.key, pool);
+                if (p != null)
+                    pool = p;
+            }
+            if (pool.size() < maxIdlePerHost) {
+                // Watch the idle connection for the server closing it.
+                key.attach(exchange.key);
+                key.interestOps(SelectionKey.OP_READ);
+                pool.add(channel);
+            } else {
+                close(exchange, channel);
+            }
+        } else {
+            close(exchange, channel);
+        }
+        exchange.finish(null);
+    }
+
+    private void fail(Exchange exchange, IOException e) {
+        exchange.countFailure(e);
+        close(exchange, exchange.channel);
+        if (exchange.reused && !exchange.received && !exchange.aborted) {
+            // The server may have closed the pooled connection before
+            // it saw our request. Retry once on a new connection.
+            logger.log(Level.FINE, "Retrying on a new connection to " +
+                       exchange.key, e);
+            exchange.reset();
+            start(exchange);
+            return;
+        }
+        exchange.finish(e);
+    }
+
+    private void idleEvent(SelectionKey key, SocketChannel channel,
+                           String poolKey) {
+        Queue<SocketChannel> pool = idle.get(poolKey);
+        if (pool != null && pool.remove(channel)) {
+            // We own the connection. The server either closed it or sent
+            // unsolicited data, neither of which lets us reuse it.
+            close(channel);
+        } else {
+            // A driver thread took it, wait for its exchange to start.
+            key.interestOps(0);
+            key.attach(null);
+        }
+    }
+
+    private void close(Exchange exchange, SocketChannel channel) {
+        if (channel != null && channel.isOpen())
+            exchange.count(ConnectionStats.CLOSE, 1);
+        close(channel);
+    }
+
+    private void close(SocketChannel channel) {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Error closing connection.", e);
+        }
+    }
+}
@@ -0,0 +1,1218 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.util.ByteMatcher;
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.transport.hc3.FabanCookieSpec;
+import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.cookie.CookieSpec;
+import org.apache.commons.httpclient.cookie.MalformedCookieException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The NioHttpTransport provides the HttpTransport services over a shared,
+ * selector-driven NIO engine. The driver threads do not own sockets or
+ * socket streams. Instead, the requests are handed to the engine which
+ * multiplexes all connections of the agent over a single selector thread
+ * and keeps them alive in pools shared by all threads. This allows an
+ * agent to hold a very large number of connections with little memory
+ * and few threads.<p>
+ *
+ * The response time is recorded just like the socket-based transports.
+ * The start time is recorded by the driver thread before the request is
+ * handed to the engine, and the end time is recorded by the engine when
+ * the last byte of the response has been received.<p>
+ *
+ * This transport supports plain HTTP only. Bandwidth throttling is not
+ * supported.
+ */
+public class NioHttpTransport extends HttpTransport {
+
+    private static Logger logger =
+            Logger.getLogger(NioHttpTransport.class.getName());
+
+    private static final int MAX_REDIRECTS = 20;
+
+    private static final int DOWNLOAD_LIMIT = 1048576;
+
+    /* Default headers used for POST request */
+    private static Map<String, String> postHeadersForm;
+    private static Map<String, String> postHeadersBinary;
+
+    static {
+        postHeadersForm = new HashMap<String, String>();
+        postHeadersForm.put("Content-Type",
+                            "application/x-www-form-urlencoded");
+        postHeadersBinary = new HashMap<String, String>();
+        postHeadersBinary.put("Content-Type", "application/octet-stream");
+    }
+
+    private NioEngine engine = NioEngine.getInstance();
+
+    /** The cookies of this transport. */
+    private HttpState state = new HttpState();
+
+    private CookieSpec cookieSpec = new FabanCookieSpec();
+
+    /** The main appendable buffer for the total results. */
+    private StringBuilder charBuffer;
+
+    /** The response code of the last response. */
+    private int responseCode;
+
+    /** The response headers of the last response. */
+    private Map<String, List<String>> responseHeader;
+
+    /** The content size of the last read page. */
+    private int contentSize;
+
+    /** The char used for the reads in fetch* methods. */
+    private char[] charReadBuffer = new char[BUFFER_SIZE];
+
+    /** The buffer receiving the response body, reused across requests. */
+    private byte[] bodyBuffer;
+
+    /** A cache for already-compiled regex patterns. */
+    private HashMap<String, Pattern> patternCache;
+
+    private boolean followRedirects = false;
+
+    private HashSet<String> texttypes;
+
+    /**
+     * Constructs a new NioHttpTransport object.
+     */
+    public NioHttpTransport() {
+        super(null);
+    	texttypes = new HashSet<String>();
+        texttypes.add("application/json");
+    }
+
+    /**
+     * Sets the http connections managed by this transport to follow or
+     * not follow HTTP redirects.
+     * @param follow True if HTTP redirects should be automatically followed,
+     *        false otherwise
+     */
+    public void setFollowRedirects(boolean follow) {
+        followRedirects = follow;
+    }
+
+    /**
+     * Add a MIME type to the list of text types. If the response is of this
+     * type the fetchULR() methods will return the response data.
+     *
+     * @param texttype The content type of a HTTP response that contains text.
+     */
+    public void addTextType(String texttype) {
+    	texttypes.add(texttype);
+    }
+
+    /**
+     * Checks whether the connections managed by this transport follows
+     * redirects or not.
+     * @return True if redirects are followed, false otherwise
+     */
+    public boolean isFollowRedirects() {
+        return followRedirects;
+    }
+
+    /**
+     * Initializes or re-initializes the buffer.
+     * @param size The size of the buffer
+     */
+    private void reInitBuffer(int size) {
+        if (charBuffer == null)
+            charBuffer = new StringBuilder(size);
+        else
+            charBuffer.setLength(0);
+    }
+
+    /**
+     * Obtains the reference of the current response buffer.
+     * @return The response buffer
+     */
+    public StringBuilder getResponseBuffer() {
+        return charBuffer;
+    }
+
+    /**
+     * Creates the exchange for a request. The response time measurement
+     * starts here, possibly waiting for the intended invoke time.
+     * @param url The URL
+     * @param method The request method
+     * @param body The request body, or null
+     * @param headers The request headers, or null
+     * @return The exchange, ready to be executed
+     * @throws IOException If the request cannot be made
+     */
+    private Exchange newExchange(URL url, String method, byte[] body,
+                                 Map<String, String> headers)
+            throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol()))
+            throw new IOException("Protocol " + url.getProtocol() +
+                    " not supported by NioHttpTransport: " + url);
+        String host = url.getHost();
+        int port = url.getPort();
+        if (port < 0)
+            port = url.getDefaultPort();
+        String path = url.getPath();
+        if (path.length() == 0)
+            path = "/";
+        String file = url.getFile();
+        if (file.length() == 0)
+            file = "/";
+
+        StringBuilder b = new StringBuilder(256);
+        b.append(method).append(' ').append(file).append(" HTTP/1.1\r\n");
+        b.append("Host: ").append(host);
+        if (port != 80)
+            b.append(':').append(port);
+        b.append("\r\n");
+        boolean hasLanguage = false;
+        boolean hasCookie = false;
+        if (headers != null)
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                String name = entry.getKey();
+                if ("Accept-Language".equalsIgnoreCase(name))
+                    hasLanguage = true;
+                else if ("Cookie".equalsIgnoreCase(name))
+                    hasCookie = true;
+                else if ("Content-Length".equalsIgnoreCase(name) ||
+                         "Host".equalsIgnoreCase(name))
+                    continue;
+                b.append(name).append(": ").append(entry.getValue());
+                b.append("\r\n");
+            }
+        if (!hasLanguage)
+            b.append("Accept-Language: en-us,en;q=0.5\r\n");
+        if (!hasCookie) {
+            Cookie[] cookies = cookieSpec.match(host, port, path, false,
+                                                state.getCookies());
+            if (cookies.length > 0)
+                b.append("Cookie: ").append(cookieSpec.formatCookies(cookies)).
+                        append("\r\n");
+        }
+        if (body != null)
+            b.append("Content-Length: ").append(body.length).append("\r\n");
+        b.append("\r\n");
+
+        byte[] header = b.toString().getBytes("ISO-8859-1");
+        ByteBuffer request = ByteBuffer.allocate(header.length +
+                (body == null ? 0 : body.length));
+        request.put(header);
+        if (body != null)
+            request.put(body);
+        request.flip();
+
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx != null)
+            ctx.recordStartTime();
+        long start = System.nanoTime();
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (ctx != null)
+            ctx.recordDnsTime(start);
+        return new Exchange(address, request, "HEAD".equals(method), ctx);
+    }
+
+    /**
+     * Executes a request, following redirects if so configured.
+     * @param url The URL
+     * @param method The request method
+     * @param body The request body, or null
+     * @param headers The request headers, or null
+     * @param keepLimit The maximum response body bytes to keep
+     * @param textOnly Whether to only keep text responses
+     * @return The completed exchange
+     * @throws IOException If the request failed
+     */
+    private Exchange execute(URL url, String method, byte[] body,
+                             Map<String, String> headers, int keepLimit,
+                             boolean textOnly) throws IOException {
+        for (int redirects = 0;; redirects++) {
+            Exchange exchange = newExchange(url, method, body, headers);
+            exchange.keepLimit = keepLimit;
+            if (textOnly)
+                exchange.textTypes = texttypes;
+            exchange.body = bodyBuffer;
+            engine.execute(exchange);
+            bodyBuffer = exchange.body;
+            processResponse(url, exchange);
+
+            String location = exchange.getHeader("Location");
+            int status = exchange.status;
+            if (!followRedirects || location == null ||
+                    redirects >= MAX_REDIRECTS ||
+                    (status != 301 && status != 302 && status != 303 &&
+                     status != 307))
+                return exchange;
+            url = new URL(url, location);
+            if (status == 303 || (status != 307 && "POST".equals(method))) {
+                method = "GET";
+                body = null;
+                headers = null;
+            }
+        }
+    }
+
+    /**
+     * Saves the response status, headers, and cookies.
+     * @param url The URL of the request
+     * @param exchange The completed exchange
+     */
+    private void processResponse(URL url, Exchange exchange) {
+        responseCode = exchange.status;
+        responseHeader = exchange.headers;
+        contentSize = exchange.contentSize;
+        List<String> setCookies = exchange.headers.get("Set-Cookie");
+        if (setCookies == null)
+            return;
+        String host = url.getHost();
+        int port = url.getPort();
+        if (port < 0)
+            port = url.getDefaultPort();
+        String path = url.getPath();
+        if (path.length() == 0)
+            path = "/";
+        for (String setCookie : setCookies)
+            try {
+                Cookie[] cookies = cookieSpec.parse(host, port, path, false,
+                                                    setCookie);
+                for (Cookie cookie : cookies) {
+                    cookieSpec.validate(host, port, path, false, cookie);
+                    state.addCookie(cookie);
+                }
+            } catch (MalformedCookieException e) {
+                logger.log(Level.FINE, "Ignoring cookie " + setCookie, e);
+            }
+    }
+
+    /**
+     * Decodes the kept text response into the response buffer.
+     * @param exchange The completed exchange
+     * @return The response buffer, or null if the response is not text
+     * @throws IOException If the response cannot be decoded
+     */
+    private StringBuilder fetchResponse(Exchange exchange) throws IOException {
+        String contentType = exchange.getHeader("Content-Type");
+        if (!Exchange.isText(contentType, texttypes))
+            return null;
+        String hdr = "charset=";
+        int hdrLen = hdr.length();
+        String encoding = "ISO-8859-1";
+        StringTokenizer t = new StringTokenizer(contentType, ";");
+        t.nextToken();
+        while (t.hasMoreTokens()) {
+            String param = t.nextToken().trim();
+            if (param.startsWith(hdr)) {
+                encoding = param.substring(hdrLen);
+                break;
+            }
+        }
+        InputStream is = new ByteArrayInputStream(exchange.body == null ?
+                new byte[0] : exchange.body, 0, exchange.bodyLength);
+        if ("gzip".equalsIgnoreCase(exchange.getHeader("Content-Encoding")))
+            is = new GZIPInputStream(is);
+        return fetchResponseData(new InputStreamReader(is, encoding));
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, Map<String, String> headers)
+            throws IOException {
+        execute(url, "GET", null, headers, 0, false);
+        return contentSize;
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url) throws IOException {
+        return readURL(url, (Map<String, String>) null);
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, Map<String, String> headers)
+            throws IOException {
+        return readURL(new URL(url), headers);
+    }
+
+    /**
+     * Reads data from the URL and discards it, keeping just the size of the
+     * total read. This is useful for ensuring receival of binary or text
+     * data that do not need further analysis.
+     * @param url The URL to read from
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url) throws IOException {
+        return readURL(new URL(url));
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest) throws IOException {
+        return readURL(url, postRequest, null);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     * Note that the POST request will be URL encoded.
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, String postRequest, Map<String, String> headers)
+            throws IOException {
+        execute(url, "POST", postRequest.getBytes("UTF-8"),
+                postHeaders(headers, postHeadersForm), 0, false);
+        return contentSize;
+    }
+
+    /**
+     * Makes a POST request to the URL without encoding the data (the
+     * header type is application/octet-stream).
+     *
+     * @param url The URL to read from
+     * @param postRequest The binary data to send
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(URL url, byte[] postRequest, Map<String, String> headers)
+            throws IOException {
+        execute(url, "POST", postRequest,
+                postHeaders(headers, postHeadersBinary), 0, false);
+        return contentSize;
+    }
+
+    /**
+     * Makes a POST request to the URL without encoding the data (the
+     * header type is application/octet-stream).
+     *
+     * @param url The URL to read from
+     * @param postRequest The binary data to send
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, byte[] postRequest) throws IOException {
+        return readURL(new URL(url), postRequest, null);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, String postRequest) throws IOException {
+        return readURL(new URL(url), postRequest);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and discards the data,
+     * keeping just the size of the total read. This is useful for ensuring
+     * receival of binary or text data that do not need further analysis.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int readURL(String url, String postRequest,
+                       Map<String, String> headers) throws IOException {
+        return readURL(new URL(url), postRequest, headers);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types.
+     *
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, Map<String, String> headers)
+            throws IOException {
+        return fetchResponse(execute(url, "GET", null, headers,
+                                     Integer.MAX_VALUE, true));
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url) throws IOException {
+        return fetchURL(url, (Map<String, String>) null);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, Map<String, String> headers)
+            throws IOException {
+        return fetchURL(new URL(url), headers);
+    }
+
+    /**
+     * Reads data from the URL and returns the data read. Note that this
+     * method only works with text data as it does the byte-to-char
+     * conversion. This method will return null for responses with binary
+     * MIME types. The addTextType(String) method is used to register
+     * additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url) throws IOException {
+        return fetchURL(new URL(url));
+    }
+
+    /**
+     * Retrieve large response from the URL and returns the data read. Use
+     * this method for any arbitrary return data type e.g. file downloads.
+     * This method will only download upto 1 MB to conserve memory. However,
+     * it will read all of the response and update contentSize appropriately.
+     *
+     * @param url The URL to read from
+     * @return The byte array containing the resulting data
+     * @throws java.io.IOException
+     * @see #getContentSize()
+     */
+    public byte[] downloadURL(String url) throws IOException {
+        Exchange exchange = execute(new URL(url), "GET", null, null,
+                                    DOWNLOAD_LIMIT, false);
+        if (exchange.body == null)
+            return new byte[0];
+        return Arrays.copyOf(exchange.body, exchange.bodyLength);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, String postRequest)
+            throws IOException {
+        return fetchURL(new URL(url), postRequest);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(String url, String postRequest,
+                                  Map<String, String> headers)
+            throws IOException {
+        return fetchURL(new URL(url), postRequest, headers);
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @param headers The request headers
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, String postRequest,
+                                  Map<String, String> headers)
+            throws IOException {
+        return fetchResponse(execute(url, "POST",
+                postRequest.getBytes("UTF-8"),
+                postHeaders(headers, postHeadersForm),
+                Integer.MAX_VALUE, true));
+    }
+
+    /**
+     * Makes a POST request to the URL. Reads data back and returns the data
+     * read. Note that this method only works with text data as it does the
+     * byte-to-char conversion. This method will return null for responses
+     * with binary MIME types. The addTextType(String) method is used to
+     * register additional MIME types as text types. Use getContentSize()
+     * to obtain the bytes of binary data read.
+     *
+     * @param url The URL to read from
+     * @param postRequest The post request string
+     * @return The StringBuilder buffer containing the resulting document
+     * @throws IOException
+     * @see #addTextType(String)
+     * @see #getContentSize()
+     */
+    public StringBuilder fetchURL(URL url, String postRequest)
+            throws IOException {
+        return fetchURL(url, postRequest, null);
+    }
+
+    /**
+     * Fetches the main page and then reads all image or resource URLs
+     * concurrently, each over its own pooled connection. The main page is
+     * requested with a POST if postRequest is not null, otherwise with
+     * a GET. The response code, headers, and content size after this call
+     * are those of the main page.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @param postRequest The post string, or null
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+	public StringBuilder fetchURL(URL page, URL[] images, String postRequest)
+            throws IOException {
+        StringBuilder buffer;
+        if (postRequest == null)
+            buffer = fetchURL(page);
+        else
+            buffer = fetchURL(page, postRequest);
+        int code = responseCode;
+        Map<String, List<String>> header = responseHeader;
+        int size = contentSize;
+
+        // Create all exchanges before the first is submitted. The
+        // selector thread records into the driver context as soon as an
+        // exchange is submitted, while newExchange records from this
+        // thread.
+        Exchange[] exchanges = new Exchange[images.length];
+        for (int i = 0; i < images.length; i++)
+            exchanges[i] = newExchange(images[i], "GET", null, null);
+        for (Exchange exchange : exchanges)
+            engine.submit(exchange);
+        IOException failure = null;
+        for (int i = 0; i < exchanges.length; i++)
+            try {
+                engine.await(exchanges[i]);
+                processResponse(images[i], exchanges[i]);
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        responseCode = code;
+        responseHeader = header;
+        contentSize = size;
+        if (failure != null)
+            throw failure;
+        return buffer;
+    }
+
+    /**
+     * Makes a POST request, fetches the main page and all other image or
+     * resource pages.
+     *
+     * @param page The page URL
+     * @param images The image or other resource URLs to fetch with page
+     * @param postRequest The post string
+     * @return The buffer of the main page
+     * @throws IOException If an I/O error occurred
+     */
+    public StringBuilder fetchPage(String page, String[] images,
+                                  String postRequest) throws IOException {
+        URL[] imgURLs = new URL[images.length];
+        for (int i = 0; i < imgURLs.length; i++)
+            imgURLs[i] = new URL(images[i]);
+        return fetchURL(new URL(page), imgURLs, postRequest);
+    }
+
+    /**
+     * Obtains the size of the last read page or resource. The result is in
+     * bytes for non-decoded content and in characters for decoded content.
+     * All binary content is not decoded. Text content is decoded only using
+     * the fetch or match commands.
+     * @return The size, in bytes, of the last page read
+     */
+    public int getContentSize() {
+        return contentSize;
+    }
+
+    /**
+     * Fetches the data from the stream, converts to char, and returns it as
+     * a StringBuilder.
+     * @param stream The stream to read from
+     * @return The resulting data
+     * @throws IOException
+     */
+    public StringBuilder fetchResponseData(InputStream stream)
+            throws IOException {
+        return fetchResponseData(new InputStreamReader(stream));
+    }
+
+    /**
+     * Fetches the data from the reader and returns it as a StringBuilder.
+     * @param reader The reader to read from
+     * @return The resulting data
+     * @throws IOException
+     */
+    public StringBuilder fetchResponseData(Reader reader) throws IOException {
+        int totalLength = 0;
+        int length = reader.read(charReadBuffer, 0, charReadBuffer.length);
+        if (length > 0)
+            reInitBuffer(length);
+        else
+            reInitBuffer(2048);
+
+        while (length != -1) {
+            totalLength += length;
+            charBuffer.append(charReadBuffer, 0, length);
+            length = reader.read(charReadBuffer, 0, charReadBuffer.length);
+        }
+        contentSize = totalLength;
+        return charBuffer;
+    }
+
+    /**
+     * Maches the regular expression against the data in the current buffer.
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     */
+    public boolean matchResponse(String regex) {
+        if (charBuffer == null)
+            return false;
+        if (patternCache == null)
+            patternCache = new HashMap<String, Pattern>();
+        Pattern pattern = patternCache.get(regex);
+        if (pattern == null) {
+            pattern = Pattern.compile(regex);
+            patternCache.put(regex, pattern);
+        }
+        Matcher matcher = pattern.matcher(charBuffer);
+        return matcher.find();
+    }
+
+    /**
+     * Matches the regular expression against the data read from the stream.
+     * @param stream The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchResponse(InputStream stream, String regex)
+            throws IOException {
+        fetchResponseData(stream);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the data read from the reader.
+     * @param reader The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchResponse(Reader reader, String regex)
+            throws IOException {
+        fetchResponseData(reader);
+        return matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex THe regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String regex) throws IOException {
+        return fetchURL(url) != null && matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String regex,
+                            Map<String, String> headers) throws IOException {
+        return fetchURL(url, headers) != null && matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String regex) throws IOException {
+        return fetchURL(url) != null && matchResponse(regex);
+    }
+
+    /**
+     * Matches the regular expression against the response fetched from the
+     * URL.
+     * @param url The source of the data
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String regex, Map<String, String> headers)
+            throws IOException {
+        return fetchURL(url, headers) != null && matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String postRequest, String regex)
+            throws IOException {
+        return fetchURL(url, postRequest) != null && matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(URL url, String postRequest, String regex,
+                            Map<String, String> headers) throws IOException {
+        return fetchURL(url, postRequest, headers) != null &&
+                matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String postRequest, String regex)
+            throws IOException {
+        return fetchURL(url, postRequest) != null && matchResponse(regex);
+    }
+
+    /**
+     * Mathces the regular expression against the response fetched from the
+     * post request made to the URL.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param regex The regular expression to match
+     * @param headers The request headers
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    public boolean matchURL(String url, String postRequest, String regex,
+                            Map<String, String> headers) throws IOException {
+        return fetchURL(url, postRequest, headers) != null &&
+                matchResponse(regex);
+    }
+
+    /**
+     * Matches the literals or regular expression of a byte matcher against
+     * the data read from the stream, without decoding it into characters.
+     * @param stream The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchResponse(InputStream stream, ByteMatcher matcher)
+            throws IOException {
+        matcher.reset();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length = stream.read(buffer);
+        while (length != -1) {
+            matcher.update(buffer, 0, length);
+            length = stream.read(buffer);
+        }
+        matcher.finish();
+        return matcher.matches();
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the URL,
+     * without decoding it into characters. The NIO transport receives the
+     * whole body before matching it, so unlike the other transports it
+     * does not stop reading once the matcher decided. The response buffer
+     * is not updated by this method.
+     * @param url The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(String url, ByteMatcher matcher)
+            throws IOException {
+        return matchURL(new URL(url), matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the URL,
+     * without decoding it into characters. The NIO transport receives the
+     * whole body before matching it, so unlike the other transports it
+     * does not stop reading once the matcher decided. The response buffer
+     * is not updated by this method.
+     * @param url The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(URL url, ByteMatcher matcher)
+            throws IOException {
+        return matchResponse(execute(url, "GET", null, null,
+                                     Integer.MAX_VALUE, false), matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the post
+     * request made to the URL, without decoding it into characters. The
+     * NIO transport receives the whole body before matching it, so unlike
+     * the other transports it does not stop reading once the matcher
+     * decided. The response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(String url, String postRequest,
+                            ByteMatcher matcher) throws IOException {
+        return matchURL(new URL(url), postRequest, matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the post
+     * request made to the URL, without decoding it into characters. The
+     * NIO transport receives the whole body before matching it, so unlike
+     * the other transports it does not stop reading once the matcher
+     * decided. The response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(URL url, String postRequest, ByteMatcher matcher)
+            throws IOException {
+        return matchResponse(execute(url, "POST",
+                postRequest.getBytes("UTF-8"),
+                postHeaders(null, postHeadersForm), Integer.MAX_VALUE,
+                false), matcher);
+    }
+
+    /**
+     * Matches the kept response body of an exchange, without decoding it
+     * into characters. The body is always received completely, so the
+     * connection stays alive whether or not the matcher drains.
+     * @param exchange The completed exchange
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    private boolean matchResponse(Exchange exchange, ByteMatcher matcher)
+            throws IOException {
+        if (exchange.body != null &&
+                "gzip".equalsIgnoreCase(exchange.getHeader("Content-Encoding")))
+            return matchResponse(new GZIPInputStream(new ByteArrayInputStream(
+                    exchange.body, 0, exchange.bodyLength)), matcher);
+        matcher.reset();
+        if (exchange.body != null)
+            matcher.update(exchange.body, 0, exchange.bodyLength);
+        matcher.finish();
+        return matcher.matches();
+    }
+
+    /**
+     * Obtains the list of cookie values by the name of the cookies.
+     * @param name The cookie name
+     * @return An array of non-duplicating cookie values.
+     */
+    public String[] getCookieValuesByName(String name) {
+        LinkedHashSet<String> valueSet = new LinkedHashSet<String>();
+        for (Cookie cookie : state.getCookies())
+            if (name.equals(cookie.getName()))
+                valueSet.add(cookie.getValue());
+        return valueSet.toArray(new String[valueSet.size()]);
+    }
+
+    /**
+     * Obtains the list of all cookies
+     * @return array of Cookie objects
+     */
+    public Cookie[] getCookies() {
+        return state.getCookies();
+    }
+
+    /**
+     * Obtains the header fields of the last request's response.
+     * @param name The response header field of interest
+     * @return An array of response header values
+     */
+    public String[] getResponseHeader(String name) {
+        if (responseHeader == null)
+            return new String[0];
+        List<String> values = responseHeader.get(name);
+        if (values == null)
+            return new String[0];
+        return values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * Utility class to get responseHeaders as a string.  The formatting is
+     * not localized
+     *
+     * @return responseHeaders
+     */
+    public String dumpResponseHeaders() {
+        StringBuilder s = new StringBuilder();
+        if (responseHeader == null)
+            return s.toString();
+        for (Map.Entry<String, List<String>> entry :
+                responseHeader.entrySet())
+            for (String value : entry.getValue()) {
+                s.append(entry.getKey());
+                s.append(": ");
+                s.append(value);
+                s.append('\n');
+            }
+        return s.toString();
+    }
+
+    /**
+     * Obtains the response code of the previous request.
+     * @return responseCode The response code
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * Bandwidth throttling is not supported by this transport.
+     * @param kbps desired speed in kilobytes per second
+     * @throws UnsupportedOperationException Always
+     */
+    @Override
+    public void setDownloadSpeed(int kbps) {
+        throw new UnsupportedOperationException(
+                "NioHttpTransport does not support throttling.");
+    }
+
+    /**
+     * Bandwidth throttling is not supported by this transport.
+     * @param kbps desired speed in kilobytes per second
+     * @throws UnsupportedOperationException Always
+     */
+    @Override
+    public void setUploadSpeed(int kbps) {
+        throw new UnsupportedOperationException(
+                "NioHttpTransport does not support throttling.");
+    }
+
+    /**
+     * Bandwidth throttling is not supported by this transport.
+     * @param kbps desired speed in kilobytes per second
+     * @param burstKB the burst allowance in kilobytes
+     * @throws UnsupportedOperationException Always
+     */
+    @Override
+    public void setDownloadSpeed(int kbps, int burstKB) {
+        throw new UnsupportedOperationException(
+                "NioHttpTransport does not support throttling.");
+    }
+
+    /**
+     * Bandwidth throttling is not supported by this transport.
+     * @param kbps desired speed in kilobytes per second
+     * @param burstKB the burst allowance in kilobytes
+     * @throws UnsupportedOperationException Always
+     */
+    @Override
+    public void setUploadSpeed(int kbps, int burstKB) {
+        throw new UnsupportedOperationException(
+                "NioHttpTransport does not support throttling.");
+    }
+
+    /**
+     * Bandwidth throttling is not supported by this transport.
+     * @param name the link name
+     * @param downloadKbps aggregate download speed in kilobytes per second
+     * @param uploadKbps aggregate upload speed in kilobytes per second
+     * @param burstKB the burst allowance in kilobytes
+     * @throws UnsupportedOperationException Always
+     */
+    @Override
+    public void setLink(String name, int downloadKbps, int uploadKbps,
+                        int burstKB) {
+        throw new UnsupportedOperationException(
+                "NioHttpTransport does not support throttling.");
+    }
+
+    /**
+     * Adds the default content type to the POST headers if not given.
+     * @param headers The request headers, or null
+     * @param defaults The default headers
+     * @return The headers to use
+     */
+    private static Map<String, String> postHeaders(Map<String, String> headers,
+                                                   Map<String, String> defaults) {
+        if (headers == null)
+            return defaults;
+        if (headers.get("Content-type") == null &&
+                headers.get("Content-Type") == null)
+            headers.put("Content-Type", defaults.get("Content-Type"));
+        return headers;
+    }
+}
@@ -25,6 +25,7 @@
 package com.sun.faban.driver.transport.sunhttp;
 
 import com.sun.faban.driver.HttpTransport;
+import com.sun.faban.driver.util.ByteMatcher;
 
 import java.io.*;
 import java.net.HttpURLConnection;
@@ -33,6 +34,7 @@ import java.net.URLConnection;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 /**
  * The SunHttpTransport provides initialization services and utility methods for
@@ -936,6 +938,140 @@ public class SunHttpTransport extends HttpTransport {
         return matchResponse(regex);
     }
 
+    /**
+     * Matches the literals or regular expression of a byte matcher against
+     * the data read from the stream, without decoding it into characters.
+     * @param stream The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchResponse(InputStream stream, ByteMatcher matcher)
+            throws IOException {
+        matchStream(stream, matcher);
+        return matcher.matches();
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the URL
+     * as the response is read, without decoding it into characters. The
+     * response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(String url, ByteMatcher matcher)
+            throws IOException {
+        return matchURL(new URL(url), matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the URL
+     * as the response is read, without decoding it into characters. The
+     * response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(URL url, ByteMatcher matcher)
+            throws IOException {
+        HttpURLConnection c = getConnection(url);
+        setHeaders(c, null);
+        responseCode = c.getResponseCode();
+        responseHeader = c.getHeaderFields();
+        return matchResponse(c, matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the post
+     * request made to the URL as the response is read, without decoding
+     * it into characters. The response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(String url, String postRequest,
+                            ByteMatcher matcher) throws IOException {
+        return matchURL(new URL(url), postRequest, matcher);
+    }
+
+    /**
+     * Matches the byte matcher against the response fetched from the post
+     * request made to the URL as the response is read, without decoding
+     * it into characters. The response buffer is not updated by this method.
+     * @param url The source of the data
+     * @param postRequest The post request string
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     * @see com.sun.faban.driver.util.ByteMatcher
+     */
+    public boolean matchURL(URL url, String postRequest, ByteMatcher matcher)
+            throws IOException {
+        HttpURLConnection c = getConnection(url);
+        setHeaders(c, postHeadersForm);
+        postRequest(c, postRequest.getBytes("UTF-8"));
+        responseCode = c.getResponseCode();
+        responseHeader = c.getHeaderFields();
+        return matchResponse(c, matcher);
+    }
+
+    /**
+     * Matches the response body of a connection as it is read.
+     * @param connection The connection to read from
+     * @param matcher The matcher
+     * @return True if the match succeeds, false otherwise
+     * @throws IOException
+     */
+    private boolean matchResponse(HttpURLConnection connection,
+                                  ByteMatcher matcher) throws IOException {
+        InputStream is = connection.getInputStream();
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+            is = new GZIPInputStream(is);
+        matchStream(is, matcher);
+        is.close();
+        return matcher.matches();
+    }
+
+    /**
+     * Feeds a stream to a matcher, recycling the read buffer. Once the
+     * outcome is known, the rest of the stream is drained without matching
+     * or left unread, according to the matcher.
+     * @param in The stream to read
+     * @param matcher The matcher
+     * @return True if the stream was read to the end, false otherwise
+     * @throws IOException
+     */
+    private boolean matchStream(InputStream in, ByteMatcher matcher)
+            throws IOException {
+        matcher.reset();
+        int totalLength = 0;
+        boolean decided = false;
+        int length = in.read(byteReadBuffer);
+        while (length != -1) {
+            totalLength += length;
+            if (!decided) {
+                decided = matcher.update(byteReadBuffer, 0, length);
+                if (decided && !matcher.isDrain()) {
+                    contentSize = totalLength;
+                    return false;
+                }
+            }
+            length = in.read(byteReadBuffer);
+        }
+        contentSize = totalLength;
+        matcher.finish();
+        return true;
+    }
+
     /**
      * Obtains the list of cookie values by the name of the cookies.
      * @param name The cookie name
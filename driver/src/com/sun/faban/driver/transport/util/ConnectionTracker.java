@@ -0,0 +1,84 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.util.ConnectionStats;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Tracks the use of one connection for the connection statistics. The
+ * input and output streams of a timed socket share a tracker to tell
+ * a request following a response on the same connection, which is a
+ * connection reuse.
+ */
+class ConnectionTracker {
+
+    private boolean requested = false;
+    private boolean responded = false;
+
+    /**
+     * Counts bytes written to the connection.
+     * @param ctx The driver context
+     * @param bytes The number of bytes written
+     */
+    void written(DriverContext ctx, int bytes) {
+        if (!ctx.isHandshaking()) {
+            if (responded) {
+                responded = false;
+                ctx.countConnection(ConnectionStats.REUSE, 1);
+            }
+            requested = true;
+        }
+        ctx.countConnection(ConnectionStats.BYTES_OUT, bytes);
+    }
+
+    /**
+     * Counts bytes read from the connection.
+     * @param ctx The driver context
+     * @param bytes The number of bytes read
+     */
+    void read(DriverContext ctx, int bytes) {
+        if (requested && !ctx.isHandshaking())
+            responded = true;
+        ctx.countConnection(ConnectionStats.BYTES_IN, bytes);
+    }
+
+    /**
+     * Counts a failed connect, read, or write.
+     * @param ctx The driver context, or null if not in a driver thread
+     * @param e The failure
+     */
+    static void failed(DriverContext ctx, IOException e) {
+        if (ctx == null)
+            return;
+        if (e instanceof SocketTimeoutException)
+            ctx.countConnection(ConnectionStats.TIMEOUT, 1);
+        else if (e instanceof SocketException)
+            ctx.countConnection(ConnectionStats.RESET, 1);
+    }
+}
@@ -26,15 +26,18 @@ package com.sun.faban.driver.transport.util;
 import com.sun.faban.driver.HttpTransport;
 import com.sun.faban.driver.engine.DriverContext;
 
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * This class is used to load multiple HTTP requests, emulating
- * a browser. It is configured with a number of threads, and requests are
- * loaded simultaneously by those threads.
+ * a browser. It is configured with a number of connections, and requests
+ * are loaded simultaneously over those connections.
  *
  * Typical usage of this class:
  * <pre>
@@ -51,25 +54,28 @@ import java.util.concurrent.locks.ReentrantLock;
  * that method is called, the first URL is loaded (hence, the first URL is
  * typically the page URL) in the calling thread. Subsequently, the remaining
  * URLs (typically images and other resources) are loaded by the calling
- * thread and the threads created by this class. The total number of
- * simultaneous threads is specified by the constructor of this class, but
- * that includes the calling thread: that creates a more efficient thread
- * usage.
+ * thread and by tasks submitted to the agent-wide TransportExecutor. The
+ * total number of simultaneous loads is specified by the constructor of
+ * this class, including the calling thread. No threads are owned by this
+ * class, so the threads used by an agent follow the requests in flight
+ * rather than the number of users.
  *
- * After calling the waitForAll() method, the MultipleTransport is reset and
- * can be reused to load a new set of requests; if the requests are loaded
- * from the same host, then the keep-alive semantics of the HTTP transport
- * will be used.
+ * Each of the simultaneous loads uses its own transport, created on first
+ * use and kept with this object. After calling the waitForAll() method,
+ * the MultipleTransport is reset and can be reused to load a new set of
+ * requests; if the requests are loaded from the same host, then the
+ * keep-alive semantics of the HTTP transport will be used.
  *
  * When finished with this object, you should call its close() method to
- * terminate its threads; otherwise the threads will leak. I have chosen
- * not to add a finalizer to this class to close the threads, since that
- * particular operation is known to cause issues with the garbage collector.
+ * release its transports.
  *
  * TODO: Need a way to retrieve individual URL status
  */
 
-public class MultipleTransport implements Runnable {
+public class MultipleTransport {
+
+    private static Logger logger =
+            Logger.getLogger(MultipleTransport.class.getName());
 
     private enum Status {
         FAILED,
@@ -86,86 +92,27 @@ public class MultipleTransport implements Runnable {
     private static class Request {
         private String url;
         private String postData;
-        private Status status;
+        private Status status = Status.PENDING;
     }
 
-    Thread[] threads;
-    private volatile boolean done = false;
-    private LinkedList<Request> pendingQueue;
-    private LinkedList<Request> completedList;
-
-    private ReentrantLock lock;
-    private Condition workAvailable, workDone;
-    private int pending = 0;
-    private volatile boolean runHelper;
+    private ArrayList<Request> requests;
+    private int nextRequest;
 
     private HttpTransport globalTransport;
+    private HttpTransport[] helperTransports;
 
     /**
      * Create an MultipleTransport that can load n requests simultaneously.
      *
-     * @param n Number of threads to use to load requests. That includes
-     * the thread that calls waitForAll(), so we create n-1 threads.
+     * @param n Number of simultaneous loads. That includes the thread that
+     * calls waitForAll(), so up to n-1 loads are submitted to the shared
+     * executor.
      */
     public MultipleTransport(int n) {
         myId = getId();
-        n--;
-        threads = new Thread[n];
-        pendingQueue = new LinkedList<Request>();
-        completedList = new LinkedList<Request>();
-        lock = new ReentrantLock();
-        workAvailable = lock.newCondition();
-        workDone = lock.newCondition();
-        for (int i = 0; i < n; i++) {
-            threads[i] = new Thread(this);
-            threads[i].setDaemon(true);
-            threads[i].start();
-        }
-        globalTransport = new HttpTransport();
-        pending = 0;
-        runHelper = false;
-    }
-
-    /**
-     * Runs the parallel threads fetching the other URLs.
-     * @see java.lang.Runnable#run()
-     */
-    public void run() {
-        HttpTransport http = new HttpTransport();
-        while (!done) {
-            Request ir = null;
-            try {
-                lock.lock();
-                while (!runHelper) {
-                    try {
-                        workAvailable.await();
-                    } catch (InterruptedException ie) {
-                        return;
-                    }
-                }
-                ir = pendingQueue.poll();
-                if (ir != null)
-                    pending++;
-                else runHelper = false;
-            } finally {
-                lock.unlock();
-            }
-
-            if (ir != null) {
-                process(http, ir);
-                try {
-                    lock.lock();
-                    completedList.add(ir);
-                    pending--;
-                    if (pending == 0)
-                        workDone.signal();
-                } finally {
-                    lock.unlock();
-                }
-            }
-        }
-        // TODO: should http transport have a close method?
-        // http.close();
+        requests = new ArrayList<Request>();
+        helperTransports = new HttpTransport[Math.max(n - 1, 0)];
+        globalTransport = HttpTransport.newInstance();
     }
 
     /**
@@ -186,16 +133,21 @@ public class MultipleTransport implements Runnable {
      * @param postData Data for a POST URL. If data is null, URL is
      * assumed to be a GET URL.
      */
-    public void addURL(String url, String postData) {
+    public synchronized void addURL(String url, String postData) {
         Request ir = new Request();
         ir.url = url;
         ir.postData = postData;
-        try {
-            lock.lock();
-            pendingQueue.add(ir);
-        } finally {
-            lock.unlock();
-        }
+        requests.add(ir);
+    }
+
+    /**
+     * Takes the next request to load.
+     * @return The next request, or null if all requests are taken
+     */
+    private synchronized Request nextRequest() {
+        if (nextRequest < requests.size())
+            return requests.get(nextRequest++);
+        return null;
     }
 
     /**
@@ -207,83 +159,92 @@ public class MultipleTransport implements Runnable {
      */
     public boolean waitForAll() {
         DriverContext.getContext().recordTime();
+        List<Request> loading;
+        synchronized (this) {
+            loading = requests;
+            nextRequest = 0;
+        }
+        ArrayList<Future<?>> helpers = new ArrayList<Future<?>>();
         try {
-            lock.lock();
             // Take the first page and load it synchronously. That emulates
             // the steps a browser would take.
-            Request ir = pendingQueue.removeFirst();
-            process(globalTransport, ir);
-            completedList.add(ir);
+            Request ir = nextRequest();
+            if (ir != null)
+                process(globalTransport, ir);
 
-            // Now wake up the helper threads
-            runHelper = true;
-            workAvailable.signalAll();
-        } finally {
-            lock.unlock();
-        }
+            // Now start the helpers on the remaining requests.
+            int count = Math.min(helperTransports.length,
+                                 loading.size() - 1);
+            final DriverContext user = DriverContext.getContext();
+            for (int i = 0; i < count; i++) {
+                if (helperTransports[i] == null)
+                    helperTransports[i] = HttpTransport.newInstance();
+                final HttpTransport http = helperTransports[i];
+                helpers.add(TransportExecutor.getInstance().submit(
+                        new Runnable() {
+                            public void run() {
+                                DriverContext.serve(user);
+                                try {
+                                    drain(http);
+                                } finally {
+                                    DriverContext.serve(null);
+                                }
+                            }
+                        }));
+            }
 
-        boolean done = false;
-        while (!done) {
-            // Now do as much work as possble in this thread too
-            // This thread and the helper threads will compete for work
+            // Now do as much work as possible in this thread too
+            // This thread and the helpers will compete for work
             // until the queue is drained
-            Request ir = null;
-            try {
-                lock.lock();
-                ir = pendingQueue.poll();
-            } finally {
-                lock.unlock();
-            }
-            if (ir != null) {
-                process(globalTransport, ir);
-                try {
-                    lock.lock();
-                    completedList.add(ir);
-                } finally {
-                    lock.unlock();
-                }
-            }
-            else done = true;
-        }
+            drain(globalTransport);
 
-        try {
-            lock.lock();
-            // Now wait for the helper threads to finish
-            while (pendingQueue.size() != 0 || pending != 0) {
+            // Now wait for the helpers to finish
+            for (int i = 0; i < helpers.size(); i++) {
                 try {
-                    workDone.await();
+                    helpers.get(i).get();
                 } catch (InterruptedException ie) {
+                    for (int j = i; j < helpers.size(); j++)
+                        helpers.get(j).cancel(true);
+                    return false;
+                } catch (ExecutionException e) {
+                    logger.log(Level.WARNING, "Error loading requests.",
+                               e.getCause());
+                    return false;
+                } catch (CancellationException e) {
+                    logger.log(Level.WARNING, "Loading requests cancelled.",
+                               e);
                     return false;
                 }
             }
 
             // Everyone is done. Figure out the results and send it back.
-            Iterator<Request> it = completedList.iterator();
-            while (it.hasNext()) {
-                Request ir = it.next();
-                if (ir.status != Status.SUCCEEDED)
+            for (Request r : loading)
+                if (r.status != Status.SUCCEEDED)
                     return false;
-            }
             return true;
         } finally {
-            pendingQueue = new LinkedList<Request>();
-            completedList = new LinkedList<Request>();
-            lock.unlock();
-            runHelper = false;
+            synchronized (this) {
+                requests = new ArrayList<Request>();
+                nextRequest = 0;
+            }
             DriverContext.getContext().recordTime();
         }
     }
 
+    private void drain(HttpTransport http) {
+        Request ir;
+        while ((ir = nextRequest()) != null)
+            process(http, ir);
+    }
+
     /**
-     * Close down the loader, stopping all its threads.
+     * Close down the loader, releasing its transports.
      */
     public void close() {
-        done = true;
-        for (int i = 0; i < threads.length; i++)
-            threads[i].interrupt();
-        threads = null;
-        pendingQueue = null;
-        completedList = null;
+        synchronized (this) {
+            requests = null;
+        }
+        helperTransports = null;
         // TODO: close globalTransport
     }
 
@@ -0,0 +1,156 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.engine.RunInfo;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The catalog of TLS session reuse modes. The mode decides which
+ * sessions a new connection may resume, and thereby how many handshakes
+ * pay the full key exchange. SHARED is the default. It lets any driver
+ * thread resume any session, which is cheapest for the driver but makes
+ * the simulated users look like a single client. USER keeps a session
+ * cache per user so each user only resumes its own sessions, like a
+ * browser does, also when its resources are fetched by shared worker
+ * threads. NONE never resumes a session and makes every
+ * new connection do a full handshake.
+ * The mode is selected by the sslSessions element of the run
+ * configuration.
+ */
+public enum SSLSessionModes {
+
+    /**
+     * All driver threads share one session cache.
+     */
+    SHARED,
+
+    /**
+     * Each user, that is each driver context, has its own session cache.
+     */
+    USER,
+
+    /**
+     * Sessions are never resumed.
+     */
+    NONE;
+
+    private static final SSLSocketFactory sharedFactory =
+            (SSLSocketFactory) SSLSocketFactory.getDefault();
+
+    /**
+     * The SSL socket factories of the users, by driver context. The
+     * contexts live for the whole run, the map does not keep them alive
+     * beyond.
+     */
+    private static final Map<DriverContext, SSLSocketFactory> userFactories =
+            new WeakHashMap<DriverContext, SSLSocketFactory>();
+
+    /**
+     * The session value marking a session as handed out by a handshake.
+     * The value stays bound when the session is resumed, also when TLS
+     * 1.3 resumes it under a new session ID.
+     */
+    private static final String HANDSHAKEN = "com.sun.faban.handshaken";
+
+    /**
+     * Obtains the session mode configured for the run.
+     * @return The session mode, SHARED outside a run
+     */
+    public static SSLSessionModes getMode() {
+        RunInfo runInfo = RunInfo.getInstance();
+        if (runInfo == null || runInfo.sslSessions == null)
+            return SHARED;
+        return runInfo.sslSessions;
+    }
+
+    /**
+     * Obtains the SSL socket factory to create sockets from for the
+     * user served by the calling thread. All users share the SSL context
+     * and its keys and trust material, except in USER mode where each
+     * user gets its own context just to separate the session cache.
+     * Threads not serving any user share the default context.
+     * @return The SSL socket factory
+     * @see DriverContext#getServedContext()
+     */
+    public SSLSocketFactory getSocketFactory() {
+        if (this != USER)
+            return sharedFactory;
+        DriverContext user = DriverContext.getServedContext();
+        if (user == null)
+            return sharedFactory;
+        synchronized (userFactories) {
+            SSLSocketFactory factory = userFactories.get(user);
+            if (factory == null) {
+                factory = newFactory();
+                userFactories.put(user, factory);
+            }
+            return factory;
+        }
+    }
+
+    private static SSLSocketFactory newFactory() {
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, null, null);
+            return context.getSocketFactory();
+        } catch (GeneralSecurityException e) {
+            Logger.getLogger(SSLSessionModes.class.getName()).log(
+                    Level.WARNING, "Cannot create a per-user SSL " +
+                    "context, sharing sessions instead.", e);
+            return sharedFactory;
+        }
+    }
+
+    /**
+     * Applies the mode to a socket that completed its handshake and
+     * tells whether the handshake resumed a session. A session is
+     * resumed if an earlier handshake already marked it, otherwise it
+     * gets marked. In NONE mode, the session is invalidated so no later
+     * connection resumes it.
+     * @param socket The SSL socket
+     * @return Whether the handshake resumed an earlier session
+     */
+    boolean handshaken(SSLSocket socket) {
+        SSLSession session = socket.getSession();
+        if (this == NONE) {
+            session.invalidate();
+            return false;
+        }
+        if (session.getValue(HANDSHAKEN) != null)
+            return true;
+        session.putValue(HANDSHAKEN, Boolean.TRUE);
+        return false;
+    }
+}
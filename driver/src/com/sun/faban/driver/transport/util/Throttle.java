@@ -24,9 +24,15 @@
 package com.sun.faban.driver.transport.util;
 
 import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.util.TokenBucket;
 
 /**
- * A helper class to provide throttling on sockets
+ * A helper class to provide throttling on sockets. The bytes transferred
+ * are reserved from the token buckets of the user and of its shared link,
+ * if any. The throttle only sleeps once the reservations run ahead of
+ * the current time by a minimum sleep time. Shorter delays remain as
+ * debt in the buckets and are covered by later sleeps, so small reads
+ * and writes do not cost a sleep each.
  *
  * @author Scott Oaks
  */
@@ -34,18 +40,10 @@ public class Throttle {
     public static final int UP = 0;
     public static final int DOWN = 1;
 
-	private DriverContext ctx;
-
-	/* Time it should take to process 1 byte */
-    private double[] desiredNanoPerByte = new double[2];
-
-	/* Last timing value user */
-    private int[] lastSpeed = new int[2];
+    /** The shortest delay worth sleeping for, in ns. */
+    static final long MIN_SLEEP_NANOS = 2000000l;
 
-	/* Amount of time we need to sleep but haven't yet (because we
-	 * can't sleep for really short nano-second measured periods of time)
-	 */
-	private long[] pendingNanoSleep = new long[2];
+	private DriverContext ctx;
 
     /**
      * Constructs a throttle.
@@ -53,8 +51,6 @@ public class Throttle {
      */
 	public Throttle(DriverContext ctx) {
 		this.ctx = ctx;
-		checkForChange(UP);
-		checkForChange(DOWN);
 	}
 
     /**
@@ -63,7 +59,12 @@ public class Throttle {
      * @return Whether the bandwidth is throttled
      */
 	public boolean isThrottled(int direction) {
-		return lastSpeed[direction] > 0;
+        if (direction == UP)
+            return ctx.getUploadBucket() != null ||
+                    ctx.getUploadLink() != null;
+        else
+            return ctx.getDownloadBucket() != null ||
+                    ctx.getDownloadLink() != null;
 	}
 
     /**
@@ -74,42 +75,21 @@ public class Throttle {
      * @param direction The direction, up or down
      */
 	public void throttle(int bytes, long startTime, int direction) {
-		checkForChange(direction);
-		double expectedTime = bytes * desiredNanoPerByte[direction];
-        long wakeupTime = startTime + (long) expectedTime +
-                        pendingNanoSleep[direction];
-        ctx.wakeupAt(wakeupTime);
-        // If slept too long, the pendingNanoSleep will go negative.
-        // If it wakes up too early, the pendingNanoSleep will go positive
-        // needing to add a little more delay to the subsequent sleep.
-        pendingNanoSleep[direction] = wakeupTime - System.nanoTime();
-	}
-
-	private void checkForChange(int direction) {
-        int last;
-	    if (direction == UP)
-			last = ctx.getUploadSpeed();
-        else
-            last = ctx.getDownloadSpeed();
-
-        if (last != lastSpeed[direction]) {
-            desiredNanoPerByte[direction] = calcNanoPerByte(last);
-            lastSpeed[direction] = last;
+        TokenBucket bucket;
+        TokenBucket link;
+        if (direction == UP) {
+            bucket = ctx.getUploadBucket();
+            link = ctx.getUploadLink();
+        } else {
+            bucket = ctx.getDownloadBucket();
+            link = ctx.getDownloadLink();
         }
-	}
-
-	private double calcNanoPerByte(int kbps) {
-        /*  
-         * Convert the given unit (kilobytes per second) to
-         * the amount of time (in nanoseconds) it takes to
-         * read/write one byte
-         */  
-        if (kbps < 0)
-			return -1;
-        else {
-            double bytesPerNano = kbps * 1024   // bytes/second
-                        / 1000000000.;          // bytes/nano
-            return 1. / bytesPerNano;
-        }               
+        long wakeupTime = Long.MIN_VALUE;
+        if (bucket != null)
+            wakeupTime = bucket.reserve(bytes, startTime);
+        if (link != null)
+            wakeupTime = Math.max(wakeupTime, link.reserve(bytes, startTime));
+        if (wakeupTime - System.nanoTime() >= MIN_SLEEP_NANOS)
+            ctx.wakeupAt(wakeupTime);
 	}
 }
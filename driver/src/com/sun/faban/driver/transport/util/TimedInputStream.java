@@ -64,6 +64,7 @@ public class TimedInputStream extends FilterInputStream {
 
     DriverContext ctx;
     private Throttle throttle;
+    private ConnectionTracker tracker;
 
     /**
      * Creates a <code>FilterInputStream</code>
@@ -81,6 +82,35 @@ public class TimedInputStream extends FilterInputStream {
             throttle = new Throttle(ctx);
     }
 
+    /**
+     * Creates a timed input stream of a timed socket, which also counts
+     * the bytes read into the connection statistics.
+     * @param in The socket input stream
+     * @param tracker The connection use tracker of the socket
+     */
+    TimedInputStream(InputStream in, ConnectionTracker tracker) {
+        this(in);
+        this.tracker = tracker;
+    }
+
+    private int readIn() throws IOException {
+        try {
+            return super.read();
+        } catch (IOException e) {
+            ConnectionTracker.failed(ctx, e);
+            throw e;
+        }
+    }
+
+    private int readIn(byte b[], int off, int len) throws IOException {
+        try {
+            return super.read(b, off, len);
+        } catch (IOException e) {
+            ConnectionTracker.failed(ctx, e);
+            throw e;
+        }
+    }
+
     /**
      * Reads the next byte of data from this input stream. The value
      * byte is returned as an <code>int</code> in the range
@@ -107,9 +137,11 @@ public class TimedInputStream extends FilterInputStream {
             if (isThrottled)
 	    	    startReadAt = ctx.getNanoTime();
         }
-        int b = super.read();
+        int b = readIn();
         if (ctx != null && b != -1) {
             ctx.recordEndTime();
+            if (tracker != null)
+                tracker.read(ctx, 1);
 			if (isThrottled)
 	    		throttle.throttle(1, startReadAt, Throttle.DOWN);
         }
@@ -169,9 +201,11 @@ public class TimedInputStream extends FilterInputStream {
                 startReadAt = System.nanoTime();
             }
         }
-        int bytes = super.read(b, off, len);
+        int bytes = readIn(b, off, len);
         if (ctx != null && bytes > 0) {
             ctx.recordEndTime();
+            if (tracker != null)
+                tracker.read(ctx, bytes);
             if (isThrottled)
                 throttle.throttle(bytes, startReadAt, Throttle.DOWN);
         }
@@ -39,6 +39,7 @@ public class TimedOutputStream extends FilterOutputStream {
 
     DriverContext ctx;
     private Throttle throttle;
+    private ConnectionTracker tracker;
 
     /**
      * Creates an output stream filter built on top of the specified
@@ -56,6 +57,35 @@ public class TimedOutputStream extends FilterOutputStream {
             throttle = new Throttle(ctx);
     }
 
+    /**
+     * Creates a timed output stream of a timed socket, which also counts
+     * the bytes written into the connection statistics.
+     * @param out The socket output stream
+     * @param tracker The connection use tracker of the socket
+     */
+    TimedOutputStream(OutputStream out, ConnectionTracker tracker) {
+        this(out);
+        this.tracker = tracker;
+    }
+
+    private void writeOut(int b) throws IOException {
+        try {
+            super.write(b);
+        } catch (IOException e) {
+            ConnectionTracker.failed(ctx, e);
+            throw e;
+        }
+    }
+
+    private void writeOut(byte b[], int off, int len) throws IOException {
+        try {
+            out.write(b, off, len);
+        } catch (IOException e) {
+            ConnectionTracker.failed(ctx, e);
+            throw e;
+        }
+    }
+
     /**
      * Writes the specified <code>byte</code> to this output stream.
      * <p/>
@@ -78,7 +108,12 @@ public class TimedOutputStream extends FilterOutputStream {
             if (isThrottled && startWriteAt == TIME_NOT_SET)
                 startWriteAt = ctx.getNanoTime();
         }
-        super.write(b);
+        writeOut(b);
+        if (ctx != null) {
+            ctx.recordRequestSent();
+            if (tracker != null)
+                tracker.written(ctx, 1);
+        }
 		if (isThrottled)
 			throttle.throttle(1, startWriteAt, Throttle.UP);
     }
@@ -130,7 +165,12 @@ public class TimedOutputStream extends FilterOutputStream {
             if (isThrottled && startWriteAt == TIME_NOT_SET)
                 startWriteAt = System.nanoTime();
         }
-        out.write(b, off, len);
+        writeOut(b, off, len);
+        if (ctx != null && len > 0) {
+            ctx.recordRequestSent();
+            if (tracker != null)
+                tracker.written(ctx, len);
+        }
         if (isThrottled)
             throttle.throttle(len, startWriteAt, Throttle.UP);
     }
@@ -24,6 +24,7 @@
 package com.sun.faban.driver.transport.util;
 
 import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.util.ConnectionStats;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -73,6 +74,8 @@ public class TimedSocket extends Socket {
 
     static final int BUFFER_SIZE = bufferSize;
 
+    private final ConnectionTracker tracker = new ConnectionTracker();
+
     private void verifyReceiveBufferSize() {
         if (BUFFER_SIZE != -1)
             try {
@@ -289,10 +292,47 @@ public class TimedSocket extends Socket {
             ctx.recordStartTime();
         if (timeout <= 0)
             timeout = 30000; // 30 second connect timeout.
-        super.connect(endpoint, timeout);
+        endpoint = resolve(endpoint, ctx);
+        long start = System.nanoTime();
+        try {
+            super.connect(endpoint, timeout);
+        } catch (IOException e) {
+            ConnectionTracker.failed(ctx, e);
+            throw e;
+        }
+        if (ctx != null) {
+            ctx.recordConnectTime(start);
+            ctx.countConnection(ConnectionStats.CONNECT, 1);
+        }
         setSoTimeout(30000); // 30 second socket read timeout.
     }
 
+    /**
+     * Resolves an unresolved endpoint. Socket factories pass unresolved
+     * endpoints so the name lookup happens after the start time is taken
+     * and can be recorded as DNS time.
+     * @param endpoint The endpoint to connect to
+     * @param ctx The driver context, or null if not in a driver thread
+     * @return The resolved endpoint
+     * @throws UnknownHostException If the host name cannot be resolved
+     */
+    static SocketAddress resolve(SocketAddress endpoint, DriverContext ctx)
+            throws UnknownHostException {
+        if (!(endpoint instanceof InetSocketAddress))
+            return endpoint;
+        InetSocketAddress address = (InetSocketAddress) endpoint;
+        if (!address.isUnresolved())
+            return endpoint;
+        long start = System.nanoTime();
+        address = new InetSocketAddress(address.getHostName(),
+                                        address.getPort());
+        if (ctx != null)
+            ctx.recordDnsTime(start);
+        if (address.isUnresolved())
+            throw new UnknownHostException(address.getHostName());
+        return address;
+    }
+
     /**
      * Returns an input stream for this socket.
      * <p/>
@@ -335,7 +375,7 @@ public class TimedSocket extends Socket {
     @Override
 	public InputStream getInputStream() throws IOException {
         // The streams returned areall timed.
-        return new TimedInputStream(super.getInputStream());
+        return new TimedInputStream(super.getInputStream(), tracker);
     }
 
     /**
@@ -354,6 +394,22 @@ public class TimedSocket extends Socket {
     @Override
 	public OutputStream getOutputStream() throws IOException {
         // The streams returned are all timed.
-        return new TimedOutputStream(super.getOutputStream());
+        return new TimedOutputStream(super.getOutputStream(), tracker);
+    }
+
+    /**
+     * Closes this socket and counts the close into the connection
+     * statistics.
+     *
+     * @throws IOException If an I/O error occurs when closing this socket
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!isClosed()) {
+            DriverContext ctx = DriverContext.getContext();
+            if (ctx != null)
+                ctx.countConnection(ConnectionStats.CLOSE, 1);
+        }
+        super.close();
     }
 }
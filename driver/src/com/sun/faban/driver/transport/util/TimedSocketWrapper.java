@@ -24,6 +24,7 @@
 package com.sun.faban.driver.transport.util;
 
 import com.sun.faban.driver.engine.DriverContext;
+import com.sun.faban.driver.util.ConnectionStats;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,6 +34,7 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLSocket;
 
 /**
  * The TimedSocketWrapper wraps an existing, opened socket
@@ -46,6 +48,7 @@ import java.nio.channels.SocketChannel;
 public class TimedSocketWrapper extends Socket {
 
     private Socket delegate;
+    private final ConnectionTracker tracker = new ConnectionTracker();
 
     /**
      * Creates a TimedSocketWrapper wrapping an existing socket.
@@ -116,7 +119,7 @@ public class TimedSocketWrapper extends Socket {
     @Override
 	public InputStream getInputStream() throws IOException {
         // The streams returned are all timed.
-        return new TimedInputStream(delegate.getInputStream());
+        return new TimedInputStream(delegate.getInputStream(), tracker);
     }
 
     /**
@@ -135,7 +138,7 @@ public class TimedSocketWrapper extends Socket {
     @Override
 	public OutputStream getOutputStream() throws IOException {
         // The streams returned are all timed.
-        return new TimedOutputStream(delegate.getOutputStream());
+        return new TimedOutputStream(delegate.getOutputStream(), tracker);
     }
 
     /**
@@ -575,6 +578,11 @@ public class TimedSocketWrapper extends Socket {
      */
     @Override
     public void close() throws IOException {
+        if (!delegate.isClosed()) {
+            DriverContext ctx = DriverContext.getContext();
+            if (ctx != null)
+                ctx.countConnection(ConnectionStats.CLOSE, 1);
+        }
         delegate.close();
     }
 
@@ -762,8 +770,52 @@ public class TimedSocketWrapper extends Socket {
             ctx.recordStartTime();
         if (timeout <= 0)
             timeout = 30000; // 30 second connect timeout.
-        delegate.connect(endpoint, timeout);
+        endpoint = TimedSocket.resolve(endpoint, ctx);
+        long start = System.nanoTime();
+        try {
+            delegate.connect(endpoint, timeout);
+        } catch (IOException e) {
+            ConnectionTracker.failed(ctx, e);
+            throw e;
+        }
+        if (ctx != null) {
+            ctx.recordConnectTime(start);
+            ctx.countConnection(ConnectionStats.CONNECT, 1);
+        }
         delegate.setSoTimeout(30000); // 30 second socket read timeout.
+        if (delegate instanceof SSLSocket)
+            startHandshake((SSLSocket) delegate);
+    }
+
+    /**
+     * Runs the TLS handshake of a newly connected SSL socket and records
+     * the time it takes. Otherwise the handshake happens implicitly on the
+     * first write and is counted as server time. The handshake is counted
+     * as a resume if it reused a session handed out before.
+     * @param socket The SSL socket
+     * @throws IOException If the handshake fails
+     * @see SSLSessionModes
+     */
+    public static void startHandshake(SSLSocket socket) throws IOException {
+        SSLSessionModes mode = SSLSessionModes.getMode();
+        DriverContext ctx = DriverContext.getContext();
+        if (ctx == null) {
+            socket.startHandshake();
+            mode.handshaken(socket);
+            return;
+        }
+        long start = ctx.beginHandshake();
+        try {
+            socket.startHandshake();
+        } catch (IOException e) {
+            ConnectionTracker.failed(ctx, e);
+            throw e;
+        } finally {
+            ctx.endHandshake(start);
+        }
+        ctx.countConnection(ConnectionStats.HANDSHAKE, 1);
+        if (mode.handshaken(socket))
+            ctx.countConnection(ConnectionStats.RESUME, 1);
     }
 
     /**
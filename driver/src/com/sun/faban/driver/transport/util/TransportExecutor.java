@@ -0,0 +1,79 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.util;
+
+import com.sun.faban.driver.engine.DriverContext;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The agent-wide pool of threads loading requests on behalf of driver
+ * threads, such as page resources fetched in parallel. The pool grows with
+ * the number of requests in flight and shrinks again when idle, so the
+ * thread count does not scale with the number of driver threads.<p>
+ *
+ * The pooled threads serve all driver threads and therefore do not time
+ * their I/O into any DriverContext. The driver thread submitting the work
+ * is responsible for recording its own response time.
+ */
+public class TransportExecutor {
+
+    private static ExecutorService instance;
+
+    private TransportExecutor() {
+    }
+
+    /**
+     * Obtains the shared executor, creating it on first use.
+     * @return The shared executor
+     */
+    public static synchronized ExecutorService getInstance() {
+        if (instance == null)
+            instance = Executors.newCachedThreadPool(new DetachedFactory());
+        return instance;
+    }
+
+    /**
+     * Creates daemon threads detached from the DriverContext of the
+     * thread creating them.
+     */
+    private static class DetachedFactory implements ThreadFactory {
+
+        private int count = 0;
+
+        public synchronized Thread newThread(final Runnable r) {
+            Thread t = new Thread("TransportExecutor-" + count++) {
+                @Override
+                public void run() {
+                    DriverContext.detachContext();
+                    r.run();
+                }
+            };
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
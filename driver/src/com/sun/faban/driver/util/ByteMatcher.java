@@ -0,0 +1,452 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Matches marker strings against response bytes as they are read, without
+ * decoding the response into characters. The literals are compiled into
+ * an Aho-Corasick automaton so all of them are searched in a single pass,
+ * one table lookup per byte, however many literals there are. Literals
+ * are encoded as UTF-8, which matches any ASCII-compatible response
+ * encoding for ASCII markers.<p>
+ *
+ * A matcher keeps the state of the current response and must not be
+ * shared between threads. It can be reused for any number of responses.
+ * The compiled {@link Automaton} holds no state and can be shared by the
+ * matchers of all threads.
+ * The transports reset the matcher at the start of each response. Once
+ * the outcome is known, the transport either drains and discards the rest
+ * of the response to keep the connection alive (the default), or stops
+ * reading and closes the connection if drain is turned off.<p>
+ *
+ * Typical usage of this class:
+ * <pre>
+ *    ByteMatcher matcher = new ByteMatcher("Welcome", "Logout");
+ *    if (!http.matchURL(url, matcher))
+ *        throw new Exception("Login failed");
+ *
+ *    // Or compile once and share across threads:
+ *    static final ByteMatcher.Automaton LOGIN =
+ *            new ByteMatcher.Automaton("Welcome", "Logout");
+ *    ...
+ *    ByteMatcher matcher = new ByteMatcher(true, LOGIN);
+ * </pre>
+ */
+public class ByteMatcher {
+
+    /** The maximum number of literals in a matcher. */
+    public static final int MAX_LITERALS = Automaton.MAX_LITERALS;
+
+    private final Automaton automaton;
+    private final boolean matchAll;
+    private boolean drain = true;
+
+    private int state;
+    private long found;
+
+    /**
+     * Constructs a matcher that succeeds if all the literals are found.
+     * @param literals The literals to find
+     */
+    public ByteMatcher(String... literals) {
+        this(true, literals);
+    }
+
+    /**
+     * Constructs a matcher for the given literals.
+     * @param matchAll True to succeed only if all literals are found,
+     *        false to succeed if any literal is found
+     * @param literals The literals to find
+     */
+    public ByteMatcher(boolean matchAll, String... literals) {
+        this(matchAll, new Automaton(literals));
+    }
+
+    /**
+     * Constructs a matcher over an already compiled automaton. The
+     * automaton is not copied, any number of matchers can share it.
+     * @param matchAll True to succeed only if all literals are found,
+     *        false to succeed if any literal is found
+     * @param automaton The compiled literals
+     */
+    public ByteMatcher(boolean matchAll, Automaton automaton) {
+        if (automaton == null)
+            throw new NullPointerException("Automaton is null.");
+        this.matchAll = matchAll;
+        this.automaton = automaton;
+    }
+
+    /**
+     * Constructs a matcher without an automaton, for the regular
+     * expression fallback.
+     */
+    private ByteMatcher() {
+        matchAll = true;
+        automaton = null;
+    }
+
+    /**
+     * Creates a matcher for a regular expression. If the regular expression
+     * is a plain literal, a streaming literal matcher is returned. Otherwise
+     * the matcher keeps the response bytes and matches the regular
+     * expression once the response is complete. The bytes are then viewed
+     * as ISO-8859-1 characters without decoding, so non-ASCII characters in
+     * the regular expression will not match UTF-8 content.
+     * @param regex The regular expression
+     * @return The matcher
+     */
+    public static ByteMatcher regex(String regex) {
+        if (isLiteral(regex))
+            return new ByteMatcher(regex);
+        return new RegexMatcher(regex);
+    }
+
+    private static boolean isLiteral(String regex) {
+        if (regex.length() == 0)
+            return false;
+        for (int i = 0; i < regex.length(); i++)
+            if ("\\[](){}.*+?^$|".indexOf(regex.charAt(i)) >= 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Obtains the compiled automaton of this matcher, for sharing it with
+     * other matchers.
+     * @return The automaton, or null for a regular expression matcher
+     */
+    public Automaton getAutomaton() {
+        return automaton;
+    }
+
+    /**
+     * Sets whether the rest of a response is read and discarded after the
+     * outcome is known. Draining keeps the connection alive for the next
+     * request. Not draining saves reading the rest of a large response at
+     * the cost of closing the connection. The default is to drain.
+     * @param drain Whether to drain the response
+     */
+    public void setDrain(boolean drain) {
+        this.drain = drain;
+    }
+
+    /**
+     * Checks whether the rest of a response is read after the outcome
+     * is known.
+     * @return Whether to drain the response
+     */
+    public boolean isDrain() {
+        return drain;
+    }
+
+    /**
+     * Resets the matcher for a new response.
+     */
+    public void reset() {
+        state = 0;
+        found = 0l;
+    }
+
+    /**
+     * Matches the next bytes of the response.
+     * @param b The buffer holding the bytes
+     * @param off The offset of the first byte
+     * @param len The number of bytes
+     * @return True if the outcome is known and no more bytes need to
+     *         be matched, false otherwise
+     */
+    public boolean update(byte[] b, int off, int len) {
+        int s = state;
+        long f = found;
+        int[] d = automaton.delta;
+        long[] o = automaton.output;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            s = d[(s << 8) | (b[i] & 0xff)];
+            f |= o[s];
+        }
+        state = s;
+        found = f;
+        return isDecided();
+    }
+
+    /**
+     * Completes the matching of a response. The transports call this once
+     * the whole response is read.
+     */
+    public void finish() {
+    }
+
+    private boolean isDecided() {
+        return matchAll ? found == automaton.all : found != 0l;
+    }
+
+    /**
+     * Checks the outcome of the match of the last response.
+     * @return True if the match succeeded, false otherwise
+     */
+    public boolean matches() {
+        return isDecided();
+    }
+
+    /**
+     * Checks whether a literal was found in the last response.
+     * @param index The index of the literal, in construction order
+     * @return True if the literal was found, false otherwise
+     */
+    public boolean isFound(int index) {
+        return (found & (1l << index)) != 0l;
+    }
+
+    /**
+     * Provides a string representation of this matcher.
+     * @return The string representation
+     */
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("ByteMatcher[");
+        b.append(matchAll ? "all" : "any");
+        for (String literal : automaton.literals)
+            b.append(", ").append(literal);
+        return b.append(']').toString();
+    }
+
+    /**
+     * The literals compiled into an Aho-Corasick automaton. The automaton
+     * is immutable once constructed and can be shared by any number of
+     * matchers and threads. Each matcher keeps its own state in the
+     * automaton.
+     */
+    public static final class Automaton {
+
+        /** The maximum number of literals in an automaton. */
+        public static final int MAX_LITERALS = 64;
+
+        private final String[] literals;
+
+        /** The transitions, 256 entries per state. */
+        private final int[] delta;
+
+        /** The literals found when reaching each state, one bit each. */
+        private final long[] output;
+
+        /** The bits of all literals. */
+        private final long all;
+
+        /**
+         * Compiles the literals into an automaton.
+         * @param literals The literals to find
+         */
+        public Automaton(String... literals) {
+            if (literals.length == 0 || literals.length > MAX_LITERALS)
+                throw new IllegalArgumentException("Need 1 to " +
+                        MAX_LITERALS + " literals.");
+            this.literals = literals.clone();
+            byte[][] bytes = new byte[literals.length][];
+            int size = 1;
+            for (int i = 0; i < literals.length; i++) {
+                bytes[i] = encode(literals[i]);
+                if (bytes[i].length == 0)
+                    throw new IllegalArgumentException("Empty literal.");
+                size += bytes[i].length;
+            }
+
+            // Build the trie, -1 denotes no transition yet.
+            int[] d = new int[size << 8];
+            Arrays.fill(d, -1);
+            long[] o = new long[size];
+            int states = 1;
+            for (int i = 0; i < bytes.length; i++) {
+                int s = 0;
+                for (byte b : bytes[i]) {
+                    int idx = (s << 8) | (b & 0xff);
+                    if (d[idx] < 0)
+                        d[idx] = states++;
+                    s = d[idx];
+                }
+                o[s] |= 1l << i;
+            }
+
+            // Turn the trie into the automaton in breadth first order,
+            // taking missing transitions from the failure state.
+            int[] fail = new int[states];
+            int[] queue = new int[states];
+            int head = 0;
+            int tail = 0;
+            for (int c = 0; c < 256; c++) {
+                int t = d[c];
+                if (t < 0) {
+                    d[c] = 0;
+                } else {
+                    fail[t] = 0;
+                    queue[tail++] = t;
+                }
+            }
+            while (head < tail) {
+                int s = queue[head++];
+                o[s] |= o[fail[s]];
+                int base = s << 8;
+                int failBase = fail[s] << 8;
+                for (int c = 0; c < 256; c++) {
+                    int t = d[base | c];
+                    if (t < 0) {
+                        d[base | c] = d[failBase | c];
+                    } else {
+                        fail[t] = d[failBase | c];
+                        queue[tail++] = t;
+                    }
+                }
+            }
+            if (states < size) {
+                d = Arrays.copyOf(d, states << 8);
+                o = Arrays.copyOf(o, states);
+            }
+            delta = d;
+            output = o;
+            all = literals.length == 64 ? -1l : (1l << literals.length) - 1;
+        }
+
+        private static byte[] encode(String s) {
+            try {
+                return s.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                // UTF-8 is always supported.
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Obtains the number of literals in this automaton.
+         * @return The number of literals
+         */
+        public int getLiteralCount() {
+            return literals.length;
+        }
+
+        /**
+         * Obtains a literal of this automaton.
+         * @param index The index of the literal, in construction order
+         * @return The literal
+         */
+        public String getLiteral(int index) {
+            return literals[index];
+        }
+    }
+
+    /**
+     * The regular expression fallback. It keeps the response bytes and
+     * matches once the response is complete.
+     */
+    private static class RegexMatcher extends ByteMatcher {
+
+        private final Pattern pattern;
+        private byte[] buffer = new byte[8192];
+        private int length;
+        private boolean matched;
+
+        RegexMatcher(String regex) {
+            pattern = Pattern.compile(regex);
+        }
+
+        @Override
+        public void reset() {
+            length = 0;
+            matched = false;
+        }
+
+        @Override
+        public boolean update(byte[] b, int off, int len) {
+            if (length + len > buffer.length) {
+                byte[] n = new byte[Math.max(length + len,
+                                             buffer.length << 1)];
+                System.arraycopy(buffer, 0, n, 0, length);
+                buffer = n;
+            }
+            System.arraycopy(b, off, buffer, length, len);
+            length += len;
+            return false;
+        }
+
+        @Override
+        public void finish() {
+            matched = pattern.matcher(
+                    new Latin1Sequence(buffer, 0, length)).find();
+        }
+
+        @Override
+        public boolean matches() {
+            return matched;
+        }
+
+        @Override
+        public boolean isFound(int index) {
+            return index == 0 && matched;
+        }
+
+        @Override
+        public String toString() {
+            return "ByteMatcher[all, " + pattern.pattern() + ']';
+        }
+    }
+
+    /**
+     * Views bytes as ISO-8859-1 characters without copying them.
+     */
+    private static class Latin1Sequence implements CharSequence {
+
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        Latin1Sequence(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xff);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return new Latin1Sequence(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            char[] c = new char[length];
+            for (int i = 0; i < length; i++)
+                c[i] = charAt(i);
+            return new String(c);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import com.sun.faban.common.TableModel;
+import com.sun.faban.driver.CustomTableMetrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The ConnectionStats counts the connection events of the HTTP transports
+ * by operation. They show connection churn, such as connections not being
+ * kept alive or being reset, that may limit the throughput. The counters
+ * are allocated once per thread. They are updated atomically, as the NIO
+ * selector thread counts events on behalf of the driver thread while the
+ * driver thread may count a failure itself. Events outside any operation
+ * are counted separately.
+ */
+public class ConnectionStats implements CustomTableMetrics {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Event: a new connection was established. */
+    public static final int CONNECT = 0;
+
+    /** Event: a request was sent on a connection already used. */
+    public static final int REUSE = 1;
+
+    /** Event: a connection was closed by the client. */
+    public static final int CLOSE = 2;
+
+    /** Event: a connect or read timed out. */
+    public static final int TIMEOUT = 3;
+
+    /** Event: a connection was reset or broken. */
+    public static final int RESET = 4;
+
+    /** Event: a TLS handshake was done. */
+    public static final int HANDSHAKE = 5;
+
+    /** Event: a TLS handshake resumed an earlier session. */
+    public static final int RESUME = 6;
+
+    /** Bytes received. */
+    public static final int BYTES_IN = 7;
+
+    /** Bytes sent. */
+    public static final int BYTES_OUT = 8;
+
+    /** The column names of the events. */
+    public static final String[] EVENTS = { "Connects", "Reuses", "Closes",
+                                            "Timeouts", "Resets",
+                                            "Handshakes", "Resumes",
+                                            "KB In", "KB Out" };
+
+    private String[] opNames;
+
+    /**
+     * The counts by event and operation, indexed by
+     * event * (opNames.length + 1) + operation. The last operation index
+     * counts the events outside any operation.
+     */
+    private AtomicLongArray counts;
+
+    /**
+     * Constructs the ConnectionStats for the given operations.
+     * @param opNames The operation names
+     */
+    public ConnectionStats(String[] opNames) {
+        this.opNames = opNames;
+        counts = new AtomicLongArray(EVENTS.length * (opNames.length + 1));
+    }
+
+    /**
+     * Counts an event.
+     * @param event The event
+     * @param op The operation in progress, or -1 if none
+     */
+    public void count(int event, int op) {
+        counts.incrementAndGet(index(event, op));
+    }
+
+    /**
+     * Adds a number of bytes or events.
+     * @param event The event
+     * @param op The operation in progress, or -1 if none
+     * @param n The number to add
+     */
+    public void add(int event, int op, long n) {
+        counts.addAndGet(index(event, op), n);
+    }
+
+    /**
+     * Obtains the count of an event.
+     * @param event The event
+     * @param op The operation, or -1 for outside any operation
+     * @return The count
+     */
+    public long getCount(int event, int op) {
+        return counts.get(index(event, op));
+    }
+
+    private int index(int event, int op) {
+        if (op < 0)
+            op = opNames.length;
+        return event * (opNames.length + 1) + op;
+    }
+
+    /**
+     * Checks whether any event was counted at all.
+     * @return True if no event was counted, false otherwise
+     */
+    public boolean isEmpty() {
+        for (int i = 0; i < counts.length(); i++)
+            if (counts.get(i) != 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Aggregates the ConnectionStats from another thread with this one.
+     * @param other The stats from another thread
+     */
+    public void add(CustomTableMetrics other) {
+        ConnectionStats o = (ConnectionStats) other;
+        for (int i = 0; i < counts.length(); i++)
+            counts.addAndGet(i, o.counts.get(i));
+    }
+
+    /**
+     * The metrics need to be cloneable and not throw any exceptions.
+     * @return The ConnectionStats clone
+     */
+    @Override
+    public Object clone() {
+        ConnectionStats o = new ConnectionStats(opNames);
+        for (int i = 0; i < counts.length(); i++)
+            o.counts.set(i, counts.get(i));
+        return o;
+    }
+
+    /**
+     * Obtains the counts by operation, with a row for the events outside
+     * operations if there are any, and a total row.
+     * @return The table of counts
+     */
+    public TableModel getResults() {
+        TableModel table = new TableModel(EVENTS.length + 1,
+                                          opNames.length + 2);
+        table.setHeader(0, "Operation");
+        for (int i = 0; i < EVENTS.length; i++)
+            table.setHeader(i + 1, EVENTS[i]);
+        long[] total = new long[EVENTS.length];
+        for (int j = 0; j <= opNames.length; j++) {
+            long[] values = new long[EVENTS.length];
+            boolean used = j < opNames.length;
+            for (int i = 0; i < EVENTS.length; i++) {
+                values[i] = counts.get(index(i, j));
+                total[i] += values[i];
+                if (values[i] != 0)
+                    used = true;
+            }
+            if (used)
+                fillRow(table.newRow(), j < opNames.length ?
+                        opNames[j] : "Other", values);
+        }
+        fillRow(table.newRow(), "Total", total);
+        return table;
+    }
+
+    private void fillRow(Comparable<?>[] row, String name, long[] values) {
+        row[0] = name;
+        for (int i = 0; i < values.length; i++) {
+            if (i == BYTES_IN || i == BYTES_OUT)
+                row[i + 1] = String.format("%.1f", values[i] / 1024d);
+            else
+                row[i + 1] = values[i];
+        }
+    }
+}
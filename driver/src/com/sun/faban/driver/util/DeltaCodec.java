@@ -0,0 +1,203 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The DeltaCodec encodes changes of counters and histograms between two
+ * snapshots compactly into a ByteBuffer. Integral deltas are written as
+ * variable length integers of 7 bits per byte, so small changes take a
+ * single byte. Histograms only carry the buckets that changed. Doubles
+ * are not subtracted, which would accumulate rounding errors on the
+ * receiving side, but are sent in full only if they changed.<p>
+ *
+ * The write methods throw java.nio.BufferOverflowException if the
+ * buffer is too small. The caller is expected to retry with a larger
+ * buffer.
+ */
+public class DeltaCodec {
+
+    private DeltaCodec() {
+    }
+
+    /**
+     * Writes a non-negative long as a variable length integer.
+     * @param buffer The buffer to write to
+     * @param value The value
+     */
+    public static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7fl) != 0l) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a variable length integer.
+     * @param buffer The buffer to read from
+     * @return The value
+     */
+    public static long getVarLong(ByteBuffer buffer) {
+        long value = 0l;
+        for (int shift = 0;; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    /**
+     * Writes the difference of a counter from its base. Negative
+     * differences are zigzag encoded so they stay short.
+     * @param buffer The buffer to write to
+     * @param value The current value
+     * @param base The base value
+     */
+    public static void putDelta(ByteBuffer buffer, long value, long base) {
+        long delta = value - base;
+        putVarLong(buffer, (delta << 1) ^ (delta >> 63));
+    }
+
+    /**
+     * Reads the difference of a counter and applies it to the base.
+     * @param buffer The buffer to read from
+     * @param base The base value
+     * @return The current value
+     */
+    public static long getDelta(ByteBuffer buffer, long base) {
+        long zigzag = getVarLong(buffer);
+        return base + ((zigzag >>> 1) ^ -(zigzag & 1l));
+    }
+
+    /**
+     * Writes a double if it differs from its base.
+     * @param buffer The buffer to write to
+     * @param value The current value
+     * @param base The base value
+     */
+    public static void putDelta(ByteBuffer buffer, double value, double base) {
+        if (Double.doubleToLongBits(value) == Double.doubleToLongBits(base)) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1);
+            buffer.putDouble(value);
+        }
+    }
+
+    /**
+     * Reads a double written by putDelta.
+     * @param buffer The buffer to read from
+     * @param base The base value
+     * @return The current value
+     */
+    public static double getDelta(ByteBuffer buffer, double base) {
+        if (buffer.get() == 0)
+            return base;
+        return buffer.getDouble();
+    }
+
+    /**
+     * Writes the buckets of a histogram that changed from the base.
+     * The count of changed buckets is followed by the index gap and
+     * the difference of each changed bucket. Without a base, only the
+     * buckets that are not zero are written.
+     * @param buffer The buffer to write to
+     * @param values The current histogram
+     * @param base The base histogram of the same length, or null
+     */
+    public static void putDelta(ByteBuffer buffer, int[] values, int[] base) {
+        int changed = 0;
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != (base == null ? 0 : base[i]))
+                ++changed;
+        putVarLong(buffer, changed);
+        int last = 0;
+        for (int i = 0; changed > 0; i++) {
+            int b = base == null ? 0 : base[i];
+            if (values[i] != b) {
+                putVarLong(buffer, i - last);
+                putDelta(buffer, values[i], b);
+                last = i;
+                --changed;
+            }
+        }
+    }
+
+    /**
+     * Applies the changed buckets written by putDelta to a histogram.
+     * @param buffer The buffer to read from
+     * @param values The histogram to update in place
+     */
+    public static void getDelta(ByteBuffer buffer, int[] values) {
+        int changed = (int) getVarLong(buffer);
+        int idx = 0;
+        for (int i = 0; i < changed; i++) {
+            idx += (int) getVarLong(buffer);
+            values[idx] = (int) getDelta(buffer, values[idx]);
+        }
+    }
+
+    /**
+     * Writes the elements of a long array that changed from the base,
+     * in the same form as the int histograms.
+     * @param buffer The buffer to write to
+     * @param values The current values
+     * @param base The base values of the same length, or null
+     */
+    public static void putDelta(ByteBuffer buffer, long[] values,
+                                long[] base) {
+        int changed = 0;
+        for (int i = 0; i < values.length; i++)
+            if (values[i] != (base == null ? 0l : base[i]))
+                ++changed;
+        putVarLong(buffer, changed);
+        int last = 0;
+        for (int i = 0; changed > 0; i++) {
+            long b = base == null ? 0l : base[i];
+            if (values[i] != b) {
+                putVarLong(buffer, i - last);
+                putDelta(buffer, values[i], b);
+                last = i;
+                --changed;
+            }
+        }
+    }
+
+    /**
+     * Applies the changed elements written by putDelta to a long array.
+     * @param buffer The buffer to read from
+     * @param values The values to update in place
+     */
+    public static void getDelta(ByteBuffer buffer, long[] values) {
+        int changed = (int) getVarLong(buffer);
+        int idx = 0;
+        for (int i = 0; i < changed; i++) {
+            idx += (int) getVarLong(buffer);
+            values[idx] = getDelta(buffer, values[idx]);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed-memory histogram with log-linear bucketing. Values are grouped
+ * into buckets by their power of two, and each bucket is divided linearly
+ * into sub-buckets. This keeps the relative error of any recorded value
+ * within the given number of significant decimal digits across the whole
+ * trackable range. Recording is O(1) and does not allocate.<p>
+ *
+ * The layout follows the well known HDR histogram. Values below the lowest
+ * discernible value are recorded with the resolution of that value. Values
+ * above the highest trackable value are recorded as the highest trackable
+ * value but are still reflected in the maximum.<p>
+ *
+ * Instances are not thread safe. Each thread records into its own instance
+ * and instances with the same configuration are added for aggregation.
+ */
+public class LogLinearHistogram implements Serializable, Cloneable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long lowestDiscernibleValue;
+    private final long highestTrackableValue;
+    private final int significantDigits;
+
+    private final int unitMagnitude;
+    private final int subBucketHalfCountMagnitude;
+    private final int subBucketCount;
+    private final int subBucketHalfCount;
+    private final long subBucketMask;
+    private final int leadingZeroCountBase;
+
+    private int[] counts;
+    private long totalCount = 0l;
+    private long maxValue = 0l;
+
+    /**
+     * Constructs a histogram.
+     * @param lowestDiscernibleValue The smallest value that can be told
+     *        apart from 0, must be 1 or more
+     * @param highestTrackableValue The highest value tracked accurately,
+     *        must be at least twice the lowest discernible value
+     * @param significantDigits The number of significant decimal digits
+     *        retained, from 1 to 5
+     */
+    public LogLinearHistogram(long lowestDiscernibleValue,
+                              long highestTrackableValue,
+                              int significantDigits) {
+        if (lowestDiscernibleValue < 1)
+            throw new IllegalArgumentException(
+                    "Lowest discernible value must be 1 or more.");
+        if (highestTrackableValue < 2 * lowestDiscernibleValue)
+            throw new IllegalArgumentException("Highest trackable value " +
+                    "must be at least twice the lowest discernible value.");
+        if (significantDigits < 1 || significantDigits > 5)
+            throw new IllegalArgumentException(
+                    "Significant digits must be from 1 to 5.");
+
+        this.lowestDiscernibleValue = lowestDiscernibleValue;
+        this.highestTrackableValue = highestTrackableValue;
+        this.significantDigits = significantDigits;
+
+        // The sub-bucket count must cover 2 * 10^digits at unit resolution.
+        long singleUnitResolution = 2l;
+        for (int i = 0; i < significantDigits; i++)
+            singleUnitResolution *= 10l;
+        int subBucketCountMagnitude = 64 - Long.numberOfLeadingZeros(
+                                                singleUnitResolution - 1);
+        subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        subBucketCount = 1 << subBucketCountMagnitude;
+        subBucketHalfCount = subBucketCount / 2;
+        unitMagnitude = 63 - Long.numberOfLeadingZeros(lowestDiscernibleValue);
+        subBucketMask = ((long) subBucketCount - 1) << unitMagnitude;
+        leadingZeroCountBase = 64 - unitMagnitude -
+                               subBucketHalfCountMagnitude - 1;
+
+        // Each additional bucket doubles the trackable range.
+        long smallestUntrackableValue = ((long) subBucketCount) << unitMagnitude;
+        int bucketCount = 1;
+        while (smallestUntrackableValue <= highestTrackableValue) {
+            if (smallestUntrackableValue > Long.MAX_VALUE / 2) {
+                ++bucketCount;
+                break;
+            }
+            smallestUntrackableValue <<= 1;
+            ++bucketCount;
+        }
+        counts = new int[(bucketCount + 1) * subBucketHalfCount];
+    }
+
+    /**
+     * Records a value.
+     * @param value The value to record, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0l)
+            value = 0l;
+        if (value > maxValue)
+            maxValue = value;
+        if (value > highestTrackableValue)
+            value = highestTrackableValue;
+        ++counts[countsIndex(value)];
+        ++totalCount;
+    }
+
+    /**
+     * Adds the counts of another histogram to this histogram. Both
+     * histograms must have the same configuration.
+     * @param other The histogram to add
+     */
+    public void add(LogLinearHistogram other) {
+        checkCompatible(other);
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+        totalCount += other.totalCount;
+        if (other.maxValue > maxValue)
+            maxValue = other.maxValue;
+    }
+
+    /**
+     * Sets the content of this histogram to the content of another
+     * histogram without allocating. Both histograms must have the same
+     * configuration.
+     * @param other The histogram to copy from
+     */
+    public void set(LogLinearHistogram other) {
+        checkCompatible(other);
+        System.arraycopy(other.counts, 0, counts, 0, counts.length);
+        totalCount = other.totalCount;
+        maxValue = other.maxValue;
+    }
+
+    /**
+     * Writes the changes of this histogram since an earlier copy of it.
+     * @param buffer The buffer to write to
+     * @param base An earlier copy of this histogram
+     * @see DeltaCodec
+     */
+    public void putDelta(ByteBuffer buffer, LogLinearHistogram base) {
+        checkCompatible(base);
+        DeltaCodec.putDelta(buffer, counts, base.counts);
+        DeltaCodec.putDelta(buffer, totalCount, base.totalCount);
+        DeltaCodec.putVarLong(buffer, maxValue);
+    }
+
+    /**
+     * Applies the changes written by putDelta to this histogram. This
+     * histogram must be the same as the base the changes were taken from.
+     * @param buffer The buffer to read from
+     */
+    public void getDelta(ByteBuffer buffer) {
+        DeltaCodec.getDelta(buffer, counts);
+        totalCount = DeltaCodec.getDelta(buffer, totalCount);
+        maxValue = DeltaCodec.getVarLong(buffer);
+    }
+
+    private void checkCompatible(LogLinearHistogram other) {
+        if (other.counts.length != counts.length ||
+                other.unitMagnitude != unitMagnitude ||
+                other.subBucketCount != subBucketCount)
+            throw new IllegalArgumentException(
+                    "Histogram configurations do not match.");
+    }
+
+    /**
+     * Obtains the number of recorded values.
+     * @return The total count
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Obtains the exact maximum recorded value.
+     * @return The maximum value, or 0 if nothing is recorded
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Obtains the number of significant digits retained.
+     * @return The significant digits
+     */
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    /**
+     * Obtains the value at a given percentile. The value returned is the
+     * highest value equivalent to the percentile value at the precision of
+     * this histogram but never more than the maximum recorded value.
+     * @param percentile The percentile, from 0 to 100
+     * @return The value at the percentile, or 0 if nothing is recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        return getValueAtPercentile(percentile, null);
+    }
+
+    /**
+     * Obtains the value at a given percentile of the values recorded since
+     * an earlier copy of this histogram was taken. This is used for finding
+     * percentiles of a time interval from cumulative histograms.
+     * @param percentile The percentile, from 0 to 100
+     * @param base An earlier copy of this histogram, or null
+     * @return The value at the percentile, or 0 if nothing is recorded
+     */
+    public long getValueAtPercentile(double percentile,
+                                     LogLinearHistogram base) {
+        if (base != null)
+            checkCompatible(base);
+        long count = totalCount;
+        if (base != null)
+            count -= base.totalCount;
+        if (count <= 0l)
+            return 0l;
+        if (percentile > 100d)
+            percentile = 100d;
+        long countAtPercentile = (long) Math.ceil(percentile / 100d * count);
+        if (countAtPercentile < 1l)
+            countAtPercentile = 1l;
+        long sum = 0l;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i];
+            if (base != null)
+                sum -= base.counts[i];
+            if (sum >= countAtPercentile) {
+                long value = highestEquivalentValue(i);
+                return value < maxValue ? value : maxValue;
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * Obtains the highest value recorded since an earlier copy of this
+     * histogram was taken, at the precision of this histogram.
+     * @param base An earlier copy of this histogram, or null
+     * @return The highest value, or 0 if nothing is recorded
+     */
+    public long getMaxValue(LogLinearHistogram base) {
+        if (base == null)
+            return maxValue;
+        checkCompatible(base);
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > base.counts[i]) {
+                long value = highestEquivalentValue(i);
+                return value < maxValue ? value : maxValue;
+            }
+        }
+        return 0l;
+    }
+
+    private int countsIndex(long value) {
+        int bucketIndex = leadingZeroCountBase -
+                          Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> (bucketIndex + unitMagnitude));
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) +
+                (subBucketIndex - subBucketHalfCount);
+    }
+
+    private long highestEquivalentValue(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) +
+                             subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        int shift = bucketIndex + unitMagnitude;
+        return (((long) subBucketIndex) << shift) + (1l << shift) - 1l;
+    }
+
+    /**
+     * Makes a deep copy of this histogram.
+     * @return The copy of this histogram
+     */
+    @Override
+    public Object clone() {
+        LogLinearHistogram clone = null;
+        try {
+            clone = (LogLinearHistogram) super.clone();
+            clone.counts = counts.clone();
+        } catch (CloneNotSupportedException e) {
+            // This should not happen as we already implement cloneable.
+        }
+        return clone;
+    }
+}
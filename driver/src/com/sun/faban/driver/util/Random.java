@@ -25,19 +25,33 @@ package com.sun.faban.driver.util;
 
 import java.util.GregorianCalendar;
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * RandNum is a random number/value generator. This
  * is a primitive facility for RandomValues.
  * RandomValues and all subclasses generate
- * application-specific random values.
+ * application-specific random values.<p>
+ *
+ * The values are generated by a xoroshiro128** generator seeded through
+ * SplitMix64. The generator keeps its state in plain fields and does
+ * not synchronize, so each instance must only be used by one thread at a
+ * time. Instances constructed with the same seed generate the same
+ * sequence of values. Bounded values are unbiased.
  *
  * @author Shanti Subramanyam
  */
 public class Random {
 
-    private java.util.Random        r;
+    private static final AtomicLong seedUniquifier =
+            new AtomicLong(0x1d8e4e27c47d124fl);
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15l;
+
+    private long s0;
+    private long s1;
+
     private static char[] alpha =
         {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D',
          'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R',
@@ -47,12 +61,14 @@ public class Random {
     private static char[] characs =
         {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n',
          'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z'};
+    private static char[] digits =
+        {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
 
     /**
      * Constructs the random value generator.
      */
     public Random() {
-        r = new java.util.Random();
+        this(seedUniquifier.addAndGet(GOLDEN_GAMMA) ^ System.nanoTime());
     }
 
     /**
@@ -60,7 +76,80 @@ public class Random {
      * @param seed The seed for the random value generator
      */
     public Random(long seed) {
-        r = new java.util.Random(seed);
+        s0 = mix64(seed += GOLDEN_GAMMA);
+        s1 = mix64(seed + GOLDEN_GAMMA);
+        if ((s0 | s1) == 0l) // The all zero state is not allowed.
+            s1 = GOLDEN_GAMMA;
+    }
+
+    /**
+     * The SplitMix64 finalizer, used to spread the seed over the state.
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9l;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebl;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Creates a new random value generator seeded from this one. The
+     * sequence generated by the new generator is deterministic if this
+     * generator is seeded, and statistically independent of this one.
+     * This is used to give each thread its own generator.
+     *
+     * @return The new random value generator
+     */
+    public Random split() {
+        return new Random(mix64(nextLong()));
+    }
+
+    /**
+     * Generates the next 64 random bits.
+     * @return The random long value
+     */
+    public long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = Long.rotateLeft(a * 5l, 7) * 9l;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    /**
+     * Generates the next 32 random bits.
+     * @return The random int value
+     */
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Generates a random double uniformly distributed between 0,
+     * inclusive, and 1, exclusive.
+     * @return The random double value
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Generates a random long between 0, inclusive, and the bound,
+     * exclusive, without bias.
+     * @param bound The bound, which must be positive
+     * @return The random value
+     */
+    private long nextLong(long bound) {
+        long r = nextLong();
+        long m = bound - 1;
+        if ((bound & m) == 0l) // Power of 2
+            return r & m;
+        // Reject the values from the incomplete last interval.
+        long u = r >>> 1;
+        while (u + m - (r = u % bound) < 0l)
+            u = nextLong() >>> 1;
+        return r;
     }
 
     /**
@@ -78,7 +167,7 @@ public class Random {
             y = x;
             x = t;
         }
-        return x + Math.abs(r.nextInt() % (y - x + 1));
+        return x + (int) nextLong((long) y - x + 1l);
     }
 
     /*
@@ -100,7 +189,15 @@ public class Random {
             y = x;
             x = t;
         }
-        return x + Math.abs(r.nextLong() % (y - x + 1));
+        long range = y - x + 1l;
+        if (range > 0l)
+            return x + nextLong(range);
+        // The range exceeds Long.MAX_VALUE, just reject values outside.
+        long r;
+        do {
+            r = nextLong();
+        } while (r < x || r > y);
+        return r;
     }
 
     /**
@@ -112,7 +209,7 @@ public class Random {
      * @return the random value between x and y, exclusive
      */
     public double drandom(double x, double y) {
-        return (x + (r.nextDouble() * (y - x)));
+        return (x + (nextDouble() * (y - x)));
     }
 
     /**
@@ -144,24 +241,27 @@ public class Random {
      * @return the random string of length between x and y
      */
     public String makeAString(int x, int y) {
-
-        int    len;    /* len of string */
-
-        if (x == y) {
-            len = x;
-        } else {
-            len = random(x, y);
-        }
-
-        char[] buffer = new char[len];
-
-        for (int i = 0; i < len; i++) {
-            int j = random(0, alpha.length - 1);
-            buffer[i] = alpha[j];
-        }
+        char[] buffer = new char[length(x, y)];
+        fill(alpha, 6, buffer, 0, buffer.length);
         return new String(buffer);
     }
 
+    /**
+     * Generates a random string of alphanumeric characters like
+     * makeAString, but into the given buffer to avoid allocating a String.
+     *
+     * @param x the minimum length
+     * @param y the maximum length
+     * @param buffer the buffer to write the characters to
+     * @param offset the offset into the buffer
+     * @return the length of the generated string
+     */
+    public int makeAString(int x, int y, char[] buffer, int offset) {
+        int len = length(x, y);
+        fill(alpha, 6, buffer, offset, len);
+        return len;
+    }
+
     /**
      * makeCString [x..y] generates a random string of only alpahabet
      * characters of random length of mininum x, maximum y and
@@ -172,25 +272,27 @@ public class Random {
      * @return the random character string of length between x and y
      */
     public String makeCString(int x, int y) {
-
-        int    len;    /* len of string */
-
-        if (x == y) {
-            len = x;
-        } else {
-            len = random(x, y);
-        }
-
-        char[] buffer = new char[len];
-
-        for (int i = 0; i < len; i++) {
-            int j = random(0, characs.length - 1);
-            buffer[i] = characs[j];
-        }
-
+        char[] buffer = new char[length(x, y)];
+        fill(characs, 5, buffer, 0, buffer.length);
         return new String(buffer);
     }
 
+    /**
+     * Generates a random string of only alphabet characters like
+     * makeCString, but into the given buffer to avoid allocating a String.
+     *
+     * @param x the minimum length
+     * @param y the maximum length
+     * @param buffer the buffer to write the characters to
+     * @param offset the offset into the buffer
+     * @return the length of the generated string
+     */
+    public int makeCString(int x, int y, char[] buffer, int offset) {
+        int len = length(x, y);
+        fill(characs, 5, buffer, offset, len);
+        return len;
+    }
+
  	/**
  	 * makeDateInInterval generates a java.sql.Date instance representing
      * a Date within the range specified by (input Date + x) and
@@ -276,23 +378,70 @@ public class Random {
      * @return the random character string of length between x and y
      */
     public String makeNString(int x, int y) {
+        char[] buffer = new char[length(x, y)];
+        fill(digits, 4, buffer, 0, buffer.length);
+        return new String(buffer);
+    }
 
-        int    len, i;
-        //String str = "";
+    /**
+     * Generates a random string of only numeric characters like
+     * makeNString, but into the given buffer to avoid allocating a String.
+     *
+     * @param x the minimum length
+     * @param y the maximum length
+     * @param buffer the buffer to write the characters to
+     * @param offset the offset into the buffer
+     * @return the length of the generated string
+     */
+    public int makeNString(int x, int y, char[] buffer, int offset) {
+        int len = length(x, y);
+        fill(digits, 4, buffer, offset, len);
+        return len;
+    }
 
-        if (x == y) {
-            len = x;
-        } else {
-            len = random(x, y);
+    /**
+     * Fills an array with random numbers uniformly distributed between
+     * x and y, inclusively.
+     *
+     * @param values the array to fill
+     * @param x the x value
+     * @param y the y value
+     */
+    public void random(int[] values, int x, int y) {
+        if (y < x) {
+            int t = y;
+            y = x;
+            x = t;
         }
+        long range = (long) y - x + 1l;
+        for (int i = 0; i < values.length; i++)
+            values[i] = x + (int) nextLong(range);
+    }
 
-        char[] buffer = new char[len];
+    private int length(int x, int y) {
+        if (x == y)
+            return x;
+        return random(x, y);
+    }
 
-        for (i = 0; i < len; i++) {
-            buffer[i] = (char) random('0', '9');
+    /**
+     * Fills the buffer with random characters from a character set. Each
+     * 64 bit random value provides several characters. Bit patterns
+     * beyond the character set are rejected to avoid bias.
+     */
+    private void fill(char[] set, int bits, char[] buffer, int offset,
+                      int len) {
+        int mask = (1 << bits) - 1;
+        int end = offset + len;
+        int i = offset;
+        while (i < end) {
+            long r = nextLong();
+            for (int avail = 64; avail >= bits && i < end; avail -= bits) {
+                int j = (int) r & mask;
+                r >>>= bits;
+                if (j < set.length)
+                    buffer[i++] = set[j];
+            }
         }
-
-        return new String(buffer);
     }
 }
-
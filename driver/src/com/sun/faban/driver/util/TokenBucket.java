@@ -0,0 +1,171 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A token bucket shaping the bandwidth of one or more users. The bucket
+ * is kept as the theoretical time all bytes reserved so far have passed
+ * at the configured rate. Idle time earns credit up to the burst size,
+ * so a burst of that many bytes passes at once. Reserving bytes beyond
+ * the credit returns a time in the future the caller should wait for.
+ * Since the debt stays in the bucket, callers may skip short waits and
+ * let a later wait cover them without drifting from the rate.<p>
+ *
+ * A bucket may be shared by many threads to shape the aggregate
+ * bandwidth of a link. Named shared buckets are kept per agent.<p>
+ *
+ * The transports reserve the bytes they transferred and sleep on the
+ * driver's timer themselves. Other code can use acquire, which reserves
+ * the bytes and blocks until they have passed.
+ */
+public class TokenBucket {
+
+    private static ConcurrentHashMap<String, TokenBucket> shared =
+            new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * The time source and sleep of a bucket. Tests replace the system
+     * clock to check the bucket without waiting.
+     */
+    interface Clock {
+
+        /**
+         * Obtains the current time.
+         * @return The current nanotime
+         */
+        long nanoTime();
+
+        /**
+         * Sleeps until the given time.
+         * @param nanoTime The nanotime to wake up at
+         * @throws InterruptedException If interrupted while sleeping
+         */
+        void sleepUntil(long nanoTime) throws InterruptedException;
+    }
+
+    /** The clock of all buckets outside the tests. */
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        public void sleepUntil(long nanoTime) throws InterruptedException {
+            long sleepTime = nanoTime - System.nanoTime();
+            if (sleepTime > 0l)
+                Thread.sleep(sleepTime / 1000000l,
+                             (int) (sleepTime % 1000000l));
+        }
+    };
+
+    private final Clock clock;
+    private final int kbps;
+    private final double nanosPerByte;
+    private final long burstNanos;
+    private long emptyTime = Long.MIN_VALUE;
+
+    /**
+     * Constructs a token bucket.
+     * @param kbps The rate in kilobytes per second, must be positive
+     * @param burstBytes The bytes that can pass at once after idling
+     */
+    public TokenBucket(int kbps, int burstBytes) {
+        this(kbps, burstBytes, SYSTEM_CLOCK);
+    }
+
+    /**
+     * Constructs a token bucket on a given clock.
+     * @param kbps The rate in kilobytes per second, must be positive
+     * @param burstBytes The bytes that can pass at once after idling
+     * @param clock The clock used by acquire
+     */
+    TokenBucket(int kbps, int burstBytes, Clock clock) {
+        this.clock = clock;
+        if (kbps <= 0)
+            throw new IllegalArgumentException("Rate must be positive.");
+        if (burstBytes < 0)
+            throw new IllegalArgumentException("Burst must not be negative.");
+        this.kbps = kbps;
+        nanosPerByte = 1000000000d / (kbps * 1024d);
+        burstNanos = Math.round(burstBytes * nanosPerByte);
+    }
+
+    /**
+     * Obtains the named bucket shared by all threads of this agent. The
+     * bucket is created on first use. Later calls with the same name
+     * return the same bucket regardless of the rate and burst given.
+     * @param name The bucket name
+     * @param kbps The rate in kilobytes per second, must be positive
+     * @param burstBytes The bytes that can pass at once after idling
+     * @return The shared bucket
+     */
+    public static TokenBucket getShared(String name, int kbps,
+                                        int burstBytes) {
+        TokenBucket bucket = shared.get(name);
+        if (bucket == null) {
+            bucket = new TokenBucket(kbps, burstBytes);
+            TokenBucket b = shared.putIfAbsent(name, bucket);
+            if (b != null)
+                bucket = b;
+        }
+        return bucket;
+    }
+
+    /**
+     * Obtains the rate of this bucket.
+     * @return The rate in kilobytes per second
+     */
+    public int getKbps() {
+        return kbps;
+    }
+
+    /**
+     * Reserves the passing of a number of bytes.
+     * @param bytes The number of bytes
+     * @param startTime The nanotime the transfer of the bytes started
+     * @return The nanotime the bytes have passed at the configured rate,
+     *         which may be in the past if the bytes were within the credit
+     */
+    public synchronized long reserve(int bytes, long startTime) {
+        long fullTime = startTime - burstNanos;
+        if (emptyTime < fullTime) // Credit never exceeds the burst.
+            emptyTime = fullTime;
+        emptyTime += Math.round(bytes * nanosPerByte);
+        return emptyTime;
+    }
+
+    /**
+     * Reserves the passing of a number of bytes starting now and blocks
+     * until they have passed at the configured rate. Bytes within the
+     * credit pass without blocking.
+     * @param bytes The number of bytes
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void acquire(int bytes) throws InterruptedException {
+        long passTime = reserve(bytes, clock.nanoTime());
+        if (passTime > clock.nanoTime())
+            clock.sleepUntil(passTime);
+    }
+}
@@ -0,0 +1,96 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates virtual threads on JVMs that support them. The driver framework
+ * is compiled for older JVMs so the virtual thread builder is looked up
+ * reflectively. Callers must check {@link #isSupported()} and fall back to
+ * platform threads if virtual threads are not available.
+ */
+public class VirtualThreads {
+
+    private static Logger logger =
+            Logger.getLogger(VirtualThreads.class.getName());
+
+    private static Method ofVirtual;
+    private static Method name;
+    private static Method unstarted;
+
+    static {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builderClass.getMethod("name", String.class);
+            unstarted = builderClass.getMethod("unstarted", Runnable.class);
+        } catch (ClassNotFoundException e) {
+            ofVirtual = null;
+        } catch (NoSuchMethodException e) {
+            ofVirtual = null;
+        }
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Checks whether this JVM supports virtual threads.
+     * @return true if virtual threads can be created, false otherwise
+     */
+    public static boolean isSupported() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Creates an unstarted virtual thread. If the JVM does not support
+     * virtual threads or the thread cannot be created, a null is returned.
+     * @param threadName The name of the new thread
+     * @param task The task to run in the thread
+     * @return The new unstarted thread, or null if not supported
+     */
+    public static Thread newThread(String threadName, Runnable task) {
+        if (ofVirtual == null)
+            return null;
+        try {
+            Object builder = ofVirtual.invoke(null);
+            builder = name.invoke(builder, threadName);
+            return (Thread) unstarted.invoke(builder, task);
+        } catch (IllegalAccessException e) {
+            logger.log(Level.WARNING, "Cannot create virtual thread " +
+                    threadName + ": " + e.getMessage(), e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause == null)
+                cause = e;
+            logger.log(Level.WARNING, "Cannot create virtual thread " +
+                    threadName + ": " + cause.getMessage(), cause);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,122 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the alias table selection realizes the configured mix.
+ */
+public class AliasTableTest {
+
+    private static final int DRAWS = 1000000;
+    private static final double TOLERANCE = 0.005;
+
+    private static BenchmarkDefinition.Operation[] operations(int n) {
+        BenchmarkDefinition.Operation[] ops =
+                new BenchmarkDefinition.Operation[n];
+        for (int i = 0; i < n; i++) {
+            ops[i] = new BenchmarkDefinition.Operation();
+            ops[i].name = "op" + i;
+        }
+        return ops;
+    }
+
+    /**
+     * Test of the probabilities represented in the table.
+     */
+    @Test
+    public void testProbability() {
+        double[] weights = { 5d, 0d, 15d, 30d, 50d };
+        AliasTable table = new AliasTable(weights);
+        for (int i = 0; i < weights.length; i++)
+            assertEquals(weights[i] / 100d, table.getProbability(i), 1e-9);
+    }
+
+    /**
+     * Test of select method, of class AliasTable.
+     */
+    @Test
+    public void testSelect() {
+        double[] weights = { 5d, 0d, 15d, 30d, 50d };
+        AliasTable table = new AliasTable(weights);
+        Random random = new Random(4711l);
+        int[] counts = new int[weights.length];
+        for (int i = 0; i < DRAWS; i++)
+            ++counts[table.select(random)];
+        assertEquals(0, counts[1]);
+        for (int i = 0; i < weights.length; i++)
+            assertEquals(weights[i] / 100d, (double) counts[i] / DRAWS,
+                         TOLERANCE);
+    }
+
+    /**
+     * Test of the FlatMix selector distribution.
+     */
+    @Test
+    public void testFlatMix() {
+        FlatMix mix = new FlatMix();
+        mix.operations = operations(4);
+        mix.mix = new double[] { 10d, 20d, 30d, 40d };
+        mix.normalize();
+        Mix.Selector selector = mix.selector(new Random(4711l));
+        int[] counts = new int[mix.mix.length];
+        for (int i = 0; i < DRAWS; i++)
+            ++counts[selector.select()];
+        for (int i = 0; i < counts.length; i++)
+            assertEquals(mix.mix[i], (double) counts[i] / DRAWS, TOLERANCE);
+    }
+
+    /**
+     * Test of the MatrixMix selector transition distribution.
+     */
+    @Test
+    public void testMatrixMix() {
+        MatrixMix mix = new MatrixMix();
+        mix.operations = operations(3);
+        mix.mix = new double[][] {
+            { 0d, 60d, 40d },
+            { 25d, 25d, 50d },
+            { 90d, 10d, 0d }
+        };
+        mix.normalize();
+        Mix.Selector selector = mix.selector(new Random(4711l));
+        int[][] counts = new int[3][3];
+        int[] rowCounts = new int[3];
+        int prev = selector.select();
+        assertEquals(0, prev);
+        for (int i = 0; i < DRAWS; i++) {
+            int op = selector.select();
+            ++counts[prev][op];
+            ++rowCounts[prev];
+            prev = op;
+        }
+        for (int i = 0; i < 3; i++)
+            for (int j = 0; j < 3; j++)
+                assertEquals(mix.mix[i][j],
+                        (double) counts[i][j] / rowCounts[i], TOLERANCE);
+    }
+}
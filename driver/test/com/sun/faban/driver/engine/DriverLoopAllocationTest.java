@@ -0,0 +1,131 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.Timing;
+import com.sun.faban.driver.util.Timer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.logging.Logger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that recording the timing and stats of a transaction, the work
+ * the driver loop does for each transaction, does not allocate.
+ */
+public class DriverLoopAllocationTest {
+
+    private static final int WARMUP = 50000;
+    private static final int ITERATIONS = 200000;
+
+    /** Slack for the allocation of the measurement itself, in bytes. */
+    private static final long SLACK = 1024l;
+
+    /**
+     * Test the allocation of the recording loop with the thread allocation
+     * counter. Skipped if the JVM does not support the counter.
+     * @throws Exception If the agent thread cannot be set up
+     */
+    @Test
+    public void testRecordingDoesNotAllocate() throws Exception {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return;
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported())
+            return;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        AgentImpl agent = new AgentImpl("test", "0");
+        try {
+            TimeThread thread = createThread(agent);
+            DriverContext context = thread.driverContext;
+            Metrics metrics = thread.metrics;
+            long id = Thread.currentThread().getId();
+
+            record(context, metrics, WARMUP);
+            long before = threadBean.getThreadAllocatedBytes(id);
+            record(context, metrics, ITERATIONS);
+            long allocated = threadBean.getThreadAllocatedBytes(id) - before;
+
+            assertEquals(WARMUP + ITERATIONS, metrics.txCntTotal[0]);
+            assertTrue("Recording " + ITERATIONS + " transactions " +
+                    "allocated " + allocated + " bytes", allocated < SLACK);
+        } finally {
+            UnicastRemoteObject.unexportObject(agent, true);
+        }
+    }
+
+    private static void record(DriverContext context, Metrics metrics,
+                               int count) {
+        for (int i = 0; i < count; i++) {
+            context.setInvokeTime(System.nanoTime() - 1000l);
+            context.recordStartTime();
+            context.recordEndTime();
+            metrics.recordTx();
+        }
+    }
+
+    private static TimeThread createThread(AgentImpl agent)
+            throws Exception {
+        BenchmarkDefinition.Operation op =
+                new BenchmarkDefinition.Operation();
+        op.name = "Op";
+        op.timing = Timing.AUTO;
+        op.cycle = new FixedTime();
+        FlatMix mix = new FlatMix();
+        mix.operations = new BenchmarkDefinition.Operation[] { op };
+        mix.mix = new double[] { 1d };
+        BenchmarkDefinition.Driver def = new BenchmarkDefinition.Driver();
+        def.name = "test";
+        def.operations = mix.operations;
+        def.mix[0] = mix;
+        def.initialDelay[0] = new FixedTime();
+
+        Constructor<RunInfo> c = RunInfo.class.getDeclaredConstructor();
+        c.setAccessible(true);
+        RunInfo runInfo = c.newInstance();
+        runInfo.wireTiming = true;
+
+        TimeThread thread = new TimeThread();
+        thread.name = "test.0";
+        thread.logger = Logger.getLogger(TimeThread.class.getName());
+        thread.agent = agent;
+        thread.runInfo = runInfo;
+        thread.driverConfig = new RunInfo.DriverConfig(def);
+        thread.currentOperation = 0;
+        thread.inRamp = false;
+        agent.startTime = System.nanoTime();
+        thread.driverContext = new DriverContext(thread, new Timer());
+        thread.metrics = new Metrics("test", new String[] { "Op" }, 100, 3,
+                                     true);
+        thread.metrics.thread = thread;
+        thread.metrics.graphBucketSize = 1000000000l;
+        return thread;
+    }
+}
@@ -0,0 +1,180 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the aggregation of the agent results in the MasterImpl.
+ */
+public class MasterImplTest {
+
+    /** The hosts of the agents, in agent order. */
+    private static final String[] HOSTS = { "h2", "h1", "h2", "h1", "h3" };
+
+    private static final String[] OPS = { "Browse", "Search", "Buy" };
+
+    /** The start time of the run. */
+    private static final long START = 1234567l;
+
+    /**
+     * Test that the results are aggregated in agent order, no matter in
+     * which order the agents answer.
+     * @throws Exception If waiting for the agents fails
+     */
+    @Test
+    public void testAgentOrder() throws Exception {
+        List<FutureTask<Metrics>> tasks = new ArrayList<FutureTask<Metrics>>();
+        for (int i = 0; i < HOSTS.length; i++)
+            tasks.add(result(i));
+        for (FutureTask<Metrics> task : tasks)
+            task.run();
+        Map<String, Metrics> expected =
+                MasterImpl.aggregateResults(futures(tasks), START);
+        assertEquals(Arrays.asList("h2", "h1", "h3", "__MASTER__"),
+                     new ArrayList<String>(expected.keySet()));
+        Metrics total = expected.get("__MASTER__");
+        assertEquals(START, total.startTime);
+        assertEquals(HOSTS.length, total.threadCnt);
+        assertEquals(2, expected.get("h1").threadCnt);
+        assertEquals(1, expected.get("h3").threadCnt);
+
+        // Agents answering last to first give the very same sums.
+        final List<FutureTask<Metrics>> reversed =
+                new ArrayList<FutureTask<Metrics>>();
+        for (int i = 0; i < HOSTS.length; i++)
+            reversed.add(result(i));
+        Thread agents = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = reversed.size() - 1; i >= 0; i--) {
+                        Thread.sleep(10);
+                        reversed.get(i).run();
+                    }
+                } catch (InterruptedException e) {
+                    // Cannot happen.
+                }
+            }
+        };
+        agents.start();
+        Map<String, Metrics> actual =
+                MasterImpl.aggregateResults(futures(reversed), START);
+        agents.join();
+        assertEquals(new ArrayList<String>(expected.keySet()),
+                     new ArrayList<String>(actual.keySet()));
+        for (String host : expected.keySet())
+            MetricsTest.assertSameMetrics(expected.get(host), actual.get(host));
+    }
+
+    /**
+     * Test that failed agents are left out and the total is aggregated
+     * again over the remaining results.
+     * @throws Exception If waiting for the agents fails
+     */
+    @Test
+    public void testAgentFailure() throws Exception {
+        // Agent 1 fails and agent 3 returns no result, both on h1.
+        List<FutureTask<Metrics>> tasks = new ArrayList<FutureTask<Metrics>>();
+        List<FutureTask<Metrics>> survivors =
+                new ArrayList<FutureTask<Metrics>>();
+        for (int i = 0; i < HOSTS.length; i++) {
+            FutureTask<Metrics> task;
+            if (i == 1) {
+                task = new FutureTask<Metrics>(new Callable<Metrics>() {
+                    public Metrics call() throws RemoteException {
+                        throw new RemoteException("Agent lost");
+                    }
+                });
+            } else if (i == 3) {
+                task = new FutureTask<Metrics>(new Callable<Metrics>() {
+                    public Metrics call() {
+                        return null;
+                    }
+                });
+            } else {
+                task = result(i);
+                survivors.add(result(i));
+            }
+            tasks.add(task);
+        }
+        for (FutureTask<Metrics> task : tasks)
+            task.run();
+        for (FutureTask<Metrics> task : survivors)
+            task.run();
+
+        Map<String, Metrics> actual =
+                MasterImpl.aggregateResults(futures(tasks), START);
+        assertEquals(Arrays.asList("h2", "h3", "__MASTER__"),
+                     new ArrayList<String>(actual.keySet()));
+        Metrics total = actual.get("__MASTER__");
+        assertEquals(START, total.startTime);
+        assertEquals(survivors.size(), total.threadCnt);
+        int[] txCnt = new int[total.txTypes];
+        for (FutureTask<Metrics> task : survivors)
+            for (int i = 0; i < txCnt.length; i++)
+                txCnt[i] += task.get().txCntTotal[i];
+        assertArrayEquals(txCnt, total.txCntTotal);
+
+        // The same as if only the surviving agents had been there.
+        Map<String, Metrics> expected =
+                MasterImpl.aggregateResults(futures(survivors), START);
+        for (String host : expected.keySet())
+            MetricsTest.assertSameMetrics(expected.get(host), actual.get(host));
+
+        // No result at all leaves no total.
+        tasks.clear();
+        tasks.add(new FutureTask<Metrics>(new Callable<Metrics>() {
+            public Metrics call() {
+                return null;
+            }
+        }));
+        tasks.get(0).run();
+        assertTrue(MasterImpl.aggregateResults(futures(tasks),
+                                               START).isEmpty());
+    }
+
+    private static FutureTask<Metrics> result(final int agent) {
+        return new FutureTask<Metrics>(new Callable<Metrics>() {
+            public Metrics call() {
+                return MetricsTest.fill(
+                        new Metrics(HOSTS[agent], OPS, 100, 3, true), agent);
+            }
+        });
+    }
+
+    private static List<Future<Metrics>> futures(
+            List<FutureTask<Metrics>> tasks) {
+        return new ArrayList<Future<Metrics>>(tasks);
+    }
+}
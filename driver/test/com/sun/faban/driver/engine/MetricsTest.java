@@ -5,6 +5,11 @@
 
 package com.sun.faban.driver.engine;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -14,6 +19,8 @@ import static org.junit.Assert.*;
  */
 public class MetricsTest {
 
+    private static final String[] OPS = { "Browse", "Search", "Buy" };
+
     /**
      * Test of addSumSquare method, of class Metrics.
      */
@@ -22,4 +29,130 @@ public class MetricsTest {
         double s = Metrics.addSumSquare(0.0, 0, 0.0, 0.0, 0, 0.0);
         assertTrue(!Double.isNaN(s));
     }
-}
\ No newline at end of file
+
+    /**
+     * Test of serializing and deserializing a Metrics object.
+     * @throws Exception If the serialization fails
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        Metrics m = fill(new Metrics("host1", OPS, 21600, 3, true), 1l);
+        assertSameMetrics(m, roundTrip(m));
+
+        Metrics plain = fill(new Metrics("host2", OPS, 50, 0, false), 2l);
+        Metrics copy = roundTrip(plain);
+        assertNull(copy.respLogHist);
+        assertNull(copy.wireHist);
+        assertSameMetrics(plain, copy);
+    }
+
+    /**
+     * Test that adding deserialized Metrics objects gives the same result
+     * as adding the originals.
+     * @throws Exception If the serialization fails
+     */
+    @Test
+    public void testMergeEquivalence() throws Exception {
+        Metrics a = fill(new Metrics("host1", OPS, 600, 3, true), 3l);
+        Metrics b = fill(new Metrics("host1", OPS, 600, 3, true), 4l);
+        Metrics merged = roundTrip(a);
+        merged.add(roundTrip(b));
+        a.add(b);
+        assertSameMetrics(a, merged);
+        assertSameMetrics(a, roundTrip(merged));
+    }
+
+    static Metrics fill(Metrics m, long seed) {
+        Random r = new Random(seed);
+        m.threadCnt = 1;
+        for (int i = 0; i < m.txTypes; i++) {
+            m.txCntStdy[i] = r.nextInt(100000);
+            m.txCntTotal[i] = m.txCntStdy[i] + r.nextInt(1000);
+            m.errCntStdy[i] = r.nextInt(10);
+            m.respSumStdy[i] = r.nextDouble() * 1e9;
+            m.sumSquaresStdy[i] = r.nextDouble() * 1e12;
+            m.respMax[i] = r.nextInt(Integer.MAX_VALUE);
+            for (int j = 0; j < 300; j += 1 + r.nextInt(5))
+                m.respHist[i][j] = r.nextInt(5000);
+            m.respHist[i][Metrics.RESPBUCKETS - 1] = r.nextInt(3);
+            for (int j = 0; j < 200; j += 1 + r.nextInt(3))
+                m.corrRespHist[i][j] = r.nextInt(5000);
+            for (int j = 0; j < Metrics.DELAYBUCKETS; j++) {
+                m.delayHist[i][j] = r.nextInt(100);
+                m.targetedDelayHist[i][j] = r.nextInt(100);
+            }
+            int used = Math.min(m.graphBuckets, 40);
+            for (int j = 0; j < used; j++) {
+                m.thruputGraph[i][j] = r.nextInt(1000);
+                m.respGraph[i][j] = Math.abs(r.nextLong());
+            }
+            if (m.respLogHist != null)
+                for (int j = 0; j < 1000; j++) {
+                    long nanos = 1000l + (long) (r.nextDouble() * 1e9);
+                    m.respLogHist[i].record(nanos);
+                    m.corrRespLogHist[i].record(nanos + r.nextInt(1000000));
+                }
+            if (m.wireHist != null)
+                for (int p = 0; p < m.wireHist.length; p++) {
+                    m.wireSumStdy[p][i] = r.nextDouble() * 1e6;
+                    m.wireHist[p][i][r.nextInt(Metrics.RESPBUCKETS)] += 7;
+                }
+        }
+        return m;
+    }
+
+    static Metrics roundTrip(Metrics m) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(m);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        return (Metrics) in.readObject();
+    }
+
+    static void assertSameMetrics(Metrics expected, Metrics actual) {
+        assertEquals(expected.host, actual.host);
+        assertEquals(expected.threadCnt, actual.threadCnt);
+        assertArrayEquals(expected.txNames, actual.txNames);
+        assertArrayEquals(expected.txCntStdy, actual.txCntStdy);
+        assertArrayEquals(expected.txCntTotal, actual.txCntTotal);
+        assertArrayEquals(expected.errCntStdy, actual.errCntStdy);
+        assertArrayEquals(expected.respMax, actual.respMax);
+        assertArrayEquals(expected.respSumStdy, actual.respSumStdy, 0d);
+        assertArrayEquals(expected.sumSquaresStdy, actual.sumSquaresStdy,
+                          0d);
+        assertArrayEquals(expected.respHist, actual.respHist);
+        assertArrayEquals(expected.corrRespHist, actual.corrRespHist);
+        assertArrayEquals(expected.delayHist, actual.delayHist);
+        assertArrayEquals(expected.targetedDelayHist,
+                          actual.targetedDelayHist);
+        assertArrayEquals(expected.thruputGraph, actual.thruputGraph);
+        assertArrayEquals(expected.respGraph, actual.respGraph);
+        assertArrayEquals(expected.wireHist, actual.wireHist);
+        if (expected.wireSumStdy != null)
+            for (int p = 0; p < expected.wireSumStdy.length; p++)
+                assertArrayEquals(expected.wireSumStdy[p],
+                                  actual.wireSumStdy[p], 0d);
+        if (expected.respLogHist == null) {
+            assertNull(actual.respLogHist);
+            return;
+        }
+        for (int i = 0; i < expected.txTypes; i++) {
+            assertEquals(expected.respLogHist[i].getTotalCount(),
+                         actual.respLogHist[i].getTotalCount());
+            assertEquals(expected.respLogHist[i].getMaxValue(),
+                         actual.respLogHist[i].getMaxValue());
+            assertEquals(expected.corrRespLogHist[i].getTotalCount(),
+                         actual.corrRespLogHist[i].getTotalCount());
+            for (double pct = 10d; pct < 100d; pct += 10d) {
+                assertEquals(
+                        expected.respLogHist[i].getValueAtPercentile(pct),
+                        actual.respLogHist[i].getValueAtPercentile(pct));
+                assertEquals(
+                        expected.corrRespLogHist[i].getValueAtPercentile(pct),
+                        actual.corrRespLogHist[i].getValueAtPercentile(pct));
+            }
+        }
+    }
+}
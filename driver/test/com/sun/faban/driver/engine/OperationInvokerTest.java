@@ -0,0 +1,114 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the generated and reflective operation invokers.
+ */
+public class OperationInvokerTest {
+
+    /**
+     * A driver with operations of different return types.
+     */
+    public static class Driver {
+
+        int calls;
+
+        public void run() {
+            ++calls;
+        }
+
+        public int count() {
+            return ++calls;
+        }
+
+        public long total() {
+            return ++calls;
+        }
+
+        public void fail() throws IOException {
+            throw new IOException("Expected");
+        }
+
+        private void hidden() {
+            ++calls;
+        }
+    }
+
+    private static OperationInvoker create(String name) throws Exception {
+        Method m = Driver.class.getDeclaredMethod(name);
+        m.setAccessible(true);
+        return OperationInvoker.create(m);
+    }
+
+    /**
+     * Test of the generated invokers.
+     * @throws Throwable If an operation fails
+     */
+    @Test
+    public void testGenerated() throws Throwable {
+        Driver driver = new Driver();
+        for (String name : new String[] { "run", "count", "total" }) {
+            OperationInvoker invoker = create(name);
+            assertFalse(invoker instanceof OperationInvoker.Reflective);
+            invoker.invoke(driver);
+        }
+        assertEquals(3, driver.calls);
+    }
+
+    /**
+     * Test that the exception thrown by an operation is not wrapped.
+     * @throws Exception If the invoker cannot be created
+     */
+    @Test
+    public void testException() throws Exception {
+        try {
+            create("fail").invoke(new Driver());
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertEquals("Expected", e.getMessage());
+        } catch (Throwable t) {
+            fail("Unexpected " + t);
+        }
+    }
+
+    /**
+     * Test of the reflective invoker for a non-public operation.
+     * @throws Throwable If the operation fails
+     */
+    @Test
+    public void testReflective() throws Throwable {
+        Driver driver = new Driver();
+        OperationInvoker invoker = create("hidden");
+        assertTrue(invoker instanceof OperationInvoker.Reflective);
+        invoker.invoke(driver);
+        assertEquals(1, driver.calls);
+        assertNull(OperationInvoker.create(null));
+    }
+}
@@ -0,0 +1,212 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import com.sun.faban.driver.util.ConnectionStats;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the Externalizable and the streaming encodings of the
+ * RuntimeMetrics.
+ */
+public class RuntimeMetricsTest {
+
+    private static final String[] OPS = { "Browse", "Search", "Buy" };
+
+    /**
+     * Test of writeExternal and readExternal.
+     * @throws Exception If the serialization fails
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        RuntimeMetrics m = new RuntimeMetrics();
+        m.copy(MetricsTest.fill(new Metrics("host1", OPS, 100, 3, true), 5l));
+        m.sequence = 42;
+        m.timestamp = 123456;
+        assertSameMetrics(m, roundTrip(m));
+
+        RuntimeMetrics plain = new RuntimeMetrics();
+        plain.copy(MetricsTest.fill(new Metrics("host1", OPS, 100, 0, false),
+                                    6l));
+        assertSameMetrics(plain, roundTrip(plain));
+
+        assertNull(roundTrip(new RuntimeMetrics()).txCntTotal);
+    }
+
+    /**
+     * Test that adding deserialized RuntimeMetrics gives the same result
+     * as adding the originals.
+     * @throws Exception If the serialization fails
+     */
+    @Test
+    public void testMergeEquivalence() throws Exception {
+        RuntimeMetrics a = new RuntimeMetrics();
+        a.copy(MetricsTest.fill(new Metrics("host1", OPS, 100, 3, true), 7l));
+        RuntimeMetrics b = new RuntimeMetrics();
+        b.copy(MetricsTest.fill(new Metrics("host2", OPS, 100, 3, true), 8l));
+        RuntimeMetrics merged = roundTrip(a);
+        merged.add(roundTrip(b));
+        a.add(b);
+        assertSameMetrics(a, merged);
+    }
+
+    /**
+     * Test that a mirror fed the shape and then the changes of several
+     * intervals, each taken against the previous interval, follows the
+     * metrics of the agent. The connection counts only show up in the
+     * third interval.
+     */
+    @Test
+    public void testDeltaStream() {
+        Metrics metrics = MetricsTest.fill(
+                new Metrics("host1", OPS, 100, 3, true), 9l);
+        RuntimeMetrics current = new RuntimeMetrics();
+        current.copy(metrics);
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        current.putShape(buffer);
+        buffer.flip();
+        RuntimeMetrics previous = new RuntimeMetrics();
+        previous.getShape(buffer.duplicate());
+        RuntimeMetrics mirror = new RuntimeMetrics();
+        mirror.getShape(buffer);
+
+        for (int n = 0; n < 5; n++) {
+            if (n > 0)
+                metrics.add(MetricsTest.fill(
+                        new Metrics("host1", OPS, 100, 3, true), 10l + n));
+            if (n >= 2)
+                metrics.countConnection(ConnectionStats.CONNECT, n % 3, n);
+            current.copy(metrics);
+            current.sequence = n;
+            current.timestamp = 10000 * n;
+
+            buffer.clear();
+            current.putDelta(buffer, previous);
+            buffer.flip();
+            mirror.getDelta(buffer);
+            assertFalse(buffer.hasRemaining());
+            previous.copy(current);
+
+            assertSameMetrics(current, mirror);
+            if (n < 2) {
+                assertNull(mirror.connCounts);
+            } else {
+                for (int e = 0; e < ConnectionStats.EVENTS.length; e++)
+                    assertArrayEquals(current.connCounts[e],
+                                      mirror.connCounts[e]);
+            }
+        }
+        assertEquals(2 + 3 + 4, mirror.connCounts[ConnectionStats.CONNECT]
+                [0] + mirror.connCounts[ConnectionStats.CONNECT][1] +
+                mirror.connCounts[ConnectionStats.CONNECT][2]);
+    }
+
+    /**
+     * Test that threads counting connections of one agent thread at the
+     * same time lose no counts and leave the stamp alone, so copies are
+     * still taken without retries.
+     * @throws InterruptedException If interrupted while waiting
+     */
+    @Test
+    public void testConcurrentConnectionCounts()
+            throws InterruptedException {
+        final Metrics metrics = MetricsTest.fill(
+                new Metrics("host1", OPS, 100, 3, true), 20l);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int op = t % OPS.length;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++)
+                        metrics.countConnection(ConnectionStats.BYTES_IN,
+                                                op, 2);
+                }
+            };
+            threads[t].start();
+        }
+        RuntimeMetrics copy = new RuntimeMetrics();
+        for (Thread thread : threads) {
+            while (thread.isAlive())
+                copy.copy(metrics);
+            thread.join();
+        }
+        assertEquals(0, metrics.stamp);
+        copy.copy(metrics);
+        long total = 0;
+        for (long n : copy.connCounts[ConnectionStats.BYTES_IN])
+            total += n;
+        assertEquals(threads.length * 200000l, total);
+    }
+
+    private static RuntimeMetrics roundTrip(RuntimeMetrics m)
+            throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(m);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        return (RuntimeMetrics) in.readObject();
+    }
+
+    private static void assertSameMetrics(RuntimeMetrics expected,
+                                          RuntimeMetrics actual) {
+        assertEquals(expected.sequence, actual.sequence);
+        assertEquals(expected.timestamp, actual.timestamp);
+        assertEquals(expected.driverType, actual.driverType);
+        assertEquals(expected.fineRespBucketSize, actual.fineRespBucketSize);
+        assertArrayEquals(expected.txCntStdy, actual.txCntStdy);
+        assertArrayEquals(expected.txCntTotal, actual.txCntTotal);
+        assertArrayEquals(expected.errCntStdy, actual.errCntStdy);
+        assertArrayEquals(expected.respSumStdy, actual.respSumStdy, 0d);
+        assertArrayEquals(expected.sumSquaresStdy, actual.sumSquaresStdy,
+                          0d);
+        assertArrayEquals(expected.respHist, actual.respHist);
+        assertArrayEquals(expected.corrRespHist, actual.corrRespHist);
+        assertArrayEquals(expected.wireCntTotal, actual.wireCntTotal);
+        if (expected.wireSumStdy != null)
+            for (int p = 0; p < expected.wireSumStdy.length; p++)
+                assertArrayEquals(expected.wireSumStdy[p],
+                                  actual.wireSumStdy[p], 0d);
+        if (expected.respLogHist == null) {
+            assertNull(actual.respLogHist);
+            return;
+        }
+        for (int i = 0; i < expected.txTypes; i++) {
+            assertEquals(expected.respLogHist[i].getTotalCount(),
+                         actual.respLogHist[i].getTotalCount());
+            assertEquals(expected.respLogHist[i].getValueAtPercentile(90d),
+                         actual.respLogHist[i].getValueAtPercentile(90d));
+            assertEquals(expected.corrRespLogHist[i].getTotalCount(),
+                         actual.corrRespLogHist[i].getTotalCount());
+        }
+    }
+}
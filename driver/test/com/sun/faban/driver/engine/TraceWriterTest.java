@@ -0,0 +1,127 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.engine;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the runs written by the TraceWriter from concurrent threads.
+ */
+public class TraceWriterTest {
+
+    private static final int THREADS = 4;
+    private static final int RECORDS = 30000;
+
+    /**
+     * Test that each run is sorted and that every record is either
+     * written or counted as dropped.
+     * @throws Exception If the trace cannot be written or read
+     */
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        File file = File.createTempFile("txtrace", ".bin");
+        try {
+            final TraceWriter writer = new TraceWriter(file, 1234l, "test",
+                    "agent0", new String[] { "Op0", "Op1" }, 0l);
+            Thread[] threads = new Thread[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                final int id = t;
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        DriverContext.TimingInfo timing =
+                                new DriverContext.TimingInfo();
+                        for (int i = 0; i < RECORDS; i++) {
+                            timing.invokeTime = i * 10l;
+                            // Respond times are not in record order.
+                            timing.respondTime = timing.invokeTime +
+                                    (i * 7919l) % 1000l;
+                            writer.record(id, i & 1, i % 3 != 0, timing);
+                            if (i % 1000 == 0)
+                                Thread.yield();
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            writer.cancel();
+
+            int records = 0;
+            int runs = 0;
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                assertEquals(TraceWriter.MAGIC, in.readInt());
+                assertEquals(TraceWriter.VERSION, in.readShort());
+                assertEquals(TraceWriter.RECORD_SIZE, in.readShort());
+                assertEquals(1234l, in.readLong());
+                assertEquals("test", in.readUTF());
+                assertEquals("agent0", in.readUTF());
+                assertEquals(2, in.readShort());
+                in.readUTF();
+                in.readUTF();
+                for (;;) {
+                    int count;
+                    try {
+                        count = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    ++runs;
+                    assertTrue(count <= TraceWriter.RUN_CAPACITY);
+                    long last = Long.MIN_VALUE;
+                    for (int i = 0; i < count; i++) {
+                        int threadId = in.readInt();
+                        assertTrue(threadId >= 0 && threadId < THREADS);
+                        in.readShort();
+                        in.readShort();
+                        in.readLong();
+                        long invoke = in.readLong();
+                        long respond = in.readLong();
+                        assertEquals(0l, in.readLong());
+                        assertTrue(respond >= invoke);
+                        assertTrue("Run not sorted", respond >= last);
+                        last = respond;
+                    }
+                    records += count;
+                }
+            } finally {
+                in.close();
+            }
+            assertTrue(runs > 0);
+            assertEquals(THREADS * RECORDS,
+                         records + writer.dropped.get());
+        } finally {
+            file.delete();
+        }
+    }
+}
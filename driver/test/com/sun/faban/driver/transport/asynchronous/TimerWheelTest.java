@@ -0,0 +1,71 @@
+package com.sun.faban.driver.transport.asynchronous;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the expiry of pending traces on the {@link TimerWheel}.
+ */
+public class TimerWheelTest {
+
+	/**
+	 * Test that a trace without a response fails once its timeout passed,
+	 * never before.
+	 * @throws Exception If waiting for the trace fails otherwise
+	 */
+	@Test
+	public void testExpiry() throws Exception {
+		TraceFuture<String, String> future = newFuture("expire");
+		long start = System.nanoTime();
+		TimerWheel.getInstance().schedule(future, 50, TimeUnit.MILLISECONDS);
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("Trace did not expire");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+			assertTrue(e.getCause().getMessage().contains("expire"));
+		}
+		long elapsed = System.nanoTime() - start;
+		assertTrue("Expired after " + elapsed + " ns",
+				elapsed >= TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+	/**
+	 * Test that a trace completed before its expiry releases its timeout
+	 * at once and is not failed later.
+	 * @throws Exception If waiting for the trace fails
+	 */
+	@Test
+	public void testEarlyCompletion() throws Exception {
+		TraceFuture<String, String> future = newFuture("early");
+		TimerWheel.getInstance().schedule(future, 50, TimeUnit.MILLISECONDS);
+		TimerWheel.Timeout timeout = future.timeout;
+		assertSame(future, timeout.future);
+		assertTrue(future.acknowledge("response"));
+		assertNull(timeout.future);
+		Thread.sleep(200);
+		assertEquals("response", future.get(0, TimeUnit.MILLISECONDS));
+
+		// A trace completed before it is scheduled is released as well.
+		future = newFuture("done");
+		future.acknowledge("response");
+		TimerWheel.getInstance().schedule(future, 10, TimeUnit.SECONDS);
+		assertNull(future.timeout.future);
+	}
+
+	private static TraceFuture<String, String> newFuture(final String id) {
+		Trace<String> trace = new Trace<String>() {
+			public String getIdentifier() {
+				return id;
+			}
+
+			public String getPayload() {
+				return id;
+			}
+		};
+		return new TraceFuture<String, String>(trace, null);
+	}
+}
@@ -0,0 +1,124 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the connection handling of the NioEngine against a local server.
+ */
+public class NioEngineTest {
+
+    private TestServer server;
+    private NioEngine engine;
+
+    /**
+     * Starts the server.
+     * @throws IOException If the server cannot be started
+     */
+    @Before
+    public void setUp() throws IOException {
+        server = new TestServer();
+        engine = NioEngine.getInstance();
+    }
+
+    /**
+     * Stops the server.
+     */
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    /**
+     * Test that sequential requests reuse the pooled connection.
+     * @throws IOException If a request fails
+     */
+    @Test
+    public void testKeepAlive() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            Exchange exchange = execute("/page" + i);
+            assertEquals(200, exchange.status);
+            assertEquals("<html>/page" + i + "</html>", body(exchange));
+            assertTrue(exchange.keepAlive);
+            assertEquals(i > 0, exchange.reused);
+        }
+        assertEquals(1, server.connections.get());
+    }
+
+    /**
+     * Test that a request failing on a stale pooled connection before any
+     * response arrives is retried on a new connection.
+     * @throws IOException If a request fails
+     */
+    @Test
+    public void testStaleRetry() throws IOException {
+        assertEquals(200, execute("/stale").status);
+        Exchange exchange = execute("/stale");
+        assertEquals(200, exchange.status);
+        assertEquals("<html>/stale</html>", body(exchange));
+        assertEquals(2, server.connections.get());
+        assertEquals(3, server.requests.size());
+    }
+
+    /**
+     * Test that a response cut short by the server fails the request and
+     * is not retried.
+     * @throws IOException If the following request fails
+     */
+    @Test
+    public void testEarlyClose() throws IOException {
+        try {
+            execute("/early");
+            fail("Truncated response not detected");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertEquals(1, server.requests.size());
+        assertEquals(200, execute("/page").status);
+        assertEquals(2, server.connections.get());
+    }
+
+    private Exchange execute(String path) throws IOException {
+        byte[] request = ("GET " + path + " HTTP/1.1\r\nHost: 127.0.0.1:" +
+                server.getPort() + "\r\n\r\n").getBytes("ISO-8859-1");
+        Exchange exchange = new Exchange(
+                new InetSocketAddress("127.0.0.1", server.getPort()),
+                ByteBuffer.wrap(request), false, null);
+        exchange.keepLimit = 1024;
+        engine.execute(exchange);
+        return exchange;
+    }
+
+    private static String body(Exchange exchange) throws IOException {
+        return new String(exchange.body, 0, exchange.bodyLength,
+                          "ISO-8859-1");
+    }
+}
@@ -0,0 +1,82 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the NioHttpTransport against a local server.
+ */
+public class NioHttpTransportTest {
+
+    private static final int IMAGES = 8;
+
+    /**
+     * Test fetching a page with its images, which are read concurrently.
+     * @throws Exception If the fetch fails
+     */
+    @Test
+    public void testFetchImages() throws Exception {
+        TestServer server = new TestServer();
+        try {
+            String base = "http://127.0.0.1:" + server.getPort();
+            URL[] images = new URL[IMAGES];
+            for (int i = 0; i < IMAGES; i++)
+                images[i] = new URL(base + "/img" + i + ".png");
+            NioHttpTransport transport = new NioHttpTransport();
+            StringBuilder page = transport.fetchURL(new URL(base + "/page"),
+                                                    images, null);
+
+            // The results are those of the page, not the images.
+            assertEquals("<html>/page</html>", page.toString());
+            assertEquals(200, transport.getResponseCode());
+            assertEquals(page.length(), transport.getContentSize());
+
+            List<String> expected = new ArrayList<String>();
+            expected.add("GET /page HTTP/1.1");
+            for (int i = 0; i < IMAGES; i++)
+                expected.add("GET /img" + i + ".png HTTP/1.1");
+            List<String> actual = new ArrayList<String>(server.requests);
+            assertEquals(expected.get(0), actual.get(0));
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+            assertTrue(server.connections.get() <= IMAGES);
+
+            // A second page reuses the pooled connections.
+            int connections = server.connections.get();
+            transport.fetchURL(new URL(base + "/page"), images, null);
+            assertEquals(2 * (IMAGES + 1), server.requests.size());
+            assertTrue(server.connections.get() <= IMAGES + connections);
+            assertEquals(200, transport.getResponseCode());
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.transport.nio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP/1.1 server for the NIO transport tests. The response
+ * depends on the request path:<ul>
+ * <li>/stale - answers the first request on a connection and closes the
+ *     connection on any further request without answering it</li>
+ * <li>/early - announces a 100 byte body, sends 10 bytes and closes</li>
+ * <li>/img... - answers with a small image/png body</li>
+ * <li>anything else - answers with a text/html body naming the path</li>
+ * </ul>
+ * All responses are keep-alive unless noted otherwise.
+ */
+class TestServer implements Runnable {
+
+    private final ServerSocket server;
+
+    /** The number of connections accepted. */
+    final AtomicInteger connections = new AtomicInteger();
+
+    /** The request lines received, in order of arrival. */
+    final List<String> requests =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Starts a server on an ephemeral port of the loopback interface.
+     * @throws IOException If the server socket cannot be opened
+     */
+    TestServer() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread t = new Thread(this, "TestServer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Obtains the port the server listens on.
+     * @return The port
+     */
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections.
+     */
+    void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // Nothing to do.
+        }
+    }
+
+    public void run() {
+        for (;;) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                return; // Closed.
+            }
+            connections.incrementAndGet();
+            Thread t = new Thread("TestServer.connection") {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String request;
+            for (int n = 1; (request = readRequest(in)) != null; n++) {
+                requests.add(request);
+                if (!respond(request.split(" ")[1], n, out))
+                    break;
+            }
+        } catch (IOException e) {
+            // Client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing to do.
+            }
+        }
+    }
+
+    private static boolean respond(String path, int n, OutputStream out)
+            throws IOException {
+        if ("/stale".equals(path)) {
+            if (n > 1)
+                return false;
+        } else if ("/early".equals(path)) {
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n" +
+                    "Content-Length: 100\r\n\r\n0123456789").getBytes(
+                    "ISO-8859-1"));
+            out.flush();
+            return false;
+        }
+        String type = "text/html";
+        String body = "<html>" + path + "</html>";
+        if (path.startsWith("/img")) {
+            type = "image/png";
+            body = "PNG" + path;
+        }
+        byte[] content = body.getBytes("ISO-8859-1");
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: " + type + "\r\n" +
+                "Content-Length: " + content.length + "\r\n\r\n").getBytes(
+                "ISO-8859-1"));
+        out.write(content);
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Reads the request headers, the tests send no request bodies.
+     * @return The request line, or null at the end of the stream
+     */
+    private static String readRequest(InputStream in) throws IOException {
+        StringBuilder b = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            b.append((char) c);
+            int len = b.length();
+            if (len >= 4 && b.charAt(len - 1) == '\n' &&
+                    b.charAt(len - 2) == '\r' && b.charAt(len - 3) == '\n')
+                return b.substring(0, b.indexOf("\r\n"));
+        }
+        return null;
+    }
+}
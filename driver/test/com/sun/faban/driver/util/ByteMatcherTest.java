@@ -0,0 +1,225 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the ByteMatcher against String.indexOf.
+ */
+public class ByteMatcherTest {
+
+    /** A small alphabet for many matches, with a multi-byte character. */
+    private static final String ALPHABET = "abc\u00e9";
+
+    /**
+     * Test literals that overlap and contain each other.
+     * @throws Exception If the text cannot be encoded
+     */
+    @Test
+    public void testOverlapping() throws Exception {
+        ByteMatcher m = new ByteMatcher(false, "he", "she", "his", "hers");
+        match(m, "ushers");
+        assertTrue(m.isFound(0));
+        assertTrue(m.isFound(1));
+        assertFalse(m.isFound(2));
+        assertTrue(m.isFound(3));
+
+        m = new ByteMatcher(false, "aa", "aaa");
+        match(m, "xaax");
+        assertTrue(m.isFound(0));
+        assertFalse(m.isFound(1));
+    }
+
+    /**
+     * Test that a partial match falls back along the failure links to
+     * the longest suffix that is a prefix of another literal.
+     * @throws Exception If the text cannot be encoded
+     */
+    @Test
+    public void testFailureLinks() throws Exception {
+        ByteMatcher m = new ByteMatcher(false, "abcd", "bcx");
+        match(m, "abcx");
+        assertFalse(m.isFound(0));
+        assertTrue(m.isFound(1));
+
+        // Fall back within the same literal.
+        m = new ByteMatcher("aab");
+        assertTrue(match(m, "aaab"));
+        m = new ByteMatcher("abab");
+        assertTrue(match(m, "abaabab"));
+        assertFalse(match(m, "abaaba"));
+
+        // A literal found only through the output of a failure state.
+        m = new ByteMatcher(false, "xyz", "y");
+        match(m, "xyq");
+        assertFalse(m.isFound(0));
+        assertTrue(m.isFound(1));
+    }
+
+    /**
+     * Test matches spanning the boundaries of the buffers passed to update,
+     * against String.indexOf on random text and literals.
+     * @throws Exception If the text cannot be encoded
+     */
+    @Test
+    public void testBufferBoundaries() throws Exception {
+        Random r = new Random(11l);
+        for (int round = 0; round < 200; round++) {
+            String text = random(r, 200 + r.nextInt(800));
+            String[] literals = new String[1 + r.nextInt(6)];
+            for (int i = 0; i < literals.length; i++)
+                if (r.nextBoolean()) {
+                    int start = r.nextInt(text.length() - 8);
+                    literals[i] = text.substring(start,
+                                                 start + 1 + r.nextInt(8));
+                } else {
+                    literals[i] = random(r, 1 + r.nextInt(4));
+                }
+            ByteMatcher m = new ByteMatcher(false, literals);
+            byte[] bytes = text.getBytes("UTF-8");
+            m.reset();
+            for (int off = 0; off < bytes.length;) {
+                int len = Math.min(1 + r.nextInt(7), bytes.length - off);
+                m.update(bytes, off, len);
+                off += len;
+            }
+            m.finish();
+            for (int i = 0; i < literals.length; i++)
+                assertEquals(literals[i] + " in " + text,
+                             text.indexOf(literals[i]) >= 0, m.isFound(i));
+        }
+    }
+
+    /**
+     * Test that any and all matchers decide as soon as the outcome is
+     * known.
+     * @throws Exception If the text cannot be encoded
+     */
+    @Test
+    public void testDecided() throws Exception {
+        byte[] b = "one two three".getBytes("UTF-8");
+        ByteMatcher any = new ByteMatcher(false, "two", "four");
+        ByteMatcher all = new ByteMatcher(true, "two", "three");
+        any.reset();
+        all.reset();
+        assertFalse(any.update(b, 0, 6));
+        assertTrue(any.update(b, 6, 1));
+        assertFalse(all.update(b, 0, 7));
+        assertTrue(all.update(b, 7, b.length - 7));
+        assertTrue(all.matches());
+
+        all.reset();
+        assertFalse(all.matches());
+        assertFalse(match(all, "two four"));
+    }
+
+    /**
+     * Test that matchers sharing an automaton keep their own state.
+     * @throws Exception If the text cannot be encoded
+     */
+    @Test
+    public void testSharedAutomaton() throws Exception {
+        ByteMatcher.Automaton automaton =
+                new ByteMatcher.Automaton("Welcome", "Logout");
+        assertEquals(2, automaton.getLiteralCount());
+        assertEquals("Logout", automaton.getLiteral(1));
+        ByteMatcher a = new ByteMatcher(true, automaton);
+        ByteMatcher b = new ByteMatcher(false, automaton);
+        assertSame(automaton, a.getAutomaton());
+        byte[] first = "Welc".getBytes("UTF-8");
+        byte[] second = "ome, Logout".getBytes("UTF-8");
+        byte[] other = "Please Logout".getBytes("UTF-8");
+        a.reset();
+        b.reset();
+        a.update(first, 0, first.length);
+        b.update(other, 0, other.length);
+        a.update(second, 0, second.length);
+        assertTrue(a.matches());
+        assertTrue(b.matches());
+        assertFalse(b.isFound(0));
+        assertTrue(b.isFound(1));
+    }
+
+    /**
+     * Test the regular expression fallback.
+     * @throws Exception If the text cannot be encoded
+     */
+    @Test
+    public void testRegex() throws Exception {
+        ByteMatcher m = ByteMatcher.regex("id=[0-9]+;");
+        assertNull(m.getAutomaton());
+        assertTrue(match(m, "x id=42; y"));
+        assertFalse(match(m, "x id=; y"));
+        assertNotNull(ByteMatcher.regex("plain").getAutomaton());
+    }
+
+    /**
+     * Test the literal count limits.
+     * @throws Exception If the text cannot be encoded
+     */
+    @Test
+    public void testLimits() throws Exception {
+        try {
+            new ByteMatcher.Automaton();
+            fail("No literals accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            new ByteMatcher("a", "");
+            fail("Empty literal accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        String[] literals = new String[ByteMatcher.MAX_LITERALS];
+        for (int i = 0; i < literals.length; i++)
+            literals[i] = "l" + i + ';';
+        StringBuilder b = new StringBuilder();
+        for (String literal : literals)
+            b.append(literal);
+        ByteMatcher m = new ByteMatcher(literals);
+        assertFalse(match(m, b.substring(3)));
+        assertTrue(match(m, b.toString()));
+    }
+
+    private static boolean match(ByteMatcher m, String text)
+            throws UnsupportedEncodingException {
+        byte[] b = text.getBytes("UTF-8");
+        m.reset();
+        m.update(b, 0, b.length);
+        m.finish();
+        return m.matches();
+    }
+
+    private static String random(Random r, int length) {
+        char[] c = new char[length];
+        for (int i = 0; i < length; i++)
+            c[i] = ALPHABET.charAt(r.nextInt(ALPHABET.length()));
+        return new String(c);
+    }
+}
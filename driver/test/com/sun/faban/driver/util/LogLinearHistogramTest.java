@@ -0,0 +1,155 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bucket indexing, percentile accuracy and merging of the
+ * LogLinearHistogram.
+ */
+public class LogLinearHistogramTest {
+
+    /**
+     * Returns the highest value equivalent to a value, as reported for
+     * a percentile below a much larger maximum.
+     */
+    private static long equivalent(int digits, long value) {
+        LogLinearHistogram h = new LogLinearHistogram(1l, 1l << 40, digits);
+        h.record(value);
+        h.record(1l << 39);
+        return h.getValueAtPercentile(50d);
+    }
+
+    /**
+     * Test of the bucket indexing at the sub-bucket boundaries. With two
+     * digits there are 256 sub-buckets, so values up to 255 are exact and
+     * the resolution doubles at 256, 512 and so on.
+     */
+    @Test
+    public void testSubBucketBoundaries() {
+        for (long v = 0l; v < 256l; v++)
+            assertEquals(v, equivalent(2, v));
+        assertEquals(257l, equivalent(2, 256l));
+        assertEquals(257l, equivalent(2, 257l));
+        assertEquals(259l, equivalent(2, 258l));
+        assertEquals(511l, equivalent(2, 510l));
+        assertEquals(511l, equivalent(2, 511l));
+        assertEquals(515l, equivalent(2, 512l));
+        assertEquals(515l, equivalent(2, 515l));
+        assertEquals(519l, equivalent(2, 516l));
+        assertEquals(1023l, equivalent(2, 1020l));
+        assertEquals(1031l, equivalent(2, 1024l));
+    }
+
+    /**
+     * Test that the values above the highest trackable value are counted
+     * at the highest trackable value and the exact maximum is retained.
+     */
+    @Test
+    public void testOverflow() {
+        LogLinearHistogram h = new LogLinearHistogram(1l, 1000l, 2);
+        h.record(5000l);
+        h.record(-3l);
+        assertEquals(2l, h.getTotalCount());
+        assertEquals(5000l, h.getMaxValue());
+        assertEquals(0l, h.getValueAtPercentile(50d));
+        long top = h.getValueAtPercentile(100d);
+        assertTrue(top >= 1000l && top < 1100l);
+    }
+
+    /**
+     * Test that the percentiles are within the precision of the
+     * configured significant digits. Values are never resolved finer
+     * than the lowest discernible value, rounded down to a power of 2.
+     */
+    @Test
+    public void testPercentileError() {
+        java.util.Random r = new java.util.Random(42l);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) // Log-uniform 1us to 1hr.
+            values[i] = (long) Math.pow(10d, 3d + r.nextDouble() * 9.5d);
+        long unit = Long.highestOneBit(1000l);
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (int digits = 1; digits <= 4; digits++) {
+            LogLinearHistogram h = new LogLinearHistogram(1000l,
+                                            3600l * 1000000000l, digits);
+            for (long v : values)
+                h.record(v);
+            double error = Math.pow(10d, -digits);
+            for (double pct : new double[] { 1d, 25d, 50d, 90d, 99d, 99.9d,
+                                             99.99d, 100d }) {
+                int rank = (int) Math.ceil(pct / 100d * values.length);
+                long exact = sorted[rank - 1];
+                long value = h.getValueAtPercentile(pct);
+                assertTrue(digits + " digits, " + pct + "%: " + value +
+                        " < " + exact, value >= exact);
+                assertTrue(digits + " digits, " + pct + "%: " + value +
+                        " vs " + exact,
+                        value - exact <= Math.max(exact * error, unit));
+            }
+        }
+    }
+
+    /**
+     * Test that adding histograms is the same as recording all values
+     * into one histogram.
+     */
+    @Test
+    public void testMerge() {
+        java.util.Random r = new java.util.Random(7l);
+        LogLinearHistogram all = new LogLinearHistogram(1000l,
+                                            3600l * 1000000000l, 3);
+        LogLinearHistogram a = new LogLinearHistogram(1000l,
+                                            3600l * 1000000000l, 3);
+        LogLinearHistogram b = new LogLinearHistogram(1000l,
+                                            3600l * 1000000000l, 3);
+        for (int i = 0; i < 50000; i++) {
+            long v = 1000l + (long) (r.nextDouble() * 1e9);
+            all.record(v);
+            (i % 3 == 0 ? a : b).record(v);
+        }
+        LogLinearHistogram base = (LogLinearHistogram) a.clone();
+        a.add(b);
+        assertEquals(all.getTotalCount(), a.getTotalCount());
+        assertEquals(all.getMaxValue(), a.getMaxValue());
+        for (double pct = 0.5d; pct <= 100d; pct += 0.5d)
+            assertEquals(all.getValueAtPercentile(pct),
+                         a.getValueAtPercentile(pct));
+
+        // The percentiles since the base are those of b alone.
+        assertEquals(b.getValueAtPercentile(90d),
+                     a.getValueAtPercentile(90d, base));
+
+        try {
+            a.add(new LogLinearHistogram(1000l, 3600l * 1000000000l, 2));
+            fail("Incompatible histograms added");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the sequences, bounds and uniformity of the Random generator.
+ */
+public class RandomTest {
+
+    private static final String ALPHA =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    /**
+     * Test that generators with the same seed, and generators split from
+     * them, generate the same sequences.
+     */
+    @Test
+    public void testReproducible() {
+        Random a = new Random(42l);
+        Random b = new Random(42l);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(a.nextLong(), b.nextLong());
+        assertEquals(a.random(1, 1000), b.random(1, 1000));
+        assertEquals(a.makeAString(5, 50), b.makeAString(5, 50));
+
+        Random splitA = a.split();
+        Random splitB = b.split();
+        long[] sequence = new long[100];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = splitA.nextLong();
+            assertEquals(sequence[i], splitB.nextLong());
+        }
+        assertEquals(a.nextLong(), b.nextLong());
+
+        // The split generator does not repeat its parent, nor does another
+        // seed.
+        Random parent = new Random(42l);
+        Random other = new Random(43l);
+        int same = 0;
+        for (int i = 0; i < sequence.length; i++) {
+            long l = parent.nextLong();
+            if (l == sequence[i] || l == other.nextLong())
+                ++same;
+        }
+        assertEquals(0, same);
+    }
+
+    /**
+     * Test that the bounds are inclusive, also when swapped and for the
+     * full int range.
+     */
+    @Test
+    public void testBounds() {
+        Random r = new Random(1l);
+        assertEquals(5, r.random(5, 5));
+        boolean low = false, high = false;
+        for (int i = 0; i < 10000; i++) {
+            int v = r.random(10, 1);
+            assertTrue(v >= 1 && v <= 10);
+            low |= v == 1;
+            high |= v == 10;
+        }
+        assertTrue(low && high);
+
+        low = high = false;
+        for (int i = 0; i < 1000; i++) {
+            int v = r.random(Integer.MAX_VALUE, Integer.MAX_VALUE - 1);
+            assertTrue(v >= Integer.MAX_VALUE - 1);
+            low |= v == Integer.MAX_VALUE - 1;
+            high |= v == Integer.MAX_VALUE;
+        }
+        assertTrue(low && high);
+
+        low = high = false;
+        for (int i = 0; i < 1000; i++) {
+            int v = r.random(Integer.MIN_VALUE, Integer.MAX_VALUE);
+            low |= v < 0;
+            high |= v > 0;
+        }
+        assertTrue(low && high);
+
+        int[] values = new int[10000];
+        r.random(values, 3, -3);
+        int[] counts = new int[7];
+        for (int v : values) {
+            assertTrue(v >= -3 && v <= 3);
+            ++counts[v + 3];
+        }
+        for (int count : counts)
+            assertTrue(count > 0);
+
+        low = high = false;
+        for (int i = 0; i < 1000; i++) {
+            long v = r.lrandom(3l, -3l);
+            assertTrue(v >= -3l && v <= 3l);
+            low |= v == -3l;
+            high |= v == 3l;
+        }
+        assertTrue(low && high);
+    }
+
+    /**
+     * Test lrandom over ranges exceeding Long.MAX_VALUE.
+     */
+    @Test
+    public void testLongRangeOverflow() {
+        Random r = new Random(2l);
+        int negative = 0;
+        for (int i = 0; i < 10000; i++)
+            if (r.lrandom(Long.MIN_VALUE, Long.MAX_VALUE) < 0l)
+                ++negative;
+        assertTrue("Negative: " + negative,
+                   negative > 4500 && negative < 5500);
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(r.lrandom(-1l, Long.MAX_VALUE) >= -1l);
+            assertTrue(r.lrandom(0l, Long.MIN_VALUE) <= 0l);
+        }
+    }
+
+    /**
+     * Test the uniformity of ranges that are not a power of two, a small
+     * one with a chi-square test and a large one where a plain modulo
+     * would be biased by a third.
+     */
+    @Test
+    public void testUniformity() {
+        Random r = new Random(3l);
+        int[] counts = new int[6];
+        int n = 600000;
+        for (int i = 0; i < n; i++)
+            ++counts[r.random(0, 5)];
+        double expected = n / 6d;
+        double chi2 = 0d;
+        for (int count : counts)
+            chi2 += (count - expected) * (count - expected) / expected;
+        // The 99.9% quantile for 5 degrees of freedom.
+        assertTrue("Chi-square " + chi2, chi2 < 20.52);
+
+        long third = 1l << 61;
+        int[] thirds = new int[3];
+        n = 300000;
+        for (int i = 0; i < n; i++)
+            ++thirds[(int) (r.lrandom(0l, 3l * third - 1l) / third)];
+        for (int count : thirds)
+            assertEquals(1d / 3d, count / (double) n, 0.01);
+    }
+
+    /**
+     * Test that the generated strings have lengths within the bounds and
+     * use all characters of their sets, and nothing else.
+     */
+    @Test
+    public void testStrings() {
+        Random r = new Random(4l);
+        boolean[] seen = new boolean[ALPHA.length()];
+        for (int i = 0; i < 1000; i++) {
+            String s = r.makeAString(20, 10);
+            assertTrue(s.length() >= 10 && s.length() <= 20);
+            for (int j = 0; j < s.length(); j++) {
+                int k = ALPHA.indexOf(s.charAt(j));
+                assertTrue(k >= 0);
+                seen[k] = true;
+            }
+        }
+        for (boolean b : seen)
+            assertTrue(b);
+
+        assertEquals(7, r.makeCString(7, 7).length());
+        assertTrue(r.makeCString(100, 100).matches("[a-z]+"));
+        assertTrue(r.makeNString(100, 100).matches("[0-9]+"));
+
+        // The buffer variants leave the characters around alone.
+        char[] buffer = new char[40];
+        Arrays.fill(buffer, '-');
+        int len = r.makeNString(10, 20, buffer, 5);
+        assertTrue(len >= 10 && len <= 20);
+        String s = new String(buffer);
+        assertTrue(s, s.matches("-{5}[0-9]{" + len + "}-+"));
+    }
+}
@@ -0,0 +1,184 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.driver.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the TokenBucket on a simulated clock.
+ */
+public class TokenBucketTest {
+
+    /** One second in ns, the time 1k takes to pass at 1 kbps. */
+    private static final long SEC = 1000000000l;
+
+    /** An arbitrary start time. */
+    private static final long T0 = 1000l * SEC;
+
+    /**
+     * A clock that only moves when slept on.
+     */
+    static class FakeClock implements TokenBucket.Clock {
+        long now = T0;
+        List<Long> sleeps = new ArrayList<Long>();
+
+        public long nanoTime() {
+            return now;
+        }
+
+        public void sleepUntil(long nanoTime) {
+            sleeps.add(nanoTime - now);
+            now = nanoTime;
+        }
+    }
+
+    /**
+     * Test that bytes beyond the credit pass at the configured rate.
+     */
+    @Test
+    public void testRate() {
+        TokenBucket bucket = new TokenBucket(1, 0);
+        assertEquals(T0 + SEC, bucket.reserve(1024, T0));
+        assertEquals(T0 + 2 * SEC, bucket.reserve(1024, T0));
+        assertEquals(T0 + 2 * SEC + SEC / 2, bucket.reserve(512, T0));
+
+        bucket = new TokenBucket(8, 0);
+        assertEquals(T0 + SEC, bucket.reserve(8192, T0));
+    }
+
+    /**
+     * Test that idle time earns credit, but never more than the burst.
+     */
+    @Test
+    public void testRefill() {
+        TokenBucket bucket = new TokenBucket(1, 2048);
+
+        // A full bucket lets the burst pass at once.
+        assertEquals(T0, bucket.reserve(2048, T0));
+        assertEquals(T0 + SEC, bucket.reserve(1024, T0));
+
+        // Two seconds later the debt is paid and one second is earned.
+        assertEquals(T0 + 2 * SEC, bucket.reserve(1024, T0 + 3 * SEC));
+
+        // After a long idle time the credit is capped at the burst.
+        long t = T0 + 100 * SEC;
+        assertEquals(t + SEC, bucket.reserve(3072, t));
+    }
+
+    /**
+     * Test a burst after idling, followed by the steady rate.
+     */
+    @Test
+    public void testBurst() {
+        TokenBucket bucket = new TokenBucket(1, 4096);
+        long t = T0;
+        for (int i = 0; i < 4; i++)
+            assertTrue(bucket.reserve(1024, t) <= t);
+        assertEquals(t + SEC, bucket.reserve(1024, t));
+        assertEquals(t + 2 * SEC, bucket.reserve(1024, t));
+
+        // No burst at all.
+        bucket = new TokenBucket(1, 0);
+        assertTrue(bucket.reserve(1, t) > t);
+    }
+
+    /**
+     * Test that acquire blocks only for the bytes beyond the credit, until
+     * they have passed.
+     * @throws InterruptedException Never, the clock does not sleep
+     */
+    @Test
+    public void testAcquire() throws InterruptedException {
+        FakeClock clock = new FakeClock();
+        TokenBucket bucket = new TokenBucket(1, 1024, clock);
+        bucket.acquire(1024);
+        assertEquals(0, clock.sleeps.size());
+        assertEquals(T0, clock.now);
+
+        bucket.acquire(512);
+        bucket.acquire(1024);
+        assertEquals(2, clock.sleeps.size());
+        assertEquals(SEC / 2, (long) clock.sleeps.get(0));
+        assertEquals(SEC, (long) clock.sleeps.get(1));
+        assertEquals(T0 + SEC + SEC / 2, clock.now);
+
+        // Idling refills the credit.
+        clock.now += 10 * SEC;
+        bucket.acquire(1024);
+        assertEquals(2, clock.sleeps.size());
+    }
+
+    /**
+     * Test that acquire on the system clock shapes the aggregate rate of
+     * threads sharing a bucket.
+     * @throws InterruptedException If interrupted while waiting
+     */
+    @Test
+    public void testSharedAcquire() throws InterruptedException {
+        // 100 kbps, 10k take 100 ms.
+        final TokenBucket bucket = new TokenBucket(100, 0);
+        Thread[] threads = new Thread[4];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 10; j++)
+                            bucket.acquire(256);
+                    } catch (InterruptedException e) {
+                        // Cannot happen.
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        long elapsed = System.nanoTime() - start;
+        assertTrue("Elapsed " + elapsed + " ns", elapsed >= 99000000l);
+    }
+
+    /**
+     * Test the argument checks.
+     */
+    @Test
+    public void testArguments() {
+        try {
+            new TokenBucket(0, 1024);
+            fail("Zero rate accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            new TokenBucket(1, -1);
+            fail("Negative burst accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the binary transaction traces written by the driver agents and
+ * merges them by respond time. Each agent writes one trace file named
+ * txtrace.&lt;driver&gt;.&lt;agent&gt;.bin into the run output directory.
+ * Each file holds a sequence of runs sorted by respond time, so the reader
+ * merges all runs of all files.
+ * The file format is documented in the driver's TraceWriter. All times
+ * are in ns relative to the benchmark start, which is common to all agents.
+ */
+public class TxTraceReader {
+
+    private static final int MAGIC = 0x46425458;
+    private static final short VERSION = 2;
+    private static final int RECORD_SIZE = 40;
+
+    private static Logger logger =
+            Logger.getLogger(TxTraceReader.class.getName());
+
+    private PriorityQueue<Run> queue = new PriorityQueue<Run>();
+    private Source[] sources;
+
+    /**
+     * A single transaction record.
+     */
+    public static class Record {
+
+        /** The driver name. */
+        public String driver;
+
+        /** The agent id. */
+        public String agent;
+
+        /** The global thread id. */
+        public int threadId;
+
+        /** The operation id. */
+        public int opId;
+
+        /** The operation name. */
+        public String operation;
+
+        /** Whether the operation succeeded. */
+        public boolean success;
+
+        /** The intended invoke time, or Long.MIN_VALUE if not set. */
+        public long intendedInvokeTime;
+
+        /** The actual invoke time, or Long.MIN_VALUE if not set. */
+        public long invokeTime;
+
+        /** The respond time, or Long.MIN_VALUE if not set. */
+        public long respondTime;
+
+        /** The pause time. */
+        public long pauseTime;
+
+        /**
+         * Obtains the response time of this transaction.
+         * @return The response time in ns, or -1 if not available
+         */
+        public long getResponseTime() {
+            if (invokeTime == Long.MIN_VALUE || respondTime == Long.MIN_VALUE)
+                return -1l;
+            return respondTime - invokeTime - pauseTime;
+        }
+    }
+
+    /**
+     * A trace file being read. The file consists of runs, each sorted by
+     * respond time.
+     */
+    private static class Source {
+        File file;
+        RandomAccessFile in;
+        long startTime;
+        String driver;
+        String agent;
+        String[] operations;
+
+        Source(File file) throws IOException {
+            this.file = file;
+            in = new RandomAccessFile(file, "r");
+            if (in.readInt() != MAGIC)
+                throw new IOException(file.getPath() +
+                        " is not a transaction trace.");
+            short version = in.readShort();
+            if (version != VERSION)
+                throw new IOException(file.getPath() +
+                        ": Unsupported trace version " + version);
+            if (in.readShort() != RECORD_SIZE)
+                throw new IOException(file.getPath() +
+                        ": Unexpected record size.");
+            startTime = in.readLong();
+            driver = in.readUTF();
+            agent = in.readUTF();
+            operations = new String[in.readShort()];
+            for (int i = 0; i < operations.length; i++)
+                operations[i] = in.readUTF();
+        }
+
+        /**
+         * Scans the run headers of this file.
+         * @param runs The list to add the runs to
+         * @throws IOException If there is an error reading the file
+         */
+        void scanRuns(List<Run> runs) throws IOException {
+            long length = in.length();
+            long offset = in.getFilePointer();
+            while (offset + 4 <= length) {
+                in.seek(offset);
+                int count = in.readInt();
+                offset += 4;
+                long available = (length - offset) / RECORD_SIZE;
+                if (count < 0 || count > available) {
+                    logger.warning(file.getPath() + ": Truncated last run.");
+                    if (available > 0)
+                        runs.add(new Run(this, offset, (int) available));
+                    return;
+                }
+                if (count > 0)
+                    runs.add(new Run(this, offset, count));
+                offset += (long) count * RECORD_SIZE;
+            }
+            if (offset < length)
+                logger.warning(file.getPath() + ": Truncated run header.");
+        }
+    }
+
+    /**
+     * A sorted run in a trace file being read, ordered by the respond time
+     * of its current record.
+     */
+    private static class Run implements Comparable<Run> {
+        private static final int BUFFER_RECORDS = 256;
+
+        Source source;
+        long offset;
+        int remaining;
+        byte[] buffer = new byte[0];
+        DataInputStream data;
+        int buffered = 0;
+        Record current;
+
+        Run(Source source, long offset, int count) {
+            this.source = source;
+            this.offset = offset;
+            remaining = count;
+        }
+
+        boolean advance() throws IOException {
+            if (buffered == 0) {
+                if (remaining == 0) {
+                    current = null;
+                    return false;
+                }
+                buffered = Math.min(remaining, BUFFER_RECORDS);
+                if (buffer.length < buffered * RECORD_SIZE)
+                    buffer = new byte[BUFFER_RECORDS * RECORD_SIZE];
+                source.in.seek(offset);
+                source.in.readFully(buffer, 0, buffered * RECORD_SIZE);
+                data = new DataInputStream(new ByteArrayInputStream(buffer));
+                offset += buffered * RECORD_SIZE;
+                remaining -= buffered;
+            }
+            --buffered;
+            Record r = new Record();
+            r.threadId = data.readInt();
+            r.opId = data.readShort() & 0xffff;
+            r.success = (data.readShort() & 1) != 0;
+            r.intendedInvokeTime = data.readLong();
+            r.invokeTime = data.readLong();
+            r.respondTime = data.readLong();
+            r.pauseTime = data.readLong();
+            r.driver = source.driver;
+            r.agent = source.agent;
+            if (r.opId < source.operations.length)
+                r.operation = source.operations[r.opId];
+            current = r;
+            return true;
+        }
+
+        public int compareTo(Run o) {
+            long a = current.respondTime;
+            long b = o.current.respondTime;
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+    }
+
+    /**
+     * Opens all transaction traces in a run output directory.
+     * @param runDir The run output directory
+     * @throws IOException If a trace file cannot be read
+     */
+    public TxTraceReader(File runDir) throws IOException {
+        this(runDir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("txtrace.") && name.endsWith(".bin");
+            }
+        }));
+    }
+
+    /**
+     * Opens the given transaction trace files.
+     * @param files The trace files
+     * @throws IOException If a trace file cannot be read
+     */
+    public TxTraceReader(File[] files) throws IOException {
+        if (files == null)
+            files = new File[0];
+        sources = new Source[files.length];
+        try {
+            List<Run> runs = new ArrayList<Run>();
+            for (int i = 0; i < files.length; i++) {
+                sources[i] = new Source(files[i]);
+                sources[i].scanRuns(runs);
+            }
+            for (Run run : runs)
+                if (run.advance())
+                    queue.add(run);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Obtains the benchmark start time.
+     * @return The start time in ms since the epoch, or -1 if no trace
+     */
+    public long getStartTime() {
+        if (sources.length == 0 || sources[0] == null)
+            return -1l;
+        return sources[0].startTime;
+    }
+
+    /**
+     * Reads the next record in respond time order across all traces.
+     * @return The next record, or null if all traces are read
+     * @throws IOException If there is an error reading a trace
+     */
+    public Record next() throws IOException {
+        Run run = queue.poll();
+        if (run == null)
+            return null;
+        Record r = run.current;
+        if (run.advance())
+            queue.add(run);
+        return r;
+    }
+
+    /**
+     * Closes all trace files.
+     */
+    public void close() {
+        for (Source source : sources) {
+            if (source == null)
+                continue;
+            try {
+                source.in.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Error closing " +
+                        source.file.getPath(), e);
+            }
+        }
+        queue.clear();
+    }
+
+    /**
+     * Prints the merged transaction traces of a run as tab separated text.
+     * @param args The run output directory, or the trace files
+     * @throws IOException If there is an error reading a trace
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TxTraceReader <rundir> | " +
+                    "<tracefile> ...");
+            System.exit(1);
+        }
+        TxTraceReader reader;
+        File first = new File(args[0]);
+        if (args.length == 1 && first.isDirectory()) {
+            reader = new TxTraceReader(first);
+        } else {
+            File[] files = new File[args.length];
+            for (int i = 0; i < args.length; i++)
+                files[i] = new File(args[i]);
+            Arrays.sort(files);
+            reader = new TxTraceReader(files);
+        }
+        try {
+            StringBuilder b = new StringBuilder();
+            System.out.println("driver\tagent\tthread\toperation\tsuccess\t" +
+                    "intended\tinvoke\trespond\tpause\tresponse");
+            Record r;
+            while ((r = reader.next()) != null) {
+                b.setLength(0);
+                b.append(r.driver).append('\t').append(r.agent).append('\t');
+                b.append(r.threadId).append('\t').append(r.operation);
+                b.append('\t').append(r.success).append('\t');
+                b.append(r.intendedInvokeTime).append('\t');
+                b.append(r.invokeTime).append('\t');
+                b.append(r.respondTime).append('\t');
+                b.append(r.pauseTime).append('\t');
+                b.append(r.getResponseTime());
+                System.out.println(b);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -21,6 +21,7 @@
  */
 package com.sun.faban.harness.webclient;
 
+import com.sun.faban.common.ResultStore;
 import com.sun.faban.harness.common.Config;
 
 import javax.servlet.http.HttpServlet;
@@ -102,6 +103,23 @@ public class ContentReader extends HttpServlet {
 
         // Need to check that this file exists and is not a directory.
         File f = new File(resource);
+
+        // Runs with a binary result store may not have the detail text.
+        // We generate it from the store instead.
+        if (!f.exists() && "detail.xan".equals(f.getName())) {
+            File storeFile = new File(f.getParentFile(),
+                                      ResultStore.FILE_NAME);
+            if (storeFile.isFile()) {
+                StringBuilder b = new StringBuilder(8192);
+                ResultStore.read(storeFile).printDetail(b);
+                response.setContentType("text/plain");
+                out.print(b.toString());
+                out.flush();
+                out.close();
+                return;
+            }
+        }
+
         if (!f.exists()) {
             String msg = "Resource " + resource + " not found.";
             out.println("Resource " + resource + " not found.");
@@ -4,6 +4,8 @@
  */
 package com.sun.faban.harness.webclient;
 
+import com.sun.faban.common.ResultStore;
+
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -13,13 +15,13 @@ import java.util.ArrayList;
 
 public class DetailReport {
     ArrayList<Double> timeList = new ArrayList<Double>();
-    ArrayList<Double> opThruList[];  // each array element is for one operation
+    ArrayList<ArrayList<Double>> opThruList;  // one list per operation
     double opAvgThruput[];  // avg. thruput for whole run for each operation
     String operations[];    // names of operations
     ArrayList<Double> thruput = new ArrayList<Double>();
 
-    ArrayList<Double> respList[] = null;   // each array element is RT for one operation
-    ArrayList<Integer> distRespList[] = null; // for response time distribution
+    ArrayList<ArrayList<Double>> respList = null; // RT, one per operation
+    ArrayList<ArrayList<Integer>> distRespList = null; // RT distribution
     ArrayList<Double> distTimeList = new ArrayList<Double>(); // time axis for RT distribution
 
     String detFile;
@@ -31,6 +33,46 @@ public class DetailReport {
         processResponseTimes();
     }
 
+    /*
+    * Fills the report from the binary result store of a driver instead
+    * of parsing detail.xan.
+    */
+    public DetailReport(ResultStore.Driver driver) {
+        operations = driver.operations;
+        numOps = operations.length;
+        opThruList = new ArrayList<ArrayList<Double>>(numOps);
+        opAvgThruput = new double[numOps];
+        respList = new ArrayList<ArrayList<Double>>(numOps);
+        distRespList = new ArrayList<ArrayList<Integer>>(numOps);
+        int intervals = numOps == 0 ? 0 : driver.throughput[0].length;
+        for (int i = 0; i < intervals; i++) {
+            timeList.add(driver.graphInterval * i);
+            thruput.add(0d);
+        }
+        int buckets = numOps == 0 ? 0 : driver.responseHistogram[0].length;
+        for (int i = 0; i < buckets; i++)
+            distTimeList.add(driver.responseBucket * i);
+        for (int j = 0; j < numOps; j++) {
+            ArrayList<Double> opThru = new ArrayList<Double>(intervals);
+            ArrayList<Double> resp = new ArrayList<Double>(intervals);
+            ArrayList<Integer> distResp = new ArrayList<Integer>(buckets);
+            for (int i = 0; i < intervals; i++) {
+                double dop = driver.throughput[j][i];
+                opThru.add(dop);
+                opAvgThruput[j] += dop;
+                thruput.set(i, thruput.get(i) + dop);
+                resp.add(driver.response[j][i]);
+            }
+            if (intervals > 0)
+                opAvgThruput[j] /= intervals;
+            for (int i = 0; i < buckets; i++)
+                distResp.add(driver.responseHistogram[j][i]);
+            opThruList.add(opThru);
+            respList.add(resp);
+            distRespList.add(distResp);
+        }
+    }
+
     /*
     * Parse detail.xan for throughput info
     * Get the total thruput per interval by summing across all operations
@@ -61,10 +103,10 @@ public class DetailReport {
         bi.readLine();  //Skip dashes line
         int t = 0;
         // initialize array to hold individual operation thruputs
-        opThruList = new ArrayList[operations.length];
+        opThruList = new ArrayList<ArrayList<Double>>(operations.length);
         opAvgThruput = new double[operations.length];
         for (int j = 0; j < operations.length; j++) {
-            opThruList[j] = new ArrayList<Double>();
+            opThruList.add(new ArrayList<Double>());
         }
 
         while ((line = bi.readLine()) != null && line.trim().length() > 0) {
@@ -80,7 +122,7 @@ public class DetailReport {
             for (int j = 0; j < token.length - 1; j++) {
                 double dop = Double.parseDouble(token[j + 1]);
                 opAvgThruput[j] += dop;
-                opThruList[j].add(dop);
+                opThruList.get(j).add(dop);
                 d += dop;  // to compute total thruput across all ops
             }
             thruput.add(d);
@@ -111,10 +153,10 @@ public class DetailReport {
                 String token[] = line.split("\\s+");
                 operations = new String[token.length - 2];  //ignore 'Time (s)'
 
-                respList = new ArrayList[operations.length];
+                respList = new ArrayList<ArrayList<Double>>(operations.length);
                 for (int i = 2; i < token.length; i++) {
                     operations[i - 2] = token[i];
-                    respList[i - 2] = new ArrayList<Double>();
+                    respList.add(new ArrayList<Double>());
                 }
                 bi.readLine();  // Skip dashes after header line
                 break;
@@ -128,12 +170,14 @@ public class DetailReport {
 
             for (int j = 0; j < token.length - 1; j++) {
                 double dop = Double.parseDouble(token[j + 1]);
-                respList[j].add(dop);
+                respList.get(j).add(dop);
             }
         }
 
         // Below the response time over time data, is the frequency distribution of response times
-        distRespList = new ArrayList[operations.length];
+        distRespList = new ArrayList<ArrayList<Integer>>(operations.length);
+        for (int j = 0; j < operations.length; j++)
+            distRespList.add(null);
         while ((line = bi.readLine()) != null) {
             if (line.matches("Section:.* Frequency Distribution of Response Times.*")) {
                 bi.readLine();  // skip Display Line
@@ -153,9 +197,9 @@ public class DetailReport {
 
             for (int j = 0; j < token.length - 1; j++) {
                 if (first)
-                    distRespList[j] = new ArrayList<Integer>();
+                    distRespList.set(j, new ArrayList<Integer>());
                 Integer val = Integer.parseInt(token[j + 1]);
-                distRespList[j].add(val);
+                distRespList.get(j).add(val);
             }
             if (first)
                 first = false;
@@ -200,10 +244,10 @@ public class DetailReport {
     * @return ArrayList<Double> - all throughput for this operation
     */
     public ArrayList<Double> getOpThruput(int opIdx) {
-        if (opThruList == null || opThruList.length < opIdx)
+        if (opThruList == null || opThruList.size() < opIdx)
             return null;
         else
-            return (opThruList[opIdx]);
+            return (opThruList.get(opIdx));
     }
 
     /*
@@ -212,10 +256,10 @@ public class DetailReport {
     * @return ArrayList<Double> - all RT for this operation
     */
     public ArrayList<Double> getOpRT(int opIdx) throws IOException {
-        if (respList == null || respList.length < opIdx)
+        if (respList == null || respList.size() < opIdx)
             return null;
         else
-            return (respList[opIdx]);
+            return (respList.get(opIdx));
     }
 
    /*
@@ -224,10 +268,10 @@ public class DetailReport {
     * @return ArrayList<Double> - RT distribution for this operation
     */
     public ArrayList<Integer> getOpRTDist(int opIdx) throws IOException {
-        if (distRespList == null || distRespList.length < opIdx)
+        if (distRespList == null || distRespList.size() < opIdx)
             return null;
         else
-            return (distRespList[opIdx]);
+            return (distRespList.get(opIdx));
     }
 
     /*
@@ -23,6 +23,7 @@
  */
 package com.sun.faban.harness.webclient;
 
+import com.sun.faban.common.ResultStore;
 import com.sun.faban.common.TextTable;
 import com.sun.faban.harness.common.Config;
 import com.sun.faban.harness.common.RunId;
@@ -240,16 +241,26 @@ public class RunAnalyzer {
 
         p = openOutFile(outFile, "Compare");
         for (int i = 0; i < runDirs.length; i++) {
-            String sumFile = getSumFile(runDirs[i]);
-            String detFile = getDetFile(runDirs[i]);
+            String sumFile = null;
+            DetailReport detail;
+
+            // Prefer the binary result store, if the run has one.
+            ResultStore store = getResultStore(runDirs[i]);
+            if (store != null) {
+                getRunInfo(runDirs[i], store, infoTable, i);
+                detail = new DetailReport(store.drivers[0]);
+            } else {
+                sumFile = getSumFile(runDirs[i]);
+                String detFile = getDetFile(runDirs[i]);
 
-            reader = new XMLReader(sumFile, false, false);
+                reader = new XMLReader(sumFile, false, false);
 
-            // parse Run Info section of summary file
-            getRunInfo(runDirs[i], reader, infoTable, i);
+                // parse Run Info section of summary file
+                getRunInfo(runDirs[i], reader, infoTable, i);
 
-            // parse throughput section of detail.xan
-            DetailReport detail = new DetailReport(detFile);
+                // parse throughput section of detail.xan
+                detail = new DetailReport(detFile);
+            }
             thruList[i] = detail.getThruput();
             ArrayList<Double> thisTimeVals = detail.getTimes();
 
@@ -264,7 +275,10 @@ public class RunAnalyzer {
             }
 
             // read the metric from the first file
-            if (i == 0) {
+            if (i == 0 && store != null) {
+                respMetric = store.drivers[0].responseUnit;
+                thruMetric = store.metricUnit;
+            } else if (i == 0) {
                 respMetric = getRespUnit(reader);
                 thruMetric = getThruUnit(reader);
             }
@@ -272,10 +286,16 @@ public class RunAnalyzer {
             // Now get the response times
             rtAvgList = new ArrayList<String>();
             rtPercentNames = new ArrayList<String>();
-            try {
-                getResponseTimes(reader, opNames, rtAvgList, rtPercentNames);
-            } catch (IOException ie) {
-                throw new IOException(ie.getMessage() + " : " + sumFile);
+            if (store != null) {
+                getResponseTimes(store.drivers[0], opNames, rtAvgList,
+                                 rtPercentNames);
+            } else {
+                try {
+                    getResponseTimes(reader, opNames, rtAvgList,
+                                     rtPercentNames);
+                } catch (IOException ie) {
+                    throw new IOException(ie.getMessage() + " : " + sumFile);
+                }
             }
 
             // Get cpu util.
@@ -493,6 +513,25 @@ public class RunAnalyzer {
         return (file);
     }
 
+    /*
+    * Reads the binary result store of a run.
+    * @param String runDir
+    * @return ResultStore - the store, or null if the run has none
+    */
+    private ResultStore getResultStore(String runDir) {
+        File f = new File(Config.OUT_DIR + runDir, ResultStore.FILE_NAME);
+        if (!f.exists())
+            return null;
+        try {
+            ResultStore store = ResultStore.read(f);
+            if (store.drivers.length > 0)
+                return store;
+        } catch (IOException e) {
+            logger.warning("Cannot read " + f + ": " + e.getMessage());
+        }
+        return null;
+    }
+
     private File[] getVmstatXanFile(String runDir) throws IOException {
         ArrayList<String> vmFileNames = new ArrayList<String>();
         File dirf = new File(runDir);
@@ -605,6 +644,30 @@ public class RunAnalyzer {
         first = false;
     }
 
+    /*
+    * Same as above, from the result store of a run.
+    */
+    @SuppressWarnings("unchecked")
+    void getResponseTimes(ResultStore.Driver driver, List<String> opNames,
+                          List<String> rtAvgList,
+                          List<String> rtPercentNames) {
+        int numPercent = driver.percentileNames.length;
+        rtPercentList = (ArrayList<String>[]) new ArrayList<?>[numPercent];
+        for (int l = 0; l < numPercent; l++) {
+            rtPercentNames.add(driver.percentileNames[l]);
+            rtPercentList[l] = new ArrayList<String>();
+        }
+        for (int j = 0; j < driver.operations.length; j++) {
+            if (first)
+                opNames.add(driver.operations[j]);
+            for (int l = 0; l < numPercent; l++)
+                rtPercentList[l].add(String.format("%5.3f",
+                                     driver.percentiles[l][j]));
+            rtAvgList.add(String.format("%5.3f", driver.avgResponse[j]));
+        }
+        first = false;
+    }
+
     /*
     * parse Run Info from summary file
     * This method parses global run information and sets the TextTable elements appropriately
@@ -629,6 +692,19 @@ public class RunAnalyzer {
         t.setField(idx, 3, description);
     }
 
+    /*
+    * Same as above, from the result store of a run.
+    */
+    private void getRunInfo(String runDir, ResultStore store, TextTable t,
+                            int idx) throws IOException {
+        String runFile = Config.OUT_DIR + runDir + File.separator + "run.xml";
+        XMLReader r = new XMLReader(runFile, true, false);
+        t.setField(idx, 0, store.runId);
+        t.setField(idx, 1, String.format("%.03f", store.metric));
+        t.setField(idx, 2, String.valueOf(store.passed));
+        t.setField(idx, 3, r.getValue("fh:description"));
+    }
+
     /*
     * @method getCpuUtil
     * This method reads the vmstat.xan.* file to get the total cpu% for
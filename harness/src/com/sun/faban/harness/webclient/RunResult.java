@@ -23,6 +23,7 @@
  */
 package com.sun.faban.harness.webclient;
 
+import com.sun.faban.common.ResultStore;
 import com.sun.faban.common.SortDirection;
 import com.sun.faban.common.SortableTableModel;
 import com.sun.faban.harness.ParamRepository;
@@ -207,28 +208,32 @@ public class RunResult {
                     this.runId + "&result=" +
                     resultFilePath;
 
-            //Use the XMLReader and locate the <passed> elements
-            XMLReader reader = new XMLReader(resultFile.
-                    getAbsolutePath());
-
-            // Obtain the metric before we break pass/fail.
-            metric.text = reader.getValue("benchSummary/metric");
-            if (metric.text != null && metric.text.length() > 0)
-                metric.value = new Double(metric.text);
-            try {
-                dateTime = parseFormat.parse(
-                        reader.getValue("benchSummary/endTime"));
-            } catch (ParseException e) {
-                // Do nothing. result.dateTime will be null and
-                // later we'll use the param file's mod dateTime
-                // for this field instead.
-            }
+            // The binary result store, if any, is cheaper to read.
+            File storeFile = new File(resultDir, ResultStore.FILE_NAME);
+            if (!readResultStore(storeFile)) {
+                //Use the XMLReader and locate the <passed> elements
+                XMLReader reader = new XMLReader(resultFile.
+                        getAbsolutePath());
+
+                // Obtain the metric before we break pass/fail.
+                metric.text = reader.getValue("benchSummary/metric");
+                if (metric.text != null && metric.text.length() > 0)
+                    metric.value = new Double(metric.text);
+                try {
+                    dateTime = parseFormat.parse(
+                            reader.getValue("benchSummary/endTime"));
+                } catch (ParseException e) {
+                    // Do nothing. result.dateTime will be null and
+                    // later we'll use the param file's mod dateTime
+                    // for this field instead.
+                }
 
-            List<String> passedList = reader.getValues("passed");
-            for(String passed : passedList) {
-                if(passed.toUpperCase().indexOf("FALSE") != -1) {
-                    result = "FAILED";
-                    break;
+                List<String> passedList = reader.getValues("passed");
+                for(String passed : passedList) {
+                    if(passed.toUpperCase().indexOf("FALSE") != -1) {
+                        result = "FAILED";
+                        break;
+                    }
                 }
             }
         }
@@ -306,6 +311,31 @@ public class RunResult {
         }
     }
 
+    /**
+     * Reads the metric, end time, and pass/fail from the binary result
+     * store written by the Faban driver.
+     * @param storeFile The result store file
+     * @return Whether the store was read
+     */
+    private boolean readResultStore(File storeFile) {
+        if (!storeFile.isFile())
+            return false;
+        ResultStore store;
+        try {
+            store = ResultStore.read(storeFile);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, runId.toString() +
+                    ": Error reading result store.", e);
+            return false;
+        }
+        metric.text = String.format("%.03f", store.metric);
+        metric.value = store.metric;
+        dateTime = new Date(store.endTime);
+        if (!store.passed)
+            result = "FAILED";
+        return true;
+    }
+
     /**
      * Obtains the current status of a run.
      * @param runId The id of the run in question
@@ -0,0 +1,218 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.webclient;
+
+import com.sun.faban.common.RegistryLocator;
+import com.sun.faban.common.StatsRing;
+import com.sun.faban.common.StatsService;
+import com.sun.faban.harness.common.Config;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.rmi.RemoteException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The RuntimeStatsServlet serves the runtime stats of the run in progress
+ * from the master's StatsService. A GET on the servlet path returns the
+ * samples as JSON. A GET on the servlet path followed by /stream returns
+ * the samples as server-sent events and keeps sending new samples until
+ * the run ends. The parameter after, or the Last-Event-ID header of a
+ * reconnecting event stream, gives the last sequence number already seen.
+ * Each event stream holds a request thread for the whole run, so the
+ * number of concurrent streams is limited by the init parameter
+ * maxStreams, 8 by default. Streams beyond the limit are refused with
+ * status 503.
+ */
+public class RuntimeStatsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Logger logger = Logger.getLogger(
+            RuntimeStatsServlet.class.getName());
+
+    /** The interval the event stream checks for new samples, in ms. */
+    static final int POLL_INTERVAL = 1000;
+
+    /** The default limit of concurrent event streams. */
+    static final int DEFAULT_MAX_STREAMS = 8;
+
+    private int maxStreams = DEFAULT_MAX_STREAMS;
+
+    /** The number of event streams being served. */
+    private final AtomicInteger streams = new AtomicInteger();
+
+    /**
+     * Reads the limit of concurrent event streams.
+     * @param config The servlet configuration
+     * @throws ServletException If maxStreams is not a positive integer
+     */
+    @Override public void init(ServletConfig config)
+            throws ServletException {
+        super.init(config);
+        String v = config.getInitParameter("maxStreams");
+        if (v != null) {
+            try {
+                maxStreams = Integer.parseInt(v.trim());
+            } catch (NumberFormatException e) {
+                maxStreams = 0;
+            }
+            if (maxStreams <= 0)
+                throw new ServletException("maxStreams must be a positive " +
+                                           "integer, not " + v + '.');
+        }
+    }
+
+    /**
+     * Serves the runtime stats as JSON or as an event stream.
+     * @param request The servlet request
+     * @param response The servlet response
+     * @throws ServletException If there is an error in the servlet
+     * @throws IOException If the servlet has an I/O error
+     */
+    @Override public void doGet(HttpServletRequest request,
+                                HttpServletResponse response)
+            throws ServletException, IOException {
+        long after = -1l;
+        String v = request.getHeader("Last-Event-ID");
+        if (v == null)
+            v = request.getParameter("after");
+        if (v != null)
+            try {
+                after = Long.parseLong(v.trim());
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                                   "Invalid sequence number " + v);
+                return;
+            }
+
+        StatsService service = getService();
+        if ("/stream".equals(request.getPathInfo())) {
+            if (streams.incrementAndGet() > maxStreams) {
+                streams.decrementAndGet();
+                response.sendError(
+                        HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "Too many runtime stats streams, at most " +
+                        maxStreams + '.');
+                return;
+            }
+            try {
+                stream(service, after, response);
+            } finally {
+                streams.decrementAndGet();
+            }
+            return;
+        }
+
+        StatsRing.Sample[] samples = null;
+        if (service != null)
+            try {
+                samples = service.getSamples(after);
+            } catch (RemoteException e) {
+                logger.log(Level.FINER, e.getMessage(), e);
+            }
+        if (samples == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                               "No run with runtime stats in progress.");
+            return;
+        }
+        StringBuilder b = new StringBuilder("{\"samples\":[");
+        for (int i = 0; i < samples.length; i++) {
+            if (i > 0)
+                b.append(',');
+            samples[i].toJSON(b);
+        }
+        b.append("]}");
+        response.setContentType("application/json; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = response.getWriter();
+        out.print(b);
+        out.flush();
+    }
+
+    /**
+     * Sends the samples as server-sent events until the run ends or the
+     * client goes away. Each sample is an event named sample with the
+     * sequence number as event id. An event named end is sent at the end.
+     * @param service The stats service, or null if there is no run
+     * @param after The last sequence number already seen
+     * @param response The servlet response
+     * @throws IOException If the servlet has an I/O error
+     */
+    private void stream(StatsService service, long after,
+                        HttpServletResponse response) throws IOException {
+        response.setContentType("text/event-stream; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = response.getWriter();
+        StringBuilder b = new StringBuilder();
+        out.print("retry: 5000\n\n");
+        while (service != null) {
+            StatsRing.Sample[] samples;
+            try {
+                samples = service.getSamples(after);
+            } catch (RemoteException e) { // The run is over.
+                break;
+            }
+            for (StatsRing.Sample sample : samples) {
+                b.setLength(0);
+                b.append("id: ").append(sample.sequence);
+                b.append("\nevent: sample\ndata: ");
+                sample.toJSON(b);
+                b.append("\n\n");
+                out.print(b);
+                after = sample.sequence;
+            }
+            if (samples.length == 0)
+                out.print(": waiting\n\n"); // Detects a closed client.
+            out.flush();
+            if (out.checkError())
+                return;
+            try {
+                Thread.sleep(POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        out.print("event: end\ndata: {}\n\n");
+        out.flush();
+    }
+
+    private StatsService getService() {
+        try {
+            return (StatsService) RegistryLocator.getRegistry(
+                    Config.RMI_PORT).getService(StatsService.NAME);
+        } catch (Exception e) {
+            logger.log(Level.FINER, "Cannot obtain runtime stats service.",
+                       e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/* The contents of this file are subject to the terms
+ * of the Common Development and Distribution License
+ * (the License). You may not use this file except in
+ * compliance with the License.
+ *
+ * You can obtain a copy of the License at
+ * http://www.sun.com/cddl/cddl.html or
+ * install_dir/legal/LICENSE
+ * See the License for the specific language governing
+ * permission and limitations under the License.
+ *
+ * When distributing Covered Code, include this CDDL
+ * Header Notice in each file and include the License file
+ * at install_dir/legal/LICENSE.
+ * If applicable, add the following below the CDDL Header,
+ * with the fields enclosed by brackets [] replaced by
+ * your own identifying information:
+ * "Portions Copyrighted [year] [name of copyright owner]"
+ *
+ * $Id$
+ *
+ * Copyright 2005-2009 Sun Microsystems Inc. All Rights Reserved
+ */
+package com.sun.faban.harness.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the merging of the sorted runs in the transaction traces.
+ */
+public class TxTraceReaderTest {
+
+    private static final String[] OPS = { "Browse", "Search", "Buy" };
+
+    private File dir;
+
+    /**
+     * Creates a scratch directory for the traces.
+     * @throws IOException If the directory cannot be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("txtrace", ".dir");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    /**
+     * Removes the scratch directory.
+     */
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        dir.delete();
+    }
+
+    /**
+     * Test that interleaved runs across several files are read back in
+     * respond time order and none are lost.
+     * @throws IOException If there is an error reading the traces
+     */
+    @Test
+    public void testMergeRuns() throws IOException {
+        Random r = new Random(7l);
+        List<Long> expected = new ArrayList<Long>();
+        for (int agent = 0; agent < 3; agent++) {
+            DataOutputStream out = open(agent);
+            // The runs overlap in time as the writer sorts each batch
+            // on its own.
+            for (int run = 0; run < 5; run++) {
+                long[] times = new long[1 + r.nextInt(600)];
+                for (int i = 0; i < times.length; i++) {
+                    times[i] = run * 1000l + r.nextInt(5000);
+                    expected.add(times[i]);
+                }
+                writeRun(out, agent, times);
+            }
+            out.close();
+        }
+
+        TxTraceReader reader = new TxTraceReader(dir);
+        try {
+            assertEquals(1234l, reader.getStartTime());
+            List<Long> actual = new ArrayList<Long>();
+            TxTraceReader.Record rec;
+            while ((rec = reader.next()) != null) {
+                assertEquals("agent" + rec.threadId, rec.agent);
+                assertEquals(OPS[rec.opId], rec.operation);
+                assertEquals(10l, rec.getResponseTime());
+                actual.add(rec.respondTime);
+            }
+            Long[] sorted = expected.toArray(new Long[expected.size()]);
+            Arrays.sort(sorted);
+            assertEquals(Arrays.asList(sorted), actual);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Test that a trace truncated in the middle of a run yields the
+     * complete records only.
+     * @throws IOException If there is an error reading the traces
+     */
+    @Test
+    public void testTruncatedRun() throws IOException {
+        DataOutputStream out = open(0);
+        writeRun(out, 0, new long[] { 5l, 1l, 3l });
+        writeRun(out, 0, new long[] { 2l, 6l, 4l });
+        out.close();
+        RandomAccessFile file = new RandomAccessFile(
+                new File(dir, "txtrace.test.agent0.bin"), "rw");
+        file.setLength(file.length() - 50l);
+        file.close();
+
+        TxTraceReader reader = new TxTraceReader(dir);
+        try {
+            List<Long> actual = new ArrayList<Long>();
+            TxTraceReader.Record rec;
+            while ((rec = reader.next()) != null)
+                actual.add(rec.respondTime);
+            assertEquals(Arrays.asList(1l, 2l, 3l, 5l), actual);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private DataOutputStream open(int agent) throws IOException {
+        File file = new File(dir, "txtrace.test.agent" + agent + ".bin");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(0x46425458);
+        out.writeShort(2);
+        out.writeShort(40);
+        out.writeLong(1234l);
+        out.writeUTF("test");
+        out.writeUTF("agent" + agent);
+        out.writeShort(OPS.length);
+        for (String op : OPS)
+            out.writeUTF(op);
+        return out;
+    }
+
+    private static void writeRun(DataOutputStream out, int agent,
+                                 long[] times) throws IOException {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        out.writeInt(sorted.length);
+        for (int i = 0; i < sorted.length; i++) {
+            out.writeInt(agent);
+            out.writeShort(i % OPS.length);
+            out.writeShort(1);
+            out.writeLong(sorted[i] - 20l);
+            out.writeLong(sorted[i] - 10l);
+            out.writeLong(sorted[i]);
+            out.writeLong(0l);
+        }
+    }
+}
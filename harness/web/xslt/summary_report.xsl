@@ -252,6 +252,112 @@
                         </tbody>
                     </table><br></br>
                     </xsl:if>
+                    <xsl:if test="correctedResponseTimes">
+                    <h3>Response Times from Intended Start
+                        <xsl:if test="correctedResponseTimes/@unit">
+                            (<xsl:value-of select="correctedResponseTimes/@unit"/>)
+                        </xsl:if>
+                    </h3>
+                    <table border="0" cellpadding="4" cellspacing="3"
+                        style="padding: 2px; border: 2px solid #cccccc; text-align: center; width: 100%;">
+                        <tbody>
+                            <tr style="vertical-align: top;">
+                                <th class="header" style="text-align: left;">Type</th>
+                                <th class="header">Avg</th>
+                                <th class="header">Max</th>
+                                <xsl:for-each select="correctedResponseTimes/operation[1]/percentile">
+                                    <th class="header"><xsl:value-of select="@nth"/><xsl:value-of select="@suffix"/>%</th>
+                                </xsl:for-each>
+                            </tr>
+                            <xsl:for-each select="correctedResponseTimes/operation">
+                                <tr>
+                                    <xsl:choose>
+                                        <xsl:when test="(position() mod 2 = 1)">
+                                            <xsl:attribute name="class">even</xsl:attribute>
+                                        </xsl:when>
+                                        <xsl:otherwise>
+                                            <xsl:attribute name="class">odd</xsl:attribute>
+                                        </xsl:otherwise>
+                                    </xsl:choose>
+                                    <td class="tablecell" style="text-align: left;"><xsl:value-of select="@name"/></td>
+                                    <td class="tablecell"><xsl:value-of select="avg"/></td>
+                                    <td class="tablecell"><xsl:value-of select="max"/></td>
+                                    <xsl:for-each select="percentile">
+                                        <td class="tablecell"><xsl:value-of select="."/></td>
+                                    </xsl:for-each>
+                                </tr>
+                            </xsl:for-each>
+                        </tbody>
+                    </table><br></br>
+                    </xsl:if>
+                    <xsl:if test="wireTimes">
+                    <h3>Response Time Breakdown
+                        <xsl:if test="wireTimes/@unit">
+                            (<xsl:value-of select="wireTimes/@unit"/>)
+                        </xsl:if>
+                    </h3>
+                    <table border="0" cellpadding="4" cellspacing="3"
+                        style="padding: 2px; border: 2px solid #cccccc; text-align: center; width: 100%;">
+                        <tbody>
+                            <tr style="vertical-align: top;">
+                                <th class="header" style="text-align: left;">Type</th>
+                                <xsl:for-each select="wireTimes/operation[1]/phase">
+                                    <th class="header"><xsl:value-of select="@name"/> Avg</th>
+                                    <th class="header"><xsl:value-of select="@name"/> 90th%</th>
+                                </xsl:for-each>
+                            </tr>
+                            <xsl:for-each select="wireTimes/operation">
+                                <tr>
+                                    <xsl:choose>
+                                        <xsl:when test="(position() mod 2 = 1)">
+                                            <xsl:attribute name="class">even</xsl:attribute>
+                                        </xsl:when>
+                                        <xsl:otherwise>
+                                            <xsl:attribute name="class">odd</xsl:attribute>
+                                        </xsl:otherwise>
+                                    </xsl:choose>
+                                    <td class="tablecell" style="text-align: left;"><xsl:value-of select="@name"/></td>
+                                    <xsl:for-each select="phase">
+                                        <td class="tablecell"><xsl:value-of select="avg"/></td>
+                                        <td class="tablecell"><xsl:value-of select="percentile"/></td>
+                                    </xsl:for-each>
+                                </tr>
+                            </xsl:for-each>
+                        </tbody>
+                    </table><br></br>
+                    </xsl:if>
+                    <xsl:if test="arrivals">
+                    <h3>Open-Loop Arrivals</h3>
+                    <table border="0" cellpadding="2" cellspacing="2">
+                        <tbody>
+                            <tr>
+                                <td>Offered rate (<xsl:value-of select="arrivals/offeredRate/@unit"/>)</td>
+                                <td>=</td>
+                                <td><xsl:value-of select="arrivals/offeredRate"/></td>
+                            </tr>
+                            <tr>
+                                <td>Offered arrivals</td>
+                                <td>=</td>
+                                <td><xsl:value-of select="arrivals/offered"/></td>
+                            </tr>
+                            <tr>
+                                <td>Late arrivals</td>
+                                <td>=</td>
+                                <td><xsl:value-of select="arrivals/late"/></td>
+                            </tr>
+                            <tr>
+                                <td>Dropped arrivals</td>
+                                <td>=</td>
+                                <td><xsl:value-of select="arrivals/dropped"/></td>
+                            </tr>
+                            <tr>
+                                <td>Avg. lateness (<xsl:value-of select="arrivals/avgLateness/@unit"/>)</td>
+                                <td>=</td>
+                                <td><xsl:value-of select="arrivals/avgLateness"/></td>
+                            </tr>
+                        </tbody>
+                    </table><br></br>
+                    </xsl:if>
                     <xsl:if test="delayTimes">
                     <h3>Cycle/Think Times (seconds)</h3>
                     <table border="0" cellpadding="4" cellspacing="3"